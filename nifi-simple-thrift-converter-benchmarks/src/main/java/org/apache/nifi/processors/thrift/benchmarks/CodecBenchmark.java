@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.processors.thrift.AbstractThriftProcessor;
+import org.apache.nifi.processors.thrift.FlowFileReply;
+import org.apache.nifi.processors.thrift.FlowFileRequest;
+import org.apache.nifi.processors.thrift.RecordSet;
+import org.apache.nifi.processors.thrift.ResponseCode;
+import org.apache.nifi.processors.thrift.ThriftFlowFile;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TProtocolFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialises and deserialises the generated FlowFileRequest, FlowFileReply and
+ * RecordSet with the protocol factories of AbstractThriftProcessor.getFactory,
+ * no processor or session involved.
+ *
+ * Two message shapes: AttributeHeavy, many short attributes and a small content,
+ * and LargeBinary, a couple of attributes and a 1 MB content.
+ *
+ * Direct content: TBinaryProtocol and TJSONProtocol (0.16) cannot write a direct
+ * ByteBuffer, it has no array, so for them the copy to the heap a caller has to
+ * make is part of the measurement. TCompactProtocol writes it as it is.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CodecBenchmark {
+
+    static final String AttributeHeavy = "AttributeHeavy";
+    static final String LargeBinary = "LargeBinary";
+    static final int RecordSetSize = 16;
+
+    /**
+     * The messages of a given protocol and shape
+     */
+    @State(Scope.Thread)
+    public abstract static class MessageState {
+
+        @Param({ AbstractThriftProcessor.ProtocolJSON,
+                 AbstractThriftProcessor.ProtocolBinary,
+                 AbstractThriftProcessor.ProtocolCompact })
+        public String protocol;
+
+        @Param({ AttributeHeavy, LargeBinary })
+        public String shape;
+
+        TProtocolFactory factory;
+        byte[] content;
+        FlowFileRequest request;
+        FlowFileReply reply;
+        RecordSet recordSet;
+
+        void setupMessages() {
+            factory = AbstractThriftProcessor.getFactory(protocol);
+            final int attributeCount = AttributeHeavy.equals(shape) ? 64 : 2;
+            content = new byte[AttributeHeavy.equals(shape) ? 64 : 1024 * 1024];
+            new Random(42).nextBytes(content);
+            final Map<String, String> attributes = new HashMap<>();
+            for (int i = 0; i < attributeCount; i++) {
+                attributes.put("attribute_" + i, "value_" + i + "_0123456789abcdef");
+            }
+            request = new FlowFileRequest(63L, newFlowFile(attributes));
+            reply = new FlowFileReply(ResponseCode.SUCCESS, 63L, newFlowFile(attributes));
+            final List<ThriftFlowFile> flowFiles = new ArrayList<>(RecordSetSize);
+            for (int i = 0; i < RecordSetSize; i++) {
+                flowFiles.add(newFlowFile(attributes));
+            }
+            recordSet = new RecordSet(flowFiles);
+        }
+
+        private ThriftFlowFile newFlowFile(Map<String, String> attributes) {
+            ThriftFlowFile flowFile = new ThriftFlowFile();
+            flowFile.setAttributes(attributes);
+            // the field, the setter would copy
+            flowFile.content = ByteBuffer.wrap(content);
+            return flowFile;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SerializeState extends MessageState {
+
+        @Param({ "Heap", "Direct" })
+        public String contentBuffer;
+
+        TSerializer serializer;
+        ByteBuffer directContent;
+        boolean copyDirect;
+
+        @Setup
+        public void setup() throws TException {
+            setupMessages();
+            serializer = new TSerializer(factory);
+            if ("Direct".equals(contentBuffer)) {
+                directContent = ByteBuffer.allocateDirect(content.length);
+                directContent.put(content).flip();
+                copyDirect = !AbstractThriftProcessor.ProtocolCompact.equals(protocol);
+            }
+        }
+
+        /**
+         * Sets the content of the flowfile when it is to be direct
+         */
+        void prepare(ThriftFlowFile flowFile) {
+            if (directContent == null) {
+                return;
+            }
+            if (copyDirect) {
+                final ByteBuffer heap = ByteBuffer.allocate(directContent.remaining());
+                heap.put(directContent.duplicate()).flip();
+                flowFile.content = heap;
+            } else {
+                flowFile.content = directContent.duplicate();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class DeserializeState extends MessageState {
+
+        TDeserializer deserializer;
+        byte[] serializedRequest;
+        byte[] serializedReply;
+        byte[] serializedRecordSet;
+
+        @Setup
+        public void setup() throws TException {
+            setupMessages();
+            deserializer = new TDeserializer(factory);
+            final TSerializer serializer = new TSerializer(factory);
+            serializedRequest = serializer.serialize(request);
+            serializedReply = serializer.serialize(reply);
+            serializedRecordSet = serializer.serialize(recordSet);
+        }
+    }
+
+    @Benchmark
+    public byte[] serializeRequest(SerializeState state) throws TException {
+        state.prepare(state.request.flowFile);
+        return state.serializer.serialize(state.request);
+    }
+
+    @Benchmark
+    public byte[] serializeRequestFreshSerializer(SerializeState state) throws TException {
+        state.prepare(state.request.flowFile);
+        return new TSerializer(state.factory).serialize(state.request);
+    }
+
+    @Benchmark
+    public byte[] serializeReply(SerializeState state) throws TException {
+        state.prepare(state.reply.flowFile);
+        return state.serializer.serialize(state.reply);
+    }
+
+    @Benchmark
+    public byte[] serializeRecordSet(SerializeState state) throws TException {
+        for (ThriftFlowFile flowFile : state.recordSet.flowFiles) {
+            state.prepare(flowFile);
+        }
+        return state.serializer.serialize(state.recordSet);
+    }
+
+    @Benchmark
+    public FlowFileRequest deserializeRequest(DeserializeState state) throws TException {
+        FlowFileRequest request = new FlowFileRequest();
+        state.deserializer.deserialize(request, state.serializedRequest);
+        return request;
+    }
+
+    @Benchmark
+    public FlowFileRequest deserializeRequestFreshDeserializer(DeserializeState state) throws TException {
+        FlowFileRequest request = new FlowFileRequest();
+        new TDeserializer(state.factory).deserialize(request, state.serializedRequest);
+        return request;
+    }
+
+    @Benchmark
+    public FlowFileReply deserializeReply(DeserializeState state) throws TException {
+        FlowFileReply reply = new FlowFileReply();
+        state.deserializer.deserialize(reply, state.serializedReply);
+        return reply;
+    }
+
+    @Benchmark
+    public RecordSet deserializeRecordSet(DeserializeState state) throws TException {
+        RecordSet recordSet = new RecordSet();
+        state.deserializer.deserialize(recordSet, state.serializedRecordSet);
+        return recordSet;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift.benchmarks;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processors.thrift.AbstractThriftProcessor;
+import org.apache.nifi.processors.thrift.FlowFileRequest;
+import org.apache.nifi.processors.thrift.FromThriftProcessor;
+import org.apache.nifi.processors.thrift.PutThriftIDL;
+import org.apache.nifi.processors.thrift.ThriftFlowFile;
+import org.apache.nifi.processors.thrift.ToThriftProcessor;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.MockProcessSession;
+import org.apache.nifi.util.SharedSessionState;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+
+import org.apache.thrift.TSerializer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Drives the processors' onTrigger through nifi-mock sessions, one flowfile
+ * per invocation, so no NiFi instance or HTTP is measured.
+ *
+ * onTrigger is called directly with a fresh MockProcessSession, the TestRunner
+ * is only used to configure and schedule the processor, its run() starts a
+ * thread pool per call which would swamp the measurement.
+ * The mock session keeps content on the heap, so absolute numbers include
+ * its copies, but they are the same for every version of onTrigger.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProcessorBenchmark {
+
+    /**
+     * A scheduled processor
+     */
+    @State(Scope.Thread)
+    public abstract static class ProcessorState {
+
+        private final AtomicLong flowFileIds = new AtomicLong();
+        TestRunner runner;
+
+        /**
+         * @param processorClass the processor
+         * @return a runner, properties are to be set before schedule()
+         */
+        TestRunner newRunner(Class<? extends AbstractProcessor> processorClass) {
+            runner = TestRunners.newTestRunner(processorClass);
+            return runner;
+        }
+
+        /**
+         * Runs the processor's lifecycle methods once, outside the measurement
+         */
+        void schedule() {
+            runner.run(0, false, true);
+        }
+
+        /**
+         * Calls onTrigger with one flowfile queued
+         *
+         * @param content the flowfile content
+         * @param attributes the flowfile attributes
+         * @param relationship where the flowfile is expected
+         * @return the flowfile
+         */
+        MockFlowFile trigger(byte[] content, Map<String, String> attributes, Relationship relationship) {
+            final AbstractProcessor processor = (AbstractProcessor) runner.getProcessor();
+            final SharedSessionState sharedState = new SharedSessionState(processor, flowFileIds);
+            final MockFlowFile flowFile = new MockFlowFile(sharedState.nextFlowFileId());
+            flowFile.setData(content);
+            flowFile.putAttributes(attributes);
+            sharedState.getFlowFileQueue().offer(flowFile);
+            final MockProcessSession session = new MockProcessSession(sharedState, processor);
+            processor.onTrigger(runner.getProcessContext(), session);
+            session.commitAsync();
+            final List<MockFlowFile> results = session.getFlowFilesForRelationship(relationship);
+            if (results.size() != 1) {
+                throw new IllegalStateException(results.size() + " flowfiles on " + relationship.getName());
+            }
+            return results.get(0);
+        }
+    }
+
+    /**
+     * Message shape shared by the converter states
+     */
+    public abstract static class MessageState extends ProcessorState {
+
+        @Param({ AbstractThriftProcessor.ProtocolJSON,
+                 AbstractThriftProcessor.ProtocolBinary,
+                 AbstractThriftProcessor.ProtocolCompact })
+        public String protocol;
+
+        @Param({ "16", "4096", "1048576" })
+        public int contentSize;
+
+        @Param({ "0", "8", "64" })
+        public int attributeCount;
+
+        byte[] content;
+        Map<String, String> attributes;
+
+        void setupMessage() {
+            content = new byte[contentSize];
+            new Random(42).nextBytes(content);
+            attributes = new HashMap<>();
+            for (int i = 0; i < attributeCount; i++) {
+                attributes.put("attribute_" + i, "value_" + i);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ToThriftState extends MessageState {
+
+        Map<String, String> flowFileAttributes;
+
+        @Setup
+        public void setup() {
+            setupMessage();
+            flowFileAttributes = new HashMap<>();
+            attributes.forEach((key, value) -> flowFileAttributes.put(AbstractThriftProcessor.AttrPrefix + key, value));
+            flowFileAttributes.put("thrift.id", "63");
+            newRunner(ToThriftProcessor.class).setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, protocol);
+            schedule();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FromThriftState extends MessageState {
+
+        @Param({ "All", "Attr", "Content", "IdOnly" })
+        public String conversionScope;
+
+        byte[] request;
+
+        @Setup
+        public void setup() throws Exception {
+            setupMessage();
+            ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+            thriftFlowFile.setAttributes(attributes);
+            thriftFlowFile.setContent(content);
+            request = new TSerializer(AbstractThriftProcessor.getFactory(protocol))
+                    .serialize(new FlowFileRequest(63L, thriftFlowFile));
+            newRunner(FromThriftProcessor.class).setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, protocol);
+            runner.setProperty(FromThriftProcessor.CONVERSION_SCOPE, conversionScope);
+            schedule();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PutThriftIDLState extends ProcessorState {
+
+        @Setup
+        public void setup() {
+            newRunner(PutThriftIDL.class);
+            schedule();
+        }
+    }
+
+    @Benchmark
+    public MockFlowFile toThrift(ToThriftState state) {
+        return state.trigger(state.content, state.flowFileAttributes, ToThriftProcessor.SUCCESS);
+    }
+
+    @Benchmark
+    public MockFlowFile fromThrift(FromThriftState state) {
+        return state.trigger(state.request, Collections.emptyMap(), FromThriftProcessor.SUCCESS);
+    }
+
+    @Benchmark
+    public MockFlowFile putThriftIDL(PutThriftIDLState state) {
+        return state.trigger(new byte[0], Collections.emptyMap(), PutThriftIDL.SUCCESS);
+    }
+}
@@ -16,23 +16,29 @@
  */
 package org.apache.nifi.processors.thrift;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
 import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.AbstractProcessor;
 import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 
-import org.apache.thrift.TDeserializer;
-import org.apache.thrift.TSerializer;
-import org.apache.thrift.transport.TTransportException;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.protocol.TJSONProtocol;
@@ -47,12 +53,32 @@ public abstract class AbstractThriftProcessor extends AbstractProcessor {
     public static final String ProtocolJSON = "JSON";
     public static final String ProtocolBinary = "BINARY";
     public static final String ProtocolCompact = "COMPACT";
+    public static final String ProtocolAuto = "AUTO";
     protected static final String defaultPerRequestProtcol = "false";
     public static final String AttrPrefix = "thrift.attr.";
-    private String currentProtocol;
-    protected boolean perRequestProtcol;
-    protected TDeserializer deserializer;
-    protected TSerializer serializer;
+    /**
+     * The most attribute keys whose translation is cached, each way, see AttributeKeyCache
+     */
+    static final int MaxCachedAttrKeys = 4096;
+    public static final String ProtocolAttr = "thrift.protocol";
+    public static final String ResponseCodeAttr = "thrift.response.code";
+    public static final String HttpStatusAttr = "thrift.http_status_attr";
+    public static final String RetryAfterAttr = "thrift.retry.after";
+    protected static final int CopyBufferSize = 8192;
+    public static final String CodecLibthrift = "libthrift";
+    public static final String CodecSpecialized = "Specialized";
+    public static final String MessageBuffersHeap = "Heap";
+    public static final String MessageBuffersDirect = "Direct";
+    /**
+     * Configuration only, the codecs themselves live in ThriftCodecs
+     * so onTrigger never mutates processor state
+     */
+    protected volatile String protocol;
+    protected volatile boolean perRequestProtcol;
+    protected volatile String protocolCacheAttribute;
+    protected volatile boolean specializedCodec;
+    protected volatile boolean directBuffers;
+    protected final ProtocolDetector protocolDetector = new ProtocolDetector();
     protected Set<Relationship> relationships;
     protected List<PropertyDescriptor> descriptors;
     public static final PropertyDescriptor DYNAMIC_PROTOCOL = new PropertyDescriptor.Builder()
@@ -67,14 +93,104 @@ public abstract class AbstractThriftProcessor extends AbstractProcessor {
 
     public static final PropertyDescriptor THRIFT_PROTOCOL = new PropertyDescriptor.Builder()
             .name("ThriftProtocol")
-            .description("What Thrift protocol is used")
+            .description("What Thrift protocol is used. " +
+                         "AUTO detects the protocol of each message from its first byte when deserialising, " +
+                         "and serialises with the 'thrift.protocol' attribute, BINARY if there is none")
             .required(true)
-            .allowableValues(new AllowableValue(ProtocolJSON), new AllowableValue(ProtocolBinary),new AllowableValue(ProtocolCompact))
+            .allowableValues(new AllowableValue(ProtocolJSON), new AllowableValue(ProtocolBinary),new AllowableValue(ProtocolCompact),
+                             new AllowableValue(ProtocolAuto))
             .defaultValue(ProtocolBinary)
             .dynamic(true)
             .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
             .build();
 
+    public static final PropertyDescriptor PROTOCOL_CACHE_ATTRIBUTE = new PropertyDescriptor.Builder()
+            .name("ProtocolCacheAttribute")
+            .description("With ThriftProtocol AUTO, the attribute identifying a client, eg http.remote.host. " +
+                         "The protocol detected for a client is cached, its later messages are not sniffed")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("BatchSize")
+            .description("The maximum number of flowfiles converted in one session. " +
+                         "Larger batches share one codec, one copy buffer and one session commit")
+            .required(true)
+            .defaultValue("1")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor ADMISSION_MAX_QUEUE_DEPTH = new PropertyDescriptor.Builder()
+            .name("AdmissionMaxQueueDepth")
+            .description("Admission control, while this many other requests wait to be converted " +
+                         "a request is answered at once with ResponseCode RETRY. Not applied if not set")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_LONG_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor ADMISSION_MAX_QUEUED_BYTES = new PropertyDescriptor.Builder()
+            .name("AdmissionMaxQueuedBytes")
+            .description("Admission control, once the requests queued hold this many bytes further requests " +
+                         "are answered at once with ResponseCode RETRY. Not applied if not set")
+            .required(false)
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor ADMISSION_MAX_LATENCY = new PropertyDescriptor.Builder()
+            .name("AdmissionMaxLatency")
+            .description("Admission control, requests which have waited this long " +
+                         "are answered at once with ResponseCode RETRY. Not applied if not set")
+            .required(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor RETRY_AFTER = new PropertyDescriptor.Builder()
+            .name("RetryAfter")
+            .description("The wait suggested to clients answered with ResponseCode RETRY")
+            .required(true)
+            .defaultValue("1 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor ZSTD_DICTIONARY = new PropertyDescriptor.Builder()
+            .name("ZstdDictionary")
+            .description("A trained Zstandard dictionary file, shared with the clients, " +
+                         "for content of 'content.encoding' zstd-dict. zstd-dict is not supported if not set")
+            .required(false)
+            .addValidator(StandardValidators.FILE_EXISTS_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor CODEC = new PropertyDescriptor.Builder()
+            .name("Codec")
+            .description("How FlowFileRequest and FlowFileReply are serialised. libthrift, the generated code. " +
+                         "Specialized, hand written BINARY and COMPACT codecs writing to and reading from " +
+                         "byte arrays directly, wire compatible with libthrift. JSON is always libthrift")
+            .required(true)
+            .allowableValues(new AllowableValue(CodecLibthrift), new AllowableValue(CodecSpecialized))
+            .defaultValue(CodecLibthrift)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MEMORY_BUDGET = new PropertyDescriptor.Builder()
+            .name("MemoryBudget")
+            .description("A ThriftMemoryBudget shared with other processors. A message is only read whole into memory " +
+                         "while the budget allows, otherwise it is streamed. None, messages are buffered as the Codec needs")
+            .required(false)
+            .identifiesControllerService(ThriftMemoryBudgetService.class)
+            .build();
+
+    public static final PropertyDescriptor MESSAGE_BUFFERS = new PropertyDescriptor.Builder()
+            .name("MessageBuffers")
+            .description("Where a BINARY or COMPACT message read or serialised whole is held. Heap, byte arrays. " +
+                         "Direct, pooled direct buffers off the heap, with the Specialized codec whatever Codec, " +
+                         "the content is never copied onto the heap. JSON, and streamed messages, are unaffected")
+            .required(true)
+            .allowableValues(new AllowableValue(MessageBuffersHeap), new AllowableValue(MessageBuffersDirect))
+            .defaultValue(MessageBuffersHeap)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
     public AbstractThriftProcessor() {
         super();
     }
@@ -85,26 +201,27 @@ public abstract class AbstractThriftProcessor extends AbstractProcessor {
         descriptors.add(DYNAMIC_PROTOCOL);
         descriptors.add(THRIFT_PROTOCOL);
         this.descriptors = Collections.unmodifiableList(descriptors);
-        try{
-            setProtocol(THRIFT_PROTOCOL.getDefaultValue());
-        }catch (TTransportException tte){
-            throw new RuntimeException("setProtocol",tte);
-        }
+        setProtocol(THRIFT_PROTOCOL.getDefaultValue());
         setPerRequestProtcol(defaultPerRequestProtcol);
     }
 
     @Override
     public void onPropertyModified(PropertyDescriptor descriptor, String oldValue, String newValue) {
         if (descriptor.getName().equals("ThriftProtocol")) {
-            try{
-                setProtocol(newValue);
-            }catch (TTransportException tte){
-                throw new RuntimeException("setProtocol",tte);
-            }
+            setProtocol(newValue);
         }
         if (descriptor.getName().equals("DynamicProtocol")) {
             setPerRequestProtcol(newValue);
         }
+        if (descriptor.getName().equals("ProtocolCacheAttribute")) {
+            protocolCacheAttribute = newValue;
+        }
+        if (descriptor.getName().equals("Codec")) {
+            specializedCodec = CodecSpecialized.equals(newValue);
+        }
+        if (descriptor.getName().equals("MessageBuffers")) {
+            directBuffers = MessageBuffersDirect.equals(newValue);
+        }
         super.onPropertyModified(descriptor, oldValue, newValue);
     }
 
@@ -135,6 +252,109 @@ public abstract class AbstractThriftProcessor extends AbstractProcessor {
 
     }
 
+    /**
+     * Buffers shared by the flowfiles of one onTrigger batch, never across threads.
+     * With a MemoryBudget the message buffer, and any other whole message copy
+     * reserved, is taken from the budget until the batch releases it
+     */
+    protected static final class ConversionBuffers {
+        final byte[] copy = new byte[CopyBufferSize];
+        private final ThriftMemoryBudgetService budget;
+        private byte[] message = new byte[0];
+        private long reserved;
+
+        /**
+         * @param budget the MemoryBudget, null for none
+         */
+        ConversionBuffers(ThriftMemoryBudgetService budget) {
+            this.budget = budget;
+        }
+
+        /**
+         * @param size the wanted capacity
+         * @return a buffer of at least size bytes, its contents are undefined,
+         *         null if the MemoryBudget cannot grant it
+         */
+        byte[] message(int size) {
+            if (message.length < size) {
+                if (!reserve(size - message.length)) {
+                    return null;
+                }
+                message = new byte[size];
+            }
+            return message;
+        }
+
+        /**
+         * @param size the wanted size
+         * @return a pooled direct buffer, position 0 and limit size, to be given back with recycle,
+         *         null if the MemoryBudget cannot grant it
+         */
+        ByteBuffer direct(int size) {
+            if (!reserve(size)) {
+                return null;
+            }
+            return DirectBufferPool.SHARED.acquire(size);
+        }
+
+        /**
+         * @param buffer from direct, no slice of it referred to any more
+         * @param size the size it was asked for
+         */
+        void recycle(ByteBuffer buffer, int size) {
+            DirectBufferPool.SHARED.release(buffer);
+            release(size);
+        }
+
+        /**
+         * @param bytes the size of a message copy about to be made
+         * @return true if the MemoryBudget grants it, or there is none
+         */
+        boolean reserve(long bytes) {
+            if (budget != null && !budget.tryAcquire(bytes)) {
+                return false;
+            }
+            reserved += bytes;
+            return true;
+        }
+
+        /**
+         * @param bytes reserved for a message copy no longer held
+         */
+        void release(long bytes) {
+            if (budget != null) {
+                budget.release(bytes);
+            }
+            reserved -= bytes;
+        }
+
+        /**
+         * Gives back all the batch reserved, the message buffer included, once the batch is done
+         */
+        void releaseAll() {
+            release(reserved);
+            message = new byte[0];
+        }
+    }
+
+    /**
+     * @param context the context of a processor supporting MemoryBudget
+     * @return buffers for one onTrigger batch, taking from the MemoryBudget if set
+     */
+    protected static ConversionBuffers newBuffers(ProcessContext context) {
+        return new ConversionBuffers(context.getProperty(MEMORY_BUDGET)
+                                            .asControllerService(ThriftMemoryBudgetService.class));
+    }
+
+    /**
+     * @param protocol the protocol, not AUTO
+     * @return the FlowFileCodec of the protocol, as Codec selects
+     * @throws IllegalArgumentException if an invalid protocol
+     */
+    protected FlowFileCodec getCodec(String protocol) throws IllegalArgumentException {
+        return ThriftCodecs.getCodec(protocol, specializedCodec);
+    }
+
     /**
      * @param option the per request protocol
      */
@@ -145,6 +365,200 @@ public abstract class AbstractThriftProcessor extends AbstractProcessor {
         perRequestProtcol = option.equals("true");
     }
 
+    /**
+     * @param flowFile the flowfile
+     * @return the protocol of flowFile, its 'thrift.protocol' attribute if DynamicProtocol or AUTO,
+     *         AUTO falling back to BINARY
+     * @throws ProcessException if DynamicProtocol and the attribute is missing or invalid
+     */
+    protected String getProtocol(FlowFile flowFile) throws ProcessException {
+        final String protocol = this.protocol;
+        final boolean auto = ProtocolAuto.equals(protocol);
+        if (!perRequestProtcol && !auto) {
+            return protocol;
+        }
+        String thrift_protocol = flowFile.getAttribute(ProtocolAttr);
+        if (null == thrift_protocol) {
+            if (auto) {
+                return ProtocolBinary;
+            }
+            throw new ProcessException("perRequestProtocol but no attr, '" + ProtocolAttr + "', set");
+        }
+        if (!ThriftCodecs.isSupported(thrift_protocol)) {
+            throw new ProcessException("Invalid protocol -" + thrift_protocol + "-");
+        }
+        return thrift_protocol;
+    }
+
+    /**
+     * As getProtocol, but with ThriftProtocol AUTO and no 'thrift.protocol' attribute
+     * the protocol is that cached for the client or else detected from the first byte of the content
+     *
+     * @param session the session
+     * @param flowFile the flowfile holding serialised Thrift
+     * @return the protocol of flowFile
+     * @throws ProcessException if DynamicProtocol and the attribute is missing or invalid
+     */
+    protected String detectProtocol(ProcessSession session, FlowFile flowFile) throws ProcessException {
+        if (!ProtocolAuto.equals(protocol) || flowFile.getAttribute(ProtocolAttr) != null) {
+            return getProtocol(flowFile);
+        }
+        final String client = getProtocolClient(flowFile);
+        if (client != null) {
+            String cached = protocolDetector.getCached(client);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final int[] firstByte = {-1};
+        if (flowFile.getSize() > 0) {
+            session.read(flowFile, (in) -> {
+                    firstByte[0] = in.read();
+            });
+        }
+        final String detected = ProtocolDetector.detect(firstByte[0]);
+        if (client != null) {
+            protocolDetector.cache(client, detected);
+        }
+        return detected;
+    }
+
+    /**
+     * Forgets the protocol cached for the client of flowFile, eg when it fails to deserialise
+     *
+     * @param flowFile the flowfile
+     */
+    protected void forgetProtocol(FlowFile flowFile) {
+        final String client = getProtocolClient(flowFile);
+        if (client != null) {
+            protocolDetector.forget(client);
+        }
+    }
+
+    private String getProtocolClient(FlowFile flowFile) {
+        final String attribute = protocolCacheAttribute;
+        return attribute == null ? null : flowFile.getAttribute(attribute);
+    }
+
+    /**
+     * 'xxx' to 'thrift.attr.xxx', and back, for the keys which recur. The same few keys recur message
+     * after message, so translating them from here allocates no new key strings
+     */
+    private static final AttributeKeyCache prefixedKeys
+            = new AttributeKeyCache(MaxCachedAttrKeys, (key) -> AttrPrefix + key);
+    private static final AttributeKeyCache thriftKeys
+            = new AttributeKeyCache(MaxCachedAttrKeys, (key) -> key.substring(AttrPrefix.length()));
+
+    /**
+     * @param key a ThriftFlowFile attribute key 'xxx'
+     * @return the flowfile attribute key 'thrift.attr.xxx'
+     */
+    protected static String prefixedKey(String key) {
+        return prefixedKeys.get(key);
+    }
+
+    /**
+     * @param key a flowfile attribute key
+     * @return 'xxx' for 'thrift.attr.xxx', null for any other key
+     */
+    protected static String thriftKey(String key) {
+        return key.startsWith(AttrPrefix) ? thriftKeys.get(key) : null;
+    }
+
+    /**
+     * Reads exactly size bytes. The message buffer is reused across a batch, so a short read
+     * would leave the previous flowfile's bytes in place of the missing ones
+     *
+     * @param in the flowfile content
+     * @param bytes the message buffer
+     * @param size the flowfile size
+     * @throws EOFException if in ends first
+     * @throws IOException on a read failure
+     */
+    protected static void readFully(InputStream in, byte[] bytes, int size) throws IOException {
+        int read = 0;
+        while (read < size) {
+            final int count = in.read(bytes, read, size - read);
+            if (count < 0) {
+                throw new EOFException("content ended after " + read + " of " + size + " bytes");
+            }
+            read += count;
+        }
+    }
+
+    /**
+     * @param flowFile the flowfile
+     * @return its 'thrift.attr.xxx' attributes keyed by 'xxx', null if it has none
+     */
+    protected static Map<String, String> getThriftAttributes(FlowFile flowFile) {
+        final Map<String, String> flowFileAttributes = flowFile.getAttributes();
+        int count = 0;
+        for (String key : flowFileAttributes.keySet()) {
+            if (key.startsWith(AttrPrefix)) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        final Map<String, String> attributes = new HashMap<>(capacity(count));
+        for (Map.Entry<String, String> entry : flowFileAttributes.entrySet()) {
+            final String key = thriftKey(entry.getKey());
+            if (key != null) {
+                attributes.put(key, entry.getValue());
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * @param attributes ThriftFlowFile.attributes, may be null
+     * @param extra room for the other flowfile attributes to be added
+     * @return each attribute 'xxx' as 'thrift.attr.xxx', in a map sized not to rehash
+     */
+    protected static Map<String, String> toFlowFileAttributes(Map<String, String> attributes, int extra) {
+        final Map<String, String> flowFileAttributes
+                = new HashMap<>(capacity((attributes == null ? 0 : attributes.size()) + extra));
+        if (attributes != null) {
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                flowFileAttributes.put(prefixedKey(entry.getKey()), entry.getValue());
+            }
+        }
+        return flowFileAttributes;
+    }
+
+    /**
+     * @param size the entries to hold
+     * @return the HashMap capacity holding them without a rehash
+     */
+    protected static int capacity(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
+    /**
+     * @param context the context
+     * @param flowFile the flowfile
+     * @param schemaRegistry the property of the ThriftSchemaRegistry, with IDLName and IDLVersion
+     * @return the IDL of flowFile from the ThriftSchemaRegistry, the built in IDL if there is none
+     * @throws IOException if the IDL cannot be read or parsed
+     * @throws IllegalArgumentException if the registry has no such IDL
+     */
+    protected static ThriftIDL lookupIDL(ProcessContext context, FlowFile flowFile,
+                                         PropertyDescriptor schemaRegistry) throws IOException {
+        final ThriftSchemaRegistryService registry =
+            context.getProperty(schemaRegistry).asControllerService(ThriftSchemaRegistryService.class);
+        if (registry == null) {
+            return ThriftIDLParser.getBuiltInIDL();
+        }
+        final String name = context.getProperty(PutThriftIDL.IDL_NAME).evaluateAttributeExpressions(flowFile).getValue();
+        final String version = context.getProperty(PutThriftIDL.IDL_VERSION).evaluateAttributeExpressions(flowFile).getValue();
+        final ThriftIDL idl = registry.getIDL(name, version);
+        if (idl == null) {
+            throw new IllegalArgumentException("no IDL " + name + (version == null ? "" : " version " + version));
+        }
+        return idl;
+    }
+
     /**
      * @param protocol the protocol
      * @return TProtocolFactory
@@ -170,30 +584,11 @@ public abstract class AbstractThriftProcessor extends AbstractProcessor {
      * @param protocol the protocol
      * @throws IllegalArgumentException if an invalid protocol
      */
-    protected void setProtocol(String protocol) throws IllegalArgumentException,TTransportException{
-        if (currentProtocol != null && currentProtocol.equals(protocol)) {
-            return;
-        }
-        if (protocol == null) {
-            throw new IllegalArgumentException("null protocol");
-        }
-        switch (protocol) {
-        case ProtocolJSON:
-            deserializer = new TDeserializer(new TJSONProtocol.Factory());
-            serializer = new TSerializer(new TJSONProtocol.Factory());
-            break;
-        case ProtocolBinary:
-            deserializer = new TDeserializer(new TBinaryProtocol.Factory());
-            serializer = new TSerializer(new TBinaryProtocol.Factory());
-            break;
-        case ProtocolCompact:
-            deserializer = new TDeserializer(new TCompactProtocol.Factory());
-            serializer = new TSerializer(new TCompactProtocol.Factory());
-            break;
-        default:
+    protected void setProtocol(String protocol) throws IllegalArgumentException {
+        if (!ThriftCodecs.isSupported(protocol) && !ProtocolAuto.equals(protocol)) {
             throw new IllegalArgumentException("setProtocol Invalid protocol " + protocol);
         }
-
+        this.protocol = protocol;
     }
 
 }
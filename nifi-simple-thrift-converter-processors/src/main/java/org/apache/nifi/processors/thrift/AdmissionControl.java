@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.ProcessContext;
+
+/**
+ * Decides when a processor sheds a request, answering ResponseCode.RETRY at once
+ * rather than queueing more work, from the queue depth, queued bytes and latency it sees.
+ *
+ * A threshold of 0 is not applied, with none set every request is admitted.
+ */
+public class AdmissionControl {
+
+    /**
+     * The ThriftFlowFile attribute of a RETRY reply, the milliseconds the client should wait
+     */
+    public static final String RetryAfterReplyAttr = "retry.after.ms";
+
+    private final long maxQueueDepth;
+    private final long maxQueuedBytes;
+    private final long maxLatencyMillis;
+    private final long retryAfterMillis;
+
+    /**
+     * @param maxQueueDepth shed once this many requests are queued, 0 for no limit
+     * @param maxQueuedBytes shed once this many request bytes are queued, 0 for no limit
+     * @param maxLatencyMillis shed once a request has waited this long, 0 for no limit
+     * @param retryAfterMillis the wait suggested to clients
+     */
+    public AdmissionControl(long maxQueueDepth, long maxQueuedBytes, long maxLatencyMillis, long retryAfterMillis) {
+        this.maxQueueDepth = maxQueueDepth;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @param context the context of a processor supporting the Admission properties
+     * @return the AdmissionControl configured
+     */
+    public static AdmissionControl fromContext(ProcessContext context) {
+        final long maxQueueDepth = context.getProperty(AbstractThriftProcessor.ADMISSION_MAX_QUEUE_DEPTH).isSet()
+                ? context.getProperty(AbstractThriftProcessor.ADMISSION_MAX_QUEUE_DEPTH).asLong() : 0;
+        final long maxQueuedBytes = context.getProperty(AbstractThriftProcessor.ADMISSION_MAX_QUEUED_BYTES).isSet()
+                ? context.getProperty(AbstractThriftProcessor.ADMISSION_MAX_QUEUED_BYTES).asDataSize(DataUnit.B).longValue() : 0;
+        final long maxLatencyMillis = context.getProperty(AbstractThriftProcessor.ADMISSION_MAX_LATENCY).isSet()
+                ? context.getProperty(AbstractThriftProcessor.ADMISSION_MAX_LATENCY).asTimePeriod(TimeUnit.MILLISECONDS) : 0;
+        final long retryAfterMillis = context.getProperty(AbstractThriftProcessor.RETRY_AFTER).asTimePeriod(TimeUnit.MILLISECONDS);
+        return new AdmissionControl(maxQueueDepth, maxQueuedBytes, maxLatencyMillis, retryAfterMillis);
+    }
+
+    /**
+     * @return whether any threshold is set
+     */
+    public boolean isEnabled() {
+        return maxQueueDepth > 0 || maxQueuedBytes > 0 || maxLatencyMillis > 0;
+    }
+
+    /**
+     * @param queueDepth the requests queued
+     * @param queuedBytes the bytes of the requests queued
+     * @param latencyMillis how long the oldest request has waited
+     * @return why the request is to be shed, null if it is admitted
+     */
+    public String check(long queueDepth, long queuedBytes, long latencyMillis) {
+        if (maxQueueDepth > 0 && queueDepth >= maxQueueDepth) {
+            return "queue depth " + queueDepth + " reached " + maxQueueDepth;
+        }
+        if (maxQueuedBytes > 0 && queuedBytes >= maxQueuedBytes) {
+            return "queued bytes " + queuedBytes + " reached " + maxQueuedBytes;
+        }
+        if (maxLatencyMillis > 0 && latencyMillis >= maxLatencyMillis) {
+            return "latency " + latencyMillis + " ms reached " + maxLatencyMillis + " ms";
+        }
+        return null;
+    }
+
+    /**
+     * @return the wait suggested to clients, in milliseconds
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * @return the wait suggested to clients in whole seconds, as for an HTTP Retry-After header
+     */
+    public long getRetryAfterSeconds() {
+        return (retryAfterMillis + 999) / 1000;
+    }
+
+    /**
+     * @param id the FlowFileRequest.id
+     * @return the RETRY reply, its ThriftFlowFile holds only the retry.after.ms attribute
+     */
+    public FlowFileReply retryReply(long id) {
+        ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+        thriftFlowFile.setAttributes(Collections.singletonMap(RetryAfterReplyAttr, Long.toString(retryAfterMillis)));
+        return new FlowFileReply(ResponseCode.RETRY, id, thriftFlowFile);
+    }
+}
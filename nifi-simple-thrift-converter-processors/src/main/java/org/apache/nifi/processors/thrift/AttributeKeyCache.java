@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of attribute key translations, eg 'xxx' to 'thrift.attr.xxx'.
+ *
+ * A key is cached only once it recurs: its first translation waits among the candidates,
+ * and is promoted to the cache when the key is seen again. Both are LRU, so keys unique to
+ * one message, eg UUIDs, only churn the candidates and never displace the recurring keys,
+ * while a key no longer used is eventually evicted. The cache is split into segments by hash,
+ * each under its own lock, so concurrent tasks rarely contend.
+ */
+final class AttributeKeyCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final Function<String, String> translate;
+
+    /**
+     * @param maxKeys the most keys cached, and the most candidates
+     * @param translate the translation
+     */
+    AttributeKeyCache(int maxKeys, Function<String, String> translate) {
+        this.translate = translate;
+        final int segmentKeys = Math.max(1, maxKeys / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentKeys);
+        }
+    }
+
+    /**
+     * @param key the key
+     * @return its translation, the same instance each time once the key recurs
+     */
+    String get(String key) {
+        final Segment segment = segments[(key.hashCode() & 0x7fffffff) % SEGMENTS];
+        synchronized (segment) {
+            String value = segment.keys.get(key);
+            if (value == null) {
+                value = segment.candidates.remove(key);
+                if (value != null) {
+                    segment.keys.put(key, value);
+                } else {
+                    value = translate.apply(key);
+                    segment.candidates.put(key, value);
+                }
+            }
+            return value;
+        }
+    }
+
+    /**
+     * @return the keys cached, candidates aside
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.keys.size();
+            }
+        }
+        return size;
+    }
+
+    private static final class Segment {
+        final Map<String, String> keys;
+        final Map<String, String> candidates;
+
+        Segment(int maxKeys) {
+            keys = lru(maxKeys);
+            candidates = lru(maxKeys);
+        }
+
+        private static Map<String, String> lru(int maxKeys) {
+            return new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > maxKeys;
+                }
+            };
+        }
+    }
+}
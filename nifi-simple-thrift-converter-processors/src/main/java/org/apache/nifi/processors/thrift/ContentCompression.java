@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.stream.io.NonCloseableInputStream;
+import org.apache.nifi.stream.io.NonCloseableOutputStream;
+
+import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
+import com.github.luben.zstd.ZstdOutputStreamNoFinalizer;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+/**
+ * Compression of ThriftFlowFile.content, signalled by reserved ThriftFlowFile attributes.
+ *
+ * A client that compresses its content sets 'content.encoding', a client that
+ * accepts a compressed reply lists the encodings in 'accept.encoding', most preferred first,
+ * eg "zstd-dict, lz4". Clients setting neither are unaffected.
+ *
+ * Encodings: lz4 (LZ4 frame format), zstd (Zstandard frame format) and zstd-dict,
+ * Zstandard with the trained dictionary both sides hold, for small messages.
+ * Content is compressed and decompressed as streams, never held whole.
+ */
+public class ContentCompression {
+
+    /**
+     * The ThriftFlowFile attribute naming the encoding of its content
+     */
+    public static final String ContentEncodingAttr = "content.encoding";
+    /**
+     * The ThriftFlowFile attribute listing the encodings the client accepts in a reply
+     */
+    public static final String AcceptEncodingAttr = "accept.encoding";
+
+    public static final String EncodingLz4 = "lz4";
+    public static final String EncodingZstd = "zstd";
+    public static final String EncodingZstdDict = "zstd-dict";
+
+    private final byte[] zstdDictionary;
+
+    /**
+     * @param zstdDictionary the trained Zstandard dictionary, null if zstd-dict is not supported
+     */
+    public ContentCompression(byte[] zstdDictionary) {
+        this.zstdDictionary = zstdDictionary;
+    }
+
+    /**
+     * @param context the context of a processor supporting ZstdDictionary
+     * @return the ContentCompression configured
+     * @throws IOException if the dictionary cannot be read
+     */
+    public static ContentCompression fromContext(ProcessContext context) throws IOException {
+        final String dictionary = context.getProperty(AbstractThriftProcessor.ZSTD_DICTIONARY).getValue();
+        return new ContentCompression(dictionary == null ? null : Files.readAllBytes(Paths.get(dictionary)));
+    }
+
+    /**
+     * @param encoding the encoding
+     * @return whether content of that encoding can be compressed and decompressed
+     */
+    public boolean isSupported(String encoding) {
+        if (encoding == null) {
+            return false;
+        }
+        switch (encoding) {
+        case EncodingLz4:
+        case EncodingZstd:
+            return true;
+        case EncodingZstdDict:
+            return zstdDictionary != null;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @param acceptEncoding the client's 'accept.encoding', may be null
+     * @return the first encoding listed that is supported, null if none
+     */
+    public String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        for (String encoding : acceptEncoding.split(",")) {
+            encoding = encoding.trim();
+            if (isSupported(encoding)) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param encoding the encoding of in
+     * @param in the compressed content, left open when the stream returned is closed
+     * @return the decompressed content
+     * @throws IOException if the decompressor cannot be created
+     * @throws IllegalArgumentException if the encoding is not supported
+     */
+    public InputStream decompress(String encoding, InputStream in) throws IOException {
+        final InputStream source = new NonCloseableInputStream(in);
+        switch (checkSupported(encoding)) {
+        case EncodingLz4:
+            return new LZ4FrameInputStream(source);
+        case EncodingZstd:
+            return new ZstdInputStreamNoFinalizer(source);
+        default:
+            return new ZstdInputStreamNoFinalizer(source).setDict(zstdDictionary);
+        }
+    }
+
+    /**
+     * @param encoding the encoding
+     * @param out where the compressed content is written, left open when the stream returned is closed
+     * @return the stream to write the content to, it must be closed to complete the frame
+     * @throws IOException if the compressor cannot be created
+     * @throws IllegalArgumentException if the encoding is not supported
+     */
+    public OutputStream compress(String encoding, OutputStream out) throws IOException {
+        final OutputStream sink = new NonCloseableOutputStream(out);
+        switch (checkSupported(encoding)) {
+        case EncodingLz4:
+            return new LZ4FrameOutputStream(sink);
+        case EncodingZstd:
+            return new ZstdOutputStreamNoFinalizer(sink);
+        default:
+            return new ZstdOutputStreamNoFinalizer(sink).setDict(zstdDictionary);
+        }
+    }
+
+    private String checkSupported(String encoding) {
+        if (!isSupported(encoding)) {
+            throw new IllegalArgumentException("unsupported content.encoding " + encoding);
+        }
+        return encoding;
+    }
+
+    /**
+     * Copies in to out through buffer
+     *
+     * @param in the source
+     * @param out the destination
+     * @param buffer the copy buffer
+     * @return the number of bytes copied
+     * @throws IOException on a read or write failure
+     */
+    public static long copy(InputStream in, OutputStream out, byte[] buffer) throws IOException {
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PushbackInputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.ReadsAttribute;
+import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.expression.ExpressionLanguageScope;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.schema.access.SchemaNotFoundException;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.WriteResult;
+import org.apache.nifi.serialization.record.RecordSchema;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocol;
+
+@Tags({ "thrift", "converter", "decode", "schema", "record", "json" })
+@CapabilityDescription("Decodes serialised Thrift structs of any type, described by IDL from a ThriftSchemaRegistry, " +
+                       "without generated classes. The flowfile holds one or more structs one after another, " +
+                       "each is written as a Record with the RecordWriter, or as a line of JSON if there is none")
+@SeeAlso({ThriftSchemaRegistry.class, FromThriftProcessor.class})
+@InputRequirement(Requirement.INPUT_REQUIRED)
+@ReadsAttributes({
+    @ReadsAttribute(attribute   = "thrift.protocol",
+                    description = "the thrift protocol to be used for deserialisation (ignored unless DynamicProtocol or AUTO)")
+                })
+@WritesAttributes({
+    @WritesAttribute(attribute   = "thrift.struct",
+                     description = "The struct decoded"),
+    @WritesAttribute(attribute   = "thrift.idl.version",
+                     description = "The version of the IDL describing it"),
+    @WritesAttribute(attribute   = "record.count",
+                     description = "The number of structs decoded"),
+    @WritesAttribute(attribute   = "mime.type",
+                     description = "application/json, or that of the RecordWriter")
+                  })
+public class DecodeThrift extends AbstractThriftProcessor {
+
+    public static final String StructAttr = "thrift.struct";
+    public static final String RecordCountAttr = "record.count";
+
+    public static final PropertyDescriptor SCHEMA_REGISTRY = new PropertyDescriptor.Builder()
+            .fromPropertyDescriptor(PutThriftIDL.SCHEMA_REGISTRY)
+            .description("The ThriftSchemaRegistry holding the IDL")
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor STRUCT_NAME = new PropertyDescriptor.Builder()
+            .name("StructName")
+            .description("The struct, union or exception of the IDL serialised in the flowfile")
+            .required(true)
+            .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor RECORD_WRITER = new PropertyDescriptor.Builder()
+            .name("RecordWriter")
+            .description("The Record Writer to write the decoded structs with, none writes a line of JSON per struct")
+            .required(false)
+            .identifiesControllerService(RecordSetWriterFactory.class)
+            .build();
+
+    public static final Relationship SUCCESS = new Relationship.Builder()
+            .name("Success")
+            .description("The decoded structs")
+            .build();
+
+    public static final Relationship FAILURE = new Relationship.Builder()
+            .name("Failure")
+            .description("Failed to decode, eg the IDL or struct is unknown or the content is not that struct")
+            .build();
+
+    public DecodeThrift() {
+        super();
+    }
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        super.init(context);
+        addPropertyDescriptor(PROTOCOL_CACHE_ATTRIBUTE);
+        addPropertyDescriptor(SCHEMA_REGISTRY);
+        addPropertyDescriptor(PutThriftIDL.IDL_NAME);
+        addPropertyDescriptor(PutThriftIDL.IDL_VERSION);
+        addPropertyDescriptor(STRUCT_NAME);
+        addPropertyDescriptor(RECORD_WRITER);
+
+        final Set<Relationship> relationships = new HashSet<Relationship>();
+        relationships.add(SUCCESS);
+        relationships.add(FAILURE);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        FlowFile flowFile = session.get();
+        if (flowFile == null) {
+            return;
+        }
+        try {
+            final ThriftIDL idl = lookupIDL(context, flowFile, SCHEMA_REGISTRY);
+            final ThriftGenericDecoder decoder =
+                idl.getDecoder(context.getProperty(STRUCT_NAME).evaluateAttributeExpressions(flowFile).getValue());
+            final String protocol = detectProtocol(session, flowFile);
+            final RecordSetWriterFactory writerFactory =
+                context.getProperty(RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
+
+            final Map<String, String> attributes = new HashMap<>();
+            final FlowFile original = flowFile;
+            flowFile = session.write(flowFile, (in, out) -> {
+                    final PushbackInputStream pushback = new PushbackInputStream(in, 1);
+                    try {
+                        final TProtocol tprotocol = new ThriftStreamReader(protocol, pushback).getProtocol();
+                        int count = 0;
+                        if (writerFactory == null) {
+                            final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                            while (ThriftStreamReader.hasMore(pushback)) {
+                                decoder.readJson(tprotocol, writer);
+                                writer.write('\n');
+                                count++;
+                            }
+                            writer.flush();
+                            attributes.put(CoreAttributes.MIME_TYPE.key(), "application/json");
+                        } else {
+                            final RecordSchema schema = writerFactory.getSchema(original.getAttributes(), decoder.getSchema());
+                            try (RecordSetWriter writer = writerFactory.createWriter(getLogger(), schema, out, original)) {
+                                writer.beginRecordSet();
+                                while (ThriftStreamReader.hasMore(pushback)) {
+                                    writer.write(decoder.readRecord(tprotocol));
+                                }
+                                final WriteResult result = writer.finishRecordSet();
+                                attributes.putAll(result.getAttributes());
+                                attributes.put(CoreAttributes.MIME_TYPE.key(), writer.getMimeType());
+                                count = result.getRecordCount();
+                            }
+                        }
+                        attributes.put(RecordCountAttr, Integer.toString(count));
+                    } catch (TException | SchemaNotFoundException ex) {
+                        throw new IOException(ex);
+                    }
+            });
+            attributes.put(StructAttr, decoder.getStructName());
+            attributes.put(PutThriftIDL.VERSION_ATTR, idl.getVersion());
+            flowFile = session.putAllAttributes(flowFile, attributes);
+        } catch (Exception ex) {
+            getLogger().error("Failed to decode thrift, " + ex.getMessage());
+            forgetProtocol(flowFile);
+            flowFile = session.putAttribute(flowFile, "error", String.valueOf(ex.getMessage()));
+            session.transfer(flowFile, FAILURE);
+            return;
+        }
+        session.getProvenanceReporter().modifyContent(flowFile, "Decoded thrift " + flowFile.getAttribute(StructAttr));
+        session.transfer(flowFile, SUCCESS);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct ByteBuffers, in power of two size classes, shared by the processors of the JVM.
+ *
+ * A message held off heap never reaches the old generation, however large, so GC pauses do not
+ * grow with message size. Direct buffers are costly to allocate and are only freed once the GC
+ * finds them unreachable, so they are pooled: a buffer is allocated once and reused.
+ * At most maxPooledBytes are kept idle, a buffer given back beyond that is left to the GC.
+ */
+public final class DirectBufferPool {
+
+    /**
+     * 64 MB of idle buffers at most
+     */
+    public static final DirectBufferPool SHARED = new DirectBufferPool(64L << 20);
+
+    /**
+     * The smallest size class, 4 KB
+     */
+    static final int MIN_CLASS_SHIFT = 12;
+    /**
+     * The largest size class, 1 GB, larger buffers are not pooled
+     */
+    static final int MAX_CLASS_SHIFT = 30;
+
+    private final List<ConcurrentLinkedQueue<ByteBuffer>> classes = new ArrayList<>();
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final long maxPooledBytes;
+
+    /**
+     * @param maxPooledBytes the most bytes of idle buffers kept
+     */
+    public DirectBufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        for (int shift = MIN_CLASS_SHIFT; shift <= MAX_CLASS_SHIFT; shift++) {
+            classes.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * @param size the wanted size
+     * @return a direct buffer of at least size bytes, position 0 and limit size, its contents undefined.
+     *         Given back with release once no longer referred to, slices included
+     */
+    public ByteBuffer acquire(int size) {
+        final int sizeClass = sizeClass(size);
+        ByteBuffer buffer = null;
+        if (sizeClass < classes.size()) {
+            buffer = classes.get(sizeClass).poll();
+            if (buffer != null) {
+                pooledBytes.addAndGet(-buffer.capacity());
+            } else {
+                buffer = ByteBuffer.allocateDirect(1 << (sizeClass + MIN_CLASS_SHIFT));
+            }
+        } else {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * @param buffer a buffer from acquire, not to be used again
+     */
+    public void release(ByteBuffer buffer) {
+        final int capacity = buffer.capacity();
+        if (!buffer.isDirect() || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        final int sizeClass = sizeClass(capacity);
+        if (sizeClass >= classes.size() || 1 << (sizeClass + MIN_CLASS_SHIFT) != capacity) {
+            return;
+        }
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        classes.get(sizeClass).offer(buffer);
+    }
+
+    /**
+     * @return the bytes of idle buffers held
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= 1 << MIN_CLASS_SHIFT) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_CLASS_SHIFT;
+    }
+
+    /**
+     * Fills buffer, from its position to its limit, from in through the heap copy buffer
+     *
+     * @param in the stream
+     * @param buffer the buffer
+     * @param copy the copy buffer
+     * @throws IOException if in ends early
+     */
+    public static void read(InputStream in, ByteBuffer buffer, byte[] copy) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int count = in.read(copy, 0, Math.min(copy.length, buffer.remaining()));
+            if (count < 0) {
+                throw new EOFException(buffer.remaining() + " bytes missing");
+            }
+            buffer.put(copy, 0, count);
+        }
+    }
+
+    /**
+     * Writes buffer, from its position to its limit, to out through the heap copy buffer,
+     * the position of buffer is not moved
+     *
+     * @param buffer the buffer
+     * @param out the stream
+     * @param copy the copy buffer
+     * @throws IOException if out fails
+     */
+    public static void write(ByteBuffer buffer, OutputStream out, byte[] copy) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+        final ByteBuffer view = buffer.duplicate();
+        while (view.hasRemaining()) {
+            final int count = Math.min(copy.length, view.remaining());
+            view.get(copy, 0, count);
+            out.write(copy, 0, count);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.nifi.annotation.behavior.DynamicProperty;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.ReadsAttribute;
+import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.SideEffectFree;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.Validator;
+import org.apache.nifi.expression.ExpressionLanguageScope;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import org.apache.thrift.TException;
+
+@SideEffectFree
+@Tags({ "thrift", "path", "evaluate", "attributes", "route" })
+@CapabilityDescription("Evaluates paths, eg 'id' or \"flowFile.attributes['tenant']\", against a serialised Thrift struct, " +
+                       "writing each value to the attribute named by its dynamic property. " +
+                       "The struct is walked straight off the content, fields off the paths are skipped, " +
+                       "binary fields without being read into memory with BINARY and COMPACT, " +
+                       "and the walk stops once every path has its value")
+@SeeAlso({ThriftSchemaRegistry.class, DecodeThrift.class, SimpleProcessor.class})
+@InputRequirement(Requirement.INPUT_REQUIRED)
+@ReadsAttributes({
+    @ReadsAttribute(attribute   = "thrift.protocol",
+                    description = "the thrift protocol to be used for deserialisation (ignored unless DynamicProtocol or AUTO)")
+                })
+@DynamicProperty(name = "An attribute name", value = "A path into the struct",
+                 description = "The value at the path is written to the attribute, " +
+                               "fields by name, map values by ['key'] and list elements by [index]")
+public class EvaluateThriftPath extends AbstractThriftProcessor {
+
+    public static final PropertyDescriptor STRUCT_NAME = new PropertyDescriptor.Builder()
+            .name("StructName")
+            .description("The struct, union or exception serialised in the flowfile")
+            .required(true)
+            .defaultValue("FlowFileRequest")
+            .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor SCHEMA_REGISTRY = new PropertyDescriptor.Builder()
+            .fromPropertyDescriptor(PutThriftIDL.SCHEMA_REGISTRY)
+            .description("The ThriftSchemaRegistry holding the IDL, none uses " + PutThriftIDL.THRIFT_FILENAME)
+            .build();
+
+    public static final Relationship MATCHED = new Relationship.Builder()
+            .name("matched")
+            .description("Every path has a value")
+            .build();
+
+    public static final Relationship UNMATCHED = new Relationship.Builder()
+            .name("unmatched")
+            .description("Some path has no value, the values found are still written")
+            .build();
+
+    public static final Relationship FAILURE = new Relationship.Builder()
+            .name("failure")
+            .description("The content is not the struct, or a path does not fit the IDL")
+            .build();
+
+    private static final Validator PATH_VALIDATOR = (subject, input, context) -> {
+        try {
+            ThriftPath.parse(input);
+            return new ValidationResult.Builder().subject(subject).input(input).valid(true).build();
+        } catch (IllegalArgumentException ex) {
+            return new ValidationResult.Builder().subject(subject).input(input).valid(false)
+                .explanation(ex.getMessage()).build();
+        }
+    };
+
+    private volatile Map<String, String> paths = Collections.emptyMap();
+    /**
+     * Paths compiled for each IDL and struct, recompiled should the registry parse the IDL again
+     */
+    private final Map<String, ThriftPath> compiled = new ConcurrentHashMap<>();
+
+    public EvaluateThriftPath() {
+        super();
+    }
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        super.init(context);
+        addPropertyDescriptor(PROTOCOL_CACHE_ATTRIBUTE);
+        addPropertyDescriptor(SCHEMA_REGISTRY);
+        addPropertyDescriptor(PutThriftIDL.IDL_NAME);
+        addPropertyDescriptor(PutThriftIDL.IDL_VERSION);
+        addPropertyDescriptor(STRUCT_NAME);
+
+        final Set<Relationship> relationships = new HashSet<Relationship>();
+        relationships.add(MATCHED);
+        relationships.add(UNMATCHED);
+        relationships.add(FAILURE);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    protected PropertyDescriptor getSupportedDynamicPropertyDescriptor(final String propertyDescriptorName) {
+        return new PropertyDescriptor.Builder()
+                .name(propertyDescriptorName)
+                .required(false)
+                .dynamic(true)
+                .addValidator(PATH_VALIDATOR)
+                .build();
+    }
+
+    @Override
+    protected Collection<ValidationResult> customValidate(final ValidationContext context) {
+        final List<ValidationResult> results = new ArrayList<>();
+        boolean hasPath = false;
+        for (PropertyDescriptor descriptor : context.getProperties().keySet()) {
+            hasPath |= descriptor.isDynamic() && !getSupportedPropertyDescriptors().contains(descriptor);
+        }
+        if (!hasPath) {
+            results.add(new ValidationResult.Builder()
+                    .subject("Paths")
+                    .valid(false)
+                    .explanation("at least one path must be added as a dynamic property")
+                    .build());
+        }
+        return results;
+    }
+
+    @OnScheduled
+    public void setupPaths(final ProcessContext context) {
+        final Map<String, String> paths = new HashMap<>();
+        for (PropertyDescriptor descriptor : context.getProperties().keySet()) {
+            if (descriptor.isDynamic() && !getSupportedPropertyDescriptors().contains(descriptor)) {
+                paths.put(descriptor.getName(), context.getProperty(descriptor).getValue());
+            }
+        }
+        this.paths = Collections.unmodifiableMap(paths);
+        compiled.clear();
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        FlowFile flowFile = session.get();
+        if (flowFile == null) {
+            return;
+        }
+        final Map<String, String> values = new HashMap<>();
+        try {
+            final ThriftPath path = getPath(context, flowFile);
+            final String protocol = detectProtocol(session, flowFile);
+            if (flowFile.getSize() > 0) {
+                session.read(flowFile, (in) -> {
+                        try {
+                            values.putAll(path.evaluate(new ThriftStreamReader(protocol, in)));
+                        } catch (TException ex) {
+                            throw new IOException(ex);
+                        }
+                });
+            }
+        } catch (Exception ex) {
+            getLogger().error("Failed to evaluate thrift paths, " + ex.getMessage());
+            forgetProtocol(flowFile);
+            flowFile = session.putAttribute(flowFile, "error", String.valueOf(ex.getMessage()));
+            session.transfer(flowFile, FAILURE);
+            return;
+        }
+        flowFile = session.putAllAttributes(flowFile, values);
+        session.transfer(flowFile, values.size() == paths.size() ? MATCHED : UNMATCHED);
+    }
+
+    /**
+     * @return the paths compiled against the IDL and struct of flowFile
+     */
+    private ThriftPath getPath(final ProcessContext context, final FlowFile flowFile) throws IOException {
+        final ThriftIDL idl = lookupIDL(context, flowFile, SCHEMA_REGISTRY);
+        final String structName = context.getProperty(STRUCT_NAME).evaluateAttributeExpressions(flowFile).getValue();
+        final String key = idl.getName() + '-' + idl.getVersion() + ':' + structName;
+        ThriftPath path = compiled.get(key);
+        if (path == null || path.getIDL() != idl) {
+            path = ThriftPath.compile(idl, structName, paths);
+            compiled.put(key, path);
+        }
+        return path;
+    }
+}
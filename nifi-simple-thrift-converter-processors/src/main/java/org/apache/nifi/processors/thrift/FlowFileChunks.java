@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+
+/**
+ * Streams a FlowFileChunk, wire compatible with FlowFileChunk.write and read,
+ * without materialising FlowFileChunk.chunk.
+ *
+ * Writing, the chunk bytes are copied from their stream through a fixed size buffer.
+ * Reading, the chunk bytes are streamed to an OutputStream, or if there is none the
+ * read stops at the chunk once the id, sequence and total are known, so the header
+ * of a chunk can be had without touching its content.
+ */
+public class FlowFileChunks {
+
+    public static final String SequenceAttr = "thrift.chunk.sequence";
+    public static final String TotalAttr = "thrift.chunk.total";
+
+    static final TStruct CHUNK_STRUCT = new TStruct("FlowFileChunk");
+    static final TField CHUNK_ID = new TField("id", TType.I64,
+            FlowFileChunk._Fields.ID.getThriftFieldId());
+    static final TField CHUNK_SEQUENCE = new TField("sequence", TType.I32,
+            FlowFileChunk._Fields.SEQUENCE.getThriftFieldId());
+    static final TField CHUNK_TOTAL = new TField("total", TType.I32,
+            FlowFileChunk._Fields.TOTAL.getThriftFieldId());
+    static final TField CHUNK_CHUNK = new TField("chunk", TType.STRING,
+            FlowFileChunk._Fields.CHUNK.getThriftFieldId());
+    static final TField CHUNK_ATTRIBUTES = new TField("attributes", TType.MAP,
+            FlowFileChunk._Fields.ATTRIBUTES.getThriftFieldId());
+    static final TField CHUNK_RESPONSE_CODE = new TField("responseCode", TType.I32,
+            FlowFileChunk._Fields.RESPONSE_CODE.getThriftFieldId());
+
+    private long id;
+    private int sequence;
+    private int total;
+    private Map<String, String> attributes;
+    private ResponseCode responseCode;
+    private long chunkLength;
+
+    /**
+     * @param writer the writer
+     * @param id FlowFileChunk.id
+     * @param sequence FlowFileChunk.sequence
+     * @param total FlowFileChunk.total
+     * @param attributes FlowFileChunk.attributes, may be null, only written for sequence 0
+     * @param responseCode FlowFileChunk.responseCode, may be null, only written for sequence 0
+     * @param chunk FlowFileChunk.chunk source
+     * @param chunkLength the number of chunk bytes
+     * @param buffer the copy buffer
+     * @throws TException on a write failure
+     * @throws IOException if chunk ends early
+     */
+    public static void writeChunk(ThriftStreamWriter writer, long id, int sequence, int total,
+                                  Map<String, String> attributes, ResponseCode responseCode,
+                                  InputStream chunk, long chunkLength,
+                                  byte[] buffer) throws TException, IOException {
+        if (chunkLength > Integer.MAX_VALUE) {
+            throw new IOException("chunk of " + chunkLength + " bytes exceeds a thrift binary");
+        }
+        TProtocol protocol = writer.getProtocol();
+        protocol.writeStructBegin(CHUNK_STRUCT);
+        protocol.writeFieldBegin(CHUNK_ID);
+        protocol.writeI64(id);
+        protocol.writeFieldEnd();
+        protocol.writeFieldBegin(CHUNK_SEQUENCE);
+        protocol.writeI32(sequence);
+        protocol.writeFieldEnd();
+        protocol.writeFieldBegin(CHUNK_TOTAL);
+        protocol.writeI32(total);
+        protocol.writeFieldEnd();
+        protocol.writeFieldBegin(CHUNK_CHUNK);
+        if (writer.isRawBinary()) {
+            writer.writeBinaryLength((int) chunkLength);
+            writer.writeBytes(chunk, chunkLength, buffer);
+        } else {
+            writer.writeBase64(chunk, chunkLength, buffer);
+        }
+        protocol.writeFieldEnd();
+        if (sequence == 0 && attributes != null) {
+            protocol.writeFieldBegin(CHUNK_ATTRIBUTES);
+            protocol.writeMapBegin(new TMap(TType.STRING, TType.STRING, attributes.size()));
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                protocol.writeString(entry.getKey());
+                protocol.writeString(entry.getValue());
+            }
+            protocol.writeMapEnd();
+            protocol.writeFieldEnd();
+        }
+        if (sequence == 0 && responseCode != null) {
+            protocol.writeFieldBegin(CHUNK_RESPONSE_CODE);
+            protocol.writeI32(responseCode.getValue());
+            protocol.writeFieldEnd();
+        }
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+    }
+
+    /**
+     * Reads a FlowFileChunk, streaming FlowFileChunk.chunk to chunkOut.
+     * With no chunkOut the read stops at the chunk once id, sequence and total
+     * have been read, the attributes and responseCode are then not read
+     *
+     * @param protocolName the protocol
+     * @param in the serialised FlowFileChunk
+     * @param chunkOut where the chunk is streamed, null to read the header only
+     * @param buffer the copy buffer
+     * @throws TException if the FlowFileChunk cannot be read or its header is invalid
+     * @throws IOException if chunkOut fails
+     */
+    public void read(String protocolName, InputStream in, OutputStream chunkOut,
+                     byte[] buffer) throws TException, IOException {
+        id = 0;
+        sequence = -1;
+        total = -1;
+        attributes = null;
+        responseCode = null;
+        chunkLength = -1;
+
+        ThriftStreamReader reader = new ThriftStreamReader(protocolName, in);
+        TProtocol protocol = reader.getProtocol();
+        protocol.readStructBegin();
+        while (true) {
+            TField field = protocol.readFieldBegin();
+            if (field.type == TType.STOP) {
+                break;
+            }
+            if (field.id == CHUNK_ID.id && field.type == TType.I64) {
+                id = protocol.readI64();
+            } else if (field.id == CHUNK_SEQUENCE.id && field.type == TType.I32) {
+                sequence = protocol.readI32();
+            } else if (field.id == CHUNK_TOTAL.id && field.type == TType.I32) {
+                total = protocol.readI32();
+            } else if (field.id == CHUNK_CHUNK.id && field.type == TType.STRING && chunkOut != null) {
+                if (reader.isRawBinary()) {
+                    chunkLength = reader.readBinaryLength();
+                    reader.readBytes(chunkOut, chunkLength, buffer);
+                } else {
+                    chunkLength = reader.readBase64(chunkOut, buffer);
+                }
+            } else if (field.id == CHUNK_CHUNK.id && sequence >= 0 && total >= 0) {
+                // header only, and the header is complete
+                checkHeader();
+                return;
+            } else if (field.id == CHUNK_ATTRIBUTES.id && field.type == TType.MAP) {
+                TMap map = protocol.readMapBegin();
+                attributes = new HashMap<>(2 * map.size);
+                for (int i = 0; i < map.size; i++) {
+                    String key = protocol.readString();
+                    attributes.put(key, protocol.readString());
+                }
+                protocol.readMapEnd();
+            } else if (field.id == CHUNK_RESPONSE_CODE.id && field.type == TType.I32) {
+                responseCode = ResponseCode.findByValue(protocol.readI32());
+            } else {
+                reader.skip(field.type);
+            }
+            protocol.readFieldEnd();
+        }
+        protocol.readStructEnd();
+        checkHeader();
+    }
+
+    private void checkHeader() throws TProtocolException {
+        if (total <= 0 || sequence < 0 || sequence >= total) {
+            throw new TProtocolException(TProtocolException.INVALID_DATA,
+                                         "FlowFileChunk sequence " + sequence + " of " + total);
+        }
+    }
+
+    /**
+     * @return FlowFileChunk.id
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return FlowFileChunk.sequence
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return FlowFileChunk.total
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return FlowFileChunk.attributes, null if absent or not read
+     */
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @return FlowFileChunk.responseCode, null if absent or not read
+     */
+    public ResponseCode getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * @return the number of chunk bytes streamed, -1 if not streamed
+     */
+    public long getChunkLength() {
+        return chunkLength;
+    }
+}
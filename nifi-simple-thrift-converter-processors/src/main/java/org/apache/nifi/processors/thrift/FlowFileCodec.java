@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import org.apache.thrift.TException;
+
+/**
+ * Serialises and deserialises the FlowFile structs of flowfile_nifi.thrift with one protocol.
+ *
+ * Implementations are safe to share between threads, see ThriftCodecs.getCodec.
+ */
+public interface FlowFileCodec {
+
+    /**
+     * @param request the FlowFileRequest
+     * @return it serialised
+     * @throws TException if it cannot be serialised
+     */
+    byte[] serialize(FlowFileRequest request) throws TException;
+
+    /**
+     * @param reply the FlowFileReply
+     * @return it serialised
+     * @throws TException if it cannot be serialised
+     */
+    byte[] serialize(FlowFileReply reply) throws TException;
+
+    /**
+     * The binary fields deserialised may refer to bytes, as libthrift's do
+     *
+     * @param request receives the FlowFileRequest
+     * @param bytes the serialised FlowFileRequest
+     * @param offset its offset in bytes
+     * @param length its length
+     * @throws TException if it cannot be deserialised
+     */
+    void deserialize(FlowFileRequest request, byte[] bytes, int offset, int length) throws TException;
+
+    /**
+     * The binary fields deserialised may refer to bytes, as libthrift's do
+     *
+     * @param reply receives the FlowFileReply
+     * @param bytes the serialised FlowFileReply
+     * @param offset its offset in bytes
+     * @param length its length
+     * @throws TException if it cannot be deserialised
+     */
+    void deserialize(FlowFileReply reply, byte[] bytes, int offset, int length) throws TException;
+}
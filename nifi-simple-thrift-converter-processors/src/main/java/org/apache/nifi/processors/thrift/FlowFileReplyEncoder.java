@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+
+/**
+ * Streams a FlowFileReply, wire compatible with FlowFileReply.write,
+ * without materialising ThriftFlowFile.content.
+ *
+ * The reply header and the attributes map are written as usual, the content
+ * field header is written from the known content length and the content itself
+ * is then copied from its stream through a fixed size buffer, for JSON base64
+ * encoded as it is copied.
+ */
+public class FlowFileReplyEncoder {
+
+    static final TStruct REPLY_STRUCT = new TStruct("FlowFileReply");
+    static final TField REPLY_RESPONSE_CODE = new TField("responseCode", TType.I32,
+            FlowFileReply._Fields.RESPONSE_CODE.getThriftFieldId());
+    static final TField REPLY_ID = new TField("id", TType.I64,
+            FlowFileReply._Fields.ID.getThriftFieldId());
+    static final TField REPLY_FLOWFILE = new TField("flowFile", TType.STRUCT,
+            FlowFileReply._Fields.FLOW_FILE.getThriftFieldId());
+    static final TStruct FLOWFILE_STRUCT = new TStruct("ThriftFlowFile");
+    static final TField FLOWFILE_ATTRIBUTES = new TField("attributes", TType.MAP,
+            ThriftFlowFile._Fields.ATTRIBUTES.getThriftFieldId());
+    static final TField FLOWFILE_CONTENT = new TField("content", TType.STRING,
+            ThriftFlowFile._Fields.CONTENT.getThriftFieldId());
+
+    private FlowFileReplyEncoder() {
+    }
+
+    /**
+     * @param writer the writer
+     * @param responseCode FlowFileReply.responseCode
+     * @param id FlowFileReply.id
+     * @param attributes ThriftFlowFile.attributes, may be null
+     * @param content ThriftFlowFile.content source
+     * @param contentLength the number of content bytes
+     * @param buffer the copy buffer
+     * @throws TException on a write failure
+     * @throws IOException if content ends early
+     */
+    public static void writeReply(ThriftStreamWriter writer, ResponseCode responseCode, long id,
+                                  Map<String, String> attributes, InputStream content, long contentLength,
+                                  byte[] buffer) throws TException, IOException {
+        TProtocol protocol = writer.getProtocol();
+        protocol.writeStructBegin(REPLY_STRUCT);
+        protocol.writeFieldBegin(REPLY_RESPONSE_CODE);
+        protocol.writeI32(responseCode.getValue());
+        protocol.writeFieldEnd();
+        protocol.writeFieldBegin(REPLY_ID);
+        protocol.writeI64(id);
+        protocol.writeFieldEnd();
+        protocol.writeFieldBegin(REPLY_FLOWFILE);
+        writeFlowFile(writer, attributes, content, contentLength, buffer);
+        protocol.writeFieldEnd();
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+    }
+
+    /**
+     * @param writer the writer
+     * @param attributes ThriftFlowFile.attributes, may be null
+     * @param content ThriftFlowFile.content source
+     * @param contentLength the number of content bytes
+     * @param buffer the copy buffer
+     * @throws TException on a write failure
+     * @throws IOException if content ends early
+     */
+    public static void writeFlowFile(ThriftStreamWriter writer, Map<String, String> attributes,
+                                     InputStream content, long contentLength,
+                                     byte[] buffer) throws TException, IOException {
+        if (contentLength > Integer.MAX_VALUE) {
+            throw new IOException("content of " + contentLength + " bytes exceeds a thrift binary");
+        }
+        TProtocol protocol = writer.getProtocol();
+        protocol.writeStructBegin(FLOWFILE_STRUCT);
+        if (attributes != null) {
+            protocol.writeFieldBegin(FLOWFILE_ATTRIBUTES);
+            protocol.writeMapBegin(new TMap(TType.STRING, TType.STRING, attributes.size()));
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                writer.writeString(entry.getKey());
+                writer.writeString(entry.getValue());
+            }
+            protocol.writeMapEnd();
+            protocol.writeFieldEnd();
+        }
+        protocol.writeFieldBegin(FLOWFILE_CONTENT);
+        if (writer.isRawBinary()) {
+            writer.writeBinaryLength((int) contentLength);
+            writer.writeBytes(content, contentLength, buffer);
+        } else {
+            writer.writeBase64(content, contentLength, buffer);
+        }
+        protocol.writeFieldEnd();
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TType;
+
+/**
+ * Decodes only the wanted members of a serialised FlowFileRequest.
+ *
+ * The id is always decoded, the attributes only if asked for. ThriftFlowFile.content
+ * can be skipped, read, or located: with the BINARY and COMPACT protocols content is
+ * a raw byte run, so its offset and length within the stream can be recorded and the
+ * bytes skipped without allocating them, leaving the caller to reference that byte
+ * range, eg with ProcessSession.clone. Or content can be streamed, copied, or for JSON
+ * base64 decoded, to a stream a buffer at a time. Unwanted members are skipped on the wire.
+ *
+ * Whenever content is wanted the 'content.encoding' attribute is noted, as the
+ * content may be compressed, even if the attributes are not read.
+ */
+public class FlowFileRequestScanner {
+
+    /**
+     * What to do with ThriftFlowFile.content
+     */
+    public enum Content {
+        SKIP,
+        LOCATE,
+        READ,
+        STREAM
+    }
+
+    private static final short REQUEST_ID      = FlowFileRequest._Fields.ID.getThriftFieldId();
+    private static final short REQUEST_FLOWFILE = FlowFileRequest._Fields.FLOW_FILE.getThriftFieldId();
+    private static final short FLOWFILE_ATTRIBUTES = ThriftFlowFile._Fields.ATTRIBUTES.getThriftFieldId();
+    private static final short FLOWFILE_CONTENT    = ThriftFlowFile._Fields.CONTENT.getThriftFieldId();
+
+    private final boolean readingAttributes;
+    private final Content contentHandling;
+
+    private long id;
+    private Map<String, String> attributes;
+    private String contentEncoding;
+    private ByteBuffer content;
+    private long contentOffset;
+    private long contentLength;
+    private OutputStream contentOut;
+    private byte[] buffer;
+
+    /**
+     * @param readingAttributes decode ThriftFlowFile.attributes, otherwise they are skipped
+     * @param contentHandling what to do with ThriftFlowFile.content
+     */
+    public FlowFileRequestScanner(boolean readingAttributes, Content contentHandling) {
+        this.readingAttributes = readingAttributes;
+        this.contentHandling = contentHandling;
+    }
+
+    /**
+     * @param protocolName the protocol
+     * @param in the serialised FlowFileRequest
+     * @throws TException if the FlowFileRequest cannot be read
+     * @throws IOException if streaming content and its stream fails
+     * @throws IllegalArgumentException if locating content with a protocol that has no raw binary fields
+     */
+    public void scan(String protocolName, InputStream in) throws TException, IOException {
+        if (contentHandling == Content.LOCATE && !ThriftStreamReader.isRawBinary(protocolName)) {
+            throw new IllegalArgumentException("locating content not supported by " + protocolName);
+        }
+        if (contentHandling == Content.STREAM && contentOut == null) {
+            throw new IllegalArgumentException("streaming content needs a stream");
+        }
+        id = 0;
+        attributes = null;
+        contentEncoding = null;
+        content = null;
+        contentOffset = -1;
+        contentLength = 0;
+
+        ThriftStreamReader reader = new ThriftStreamReader(protocolName, in);
+        TProtocol protocol = reader.getProtocol();
+        protocol.readStructBegin();
+        while (true) {
+            TField field = protocol.readFieldBegin();
+            if (field.type == TType.STOP) {
+                break;
+            }
+            if (field.id == REQUEST_ID && field.type == TType.I64) {
+                id = protocol.readI64();
+            } else if (field.id == REQUEST_FLOWFILE && field.type == TType.STRUCT) {
+                scanFlowFile(reader);
+            } else {
+                reader.skip(field.type);
+            }
+            protocol.readFieldEnd();
+        }
+        protocol.readStructEnd();
+    }
+
+    /**
+     * Scans, streaming ThriftFlowFile.content to contentOut
+     *
+     * @param protocolName the protocol
+     * @param in the serialised FlowFileRequest
+     * @param contentOut where the content is streamed
+     * @param buffer the copy buffer
+     * @throws TException if the FlowFileRequest cannot be read
+     * @throws IOException if contentOut fails
+     */
+    public void scan(String protocolName, InputStream in, OutputStream contentOut, byte[] buffer) throws TException, IOException {
+        this.contentOut = contentOut;
+        this.buffer = buffer;
+        try {
+            scan(protocolName, in);
+        } finally {
+            this.contentOut = null;
+            this.buffer = null;
+        }
+    }
+
+    private void scanFlowFile(ThriftStreamReader reader) throws TException, IOException {
+        TProtocol protocol = reader.getProtocol();
+        protocol.readStructBegin();
+        while (true) {
+            TField field = protocol.readFieldBegin();
+            if (field.type == TType.STOP) {
+                break;
+            }
+            if (field.id == FLOWFILE_ATTRIBUTES && field.type == TType.MAP && readingAttributes) {
+                TMap map = protocol.readMapBegin();
+                // not presized, map.size comes off the wire unchecked
+                attributes = new HashMap<>();
+                for (int i = 0; i < map.size; i++) {
+                    String key = protocol.readString();
+                    attributes.put(key, protocol.readString());
+                }
+                protocol.readMapEnd();
+                contentEncoding = attributes.get(ContentCompression.ContentEncodingAttr);
+            } else if (field.id == FLOWFILE_ATTRIBUTES && field.type == TType.MAP && contentHandling != Content.SKIP) {
+                TMap map = protocol.readMapBegin();
+                for (int i = 0; i < map.size; i++) {
+                    String key = protocol.readString();
+                    String value = protocol.readString();
+                    if (ContentCompression.ContentEncodingAttr.equals(key)) {
+                        contentEncoding = value;
+                    }
+                }
+                protocol.readMapEnd();
+            } else if (field.id == FLOWFILE_CONTENT && field.type == TType.STRING
+                       && contentHandling == Content.LOCATE) {
+                contentLength = reader.readBinaryLength();
+                contentOffset = reader.getPosition();
+                reader.skipBytes(contentLength);
+            } else if (field.id == FLOWFILE_CONTENT && field.type == TType.STRING
+                       && contentHandling == Content.READ) {
+                content = protocol.readBinary();
+                contentLength = content.remaining();
+            } else if (field.id == FLOWFILE_CONTENT && field.type == TType.STRING
+                       && contentHandling == Content.STREAM) {
+                contentLength = streamContent(reader);
+            } else {
+                reader.skip(field.type);
+            }
+            protocol.readFieldEnd();
+        }
+        protocol.readStructEnd();
+    }
+
+    private long streamContent(ThriftStreamReader reader) throws TException, IOException {
+        if (!reader.isRawBinary()) {
+            final long length = reader.readBase64(contentOut, buffer);
+            if (length > Integer.MAX_VALUE) {
+                throw new TProtocolException(TProtocolException.SIZE_LIMIT,
+                                             "content of " + length + " bytes exceeds a thrift binary");
+            }
+            return length;
+        }
+        final int length = reader.readBinaryLength();
+        reader.readBytes(contentOut, length, buffer);
+        return length;
+    }
+
+    /**
+     * @return FlowFileRequest.id
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return ThriftFlowFile.attributes, null if absent or not read
+     */
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @return the 'content.encoding' attribute, null if absent or content was skipped
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * @return ThriftFlowFile.content, null if absent or not read
+     */
+    public ByteBuffer getContent() {
+        return content;
+    }
+
+    /**
+     * @return offset of ThriftFlowFile.content in the stream, -1 if absent or not located
+     */
+    public long getContentOffset() {
+        return contentOffset;
+    }
+
+    /**
+     * @return length of ThriftFlowFile.content, as streamed if streaming
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+}
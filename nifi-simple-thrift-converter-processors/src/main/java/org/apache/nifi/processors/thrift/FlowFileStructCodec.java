@@ -0,0 +1,808 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TType;
+
+/**
+ * Hand written BINARY and COMPACT codecs of FlowFileRequest, FlowFileReply and ThriftFlowFile,
+ * wire compatible with libthrift's TBinaryProtocol and TCompactProtocol.
+ *
+ * This bundle owns these structs, so rather than the generated read and write, dispatching every value
+ * through TProtocol and a TField per field, the codec works on a byte array directly:
+ * the exact size is computed first so a struct is written into one array with no copy or growth,
+ * strings are UTF-8 encoded in place, and the attributes map is presized on read.
+ * Fields in any order, and fields unknown to this IDL, are read as libthrift reads them.
+ *
+ * The ByteBuffer methods do the same with direct buffers, which libthrift cannot write from:
+ * a message read into a direct buffer leaves its content there, ThriftFlowFile.content
+ * being a slice of it, so a large payload is never copied onto the heap.
+ */
+public final class FlowFileStructCodec implements FlowFileCodec {
+
+    public static final FlowFileStructCodec BINARY = new FlowFileStructCodec(false);
+    public static final FlowFileStructCodec COMPACT = new FlowFileStructCodec(true);
+
+    private static final short REQUEST_ID = FlowFileRequest._Fields.ID.getThriftFieldId();
+    private static final short REQUEST_FLOWFILE = FlowFileRequest._Fields.FLOW_FILE.getThriftFieldId();
+    private static final short REPLY_RESPONSE_CODE = FlowFileReply._Fields.RESPONSE_CODE.getThriftFieldId();
+    private static final short REPLY_ID = FlowFileReply._Fields.ID.getThriftFieldId();
+    private static final short REPLY_FLOWFILE = FlowFileReply._Fields.FLOW_FILE.getThriftFieldId();
+    private static final short FLOWFILE_ATTRIBUTES = ThriftFlowFile._Fields.ATTRIBUTES.getThriftFieldId();
+    private static final short FLOWFILE_CONTENT = ThriftFlowFile._Fields.CONTENT.getThriftFieldId();
+
+    /**
+     * TCompactProtocol's type codes, by TType
+     */
+    private static final byte[] COMPACT_TYPES = new byte[16];
+    /**
+     * TTypes, by TCompactProtocol's type code
+     */
+    private static final byte[] TTYPES = new byte[16];
+    static {
+        final byte[][] types = {
+            {TType.STOP, 0}, {TType.BOOL, 1}, {TType.BYTE, 3}, {TType.I16, 4}, {TType.I32, 5}, {TType.I64, 6},
+            {TType.DOUBLE, 7}, {TType.STRING, 8}, {TType.LIST, 9}, {TType.SET, 10}, {TType.MAP, 11}, {TType.STRUCT, 12}};
+        for (byte[] type : types) {
+            COMPACT_TYPES[type[0]] = type[1];
+            TTYPES[type[1]] = type[0];
+        }
+        // BOOLEAN_FALSE
+        TTYPES[2] = TType.BOOL;
+    }
+
+    private final boolean compact;
+
+    private FlowFileStructCodec(boolean compact) {
+        this.compact = compact;
+    }
+
+    /**
+     * @param protocol BINARY or COMPACT
+     * @return the codec of the protocol
+     * @throws IllegalArgumentException if the protocol has none
+     */
+    public static FlowFileStructCodec forProtocol(String protocol) throws IllegalArgumentException {
+        if (AbstractThriftProcessor.ProtocolBinary.equals(protocol)) {
+            return BINARY;
+        }
+        if (AbstractThriftProcessor.ProtocolCompact.equals(protocol)) {
+            return COMPACT;
+        }
+        throw new IllegalArgumentException("no specialized codec for " + protocol);
+    }
+
+    @Override
+    public byte[] serialize(FlowFileRequest request) throws TException {
+        final int flowFileSize = request.flowFile == null ? 0 : sizeOf(request.flowFile);
+        int size = fieldSize(REQUEST_ID, 0) + i64Size(request.id) + 1;
+        if (request.flowFile != null) {
+            size += fieldSize(REQUEST_FLOWFILE, REQUEST_ID) + flowFileSize;
+        }
+        final Out out = new Out(ByteBuffer.wrap(new byte[size]));
+        out.field(TType.I64, REQUEST_ID);
+        out.i64(request.id);
+        if (request.flowFile != null) {
+            out.field(TType.STRUCT, REQUEST_FLOWFILE);
+            write(out, request.flowFile);
+        }
+        out.stop();
+        return out.buffer.array();
+    }
+
+    @Override
+    public byte[] serialize(FlowFileReply reply) throws TException {
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[sizeOf(reply)]);
+        serialize(reply, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * @param reply the FlowFileReply
+     * @return the size of it serialised
+     */
+    public int sizeOf(FlowFileReply reply) {
+        int size = 1;
+        short last = 0;
+        if (reply.responseCode != null) {
+            size += fieldSize(REPLY_RESPONSE_CODE, last) + i32Size(reply.responseCode.getValue());
+            last = REPLY_RESPONSE_CODE;
+        }
+        size += fieldSize(REPLY_ID, last) + i64Size(reply.id);
+        if (reply.flowFile != null) {
+            size += fieldSize(REPLY_FLOWFILE, REPLY_ID) + sizeOf(reply.flowFile);
+        }
+        return size;
+    }
+
+    /**
+     * @param reply the FlowFileReply
+     * @param buffer receives it serialised, from its position, which is advanced by sizeOf(reply)
+     * @throws java.nio.BufferOverflowException if buffer has less than sizeOf(reply) remaining
+     */
+    public void serialize(FlowFileReply reply, ByteBuffer buffer) {
+        final Out out = new Out(buffer);
+        if (reply.responseCode != null) {
+            out.field(TType.I32, REPLY_RESPONSE_CODE);
+            out.i32(reply.responseCode.getValue());
+        }
+        out.field(TType.I64, REPLY_ID);
+        out.i64(reply.id);
+        if (reply.flowFile != null) {
+            out.field(TType.STRUCT, REPLY_FLOWFILE);
+            write(out, reply.flowFile);
+        }
+        out.stop();
+    }
+
+    private int sizeOf(ThriftFlowFile flowFile) {
+        int size = 1;
+        short last = 0;
+        if (flowFile.attributes != null) {
+            size += fieldSize(FLOWFILE_ATTRIBUTES, last) + mapHeaderSize(flowFile.attributes.size());
+            for (Map.Entry<String, String> attribute : flowFile.attributes.entrySet()) {
+                size += stringSize(attribute.getKey()) + stringSize(attribute.getValue());
+            }
+            last = FLOWFILE_ATTRIBUTES;
+        }
+        if (flowFile.content != null) {
+            size += fieldSize(FLOWFILE_CONTENT, last) + binarySize(flowFile.content.remaining());
+        }
+        return size;
+    }
+
+    private void write(Out out, ThriftFlowFile flowFile) {
+        out.structBegin();
+        if (flowFile.attributes != null) {
+            out.field(TType.MAP, FLOWFILE_ATTRIBUTES);
+            out.mapHeader(TType.STRING, TType.STRING, flowFile.attributes.size());
+            for (Map.Entry<String, String> attribute : flowFile.attributes.entrySet()) {
+                out.string(attribute.getKey());
+                out.string(attribute.getValue());
+            }
+        }
+        if (flowFile.content != null) {
+            out.field(TType.STRING, FLOWFILE_CONTENT);
+            out.binary(flowFile.content);
+        }
+        out.stop();
+        out.structEnd();
+    }
+
+    @Override
+    public void deserialize(FlowFileRequest request, byte[] bytes, int offset, int length) throws TException {
+        deserialize(request, ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * The binary fields deserialised refer to buffer, slices of it if it is direct
+     *
+     * @param request receives the FlowFileRequest
+     * @param buffer the serialised FlowFileRequest, from its position to its limit, the position is not moved
+     * @throws TException if it cannot be deserialised
+     */
+    public void deserialize(FlowFileRequest request, ByteBuffer buffer) throws TException {
+        request.clear();
+        final In in = new In(buffer);
+        while (true) {
+            final byte type = in.field();
+            if (type == TType.STOP) {
+                break;
+            }
+            if (in.fieldId == REQUEST_ID && type == TType.I64) {
+                request.setId(in.i64());
+            } else if (in.fieldId == REQUEST_FLOWFILE && type == TType.STRUCT) {
+                request.setFlowFile(read(in));
+            } else {
+                in.skip(type);
+            }
+        }
+    }
+
+    @Override
+    public void deserialize(FlowFileReply reply, byte[] bytes, int offset, int length) throws TException {
+        deserialize(reply, ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * The binary fields deserialised refer to buffer, slices of it if it is direct
+     *
+     * @param reply receives the FlowFileReply
+     * @param buffer the serialised FlowFileReply, from its position to its limit, the position is not moved
+     * @throws TException if it cannot be deserialised
+     */
+    public void deserialize(FlowFileReply reply, ByteBuffer buffer) throws TException {
+        reply.clear();
+        final In in = new In(buffer);
+        while (true) {
+            final byte type = in.field();
+            if (type == TType.STOP) {
+                break;
+            }
+            if (in.fieldId == REPLY_RESPONSE_CODE && type == TType.I32) {
+                // an unknown value is null, as libthrift's findByValue
+                reply.responseCode = ResponseCode.findByValue(in.i32());
+            } else if (in.fieldId == REPLY_ID && type == TType.I64) {
+                reply.setId(in.i64());
+            } else if (in.fieldId == REPLY_FLOWFILE && type == TType.STRUCT) {
+                reply.setFlowFile(read(in));
+            } else {
+                in.skip(type);
+            }
+        }
+    }
+
+    private ThriftFlowFile read(In in) throws TException {
+        final ThriftFlowFile flowFile = new ThriftFlowFile();
+        in.structBegin();
+        while (true) {
+            final byte type = in.field();
+            if (type == TType.STOP) {
+                break;
+            }
+            if (in.fieldId == FLOWFILE_ATTRIBUTES && type == TType.MAP) {
+                final int size = in.mapHeader();
+                if (size > 0 && (in.keyType != TType.STRING || in.valueType != TType.STRING)) {
+                    in.skipEntries(size);
+                    continue;
+                }
+                final Map<String, String> attributes = new HashMap<>(AbstractThriftProcessor.capacity(size));
+                for (int i = 0; i < size; i++) {
+                    final String key = in.string();
+                    attributes.put(key, in.string());
+                }
+                flowFile.attributes = attributes;
+            } else if (in.fieldId == FLOWFILE_CONTENT && type == TType.STRING) {
+                flowFile.content = in.binary();
+            } else {
+                in.skip(type);
+            }
+        }
+        in.structEnd();
+        return flowFile;
+    }
+
+    private int fieldSize(short id, int last) {
+        if (!compact) {
+            return 3;
+        }
+        final int delta = id - last;
+        return delta > 0 && delta <= 15 ? 1 : 1 + varintSize(zigzag(id));
+    }
+
+    private int i32Size(int value) {
+        return compact ? varintSize(zigzag(value)) : 4;
+    }
+
+    private int i64Size(long value) {
+        return compact ? varintSize((value << 1) ^ (value >> 63)) : 8;
+    }
+
+    private int mapHeaderSize(int size) {
+        return compact ? (size == 0 ? 1 : varintSize(size) + 1) : 6;
+    }
+
+    private int binarySize(int length) {
+        return (compact ? varintSize(length) : 4) + length;
+    }
+
+    private int stringSize(String value) {
+        return binarySize(utf8Length(value));
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7fL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Encodes value as UTF-8 into buffer, utf8Length bytes, an unpaired surrogate being '?' as String.getBytes has it
+     */
+    static void putUtf8(String value, ByteBuffer buffer) {
+        final int chars = value.length();
+        for (int i = 0; i < chars; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xf0 | codePoint >> 18));
+                buffer.put((byte) (0x80 | codePoint >> 12 & 0x3f));
+                buffer.put((byte) (0x80 | codePoint >> 6 & 0x3f));
+                buffer.put((byte) (0x80 | codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xe0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3f));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * @return the length of value in UTF-8, an unpaired surrogate being '?' as String.getBytes has it
+     */
+    static int utf8Length(String value) {
+        final int chars = value.length();
+        int length = chars;
+        for (int i = 0; i < chars; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                length += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // the pair's two chars are four bytes
+                length += 2;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                continue;
+            } else {
+                length += 2;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * The struct being written, into a buffer of at least its exact size
+     */
+    private final class Out {
+        final ByteBuffer buffer;
+        private short lastFieldId;
+        private final short[] lastFieldIds = new short[4];
+        private int depth;
+
+        Out(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void field(byte type, short id) {
+            if (!compact) {
+                buffer.put(type);
+                buffer.put((byte) (id >> 8));
+                buffer.put((byte) id);
+                return;
+            }
+            final int delta = id - lastFieldId;
+            if (delta > 0 && delta <= 15) {
+                buffer.put((byte) (delta << 4 | COMPACT_TYPES[type]));
+            } else {
+                buffer.put(COMPACT_TYPES[type]);
+                varint(zigzag(id));
+            }
+            lastFieldId = id;
+        }
+
+        void stop() {
+            buffer.put(TType.STOP);
+        }
+
+        void structBegin() {
+            if (compact) {
+                lastFieldIds[depth++] = lastFieldId;
+                lastFieldId = 0;
+            }
+        }
+
+        void structEnd() {
+            if (compact) {
+                lastFieldId = lastFieldIds[--depth];
+            }
+        }
+
+        void i32(int value) {
+            if (compact) {
+                varint(zigzag(value));
+            } else {
+                buffer.put((byte) (value >> 24));
+                buffer.put((byte) (value >> 16));
+                buffer.put((byte) (value >> 8));
+                buffer.put((byte) value);
+            }
+        }
+
+        void i64(long value) {
+            if (compact) {
+                varint((value << 1) ^ (value >> 63));
+            } else {
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    buffer.put((byte) (value >> shift));
+                }
+            }
+        }
+
+        void mapHeader(byte keyType, byte valueType, int size) {
+            if (!compact) {
+                buffer.put(keyType);
+                buffer.put(valueType);
+                i32(size);
+            } else if (size == 0) {
+                buffer.put((byte) 0);
+            } else {
+                varint(size);
+                buffer.put((byte) (COMPACT_TYPES[keyType] << 4 | COMPACT_TYPES[valueType]));
+            }
+        }
+
+        void length(int length) {
+            if (compact) {
+                varint(length);
+            } else {
+                i32(length);
+            }
+        }
+
+        void binary(ByteBuffer value) {
+            length(value.remaining());
+            buffer.put(value.duplicate());
+        }
+
+        /**
+         * Encodes value as UTF-8 straight into the buffer
+         */
+        void string(String value) {
+            length(utf8Length(value));
+            putUtf8(value, buffer);
+        }
+
+        private void varint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                buffer.put((byte) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+    }
+
+    /**
+     * The struct being read, straight from the buffer
+     */
+    private final class In {
+        final ByteBuffer buffer;
+        final int limit;
+        int pos;
+        short fieldId;
+        byte keyType;
+        byte valueType;
+        private short lastFieldId;
+        private final short[] lastFieldIds = new short[64];
+        private int depth;
+        /**
+         * TCompactProtocol folds a bool field's value into its header
+         */
+        private int fieldBool = -1;
+
+        In(ByteBuffer buffer) {
+            // big endian, as the duplicate of any buffer is
+            this.buffer = buffer.duplicate();
+            this.pos = buffer.position();
+            this.limit = buffer.limit();
+        }
+
+        private void need(int count) throws TProtocolException {
+            if (count < 0 || limit - pos < count) {
+                throw new TProtocolException(TProtocolException.INVALID_DATA,
+                                             "struct truncated, " + count + " bytes needed, " + (limit - pos) + " left");
+            }
+        }
+
+        private byte byteValue() throws TProtocolException {
+            need(1);
+            return buffer.get(pos++);
+        }
+
+        /**
+         * @return the TType of the next field, its id in fieldId, TType.STOP at the end of the struct
+         */
+        byte field() throws TException {
+            final byte header = byteValue();
+            if (!compact) {
+                if (header == TType.STOP) {
+                    return TType.STOP;
+                }
+                need(2);
+                fieldId = buffer.getShort(pos);
+                pos += 2;
+                return header;
+            }
+            final int compactType = header & 0x0f;
+            if (compactType == 0) {
+                return TType.STOP;
+            }
+            final int delta = (header & 0xf0) >>> 4;
+            fieldId = delta == 0 ? (short) unzigzag((int) varint()) : (short) (lastFieldId + delta);
+            lastFieldId = fieldId;
+            if (compactType == 1 || compactType == 2) {
+                fieldBool = compactType == 1 ? 1 : 0;
+            }
+            return ttype(compactType);
+        }
+
+        private byte ttype(int compactType) throws TProtocolException {
+            if (compactType > 12) {
+                throw new TProtocolException(TProtocolException.INVALID_DATA, "unknown compact type " + compactType);
+            }
+            return TTYPES[compactType];
+        }
+
+        void structBegin() throws TProtocolException {
+            if (compact) {
+                if (depth == lastFieldIds.length) {
+                    throw new TProtocolException(TProtocolException.DEPTH_LIMIT, "structs nested too deep");
+                }
+                lastFieldIds[depth++] = lastFieldId;
+                lastFieldId = 0;
+            }
+        }
+
+        void structEnd() {
+            if (compact) {
+                lastFieldId = lastFieldIds[--depth];
+            }
+        }
+
+        int i32() throws TException {
+            if (compact) {
+                return unzigzag((int) varint());
+            }
+            need(4);
+            final int value = buffer.getInt(pos);
+            pos += 4;
+            return value;
+        }
+
+        long i64() throws TException {
+            if (compact) {
+                final long value = varint();
+                return (value >>> 1) ^ -(value & 1);
+            }
+            need(8);
+            final long value = buffer.getLong(pos);
+            pos += 8;
+            return value;
+        }
+
+        /**
+         * @return the number of entries, their types in keyType and valueType
+         */
+        int mapHeader() throws TException {
+            final int size;
+            if (!compact) {
+                keyType = byteValue();
+                valueType = byteValue();
+                size = size(i32());
+            } else {
+                size = size((int) varint());
+                if (size > 0) {
+                    final byte types = byteValue();
+                    keyType = ttype((types & 0xf0) >>> 4);
+                    valueType = ttype(types & 0x0f);
+                }
+            }
+            if (size > 0) {
+                available(size, minSize(keyType) + minSize(valueType));
+            }
+            return size;
+        }
+
+        /**
+         * @return the number of elements, their type in valueType
+         */
+        int listHeader() throws TException {
+            if (!compact) {
+                valueType = byteValue();
+                return available(size(i32()), minSize(valueType));
+            }
+            final byte header = byteValue();
+            valueType = ttype(header & 0x0f);
+            final int size = (header & 0xf0) >>> 4;
+            return available(size == 15 ? size((int) varint()) : size, minSize(valueType));
+        }
+
+        /**
+         * Rejects a size the bytes left cannot hold, as libthrift's checkReadBytesAvailable does,
+         * before anything is sized by it
+         *
+         * @param size the number of entries or elements declared
+         * @param entrySize the fewest bytes one takes
+         * @return size
+         */
+        private int available(int size, int entrySize) throws TProtocolException {
+            if ((long) size * entrySize > limit - pos) {
+                throw new TProtocolException(TProtocolException.SIZE_LIMIT,
+                                             size + " entries declared, " + (limit - pos) + " bytes left");
+            }
+            return size;
+        }
+
+        /**
+         * @param type a TType
+         * @return the fewest bytes a value of type is serialised to
+         */
+        private int minSize(byte type) {
+            switch (type) {
+            case TType.I16:
+                return compact ? 1 : 2;
+            case TType.I32:
+            case TType.STRING:
+                return compact ? 1 : 4;
+            case TType.I64:
+                return compact ? 1 : 8;
+            case TType.DOUBLE:
+                return 8;
+            case TType.MAP:
+                return compact ? 1 : 6;
+            case TType.SET:
+            case TType.LIST:
+                return compact ? 1 : 5;
+            default:
+                // BOOL, BYTE, and a STRUCT's STOP
+                return 1;
+            }
+        }
+
+        private int size(int size) throws TProtocolException {
+            if (size < 0) {
+                throw new TProtocolException(TProtocolException.NEGATIVE_SIZE, "Negative length: " + size);
+            }
+            return size;
+        }
+
+        int length() throws TException {
+            return size(compact ? (int) varint() : i32());
+        }
+
+        String string() throws TException {
+            final int length = length();
+            need(length);
+            final String value;
+            if (buffer.hasArray()) {
+                value = new String(buffer.array(), buffer.arrayOffset() + pos, length, StandardCharsets.UTF_8);
+            } else {
+                final byte[] bytes = new byte[length];
+                buffer.duplicate().position(pos).get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            pos += length;
+            return value;
+        }
+
+        /**
+         * @return the binary, referring to the array as libthrift's does, or a slice of a direct buffer
+         */
+        ByteBuffer binary() throws TException {
+            final int length = length();
+            need(length);
+            final ByteBuffer value;
+            if (buffer.hasArray()) {
+                value = ByteBuffer.wrap(buffer.array(), buffer.arrayOffset() + pos, length);
+            } else {
+                final ByteBuffer view = buffer.duplicate();
+                view.limit(pos + length).position(pos);
+                value = view.slice();
+            }
+            pos += length;
+            return value;
+        }
+
+        void skipEntries(int size) throws TException {
+            final byte key = keyType;
+            final byte value = valueType;
+            for (int i = 0; i < size; i++) {
+                skip(key);
+                skip(value);
+            }
+        }
+
+        void skip(byte type) throws TException {
+            switch (type) {
+            case TType.BOOL:
+                if (compact && fieldBool >= 0) {
+                    fieldBool = -1;
+                } else {
+                    skipBytes(1);
+                }
+                break;
+            case TType.BYTE:
+                skipBytes(1);
+                break;
+            case TType.I16:
+            case TType.I32:
+            case TType.I64:
+                if (compact) {
+                    varint();
+                } else {
+                    skipBytes(type == TType.I16 ? 2 : type == TType.I32 ? 4 : 8);
+                }
+                break;
+            case TType.DOUBLE:
+                skipBytes(8);
+                break;
+            case TType.STRING:
+                skipBytes(length());
+                break;
+            case TType.STRUCT:
+                structBegin();
+                while (true) {
+                    final byte field = field();
+                    if (field == TType.STOP) {
+                        break;
+                    }
+                    skip(field);
+                }
+                structEnd();
+                break;
+            case TType.MAP:
+                skipEntries(mapHeader());
+                break;
+            case TType.SET:
+            case TType.LIST:
+                final int size = listHeader();
+                final byte element = valueType;
+                for (int i = 0; i < size; i++) {
+                    skip(element);
+                }
+                break;
+            default:
+                throw new TProtocolException(TProtocolException.INVALID_DATA, "unknown type " + type);
+            }
+            fieldBool = -1;
+        }
+
+        private void skipBytes(int count) throws TProtocolException {
+            need(count);
+            pos += count;
+        }
+
+        private long varint() throws TProtocolException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = byteValue();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new TProtocolException(TProtocolException.INVALID_DATA, "Variable length int over 10 bytes");
+        }
+
+        private int unzigzag(int value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
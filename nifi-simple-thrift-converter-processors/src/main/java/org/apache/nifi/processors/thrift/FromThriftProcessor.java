@@ -16,10 +16,17 @@
  */
 package org.apache.nifi.processors.thrift;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 
@@ -32,46 +39,88 @@ import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.annotation.behavior.ReadsAttribute;
+import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.TriggerWhenAnyDestinationAvailable;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.SeeAlso;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.controller.queue.QueueSize;
 import org.apache.nifi.util.StopWatch;
 
+import org.apache.thrift.TException;
+
 
 @Tags({ "thrift", "converter" })
 @CapabilityDescription("Creates a new flowfile by deserializing the FlowFileRequest contained in the flowfile.content." +
                        "Each attribute 'xxx' from the FlowFileRequest.ThriftFlowFile.attribute object " +
                           "is copied to the flowfile attribute 'thrift.attr.xxx'" +
-                       "FlowFileRequest.ThriftFlowFile.contents is copied to flowfile.content")
+                       "FlowFileRequest.ThriftFlowFile.contents is copied to flowfile.content, " +
+                       "decompressed if its 'content.encoding' attribute is lz4, zstd or zstd-dict")
 @SeeAlso({ToThriftProcessor.class,PutThriftIDL.class})
+@TriggerWhenAnyDestinationAvailable
+@ReadsAttributes({
+    @ReadsAttribute(attribute   = "thrift.protocol",
+                    description = "the thrift protocol to be used for deserialisation (ignored unless DynamicProtocol or AUTO)")
+                })
 
 @WritesAttributes({
     @WritesAttribute(attribute   = "thrift.id",
                      description = "The Thrift id of the Thrift object"),
+    @WritesAttribute(attribute   = "thrift.protocol",
+                     description = "The detected thrift protocol (ThriftProtocol AUTO only)"),
     @WritesAttribute(attribute   = "thrift.attr.*",
                      description = "Each attribute 'xxx' from the Thrift object " +
-                                     "is copied to the flowfile attribute 'thrift.attr.xxx'")
+                                     "is copied to the flowfile attribute 'thrift.attr.xxx', " +
+                                     "but 'content.encoding' once the content is decompressed"),
+    @WritesAttribute(attribute   = "thrift.response.code",
+                     description = "RETRY, on Retry only"),
+    @WritesAttribute(attribute   = "thrift.http_status_attr",
+                     description = "503, on Retry only, to be passed back by, eg, HandleHttpResponse"),
+    @WritesAttribute(attribute   = "thrift.retry.after",
+                     description = "The seconds the client should wait, on Retry only, eg for a Retry-After header")
                   })
 public class FromThriftProcessor extends AbstractThriftProcessor {
 
     private static final String ConversionScopeAll     = "All";
     private static final String ConversionScopeAttr    = "Attr";
     private static final String ConversionScopeContent = "Content";
+    private static final String ConversionScopeIdOnly  = "IdOnly";
     private              String conversionScope ;
-    private              boolean convertingAttr;
-    private              boolean convertingContent;
+    private volatile     boolean convertingAttr;
+    private volatile     boolean convertingContent;
+    private static final String ContentExtractionCopy  = "Copy";
+    private static final String ContentExtractionClone = "Clone";
+    private volatile     boolean cloningContent;
     public static final PropertyDescriptor CONVERSION_SCOPE = new PropertyDescriptor.Builder()
             .name("ConversionScope")
-            .description("What Thrift object members (Attributes,Content,All) are converted to FlowFile")
+            .description("What Thrift object members (Attributes,Content,All) are converted to FlowFile. " +
+                         "Members outside the scope are skipped on the wire, not deserialised. " +
+                         "IdOnly converts neither, only 'thrift.id' is set, eg for routing")
             .required(true)
             .allowableValues(new AllowableValue(ConversionScopeAll),
                             new AllowableValue(ConversionScopeAttr),
-                            new AllowableValue(ConversionScopeContent))
+                            new AllowableValue(ConversionScopeContent),
+                            new AllowableValue(ConversionScopeIdOnly))
             .defaultValue(ConversionScopeAll)
             .dynamic(false).addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
             .build();
+    public static final PropertyDescriptor CONTENT_EXTRACTION = new PropertyDescriptor.Builder()
+            .name("ContentExtraction")
+            .description("How ThriftFlowFile.content becomes the flowfile content. " +
+                         "Copy deserialises the content and writes it to the new flowfile. " +
+                         "Clone references the content's byte range within the incoming flowfile, " +
+                         "so the content is neither read onto the heap nor rewritten. " +
+                         "Clone needs the BINARY or COMPACT protocol, JSON always copies")
+            .required(true)
+            .allowableValues(new AllowableValue(ContentExtractionCopy),
+                            new AllowableValue(ContentExtractionClone))
+            .defaultValue(ContentExtractionCopy)
+            .dynamic(false).addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
     public static final Relationship SUCCESS = new Relationship.Builder()
             .name("Success")
             .description("Flowfile extracted from Thrift")
@@ -82,6 +131,15 @@ public class FromThriftProcessor extends AbstractThriftProcessor {
             .description("Failed Thrift to flowfile conversion")
             .build();
 
+    public static final Relationship RETRY = new Relationship.Builder()
+            .name("Retry")
+            .description("Requests shed by admission control, or while Success is backpressured, " +
+                         "their content replaced by a serialised FlowFileReply with ResponseCode RETRY")
+            .build();
+
+    private volatile AdmissionControl admissionControl;
+    private volatile ContentCompression contentCompression;
+
     public FromThriftProcessor() {
         super();
     }
@@ -90,10 +148,22 @@ public class FromThriftProcessor extends AbstractThriftProcessor {
     protected void init(final ProcessorInitializationContext context) {
         super.init(context);
         addPropertyDescriptor(CONVERSION_SCOPE);
+        addPropertyDescriptor(CONTENT_EXTRACTION);
+        addPropertyDescriptor(BATCH_SIZE);
+        addPropertyDescriptor(PROTOCOL_CACHE_ATTRIBUTE);
+        addPropertyDescriptor(ADMISSION_MAX_QUEUE_DEPTH);
+        addPropertyDescriptor(ADMISSION_MAX_QUEUED_BYTES);
+        addPropertyDescriptor(ADMISSION_MAX_LATENCY);
+        addPropertyDescriptor(RETRY_AFTER);
+        addPropertyDescriptor(ZSTD_DICTIONARY);
+        addPropertyDescriptor(CODEC);
+        addPropertyDescriptor(MEMORY_BUDGET);
+        addPropertyDescriptor(MESSAGE_BUFFERS);
 
         final Set<Relationship> relationships = new HashSet<Relationship>();
         relationships.add(SUCCESS);
         relationships.add(FAILURE);
+        relationships.add(RETRY);
         this.relationships = Collections.unmodifiableSet(relationships);
         setConversionScope(CONVERSION_SCOPE.getDefaultValue());
     }
@@ -103,66 +173,211 @@ public class FromThriftProcessor extends AbstractThriftProcessor {
         if (descriptor.getName().equals("ConversionScope")) {
             setConversionScope(newValue);
         }
+        if (descriptor.getName().equals("ContentExtraction")) {
+            cloningContent = ContentExtractionClone.equals(newValue);
+        }
         super.onPropertyModified(descriptor, oldValue, newValue);
     }
 
+    @OnScheduled
+    public void setupAdmissionControl(final ProcessContext context) {
+        admissionControl = AdmissionControl.fromContext(context);
+    }
+
+    @OnScheduled
+    public void setupContentCompression(final ProcessContext context) throws IOException {
+        contentCompression = ContentCompression.fromContext(context);
+    }
+
     @Override
     public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-        FlowFile flowFile = session.get();
+        final AdmissionControl admissionControl = this.admissionControl;
+        // triggered when any destination is available, only Retry takes requests while Success is backpressured
+        final boolean backpressured = !context.getAvailableRelationships().contains(SUCCESS);
+        if (backpressured && !admissionControl.isEnabled()) {
+            context.yield();
+            return;
+        }
+        final List<FlowFile> flowFiles = session.get(context.getProperty(BATCH_SIZE).asInteger());
+        if (flowFiles.isEmpty()) {
+            return;
+        }
+        final QueueSize queueSize = session.getQueueSize();
+        final long now = System.currentTimeMillis();
+        final ConversionBuffers buffers = newBuffers(context);
+        try {
+            // the requests waiting behind each one, still queued or later in the batch
+            int waiting = flowFiles.size();
+            for (FlowFile flowFile : flowFiles) {
+                waiting--;
+                final String shedReason = backpressured ? "Success backpressured"
+                        : admissionControl.check(queueSize.getObjectCount() + waiting,
+                                                 queueSize.getByteCount(), now - flowFile.getEntryDate());
+                if (shedReason != null) {
+                    shed(session, flowFile, admissionControl, shedReason);
+                } else {
+                    convert(session, flowFile, buffers);
+                }
+            }
+        } finally {
+            buffers.releaseAll();
+        }
+    }
 
-        if (flowFile == null) {
+    /**
+     * Replaces the FlowFileRequest with a FlowFileReply with ResponseCode RETRY, only its id is read
+     *
+     * @param session the session
+     * @param flowFile the flowfile holding the serialised FlowFileRequest
+     * @param admissionControl the admission control
+     * @param reason why the request is shed
+     */
+    private void shed(final ProcessSession session, FlowFile flowFile,
+                      final AdmissionControl admissionControl, final String reason) {
+        final StopWatch stopWatch = new StopWatch(true);
+        final FlowFileRequestScanner scanner = new FlowFileRequestScanner(false, FlowFileRequestScanner.Content.SKIP);
+        final byte[] reply;
+        try {
+            final String protocol = detectProtocol(session, flowFile);
+            session.read(flowFile, (in) -> {
+                    try {
+                        scanner.scan(protocol, in);
+                    } catch (Exception ex) {
+                        throw new IOException(ex);
+                    }
+            });
+            reply = getCodec(protocol).serialize(admissionControl.retryReply(scanner.getId()));
+        } catch (Exception ex) {
+            getLogger().error("Failed to shed flowFileRequest, " + ex.getMessage());
+            forgetProtocol(flowFile);
+            flowFile = session.putAttribute(flowFile, "error", String.valueOf(ex.getMessage()));
+            session.transfer(flowFile, FAILURE);
             return;
         }
+        getLogger().debug("Shedding flowFileRequest " + scanner.getId() + ", " + reason);
+        flowFile = session.write(flowFile, (out) -> {
+                out.write(reply);
+        });
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("thrift.id", Long.toString(scanner.getId()));
+        attributes.put(ResponseCodeAttr, ResponseCode.RETRY.name());
+        attributes.put(HttpStatusAttr, String.valueOf(HttpURLConnection.HTTP_UNAVAILABLE));
+        attributes.put(RetryAfterAttr, Long.toString(admissionControl.getRetryAfterSeconds()));
+        flowFile = session.putAllAttributes(flowFile, attributes);
+        session.getProvenanceReporter().modifyContent(flowFile, "Shed, " + reason, stopWatch.getElapsed(TimeUnit.MILLISECONDS));
+        session.transfer(flowFile, RETRY);
+    }
+
+    /**
+     * Converts one flowfile, routing it to FAILURE on error
+     *
+     * @param session the session
+     * @param flowFile the flowfile to convert
+     * @param buffers the buffers shared by the batch
+     */
+    private void convert(final ProcessSession session, FlowFile flowFile, final ConversionBuffers buffers) {
         final StopWatch stopWatch = new StopWatch(true);
+        final String protocol;
+        try {
+            protocol = detectProtocol(session, flowFile);
+        } catch (ProcessException ex) {
+            getLogger().error("Failed to process perrequest protocol " + ex.getMessage());
+            flowFile = session.putAttribute(flowFile, "error", ex.getMessage());
+            session.transfer(flowFile, FAILURE);
+            return;
+        }
+        // JSON content is base64, decoded as it streams rather than held twice
+        if (!convertingAttr || !convertingContent || cloningContent || !ThriftStreamReader.isRawBinary(protocol)) {
+            convertScanned(session, flowFile, protocol, stopWatch, buffers);
+            return;
+        }
+        final int size = (int) Math.min(flowFile.getSize(), Integer.MAX_VALUE);
+        final boolean fits = size == flowFile.getSize();
+        final ByteBuffer direct = fits && directBuffers ? buffers.direct(size) : null;
+        final byte[] bytes = fits && !directBuffers ? buffers.message(size) : null;
+        if (bytes == null && direct == null) {
+            // too large for one array, or the MemoryBudget is spent, stream rather than buffer
+            convertScanned(session, flowFile, protocol, stopWatch, buffers);
+            return;
+        }
         // https://javadoc.io/static/org.apache.nifi/nifi-api/1.1.0/index.html?org/apache/nifi/flowfile/FlowFile.html
         final FlowFileRequest flowFileRequest = new FlowFileRequest();
+        final FlowFileCodec codec = getCodec(protocol);
         try {
             session.read(flowFile, (in) -> {
-                    byte[] bytes = new byte[in.available()];
-                    in.read(bytes);
                     try {
-                        deserializer.deserialize(flowFileRequest, bytes);
+                        if (direct != null) {
+                            DirectBufferPool.read(in, direct, buffers.copy);
+                            direct.flip();
+                            FlowFileStructCodec.forProtocol(protocol).deserialize(flowFileRequest, direct);
+                        } else {
+                            readFully(in, bytes, size);
+                            codec.deserialize(flowFileRequest, bytes, 0, size);
+                        }
+                    } catch (IOException ex) {
+                        throw ex;
                     } catch (Exception ex) {
                         throw new IOException(ex);
                     }
             });
         } catch (Exception ex) {
-            ex.printStackTrace();
-            getLogger().error("Failed to read flowFileRequest");
+            if (direct != null) {
+                buffers.recycle(direct, size);
+            }
+            getLogger().error("Failed to read flowFileRequest, " + ex.getMessage());
+            forgetProtocol(flowFile);
             flowFile = session.putAttribute(flowFile, "error", ex.getMessage());
             session.transfer(flowFile, FAILURE);
             return;
         }
+        try {
+            writeRequest(session, flowFile, flowFileRequest, protocol, stopWatch, buffers);
+        } finally {
+            if (direct != null) {
+                // the content was a slice of it
+                buffers.recycle(direct, size);
+            }
+        }
+    }
+
+    /**
+     * Writes the deserialised FlowFileRequest to a new flowfile, routing the request to FAILURE on error
+     *
+     * @param session the session
+     * @param flowFile the flowfile holding the serialised FlowFileRequest
+     * @param flowFileRequest the FlowFileRequest
+     * @param protocol the protocol
+     * @param stopWatch started when the flowfile was taken
+     * @param buffers the buffers shared by the batch
+     */
+    private void writeRequest(final ProcessSession session, FlowFile flowFile, final FlowFileRequest flowFileRequest,
+                              final String protocol, final StopWatch stopWatch, final ConversionBuffers buffers) {
         ThriftFlowFile thriftFlowFile = flowFileRequest.getFlowFile();
         if (getLogger().isDebugEnabled()) {
             String flowFileRequestContent = new String(thriftFlowFile.getContent());
             getLogger().debug("flowFileRequestContent " + flowFileRequestContent);
         }
 
+        final String contentEncoding = null == thriftFlowFile.attributes ? null
+                : thriftFlowFile.attributes.get(ContentCompression.ContentEncodingAttr);
         FlowFile newflowFile = session.create(flowFile);
-        if(convertingAttr){
-            if (null != thriftFlowFile.attributes) {
-                for (Map.Entry<String, String> entry : thriftFlowFile.attributes.entrySet()) {
-                    newflowFile = session.putAttribute(newflowFile, AttrPrefix + entry.getKey(), entry.getValue());
-                }
-            }
-        }
-
         /**
          * capture the 'id' member in the attribute thrift.id which needs to survive the flow
          * if we want to return it back the client in ToThriftProcessor
          */
-        session.putAttribute(newflowFile,"thrift.id",Long.toString(flowFileRequest.getId()));
-        if(convertingContent){
+        newflowFile = putThriftAttributes(session, newflowFile, convertingAttr ? thriftFlowFile.attributes : null,
+                                          flowFileRequest.getId(), convertingContent && contentEncoding != null);
+        newflowFile = putDetectedProtocol(session, newflowFile, protocol);
+        if(convertingContent && null != thriftFlowFile.content){
+            // content may be a view of the batch's message buffer, or a direct buffer, write it before the next flowfile
+            final ByteBuffer content = thriftFlowFile.content;
             try {
                 // https://www.nifi.rocks/developing-a-custom-apache-nifi-processor-json/
                 newflowFile = session.write(newflowFile, (out) -> {
-                        if (thriftFlowFile.content.hasArray()) {
-                            out.write(thriftFlowFile.getContent());
+                        if (contentEncoding != null) {
+                            decompress(contentEncoding, asStream(content), out, buffers.copy);
                         } else {
-                            byte[] arr = new byte[thriftFlowFile.content.remaining()];
-                            thriftFlowFile.content.get(arr);
-                            out.write(arr);
+                            DirectBufferPool.write(content, out, buffers.copy);
                         }
                 });
             } catch (Exception ex) {
@@ -171,7 +386,9 @@ public class FromThriftProcessor extends AbstractThriftProcessor {
                 if (newflowFile != null) {
                     session.remove(newflowFile);
                 }
+                flowFile = session.putAttribute(flowFile, "error", String.valueOf(ex.getMessage()));
                 session.transfer(flowFile, FAILURE);
+                return;
             }
         }
         session.getProvenanceReporter().modifyAttributes(newflowFile, "Modified With deserialised thrift attributes");
@@ -181,6 +398,190 @@ public class FromThriftProcessor extends AbstractThriftProcessor {
         session.transfer(newflowFile, SUCCESS);
     }
 
+    /**
+     * Converts only the members in scope, the FlowFileRequest is scanned, not deserialised.
+     * When cloning, the new flowfile is a clone of the ThriftFlowFile.content byte range
+     * of the incoming flowfile. JSON content is streamed, base64 decoded, into the new flowfile,
+     * as is BINARY and COMPACT content the MemoryBudget cannot grant a copy of
+     *
+     * @param session the session
+     * @param flowFile the flowfile holding the serialised FlowFileRequest
+     * @param protocol the protocol
+     * @param stopWatch started when the flowfile was taken
+     * @param buffers the buffers shared by the batch
+     */
+    private void convertScanned(final ProcessSession session, FlowFile flowFile,
+                                final String protocol, final StopWatch stopWatch, final ConversionBuffers buffers) {
+        final FlowFileRequestScanner.Content contentHandling;
+        if (!convertingContent) {
+            contentHandling = FlowFileRequestScanner.Content.SKIP;
+        } else if (!ThriftStreamReader.isRawBinary(protocol)) {
+            contentHandling = FlowFileRequestScanner.Content.STREAM;
+        } else if (cloningContent) {
+            contentHandling = FlowFileRequestScanner.Content.LOCATE;
+        } else if (buffers.reserve(flowFile.getSize())) {
+            contentHandling = FlowFileRequestScanner.Content.READ;
+        } else {
+            contentHandling = FlowFileRequestScanner.Content.STREAM;
+        }
+        // the content copy READ makes is held until written
+        final long reserved = contentHandling == FlowFileRequestScanner.Content.READ ? flowFile.getSize() : 0;
+        final FlowFileRequestScanner scanner = new FlowFileRequestScanner(convertingAttr, contentHandling);
+        FlowFile streamed = null;
+        try {
+            if (contentHandling == FlowFileRequestScanner.Content.STREAM) {
+                final FlowFile request = flowFile;
+                streamed = session.create(request);
+                streamed = session.write(streamed, (out) -> {
+                        session.read(request, (in) -> {
+                                try {
+                                    scanner.scan(protocol, in, out, buffers.copy);
+                                } catch (TException ex) {
+                                    throw new IOException(ex);
+                                }
+                        });
+                });
+            } else {
+                session.read(flowFile, (in) -> {
+                        try {
+                            scanner.scan(protocol, in);
+                        } catch (Exception ex) {
+                            throw new IOException(ex);
+                        }
+                });
+            }
+        } catch (Exception ex) {
+            getLogger().error("Failed to scan flowFileRequest, " + ex.getMessage());
+            buffers.release(reserved);
+            if (streamed != null) {
+                session.remove(streamed);
+            }
+            forgetProtocol(flowFile);
+            flowFile = session.putAttribute(flowFile, "error", ex.getMessage());
+            session.transfer(flowFile, FAILURE);
+            return;
+        }
+
+        FlowFile newflowFile;
+        if (streamed != null) {
+            newflowFile = streamed;
+        } else if (contentHandling == FlowFileRequestScanner.Content.LOCATE && scanner.getContentLength() > 0) {
+            newflowFile = session.clone(flowFile, scanner.getContentOffset(), scanner.getContentLength());
+        } else {
+            newflowFile = session.create(flowFile);
+        }
+        final String contentEncoding = convertingContent ? scanner.getContentEncoding() : null;
+        final ByteBuffer content = scanner.getContent();
+        try {
+            if (content != null && content.hasRemaining()) {
+                newflowFile = session.write(newflowFile, (out) -> {
+                        if (contentEncoding != null) {
+                            decompress(contentEncoding, asStream(content), out, buffers.copy);
+                        } else {
+                            out.write(content.array(), content.arrayOffset() + content.position(), content.remaining());
+                        }
+                });
+            } else if (contentEncoding != null && scanner.getContentLength() > 0) {
+                // the clone, or the streamed flowfile, holds the compressed content
+                newflowFile = session.write(newflowFile, (in, out) -> {
+                        decompress(contentEncoding, in, out, buffers.copy);
+                });
+            }
+        } catch (Exception ex) {
+            getLogger().error("Failed to write thrift flowfile content, " + ex.getMessage());
+            session.remove(newflowFile);
+            flowFile = session.putAttribute(flowFile, "error", String.valueOf(ex.getMessage()));
+            session.transfer(flowFile, FAILURE);
+            return;
+        } finally {
+            buffers.release(reserved);
+        }
+        newflowFile = putThriftAttributes(session, newflowFile, convertingAttr ? scanner.getAttributes() : null,
+                                          scanner.getId(), contentEncoding != null);
+        newflowFile = putDetectedProtocol(session, newflowFile, protocol);
+
+        session.getProvenanceReporter().modifyAttributes(newflowFile, "Modified With scanned thrift attributes");
+        session.getProvenanceReporter().modifyContent(newflowFile, "Modified With scanned thrift content", stopWatch.getElapsed(TimeUnit.MILLISECONDS));
+
+        session.remove(flowFile);
+        session.transfer(newflowFile, SUCCESS);
+    }
+
+    /**
+     * Copies each ThriftFlowFile attribute 'xxx' to the flowfile attribute 'thrift.attr.xxx',
+     * with 'thrift.id', in one putAllAttributes
+     *
+     * @param session the session
+     * @param flowFile the new flowfile
+     * @param attributes ThriftFlowFile.attributes, null if none or not converted
+     * @param id FlowFileRequest.id
+     * @param decompressed the content was decompressed, so 'content.encoding' no longer holds
+     * @return the updated flowfile
+     */
+    private FlowFile putThriftAttributes(final ProcessSession session, FlowFile flowFile,
+                                         final Map<String, String> attributes, final long id,
+                                         final boolean decompressed) {
+        final Map<String, String> flowFileAttributes = toFlowFileAttributes(attributes, 1);
+        flowFileAttributes.put("thrift.id", Long.toString(id));
+        if (decompressed) {
+            flowFileAttributes.remove(prefixedKey(ContentCompression.ContentEncodingAttr));
+        }
+        return session.putAllAttributes(flowFile, flowFileAttributes);
+    }
+
+    /**
+     * Streams the compressed content through its decompressor to out
+     *
+     * @param contentEncoding the ThriftFlowFile 'content.encoding'
+     * @param in the compressed content
+     * @param out the flowfile content
+     * @param buffer the copy buffer
+     * @throws IOException if the content cannot be decompressed, or the encoding is not supported
+     */
+    private void decompress(final String contentEncoding, final InputStream in, final OutputStream out,
+                            final byte[] buffer) throws IOException {
+        try (InputStream decompressed = contentCompression.decompress(contentEncoding, in)) {
+            ContentCompression.copy(decompressed, out, buffer);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    private static InputStream asStream(final ByteBuffer content) {
+        if (content.hasArray()) {
+            return new ByteArrayInputStream(content.array(), content.arrayOffset() + content.position(), content.remaining());
+        }
+        // a direct buffer is read in place, not copied onto the heap
+        final ByteBuffer view = content.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return view.hasRemaining() ? view.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                if (!view.hasRemaining()) {
+                    return -1;
+                }
+                final int count = Math.min(length, view.remaining());
+                view.get(bytes, offset, count);
+                return count;
+            }
+        };
+    }
+
+    /**
+     * With ThriftProtocol AUTO the protocol of the request is kept in 'thrift.protocol',
+     * so ToThriftProcessor replies in kind
+     */
+    private FlowFile putDetectedProtocol(final ProcessSession session, final FlowFile flowFile, final String protocol) {
+        if (!ProtocolAuto.equals(this.protocol)) {
+            return flowFile;
+        }
+        return session.putAttribute(flowFile, ProtocolAttr, protocol);
+    }
+
     /**
      * @param conversionScope the conversionScope
      * @throws IllegalArgumentException if an invalid protocol
@@ -199,14 +600,21 @@ public class FromThriftProcessor extends AbstractThriftProcessor {
                 convertingContent = true;
                 break;
             case ConversionScopeAttr:
-                convertingAttr = true;
+                convertingAttr    = true;
+                convertingContent = false;
                 break;
             case ConversionScopeContent:
+                convertingAttr    = false;
                 convertingContent = true;
                 break;
+            case ConversionScopeIdOnly:
+                convertingAttr    = false;
+                convertingContent = false;
+                break;
             default:
                 throw new IllegalArgumentException("setConversionScope Invalid conversionScope" + conversionScope);
         }
+        this.conversionScope = conversionScope;
 
     }
 
@@ -0,0 +1,453 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.ReadsAttribute;
+import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.expression.ExpressionLanguageScope;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.stream.io.StreamUtils;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.apache.thrift.async.TAsyncClientManager;
+import org.apache.thrift.transport.TNonblockingSocket;
+
+@Tags({ "thrift", "invoke", "client", "egress" })
+@CapabilityDescription("Calls FlowFileService.send, over framed transport, with each flowfile as the FlowFileRequest, " +
+                       "converted as by ToThriftProcessor. The FlowFileReply becomes a flowfile on Success, " +
+                       "converted as by FromThriftProcessor. " +
+                       "The calls of an onTrigger are all in flight at once, on non blocking connections " +
+                       "pooled per endpoint, one call per connection at a time")
+@SeeAlso({ListenThrift.class,ToThriftProcessor.class,FromThriftProcessor.class})
+@InputRequirement(Requirement.INPUT_REQUIRED)
+@ReadsAttributes({
+    @ReadsAttribute(attribute   = "thrift.id",
+                    description = "FlowFileRequest.id"),
+    @ReadsAttribute(attribute   = "thrift.attr.*",
+                    description = "Each attribute 'thrift.attr.xxx' is copied to the request's 'xxx' attribute"),
+    @ReadsAttribute(attribute   = "thrift.protocol",
+                    description = "the thrift protocol to be used (ignored unless DynamicProtocol or AUTO)")
+                })
+@WritesAttributes({
+    @WritesAttribute(attribute   = "thrift.id",
+                     description = "FlowFileReply.id"),
+    @WritesAttribute(attribute   = "thrift.response.code",
+                     description = "FlowFileReply.responseCode"),
+    @WritesAttribute(attribute   = "thrift.attr.*",
+                     description = "Each attribute 'xxx' from the FlowFileReply " +
+                                     "is copied to the flowfile attribute 'thrift.attr.xxx'")
+                  })
+public class InvokeThrift extends AbstractThriftProcessor {
+
+    public static final PropertyDescriptor HOSTNAME = new PropertyDescriptor.Builder()
+            .name("Hostname")
+            .description("The host serving FlowFileService")
+            .required(true)
+            .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PORT = new PropertyDescriptor.Builder()
+            .name("Port")
+            .description("The port serving FlowFileService")
+            .required(true)
+            .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+            .addValidator(StandardValidators.PORT_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_IN_FLIGHT = new PropertyDescriptor.Builder()
+            .name("MaxInFlight")
+            .description("The flowfiles taken by an onTrigger, their calls are all in flight at once " +
+                         "as far as ConnectionsPerEndpoint allows. Each request's content is held whole until its call " +
+                         "completes, so without a MemoryBudget up to MaxInFlight times the largest content is on the heap")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor CONNECTIONS_PER_ENDPOINT = new PropertyDescriptor.Builder()
+            .name("ConnectionsPerEndpoint")
+            .description("The connections kept open to each endpoint, a connection carries one call at a time")
+            .required(true)
+            .defaultValue("16")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor CALL_TIMEOUT = new PropertyDescriptor.Builder()
+            .name("CallTimeout")
+            .description("How long a call, or waiting for a connection, may take")
+            .required(true)
+            .defaultValue("30 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final Relationship SUCCESS = new Relationship.Builder()
+            .name("Success")
+            .description("The FlowFileReply as a flowfile")
+            .build();
+
+    public static final Relationship ORIGINAL = new Relationship.Builder()
+            .name("Original")
+            .description("The flowfiles which got a FlowFileReply")
+            .build();
+
+    public static final Relationship FAILURE = new Relationship.Builder()
+            .name("Failure")
+            .description("The flowfiles whose call failed")
+            .build();
+
+    /**
+     * An async client and its transport, the client does not expose it
+     */
+    static final class Connection {
+        final TNonblockingSocket transport;
+        final FlowFileService.AsyncClient client;
+
+        Connection(TNonblockingSocket transport, FlowFileService.AsyncClient client) {
+            this.transport = transport;
+            this.client = client;
+        }
+    }
+
+    /**
+     * The connections to one endpoint, with one protocol
+     */
+    static final class EndpointPool {
+        private final String host;
+        private final int port;
+        private final FlowFileService.AsyncClient.Factory factory;
+        private final long timeoutMillis;
+        private final Semaphore connections;
+        private final BlockingQueue<Connection> idle = new LinkedBlockingQueue<>();
+
+        EndpointPool(String host, int port, FlowFileService.AsyncClient.Factory factory,
+                     int maxConnections, long timeoutMillis) {
+            this.host = host;
+            this.port = port;
+            this.factory = factory;
+            this.connections = new Semaphore(maxConnections);
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        /**
+         * @return an idle connection, a new one if under the limit, else the first to become idle
+         * @throws TimeoutException if none becomes idle within the timeout
+         */
+        Connection borrow() throws IOException, InterruptedException, TimeoutException {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (true) {
+                Connection connection = idle.poll();
+                if (connection != null) {
+                    return connection;
+                }
+                if (connections.tryAcquire()) {
+                    try {
+                        return open();
+                    } catch (IOException ex) {
+                        connections.release();
+                        throw ex;
+                    }
+                }
+                // polls in slices as a discarded connection frees a permit rather than an idle connection
+                connection = idle.poll(10, TimeUnit.MILLISECONDS);
+                if (connection != null) {
+                    return connection;
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    throw new TimeoutException("no connection to " + host + ":" + port + " within " + timeoutMillis + " ms");
+                }
+            }
+        }
+
+        private Connection open() throws IOException {
+            final TNonblockingSocket transport;
+            try {
+                transport = new TNonblockingSocket(host, port, (int) timeoutMillis);
+            } catch (TException ex) {
+                throw new IOException(ex);
+            }
+            final FlowFileService.AsyncClient client = factory.getAsyncClient(transport);
+            client.setTimeout(timeoutMillis);
+            return new Connection(transport, client);
+        }
+
+        void release(Connection connection) {
+            idle.offer(connection);
+        }
+
+        /**
+         * Closes a connection which failed, its client is unusable
+         */
+        void discard(Connection connection) {
+            connection.transport.close();
+            connections.release();
+        }
+
+        void close() {
+            Connection connection;
+            while ((connection = idle.poll()) != null) {
+                discard(connection);
+            }
+        }
+    }
+
+    /**
+     * A flowfile and its call in flight
+     */
+    private static final class Call {
+        final FlowFile flowFile;
+        final String transitUri;
+        final CompletableFuture<FlowFileReply> reply = new CompletableFuture<>();
+        final long started = System.nanoTime();
+
+        Call(FlowFile flowFile, String transitUri) {
+            this.flowFile = flowFile;
+            this.transitUri = transitUri;
+        }
+    }
+
+    private final ConcurrentMap<String, EndpointPool> pools = new ConcurrentHashMap<>();
+    private volatile TAsyncClientManager clientManager;
+
+    public InvokeThrift() {
+        super();
+    }
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        super.init(context);
+        addPropertyDescriptor(HOSTNAME);
+        addPropertyDescriptor(PORT);
+        addPropertyDescriptor(MAX_IN_FLIGHT);
+        addPropertyDescriptor(CONNECTIONS_PER_ENDPOINT);
+        addPropertyDescriptor(CALL_TIMEOUT);
+        addPropertyDescriptor(MEMORY_BUDGET);
+
+        final Set<Relationship> relationships = new HashSet<Relationship>();
+        relationships.add(SUCCESS);
+        relationships.add(ORIGINAL);
+        relationships.add(FAILURE);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @OnScheduled
+    public void startClientManager(final ProcessContext context) throws IOException {
+        clientManager = new TAsyncClientManager();
+    }
+
+    @OnStopped
+    public void stopClientManager() {
+        pools.values().forEach(EndpointPool::close);
+        pools.clear();
+        if (clientManager != null) {
+            clientManager.stop();
+            clientManager = null;
+        }
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        final List<FlowFile> flowFiles = session.get(context.getProperty(MAX_IN_FLIGHT).asInteger());
+        if (flowFiles.isEmpty()) {
+            return;
+        }
+        final long timeoutMillis = context.getProperty(CALL_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS);
+        final List<Call> calls = new ArrayList<>(flowFiles.size());
+        // request content is held until the calls complete, all within this onTrigger
+        final ConversionBuffers buffers = newBuffers(context);
+        boolean deferred = false;
+        try {
+            for (FlowFile flowFile : flowFiles) {
+                try {
+                    final Call call = invoke(context, session, flowFile, timeoutMillis, buffers);
+                    if (call != null) {
+                        calls.add(call);
+                    } else {
+                        // the MemoryBudget is spent, back on the queue for a later trigger
+                        session.transfer(flowFile);
+                        deferred = true;
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    fail(session, flowFile, ex);
+                } catch (Exception ex) {
+                    fail(session, flowFile, ex);
+                }
+            }
+            if (deferred && calls.isEmpty()) {
+                context.yield();
+            }
+            complete(session, calls, timeoutMillis);
+        } finally {
+            buffers.releaseAll();
+        }
+    }
+
+    /**
+     * Waits for each call in turn, the reply goes to SUCCESS
+     */
+    private void complete(final ProcessSession session, final List<Call> calls, final long timeoutMillis) {
+        for (Call call : calls) {
+            final FlowFileReply reply;
+            try {
+                // the client times out the call itself, the margin only guards against a lost callback
+                reply = call.reply.get(timeoutMillis + TimeUnit.SECONDS.toMillis(1), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException ex) {
+                fail(session, call.flowFile, ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+                continue;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                fail(session, call.flowFile, ex);
+                continue;
+            } catch (TimeoutException ex) {
+                fail(session, call.flowFile, ex);
+                continue;
+            }
+            transferReply(session, call, reply);
+        }
+    }
+
+    /**
+     * Starts the call of one flowfile, once the MemoryBudget grants a copy of its content
+     *
+     * @return the call in flight, null if the MemoryBudget cannot grant the content
+     */
+    private Call invoke(final ProcessContext context, final ProcessSession session, final FlowFile flowFile,
+                        final long timeoutMillis, final ConversionBuffers buffers) throws Exception {
+        if (!buffers.reserve(flowFile.getSize())) {
+            return null;
+        }
+        final String protocol = getProtocol(flowFile);
+        final String host = context.getProperty(HOSTNAME).evaluateAttributeExpressions(flowFile).getValue();
+        final int port = context.getProperty(PORT).evaluateAttributeExpressions(flowFile).asInteger();
+        final FlowFileRequest request = toRequest(session, flowFile);
+
+        final int maxConnections = context.getProperty(CONNECTIONS_PER_ENDPOINT).asInteger();
+        final EndpointPool pool = pools.computeIfAbsent(host + ":" + port + "/" + protocol,
+                (key) -> new EndpointPool(host, port,
+                                          new FlowFileService.AsyncClient.Factory(clientManager, getFactory(protocol)),
+                                          maxConnections, timeoutMillis));
+        final Call call = new Call(flowFile, "thrift://" + host + ":" + port);
+        final Connection connection = pool.borrow();
+        try {
+            connection.client.send(request, new AsyncMethodCallback<FlowFileReply>() {
+                    @Override
+                    public void onComplete(FlowFileReply reply) {
+                        pool.release(connection);
+                        call.reply.complete(reply);
+                    }
+
+                    @Override
+                    public void onError(Exception ex) {
+                        pool.discard(connection);
+                        call.reply.completeExceptionally(ex);
+                    }
+            });
+        } catch (TException ex) {
+            pool.discard(connection);
+            throw ex;
+        }
+        return call;
+    }
+
+    /**
+     * @return the FlowFileRequest of flowFile, as ToThriftProcessor would convert it
+     */
+    private FlowFileRequest toRequest(final ProcessSession session, final FlowFile flowFile) {
+        if (flowFile.getSize() > Integer.MAX_VALUE) {
+            throw new ProcessException("content of " + flowFile.getSize() + " bytes exceeds a thrift binary");
+        }
+        // not a shared buffer, the request is serialised later by the client manager's thread
+        final byte[] bytes = new byte[(int) flowFile.getSize()];
+        session.read(flowFile, (in) -> {
+                StreamUtils.fillBuffer(in, bytes);
+        });
+        ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+        thriftFlowFile.setAttributes(getThriftAttributes(flowFile));
+        thriftFlowFile.content = ByteBuffer.wrap(bytes);
+        final String thrift_id = flowFile.getAttribute("thrift.id");
+        return new FlowFileRequest(thrift_id == null ? 0 : Long.parseLong(thrift_id), thriftFlowFile);
+    }
+
+    /**
+     * The reply becomes a flowfile on SUCCESS, as FromThriftProcessor would convert it
+     */
+    private void transferReply(final ProcessSession session, final Call call, final FlowFileReply reply) {
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - call.started);
+        FlowFile replyFlowFile = session.create(call.flowFile);
+        final ThriftFlowFile thriftFlowFile = reply.getFlowFile();
+        final Map<String, String> attributes
+                = toFlowFileAttributes(thriftFlowFile == null ? null : thriftFlowFile.getAttributes(), 4);
+        attributes.put("thrift.id", Long.toString(reply.getId()));
+        if (reply.getResponseCode() != null) {
+            attributes.put(ResponseCodeAttr, reply.getResponseCode().name());
+        }
+        replyFlowFile = session.putAllAttributes(replyFlowFile, attributes);
+        final ByteBuffer content = thriftFlowFile == null ? null : thriftFlowFile.content;
+        if (content != null && content.hasRemaining()) {
+            replyFlowFile = session.write(replyFlowFile, (out) -> {
+                    out.write(content.array(), content.arrayOffset() + content.position(), content.remaining());
+            });
+        }
+        session.getProvenanceReporter().send(call.flowFile, call.transitUri, millis);
+        // created by this processor, the FORK of create(call.flowFile) links it to the request
+        session.getProvenanceReporter().receive(replyFlowFile, call.transitUri, millis);
+        session.transfer(replyFlowFile, SUCCESS);
+        session.transfer(call.flowFile, ORIGINAL);
+    }
+
+    private void fail(final ProcessSession session, FlowFile flowFile, final Exception ex) {
+        getLogger().error("Failed to invoke FlowFileService, " + ex);
+        flowFile = session.putAttribute(flowFile, "error", String.valueOf(ex));
+        session.transfer(flowFile, FAILURE);
+    }
+}
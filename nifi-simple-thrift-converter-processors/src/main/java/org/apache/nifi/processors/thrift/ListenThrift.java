@@ -0,0 +1,501 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.ReadsAttribute;
+import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.TriggerWhenAnyDestinationAvailable;
+import org.apache.nifi.annotation.behavior.TriggerWhenEmpty;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.stream.io.StreamUtils;
+
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TTransportException;
+
+@Tags({ "thrift", "listen", "ingress", "server" })
+@CapabilityDescription("Serves FlowFileService.send, over framed transport, from a non blocking selector based Thrift server. " +
+                       "Each FlowFileRequest becomes a flowfile on Success, as FromThriftProcessor would convert it, " +
+                       "and its call is held until a flowfile with the same 'thrift.listen.id' comes back to ListenThrift. " +
+                       "That flowfile is sent as the FlowFileReply, as ToThriftProcessor would convert it. " +
+                       "While Success is backpressured requests are no longer read from clients, " +
+                       "or, with admission control, are answered at once with ResponseCode RETRY")
+@SeeAlso({FromThriftProcessor.class,ToThriftProcessor.class})
+@InputRequirement(Requirement.INPUT_ALLOWED)
+@TriggerWhenEmpty
+@TriggerWhenAnyDestinationAvailable
+@ReadsAttributes({
+    @ReadsAttribute(attribute   = "thrift.listen.id",
+                    description = "Identifies the call the reply flowfile answers"),
+    @ReadsAttribute(attribute   = "thrift.id",
+                    description = "FlowFileReply.id, the FlowFileRequest.id if not set"),
+    @ReadsAttribute(attribute   = "thrift.attr.*",
+                    description = "Each attribute 'thrift.attr.xxx' is copied to the reply's 'xxx' attribute"),
+    @ReadsAttribute(attribute   = "thrift.response.code",
+                    description = "FlowFileReply.responseCode, SUCCESS if not set")
+                })
+@WritesAttributes({
+    @WritesAttribute(attribute   = "thrift.listen.id",
+                     description = "Identifies the call awaiting a reply"),
+    @WritesAttribute(attribute   = "thrift.id",
+                     description = "FlowFileRequest.id"),
+    @WritesAttribute(attribute   = "thrift.protocol",
+                     description = "The protocol served"),
+    @WritesAttribute(attribute   = "thrift.attr.*",
+                     description = "Each attribute 'xxx' from the FlowFileRequest " +
+                                     "is copied to the flowfile attribute 'thrift.attr.xxx'")
+                  })
+public class ListenThrift extends AbstractThriftProcessor {
+
+    public static final String ListenIdAttr = "thrift.listen.id";
+    private static final long PollMillis = 5;
+
+    public static final PropertyDescriptor PORT = new PropertyDescriptor.Builder()
+            .name("Port")
+            .description("The port to listen on")
+            .required(true)
+            .addValidator(StandardValidators.PORT_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor SELECTOR_THREADS = new PropertyDescriptor.Builder()
+            .name("SelectorThreads")
+            .description("The threads reading and writing the connections, connections are accepted by one more thread")
+            .required(true)
+            .defaultValue("2")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor WORKER_THREADS = new PropertyDescriptor.Builder()
+            .name("WorkerThreads")
+            .description("The threads deserialising requests")
+            .required(true)
+            .defaultValue("4")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor ACCEPT_QUEUE_SIZE = new PropertyDescriptor.Builder()
+            .name("AcceptQueueSize")
+            .description("Connections accepted but not yet taken by a selector thread, per selector thread. " +
+                         "No more connections are accepted while it is full")
+            .required(true)
+            .defaultValue("4")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_READ_BUFFER_SIZE = new PropertyDescriptor.Builder()
+            .name("MaxReadBufferSize")
+            .description("The memory, across all connections, for the requests read and not yet answered. " +
+                         "A request's frame is held until its reply is sent. No more requests are read while it is used up")
+            .required(true)
+            .defaultValue("64 MB")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_PENDING_REQUESTS = new PropertyDescriptor.Builder()
+            .name("MaxPendingRequests")
+            .description("The requests deserialised and not yet flowfiles. " +
+                         "While it is full the worker threads wait, so no more requests are read")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor REPLY_TIMEOUT = new PropertyDescriptor.Builder()
+            .name("ReplyTimeout")
+            .description("A call with no reply flowfile by then is answered with ResponseCode ERROR")
+            .required(true)
+            .defaultValue("30 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final Relationship SUCCESS = new Relationship.Builder()
+            .name("Success")
+            .description("A flowfile for each FlowFileRequest")
+            .build();
+
+    public static final Relationship REPLIED = new Relationship.Builder()
+            .name("Replied")
+            .description("The flowfiles sent as a FlowFileReply")
+            .build();
+
+    public static final Relationship FAILURE = new Relationship.Builder()
+            .name("Failure")
+            .description("Flowfiles which could not be sent as a FlowFileReply, eg their call timed out")
+            .build();
+
+    /**
+     * A call held by the server
+     */
+    static final class PendingCall {
+        final FlowFileRequest request;
+        final AsyncMethodCallback<FlowFileReply> callback;
+        final long bytes;
+        final long received = System.nanoTime();
+
+        PendingCall(FlowFileRequest request, AsyncMethodCallback<FlowFileReply> callback, long bytes) {
+            this.request = request;
+            this.callback = callback;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Runs on the server's worker threads, hands the call to onTrigger
+     */
+    private final class Handler implements FlowFileService.AsyncIface {
+        private final BlockingQueue<PendingCall> requests;
+        private final AdmissionControl admissionControl;
+
+        Handler(BlockingQueue<PendingCall> requests, AdmissionControl admissionControl) {
+            this.requests = requests;
+            this.admissionControl = admissionControl;
+        }
+
+        @Override
+        public void send(FlowFileRequest request, AsyncMethodCallback<FlowFileReply> resultHandler) {
+            final ThriftFlowFile thriftFlowFile = request.getFlowFile();
+            final long bytes = thriftFlowFile == null || thriftFlowFile.content == null ? 0 : thriftFlowFile.content.remaining();
+            if (admissionControl.isEnabled()) {
+                final PendingCall oldest = requests.peek();
+                final long latencyMillis = oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.received);
+                final String reason = admissionControl.check(requests.size(), inFlightBytes.get() + bytes, latencyMillis);
+                if (reason != null) {
+                    getLogger().debug("Shedding FlowFileRequest " + request.getId() + ", " + reason);
+                    resultHandler.onComplete(admissionControl.retryReply(request.getId()));
+                    return;
+                }
+            }
+            inFlightBytes.addAndGet(bytes);
+            try {
+                // blocks the worker while full, which stops requests being read
+                requests.put(new PendingCall(request, resultHandler, bytes));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                inFlightBytes.addAndGet(-bytes);
+                resultHandler.onError(ex);
+            }
+        }
+    }
+
+    private final ConcurrentMap<String, PendingCall> awaitingReply = new ConcurrentHashMap<>();
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private volatile BlockingQueue<PendingCall> requests;
+    private volatile TNonblockingServerSocket serverSocket;
+    private volatile TServer server;
+    private volatile Thread serverThread;
+    private volatile String transitUri;
+    private volatile long replyTimeoutNanos;
+    private volatile long nextExpiry;
+
+    public ListenThrift() {
+        super();
+    }
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        super.init(context);
+        addPropertyDescriptor(PORT);
+        addPropertyDescriptor(SELECTOR_THREADS);
+        addPropertyDescriptor(WORKER_THREADS);
+        addPropertyDescriptor(ACCEPT_QUEUE_SIZE);
+        addPropertyDescriptor(MAX_READ_BUFFER_SIZE);
+        addPropertyDescriptor(MAX_PENDING_REQUESTS);
+        addPropertyDescriptor(REPLY_TIMEOUT);
+        addPropertyDescriptor(BATCH_SIZE);
+        addPropertyDescriptor(ADMISSION_MAX_QUEUE_DEPTH);
+        addPropertyDescriptor(ADMISSION_MAX_QUEUED_BYTES);
+        addPropertyDescriptor(ADMISSION_MAX_LATENCY);
+        addPropertyDescriptor(RETRY_AFTER);
+
+        final Set<Relationship> relationships = new HashSet<Relationship>();
+        relationships.add(SUCCESS);
+        relationships.add(REPLIED);
+        relationships.add(FAILURE);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    protected Collection<ValidationResult> customValidate(final ValidationContext context) {
+        final List<ValidationResult> results = new ArrayList<>();
+        if (ProtocolAuto.equals(context.getProperty(THRIFT_PROTOCOL).getValue())) {
+            results.add(new ValidationResult.Builder()
+                    .subject(THRIFT_PROTOCOL.getDisplayName())
+                    .valid(false)
+                    .explanation("ListenThrift serves a single protocol, not " + ProtocolAuto)
+                    .build());
+        }
+        if (context.getProperty(DYNAMIC_PROTOCOL).asBoolean()) {
+            results.add(new ValidationResult.Builder()
+                    .subject(DYNAMIC_PROTOCOL.getDisplayName())
+                    .valid(false)
+                    .explanation("ListenThrift serves the protocol set when it is scheduled, not one per request")
+                    .build());
+        }
+        return results;
+    }
+
+    @OnScheduled
+    public void startServer(final ProcessContext context) throws TTransportException {
+        final int port = context.getProperty(PORT).asInteger();
+        final BlockingQueue<PendingCall> requests =
+                new LinkedBlockingQueue<>(context.getProperty(MAX_PENDING_REQUESTS).asInteger());
+        final TNonblockingServerSocket serverSocket = new TNonblockingServerSocket(port);
+        final TThreadedSelectorServer.Args args = new TThreadedSelectorServer.Args(serverSocket)
+                .selectorThreads(context.getProperty(SELECTOR_THREADS).asInteger())
+                .workerThreads(context.getProperty(WORKER_THREADS).asInteger())
+                .acceptQueueSizePerThread(context.getProperty(ACCEPT_QUEUE_SIZE).asInteger());
+        args.protocolFactory(getFactory(context.getProperty(THRIFT_PROTOCOL).getValue()))
+            .processor(new FlowFileService.AsyncProcessor<>(new Handler(requests, AdmissionControl.fromContext(context))));
+        args.maxReadBufferBytes = context.getProperty(MAX_READ_BUFFER_SIZE).asDataSize(DataUnit.B).longValue();
+
+        this.requests = requests;
+        this.serverSocket = serverSocket;
+        this.server = new TThreadedSelectorServer(args);
+        this.transitUri = "thrift://localhost:" + port;
+        this.replyTimeoutNanos = context.getProperty(REPLY_TIMEOUT).asTimePeriod(TimeUnit.NANOSECONDS);
+        this.nextExpiry = System.nanoTime();
+        serverThread = new Thread(server::serve, "ListenThrift-" + port);
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @OnStopped
+    public void stopServer() {
+        // the calls are answered while the server can still write them
+        final BlockingQueue<PendingCall> requests = this.requests;
+        if (requests != null) {
+            final List<PendingCall> calls = new ArrayList<>();
+            requests.drainTo(calls);
+            calls.forEach(this::replyError);
+        }
+        for (Iterator<PendingCall> it = awaitingReply.values().iterator(); it.hasNext();) {
+            final PendingCall call = it.next();
+            it.remove();
+            replyError(call);
+        }
+        if (server != null) {
+            server.stop();
+        }
+        if (serverThread != null) {
+            try {
+                serverThread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        server = null;
+        serverThread = null;
+        serverSocket = null;
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        final int batchSize = context.getProperty(BATCH_SIZE).asInteger();
+        final int replies = sendReplies(session, batchSize);
+        expireCalls();
+        if (context.getAvailableRelationships().contains(SUCCESS)) {
+            receiveRequests(context, session, batchSize, replies == 0);
+        }
+    }
+
+    /**
+     * Answers the calls of the incoming flowfiles
+     *
+     * @return the number of flowfiles
+     */
+    private int sendReplies(final ProcessSession session, final int batchSize) {
+        final List<FlowFile> flowFiles = session.get(batchSize);
+        for (FlowFile flowFile : flowFiles) {
+            final String listenId = flowFile.getAttribute(ListenIdAttr);
+            final PendingCall call = listenId == null ? null : awaitingReply.remove(listenId);
+            if (call == null) {
+                getLogger().error("No call awaiting reply " + listenId);
+                flowFile = session.putAttribute(flowFile, "error", "no call awaiting reply");
+                session.transfer(flowFile, FAILURE);
+                continue;
+            }
+            final FlowFileReply reply;
+            try {
+                reply = toReply(session, flowFile, call);
+            } catch (Exception ex) {
+                getLogger().error("Failed to create FlowFileReply, " + ex.getMessage());
+                replyError(call);
+                flowFile = session.putAttribute(flowFile, "error", String.valueOf(ex.getMessage()));
+                session.transfer(flowFile, FAILURE);
+                continue;
+            }
+            reply(call, reply);
+            session.getProvenanceReporter().send(flowFile, transitUri,
+                                                 TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - call.received));
+            session.transfer(flowFile, REPLIED);
+        }
+        return flowFiles.size();
+    }
+
+    /**
+     * @param session the session
+     * @param flowFile the reply flowfile
+     * @param call the call it answers
+     * @return the FlowFileReply
+     */
+    private FlowFileReply toReply(final ProcessSession session, final FlowFile flowFile, final PendingCall call) {
+        if (flowFile.getSize() > Integer.MAX_VALUE) {
+            throw new ProcessException("content of " + flowFile.getSize() + " bytes exceeds a thrift binary");
+        }
+        // not a shared buffer, the reply is serialised later by a selector thread
+        final byte[] bytes = new byte[(int) flowFile.getSize()];
+        session.read(flowFile, (in) -> {
+                StreamUtils.fillBuffer(in, bytes);
+        });
+        ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+        thriftFlowFile.setAttributes(getThriftAttributes(flowFile));
+        thriftFlowFile.content = ByteBuffer.wrap(bytes);
+
+        final String responseCode = flowFile.getAttribute(ResponseCodeAttr);
+        final String thrift_id = flowFile.getAttribute("thrift.id");
+        FlowFileReply reply = new FlowFileReply();
+        reply.setResponseCode(responseCode == null ? ResponseCode.SUCCESS : ResponseCode.valueOf(responseCode));
+        reply.setId(thrift_id == null ? call.request.getId() : Long.parseLong(thrift_id));
+        reply.setFlowFile(thriftFlowFile);
+        return reply;
+    }
+
+    /**
+     * Answers the call, its request is no longer in flight
+     */
+    private void reply(final PendingCall call, final FlowFileReply reply) {
+        inFlightBytes.addAndGet(-call.bytes);
+        call.callback.onComplete(reply);
+    }
+
+    private void replyError(final PendingCall call) {
+        reply(call, new FlowFileReply(ResponseCode.ERROR, call.request.getId(), null));
+    }
+
+    /**
+     * Answers with ERROR the calls awaiting a reply longer than ReplyTimeout, at most once a second
+     */
+    private void expireCalls() {
+        final long now = System.nanoTime();
+        if (now - nextExpiry < 0) {
+            return;
+        }
+        nextExpiry = now + TimeUnit.SECONDS.toNanos(1);
+        for (Map.Entry<String, PendingCall> entry : awaitingReply.entrySet()) {
+            final PendingCall call = entry.getValue();
+            if (now - call.received > replyTimeoutNanos && awaitingReply.remove(entry.getKey(), call)) {
+                getLogger().warn("No reply to " + entry.getKey() + " within ReplyTimeout");
+                replyError(call);
+            }
+        }
+    }
+
+    /**
+     * Turns the pending requests into flowfiles on SUCCESS, their calls then await a reply.
+     * Should the session roll back the calls are answered once ReplyTimeout expires
+     *
+     * @param wait whether to wait a little for a request
+     */
+    private void receiveRequests(final ProcessContext context, final ProcessSession session,
+                                 final int batchSize, final boolean wait) {
+        final BlockingQueue<PendingCall> requests = this.requests;
+        if (requests == null) {
+            return;
+        }
+        final List<PendingCall> calls = new ArrayList<>();
+        try {
+            final PendingCall first = wait ? requests.poll(PollMillis, TimeUnit.MILLISECONDS) : requests.poll();
+            if (first == null) {
+                return;
+            }
+            calls.add(first);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        requests.drainTo(calls, batchSize - 1);
+        final String protocol = context.getProperty(THRIFT_PROTOCOL).getValue();
+        for (PendingCall call : calls) {
+            FlowFile flowFile = session.create();
+            try {
+                final String listenId = UUID.randomUUID().toString();
+                final ThriftFlowFile thriftFlowFile = call.request.getFlowFile();
+                final Map<String, String> attributes
+                        = toFlowFileAttributes(thriftFlowFile == null ? null : thriftFlowFile.getAttributes(), 4);
+                attributes.put(ListenIdAttr, listenId);
+                attributes.put("thrift.id", Long.toString(call.request.getId()));
+                attributes.put(ProtocolAttr, protocol);
+                flowFile = session.putAllAttributes(flowFile, attributes);
+                final ByteBuffer content = thriftFlowFile == null ? null : thriftFlowFile.content;
+                if (content != null && content.hasRemaining()) {
+                    flowFile = session.write(flowFile, (out) -> {
+                            out.write(content.array(), content.arrayOffset() + content.position(), content.remaining());
+                    });
+                }
+                awaitingReply.put(listenId, call);
+                session.getProvenanceReporter().receive(flowFile, transitUri,
+                                                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - call.received));
+                session.transfer(flowFile, SUCCESS);
+            } catch (Exception ex) {
+                getLogger().error("Failed to create flowfile from FlowFileRequest, " + ex.getMessage());
+                session.remove(flowFile);
+                replyError(call);
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.ReadsAttribute;
+import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.queue.QueueSize;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.FlowFileFilter;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.util.StopWatch;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+
+@Tags({ "thrift", "converter", "merge", "recordset" })
+@CapabilityDescription("Merges flowfiles into bins and serialises each bin as a thrift RecordSet. " +
+                       "flowfile attributes , eg thrift.attr.xxx, are copied to ThriftFlowFile.attributes('xxx')." +
+                       "flowfile content is copied to ThriftFlowFile.content. " +
+                       "A bin is merged once it holds MaxEntries flowfiles or MaxBinSize bytes, " +
+                       "or once its oldest flowfile is MaxBinAge old. " +
+                       "The RecordSet is streamed, it is never held in memory as a whole")
+@SeeAlso({SplitThriftRecordSet.class,ToThriftProcessor.class})
+@InputRequirement(Requirement.INPUT_REQUIRED)
+@ReadsAttributes({
+    @ReadsAttribute(attribute   = "thrift.attr.*",
+                    description = "Each attribute 'thrift.attr.xxx' is copied to the ThriftFlowFile's 'xxx' attribute"),
+    @ReadsAttribute(attribute   = "thrift.protocol",
+                    description = "the thrift protocol to be used for serialisation (ignored unless DynamicProtocol or AUTO)")
+                })
+@WritesAttributes({
+    @WritesAttribute(attribute   = "record.count",
+                     description = "The number of ThriftFlowFiles in the RecordSet"),
+    @WritesAttribute(attribute   = "thrift.protocol",
+                     description = "The thrift protocol of the RecordSet")
+                  })
+public class MergeThriftRecordSet extends AbstractThriftProcessor {
+
+    static final TStruct RECORDSET_STRUCT = new TStruct("RecordSet");
+    static final TField RECORDSET_FLOWFILES = new TField("flowFiles", TType.LIST,
+            RecordSet._Fields.FLOW_FILES.getThriftFieldId());
+
+    public static final PropertyDescriptor MAX_ENTRIES = new PropertyDescriptor.Builder()
+            .name("MaxEntries")
+            .description("A bin is merged as soon as it holds this many flowfiles")
+            .required(true)
+            .defaultValue("1000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_BIN_SIZE = new PropertyDescriptor.Builder()
+            .name("MaxBinSize")
+            .description("A bin is merged as soon as the next flowfile would take its content beyond this size. " +
+                         "A larger flowfile is merged on its own")
+            .required(true)
+            .defaultValue("10 MB")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_BIN_AGE = new PropertyDescriptor.Builder()
+            .name("MaxBinAge")
+            .description("A bin which is not full is merged anyway once its oldest flowfile entered the flow this long ago")
+            .required(true)
+            .defaultValue("5 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_BINS = new PropertyDescriptor.Builder()
+            .name("MaxBins")
+            .description("The maximum number of bins, ie distinct correlation values, filled per trigger")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor CORRELATION_ATTRIBUTE = new PropertyDescriptor.Builder()
+            .name("CorrelationAttribute")
+            .description("If set only flowfiles with the same value of this attribute, eg thrift.id, share a bin")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final Relationship MERGED = new Relationship.Builder()
+            .name("Merged")
+            .description("Serialized Thrift RecordSet of a bin")
+            .build();
+
+    public static final Relationship ORIGINAL = new Relationship.Builder()
+            .name("Original")
+            .description("The flowfiles of a merged bin")
+            .build();
+
+    public static final Relationship FAILURE = new Relationship.Builder()
+            .name("Failure")
+            .description("The flowfiles of a bin which failed to merge")
+            .build();
+
+    public MergeThriftRecordSet() {
+        super();
+    }
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        super.init(context);
+        addPropertyDescriptor(MAX_ENTRIES);
+        addPropertyDescriptor(MAX_BIN_SIZE);
+        addPropertyDescriptor(MAX_BIN_AGE);
+        addPropertyDescriptor(MAX_BINS);
+        addPropertyDescriptor(CORRELATION_ATTRIBUTE);
+
+        final Set<Relationship> relationships = new HashSet<Relationship>();
+        relationships.add(MERGED);
+        relationships.add(ORIGINAL);
+        relationships.add(FAILURE);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    /**
+     * The flowfiles sharing a correlation value
+     */
+    private static final class Bin {
+        final List<FlowFile> flowFiles = new ArrayList<>();
+        long size;
+        long oldest = Long.MAX_VALUE;
+        boolean full;
+    }
+
+    /**
+     * When the last trigger put every bin back, the time its oldest bin reaches MaxBinAge.
+     * Until then no bin can be ready unless the queue could fill one
+     */
+    private volatile long notBefore;
+
+    @OnScheduled
+    public void resetNotBefore(final ProcessContext context) {
+        notBefore = 0;
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        final int maxEntries = context.getProperty(MAX_ENTRIES).asInteger();
+        final long maxBinSize = context.getProperty(MAX_BIN_SIZE).asDataSize(DataUnit.B).longValue();
+        final long maxBinAge = context.getProperty(MAX_BIN_AGE).asTimePeriod(TimeUnit.MILLISECONDS);
+        final int maxBins = context.getProperty(MAX_BINS).asInteger();
+        final String correlationAttribute = context.getProperty(CORRELATION_ATTRIBUTE).getValue();
+
+        final QueueSize queueSize = session.getQueueSize();
+        if (System.currentTimeMillis() < notBefore
+            && queueSize.getObjectCount() < maxEntries && queueSize.getByteCount() < maxBinSize) {
+            // the bins put back are still young and the queue cannot fill one, do not pull it again
+            context.yield();
+            return;
+        }
+
+        final Map<String, Bin> bins = new LinkedHashMap<>();
+        final List<FlowFile> flowFiles = session.get(new FlowFileFilter() {
+            int fullBins;
+
+            @Override
+            public FlowFileFilterResult filter(FlowFile flowFile) {
+                final String key = getBinKey(flowFile, correlationAttribute);
+                Bin bin = bins.get(key);
+                if (bin == null) {
+                    if (bins.size() >= maxBins) {
+                        // every bin is full, the rest of the queue waits for a later trigger
+                        return fullBins == bins.size() ? FlowFileFilterResult.REJECT_AND_TERMINATE
+                                                       : FlowFileFilterResult.REJECT_AND_CONTINUE;
+                    }
+                    bin = new Bin();
+                    bins.put(key, bin);
+                }
+                if (bin.full) {
+                    return FlowFileFilterResult.REJECT_AND_CONTINUE;
+                }
+                if (!bin.flowFiles.isEmpty() && bin.size + flowFile.getSize() > maxBinSize) {
+                    bin.full = true;
+                    fullBins++;
+                    return FlowFileFilterResult.REJECT_AND_CONTINUE;
+                }
+                bin.flowFiles.add(flowFile);
+                bin.size += flowFile.getSize();
+                // entry date, a bin put back on the queue keeps ageing
+                bin.oldest = Math.min(bin.oldest, flowFile.getEntryDate());
+                bin.full = bin.flowFiles.size() >= maxEntries || bin.size >= maxBinSize;
+                if (bin.full) {
+                    fullBins++;
+                }
+                return FlowFileFilterResult.ACCEPT_AND_CONTINUE;
+            }
+        });
+        if (flowFiles.isEmpty()) {
+            return;
+        }
+        // flowfiles left on the queue, eg by MaxBins, may belong to older bins
+        final boolean pulledAll = session.getQueueSize().getObjectCount() == 0;
+
+        final long now = System.currentTimeMillis();
+        final byte[] buffer = new byte[CopyBufferSize];
+        boolean merged = false;
+        long nextReady = Long.MAX_VALUE;
+        for (Bin bin : bins.values()) {
+            if (bin.flowFiles.isEmpty()) {
+                continue;
+            }
+            if (bin.full || now - bin.oldest >= maxBinAge) {
+                merge(session, bin.flowFiles, correlationAttribute, buffer);
+                merged = true;
+            } else {
+                // not ready, back on the queue for a later trigger
+                session.transfer(bin.flowFiles);
+                nextReady = Math.min(nextReady, bin.oldest + maxBinAge);
+            }
+        }
+        notBefore = merged || !pulledAll ? 0 : nextReady;
+        if (!merged) {
+            context.yield();
+        }
+    }
+
+    /**
+     * @param flowFile the flowfile
+     * @param correlationAttribute the correlation attribute name, may be null
+     * @return the key of the bin for flowFile, protocols never share a bin
+     */
+    private String getBinKey(FlowFile flowFile, String correlationAttribute) {
+        String key = "";
+        if (correlationAttribute != null) {
+            String value = flowFile.getAttribute(correlationAttribute);
+            key = value == null ? "" : value;
+        }
+        if (perRequestProtcol || ProtocolAuto.equals(protocol)) {
+            String thrift_protocol = flowFile.getAttribute(ProtocolAttr);
+            key = key + '\0' + (thrift_protocol == null ? "" : thrift_protocol);
+        }
+        return key;
+    }
+
+    /**
+     * Serialises a bin as one RecordSet flowfile, routing the bin to FAILURE on error
+     *
+     * @param session the session
+     * @param bin the flowfiles to merge, in order
+     * @param correlationAttribute the correlation attribute name, may be null
+     * @param buffer the copy buffer
+     */
+    private void merge(final ProcessSession session, final List<FlowFile> bin,
+                       final String correlationAttribute, final byte[] buffer) {
+        final StopWatch stopWatch = new StopWatch(true);
+        final FlowFile first = bin.get(0);
+        FlowFile mergedFlowFile = null;
+        try {
+            final String protocol = getProtocol(first);
+            mergedFlowFile = session.create(bin);
+            mergedFlowFile = session.write(mergedFlowFile, (out) -> {
+                    try {
+                        final ThriftStreamWriter writer = new ThriftStreamWriter(protocol, out);
+                        writeRecordSet(session, writer, bin, buffer);
+                        writer.flush();
+                    } catch (TException ex) {
+                        throw new IOException(ex);
+                    }
+            });
+            final Map<String, String> attributes = new HashMap<>();
+            attributes.put("record.count", Integer.toString(bin.size()));
+            attributes.put(ProtocolAttr, protocol);
+            if (correlationAttribute != null && first.getAttribute(correlationAttribute) != null) {
+                attributes.put(correlationAttribute, first.getAttribute(correlationAttribute));
+            }
+            mergedFlowFile = session.putAllAttributes(mergedFlowFile, attributes);
+        } catch (Exception ex) {
+            getLogger().error("Failed to merge RecordSet, " + ex.getMessage());
+            if (mergedFlowFile != null) {
+                session.remove(mergedFlowFile);
+            }
+            session.transfer(bin, FAILURE);
+            return;
+        }
+        session.getProvenanceReporter().join(bin, mergedFlowFile, "Merged thrift RecordSet",
+                                             stopWatch.getElapsed(TimeUnit.MILLISECONDS));
+        session.transfer(mergedFlowFile, MERGED);
+        session.transfer(bin, ORIGINAL);
+    }
+
+    /**
+     * Writes the RecordSet struct, each flowfile is read and its content streamed in turn,
+     * base64 encoded with JSON
+     *
+     * @param session the session
+     * @param writer the writer
+     * @param bin the flowfiles
+     * @param buffer the copy buffer
+     * @throws TException on a write failure
+     */
+    private void writeRecordSet(final ProcessSession session, final ThriftStreamWriter writer,
+                                final List<FlowFile> bin, final byte[] buffer) throws TException {
+        final TProtocol protocol = writer.getProtocol();
+        protocol.writeStructBegin(RECORDSET_STRUCT);
+        protocol.writeFieldBegin(RECORDSET_FLOWFILES);
+        protocol.writeListBegin(new TList(TType.STRUCT, bin.size()));
+        for (FlowFile flowFile : bin) {
+            final Map<String, String> attributes = getThriftAttributes(flowFile);
+            final long contentLength = flowFile.getSize();
+            session.read(flowFile, (in) -> {
+                    try {
+                        FlowFileReplyEncoder.writeFlowFile(writer, attributes, in, contentLength, buffer);
+                    } catch (TException ex) {
+                        throw new IOException(ex);
+                    }
+            });
+        }
+        protocol.writeListEnd();
+        protocol.writeFieldEnd();
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+    }
+}
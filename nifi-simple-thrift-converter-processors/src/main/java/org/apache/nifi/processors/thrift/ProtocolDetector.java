@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Detects the protocol of a serialised Thrift struct or message from its first byte,
+ * and caches what was detected per client.
+ *
+ * TJSONProtocol always starts with '{' (struct) or '[' (message). A TBinaryProtocol
+ * struct starts with a field type, 0 to 15, a strict message with 0x80. A TCompactProtocol
+ * message starts with its protocol id 0x82, and a struct with a field header whose high
+ * nibble is the field id delta, non zero unless ids jump by more than 15 (which the
+ * FlowFile structs never do), or an empty struct.
+ */
+public class ProtocolDetector {
+
+    static final int MaxCachedClients = 10000;
+
+    private final ConcurrentMap<String, String> cache = new ConcurrentHashMap<>();
+
+    /**
+     * @param firstByte the first byte of the serialised Thrift, -1 if there is none
+     * @return the protocol, BINARY if in doubt
+     */
+    public static String detect(int firstByte) {
+        switch (firstByte) {
+        case '{':
+        case '[':
+            return AbstractThriftProcessor.ProtocolJSON;
+        case 0x80:
+            return AbstractThriftProcessor.ProtocolBinary;
+        case 0x82:
+            return AbstractThriftProcessor.ProtocolCompact;
+        default:
+            if (firstByte > 0 && (firstByte & 0xf0) != 0) {
+                return AbstractThriftProcessor.ProtocolCompact;
+            }
+            return AbstractThriftProcessor.ProtocolBinary;
+        }
+    }
+
+    /**
+     * @param client identifies the client, eg a connection attribute
+     * @return the protocol last detected for the client, null if none
+     */
+    public String getCached(String client) {
+        return cache.get(client);
+    }
+
+    /**
+     * @param client identifies the client
+     * @param protocol the protocol detected for the client
+     */
+    public void cache(String client, String protocol) {
+        if (cache.size() >= MaxCachedClients) {
+            // crude bound, clients simply get detected again
+            cache.clear();
+        }
+        cache.put(client, protocol);
+    }
+
+    /**
+     * @param client identifies the client, its protocol is detected afresh next time
+     */
+    public void forget(String client) {
+        cache.remove(client);
+    }
+}
@@ -22,6 +22,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
@@ -29,6 +31,7 @@ import java.util.Collections;
 import java.util.MissingResourceException;
 
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.expression.ExpressionLanguageScope;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.AbstractProcessor;
 import org.apache.nifi.processor.Relationship;
@@ -37,6 +40,7 @@ import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.lifecycle.OnAdded;
@@ -46,16 +50,41 @@ import org.apache.nifi.annotation.documentation.Tags;
 
 
 @Tags({ "thrift", "converter" })
-@CapabilityDescription("returns the thiftfile, as a string, in the flowfile content")
-@SeeAlso({ToThriftProcessor.class,FromThriftProcessor.class})
+@CapabilityDescription("returns the thiftfile, as a string, in the flowfile content. " +
+                       "With a ThriftSchemaRegistry, the IDL of the name and version asked for")
+@SeeAlso({ToThriftProcessor.class,FromThriftProcessor.class,ThriftSchemaRegistry.class})
 @WritesAttributes({
     @WritesAttribute(attribute   = "thrift.filename",
                      description = "Filename of the thrift IDL specification"),
+    @WritesAttribute(attribute   = "thrift.idl.version",
+                     description = "Version of the thrift IDL specification, with a ThriftSchemaRegistry"),
                   })
 
 public class PutThriftIDL extends AbstractProcessor {
     public static final String THRIFT_FILENAME = "flowfile_nifi.thrift";
     public static final String THRIFT_ATTR     = "thrift.filename";
+    public static final String VERSION_ATTR    = "thrift.idl.version";
+    public static final PropertyDescriptor SCHEMA_REGISTRY = new PropertyDescriptor.Builder()
+            .name("SchemaRegistry")
+            .description("The ThriftSchemaRegistry to serve the IDL from, none serves " + THRIFT_FILENAME)
+            .required(false)
+            .identifiesControllerService(ThriftSchemaRegistryService.class)
+            .build();
+    public static final PropertyDescriptor IDL_NAME = new PropertyDescriptor.Builder()
+            .name("IDLName")
+            .description("The name of the IDL in the SchemaRegistry")
+            .required(false)
+            .defaultValue("flowfile_nifi")
+            .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+    public static final PropertyDescriptor IDL_VERSION = new PropertyDescriptor.Builder()
+            .name("IDLVersion")
+            .description("The version of the IDL in the SchemaRegistry, none for the latest")
+            .required(false)
+            .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
     public static final Relationship SUCCESS = new Relationship.Builder()
             .name("success")
             .description("Source of Thrift IDL").build();
@@ -75,6 +104,11 @@ public class PutThriftIDL extends AbstractProcessor {
         relationships.add(SUCCESS);
         relationships.add(FAILURE);
         this.relationships = Collections.unmodifiableSet(relationships);
+        final List<PropertyDescriptor> descriptors = new ArrayList<PropertyDescriptor>();
+        descriptors.add(SCHEMA_REGISTRY);
+        descriptors.add(IDL_NAME);
+        descriptors.add(IDL_VERSION);
+        this.descriptors = Collections.unmodifiableList(descriptors);
     }
 
     @Override
@@ -107,12 +141,31 @@ public class PutThriftIDL extends AbstractProcessor {
     @Override
     public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
         FlowFile flowFile = session.get();
+        if (flowFile == null) {
+            return;
+        }
         try {
-            flowFile = session.putAttribute(flowFile, THRIFT_ATTR, THRIFT_FILENAME);
+            final ThriftSchemaRegistryService registry =
+                context.getProperty(SCHEMA_REGISTRY).asControllerService(ThriftSchemaRegistryService.class);
+            final byte[] bytes;
+            if (registry == null) {
+                bytes = idlBytes;
+                flowFile = session.putAttribute(flowFile, THRIFT_ATTR, THRIFT_FILENAME);
+            } else {
+                final String name = context.getProperty(IDL_NAME).evaluateAttributeExpressions(flowFile).getValue();
+                final String version = context.getProperty(IDL_VERSION).evaluateAttributeExpressions(flowFile).getValue();
+                final ThriftIDL idl = registry.getIDL(name, version);
+                if (idl == null) {
+                    throw new IllegalArgumentException("no IDL " + name + (version == null ? "" : " version " + version));
+                }
+                bytes = idl.getText().getBytes(StandardCharsets.UTF_8);
+                flowFile = session.putAttribute(flowFile, THRIFT_ATTR, idl.getName() + ThriftSchemaRegistry.IDLExtension);
+                flowFile = session.putAttribute(flowFile, VERSION_ATTR, idl.getVersion());
+            }
             flowFile = session.write(flowFile, new OutputStreamCallback() {
                 @Override
                 public void process(OutputStream out) throws IOException {
-                    out.write(idlBytes);
+                    out.write(bytes);
                 }
             });
         } catch (Exception ex) {
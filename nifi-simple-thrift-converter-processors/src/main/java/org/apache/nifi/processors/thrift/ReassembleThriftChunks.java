@@ -0,0 +1,391 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.ReadsAttribute;
+import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.FlowFileFilter;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.util.StopWatch;
+
+import org.apache.thrift.TException;
+
+@Tags({ "thrift", "converter", "chunk", "reassemble" })
+@CapabilityDescription("Reassembles the content of a large FlowFileRequest sent as serialised thrift FlowFileChunks, " +
+                       "one chunk per flowfile. The header of each arriving chunk is read and the chunk waits " +
+                       "in the queue until all of its set have arrived, the chunks are then streamed " +
+                       "in sequence order into one flowfile, so no chunk is ever held in memory. " +
+                       "A chunk sent again is dropped. " +
+                       "Each attribute 'xxx' from FlowFileChunk.attributes of the first chunk " +
+                          "is copied to the flowfile attribute 'thrift.attr.xxx'")
+@SeeAlso({FromThriftProcessor.class,ToThriftProcessor.class})
+@InputRequirement(Requirement.INPUT_REQUIRED)
+@ReadsAttributes({
+    @ReadsAttribute(attribute   = "thrift.protocol",
+                    description = "the thrift protocol to be used for deserialisation (ignored unless DynamicProtocol or AUTO)"),
+    @ReadsAttribute(attribute   = "thrift.chunk.total",
+                    description = "Set on a chunk once its header has been read, chunks without it are read")
+                })
+@WritesAttributes({
+    @WritesAttribute(attribute   = "thrift.id",
+                     description = "FlowFileChunk.id, on the chunks and the reassembled flowfile"),
+    @WritesAttribute(attribute   = "thrift.chunk.sequence",
+                     description = "FlowFileChunk.sequence, on the chunks"),
+    @WritesAttribute(attribute   = "thrift.chunk.total",
+                     description = "FlowFileChunk.total, on the chunks"),
+    @WritesAttribute(attribute   = "thrift.attr.*",
+                     description = "Each attribute 'xxx' from the first chunk " +
+                                     "is copied to the flowfile attribute 'thrift.attr.xxx'"),
+    @WritesAttribute(attribute   = "thrift.response.code",
+                     description = "FlowFileChunk.responseCode of the first chunk, if set"),
+    @WritesAttribute(attribute   = "thrift.protocol",
+                     description = "The thrift protocol of the chunks")
+                  })
+public class ReassembleThriftChunks extends AbstractThriftProcessor {
+
+    public static final PropertyDescriptor MAX_CHUNK_AGE = new PropertyDescriptor.Builder()
+            .name("MaxChunkAge")
+            .description("A set of chunks still incomplete once its oldest chunk entered the flow this long ago " +
+                         "is routed to Failure")
+            .required(true)
+            .defaultValue("10 min")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_SETS = new PropertyDescriptor.Builder()
+            .name("MaxSets")
+            .description("The maximum number of sets of chunks, ie distinct ids, considered per trigger")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_NEW_CHUNKS = new PropertyDescriptor.Builder()
+            .name("MaxNewChunks")
+            .description("The maximum number of newly arrived chunks whose header is read per trigger")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_CHUNKS = new PropertyDescriptor.Builder()
+            .name("MaxChunks")
+            .description("The maximum FlowFileChunk.total, a chunk declaring more is routed to Failure")
+            .required(true)
+            .defaultValue("10000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final Relationship SUCCESS = new Relationship.Builder()
+            .name("Success")
+            .description("The reassembled content of a complete set of chunks")
+            .build();
+
+    public static final Relationship ORIGINAL = new Relationship.Builder()
+            .name("Original")
+            .description("The chunks of a reassembled set")
+            .build();
+
+    public static final Relationship FAILURE = new Relationship.Builder()
+            .name("Failure")
+            .description("Chunks which could not be read, sets which failed to reassemble or were incomplete too long")
+            .build();
+
+    public ReassembleThriftChunks() {
+        super();
+    }
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        super.init(context);
+        addPropertyDescriptor(PROTOCOL_CACHE_ATTRIBUTE);
+        addPropertyDescriptor(MAX_CHUNK_AGE);
+        addPropertyDescriptor(MAX_SETS);
+        addPropertyDescriptor(MAX_NEW_CHUNKS);
+        addPropertyDescriptor(MAX_CHUNKS);
+
+        final Set<Relationship> relationships = new HashSet<Relationship>();
+        relationships.add(SUCCESS);
+        relationships.add(ORIGINAL);
+        relationships.add(FAILURE);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    /**
+     * The chunks sharing an id
+     */
+    private static final class ChunkSet {
+        final List<FlowFile> flowFiles = new ArrayList<>();
+        /**
+         * The chunks by sequence, set by sequence()
+         */
+        final NavigableMap<Integer, FlowFile> chunks = new TreeMap<>();
+        int total;
+        long oldest = Long.MAX_VALUE;
+
+        void add(FlowFile flowFile) {
+            flowFiles.add(flowFile);
+            // entry date, a set put back on the queue keeps ageing
+            oldest = Math.min(oldest, flowFile.getEntryDate());
+        }
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        final long maxChunkAge = context.getProperty(MAX_CHUNK_AGE).asTimePeriod(TimeUnit.MILLISECONDS);
+        final int maxSets = context.getProperty(MAX_SETS).asInteger();
+        final int maxNewChunks = context.getProperty(MAX_NEW_CHUNKS).asInteger();
+        final int maxChunks = context.getProperty(MAX_CHUNKS).asInteger();
+
+        final Map<String, ChunkSet> sets = new LinkedHashMap<>();
+        final List<FlowFile> newChunks = new ArrayList<>();
+        final List<FlowFile> flowFiles = session.get(new FlowFileFilter() {
+            @Override
+            public FlowFileFilterResult filter(FlowFile flowFile) {
+                if (flowFile.getAttribute(FlowFileChunks.TotalAttr) == null) {
+                    if (newChunks.size() >= maxNewChunks) {
+                        return FlowFileFilterResult.REJECT_AND_CONTINUE;
+                    }
+                    newChunks.add(flowFile);
+                    return FlowFileFilterResult.ACCEPT_AND_CONTINUE;
+                }
+                final String key = getSetKey(flowFile);
+                ChunkSet set = sets.get(key);
+                if (set == null) {
+                    if (sets.size() >= maxSets) {
+                        return FlowFileFilterResult.REJECT_AND_CONTINUE;
+                    }
+                    set = new ChunkSet();
+                    sets.put(key, set);
+                }
+                set.add(flowFile);
+                return FlowFileFilterResult.ACCEPT_AND_CONTINUE;
+            }
+        });
+        if (flowFiles.isEmpty()) {
+            return;
+        }
+
+        final byte[] buffer = new byte[CopyBufferSize];
+        for (FlowFile flowFile : newChunks) {
+            flowFile = readHeader(session, flowFile, maxChunks, buffer);
+            if (flowFile != null) {
+                sets.computeIfAbsent(getSetKey(flowFile), (key) -> new ChunkSet()).add(flowFile);
+            }
+        }
+
+        final long now = System.currentTimeMillis();
+        boolean progressed = !newChunks.isEmpty();
+        for (ChunkSet set : sets.values()) {
+            if (!sequence(session, set, maxChunks)) {
+                progressed = true;
+            } else if (set.chunks.size() == set.total) {
+                reassemble(session, new ArrayList<>(set.chunks.values()), buffer);
+                progressed = true;
+            } else if (now - set.oldest >= maxChunkAge) {
+                getLogger().error("Incomplete chunks, " + set.chunks.size() + " of " + set.total);
+                fail(session, set.flowFiles, "incomplete, " + set.chunks.size() + " of " + set.total + " chunks");
+                progressed = true;
+            } else {
+                // not complete, back on the queue for a later trigger
+                session.transfer(set.flowFiles);
+            }
+        }
+        if (!progressed) {
+            context.yield();
+        }
+    }
+
+    /**
+     * @param flowFile a chunk with a read header
+     * @return the key of the set of flowFile, protocols never share a set
+     */
+    private String getSetKey(FlowFile flowFile) {
+        String key = flowFile.getAttribute("thrift.id");
+        if (perRequestProtcol || ProtocolAuto.equals(protocol)) {
+            String thrift_protocol = flowFile.getAttribute(ProtocolAttr);
+            key = key + '\0' + (thrift_protocol == null ? "" : thrift_protocol);
+        }
+        return key;
+    }
+
+    /**
+     * Reads the header of a newly arrived chunk into its attributes, routing it to FAILURE on error
+     *
+     * @param session the session
+     * @param flowFile the chunk
+     * @param maxChunks the largest total accepted
+     * @param buffer the copy buffer
+     * @return the chunk with its header attributes, null if it failed
+     */
+    private FlowFile readHeader(final ProcessSession session, FlowFile flowFile, final int maxChunks,
+                                final byte[] buffer) {
+        final FlowFileChunks chunk = new FlowFileChunks();
+        try {
+            final String protocol = detectProtocol(session, flowFile);
+            session.read(flowFile, (in) -> {
+                    try {
+                        chunk.read(protocol, in, null, buffer);
+                    } catch (TException ex) {
+                        throw new IOException(ex);
+                    }
+            });
+            if (chunk.getTotal() > maxChunks) {
+                throw new ProcessException("FlowFileChunk total " + chunk.getTotal() + " exceeds MaxChunks " + maxChunks);
+            }
+            final Map<String, String> attributes = new HashMap<>();
+            attributes.put("thrift.id", Long.toString(chunk.getId()));
+            attributes.put(FlowFileChunks.SequenceAttr, Integer.toString(chunk.getSequence()));
+            attributes.put(FlowFileChunks.TotalAttr, Integer.toString(chunk.getTotal()));
+            if (ProtocolAuto.equals(this.protocol)) {
+                attributes.put(ProtocolAttr, protocol);
+            }
+            return session.putAllAttributes(flowFile, attributes);
+        } catch (Exception ex) {
+            getLogger().error("Failed to read FlowFileChunk, " + ex.getMessage());
+            forgetProtocol(flowFile);
+            flowFile = session.putAttribute(flowFile, "error", ex.getMessage());
+            session.transfer(flowFile, FAILURE);
+            return null;
+        }
+    }
+
+    /**
+     * Orders a set by sequence, duplicates are removed from the set and dropped.
+     * The chunks are keyed by sequence, never held in an array sized by the client's total
+     *
+     * @param session the session
+     * @param set the chunks sharing an id
+     * @param maxChunks the largest total accepted
+     * @return false if the set disagreed on its total, or exceeded maxChunks, and was routed to FAILURE
+     */
+    private boolean sequence(final ProcessSession session, final ChunkSet set, final int maxChunks) {
+        final List<FlowFile> duplicates = new ArrayList<>();
+        set.chunks.clear();
+        try {
+            set.total = Integer.parseInt(set.flowFiles.get(0).getAttribute(FlowFileChunks.TotalAttr));
+            for (FlowFile flowFile : set.flowFiles) {
+                final int sequence = Integer.parseInt(flowFile.getAttribute(FlowFileChunks.SequenceAttr));
+                if (Integer.parseInt(flowFile.getAttribute(FlowFileChunks.TotalAttr)) != set.total
+                    || sequence < 0 || sequence >= set.total) {
+                    getLogger().error("FlowFileChunk sequence " + sequence + " does not fit a total of " + set.total);
+                    fail(session, set.flowFiles, "chunks disagree on their total");
+                    return false;
+                }
+                if (set.chunks.putIfAbsent(sequence, flowFile) != null) {
+                    duplicates.add(flowFile);
+                }
+            }
+        } catch (NumberFormatException ex) {
+            getLogger().error("FlowFileChunk attributes are not numbers, " + ex.getMessage());
+            fail(session, set.flowFiles, "invalid chunk attributes, " + ex.getMessage());
+            return false;
+        }
+        if (set.total > maxChunks) {
+            getLogger().error("FlowFileChunk total " + set.total + " exceeds MaxChunks " + maxChunks);
+            fail(session, set.flowFiles, "total " + set.total + " exceeds MaxChunks " + maxChunks);
+            return false;
+        }
+        if (!duplicates.isEmpty()) {
+            set.flowFiles.removeAll(duplicates);
+            session.remove(duplicates);
+        }
+        return true;
+    }
+
+    private void fail(final ProcessSession session, final List<FlowFile> set, final String error) {
+        for (FlowFile flowFile : set) {
+            session.transfer(session.putAttribute(flowFile, "error", error), FAILURE);
+        }
+    }
+
+    /**
+     * Streams the chunks of a complete set in sequence order into one new flowfile,
+     * routing the set to FAILURE on error
+     *
+     * @param session the session
+     * @param set the chunks in sequence order
+     * @param buffer the copy buffer
+     */
+    private void reassemble(final ProcessSession session, final List<FlowFile> set, final byte[] buffer) {
+        final StopWatch stopWatch = new StopWatch(true);
+        final FlowFileChunks first = new FlowFileChunks();
+        FlowFile reassembled = null;
+        try {
+            final String protocol = getProtocol(set.get(0));
+            reassembled = session.create(set);
+            reassembled = session.write(reassembled, (out) -> {
+                    final FlowFileChunks chunk = new FlowFileChunks();
+                    for (FlowFile flowFile : set) {
+                        session.read(flowFile, (in) -> {
+                                try {
+                                    (flowFile == set.get(0) ? first : chunk).read(protocol, in, out, buffer);
+                                } catch (TException ex) {
+                                    throw new IOException(ex);
+                                }
+                        });
+                    }
+            });
+            final Map<String, String> attributes = toFlowFileAttributes(first.getAttributes(), 4);
+            attributes.put("thrift.id", Long.toString(first.getId()));
+            if (first.getResponseCode() != null) {
+                attributes.put(ResponseCodeAttr, first.getResponseCode().name());
+            }
+            attributes.put(ProtocolAttr, protocol);
+            reassembled = session.putAllAttributes(reassembled, attributes);
+            reassembled = session.removeAttribute(reassembled, FlowFileChunks.TotalAttr);
+        } catch (Exception ex) {
+            getLogger().error("Failed to reassemble FlowFileChunks, " + ex.getMessage());
+            if (reassembled != null) {
+                session.remove(reassembled);
+            }
+            fail(session, set, ex.getMessage());
+            return;
+        }
+        session.getProvenanceReporter().join(set, reassembled, "Reassembled thrift FlowFileChunks",
+                                             stopWatch.getElapsed(TimeUnit.MILLISECONDS));
+        session.transfer(reassembled, SUCCESS);
+        session.transfer(set, ORIGINAL);
+    }
+}
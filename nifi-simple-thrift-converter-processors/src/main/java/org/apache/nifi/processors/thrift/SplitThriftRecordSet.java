@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.ReadsAttribute;
+import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.flowfile.attributes.FragmentAttributes;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.util.StopWatch;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TType;
+
+@Tags({ "thrift", "converter", "split", "recordset" })
+@CapabilityDescription("Splits a serialised thrift RecordSet into one flowfile per ThriftFlowFile. " +
+                       "The RecordSet is read element by element from the flowfile content, " +
+                       "so it is never held in memory whatever its size. " +
+                       "Each attribute 'xxx' from the ThriftFlowFile.attribute object " +
+                          "is copied to the flowfile attribute 'thrift.attr.xxx'" +
+                       "ThriftFlowFile.contents is copied to flowfile.content")
+@SeeAlso({FromThriftProcessor.class,ToThriftProcessor.class})
+@InputRequirement(Requirement.INPUT_REQUIRED)
+@ReadsAttributes({
+    @ReadsAttribute(attribute   = "thrift.protocol",
+                    description = "the thrift protocol to be used for deserialisation (ignored unless DynamicProtocol or AUTO)")
+                })
+@WritesAttributes({
+    @WritesAttribute(attribute   = "thrift.attr.*",
+                     description = "Each attribute 'xxx' from the ThriftFlowFile " +
+                                     "is copied to the flowfile attribute 'thrift.attr.xxx'"),
+    @WritesAttribute(attribute   = "fragment.identifier",
+                     description = "All splits of the same RecordSet share a random identifier"),
+    @WritesAttribute(attribute   = "fragment.index",
+                     description = "The position of the ThriftFlowFile within the RecordSet"),
+    @WritesAttribute(attribute   = "fragment.count",
+                     description = "The number of ThriftFlowFiles in the RecordSet"),
+    @WritesAttribute(attribute   = "segment.original.filename",
+                     description = "The filename of the RecordSet flowfile")
+                  })
+public class SplitThriftRecordSet extends AbstractThriftProcessor {
+
+    private static final short RECORDSET_FLOWFILES  = RecordSet._Fields.FLOW_FILES.getThriftFieldId();
+    private static final short FLOWFILE_ATTRIBUTES = ThriftFlowFile._Fields.ATTRIBUTES.getThriftFieldId();
+    private static final short FLOWFILE_CONTENT    = ThriftFlowFile._Fields.CONTENT.getThriftFieldId();
+
+    public static final Relationship SPLITS = new Relationship.Builder()
+            .name("Splits")
+            .description("A flowfile for each ThriftFlowFile of the RecordSet")
+            .build();
+
+    public static final Relationship ORIGINAL = new Relationship.Builder()
+            .name("Original")
+            .description("The RecordSet flowfile once split")
+            .build();
+
+    public static final Relationship FAILURE = new Relationship.Builder()
+            .name("Failure")
+            .description("Failed to split the RecordSet, no splits are emitted")
+            .build();
+
+    public SplitThriftRecordSet() {
+        super();
+    }
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        super.init(context);
+        addPropertyDescriptor(PROTOCOL_CACHE_ATTRIBUTE);
+
+        final Set<Relationship> relationships = new HashSet<Relationship>();
+        relationships.add(SPLITS);
+        relationships.add(ORIGINAL);
+        relationships.add(FAILURE);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        FlowFile flowFile = session.get();
+        if (flowFile == null) {
+            return;
+        }
+        final StopWatch stopWatch = new StopWatch(true);
+        final FlowFile original = flowFile;
+        final String fragmentId = UUID.randomUUID().toString();
+        final List<FlowFile> splits = new ArrayList<>();
+        try {
+            final String protocol = detectProtocol(session, flowFile);
+            final byte[] buffer = new byte[CopyBufferSize];
+            session.read(flowFile, (in) -> {
+                    try {
+                        split(session, original, new ThriftStreamReader(protocol, in), fragmentId, splits, buffer);
+                    } catch (TException ex) {
+                        throw new IOException(ex);
+                    }
+            });
+        } catch (Exception ex) {
+            getLogger().error("Failed to split RecordSet, " + ex.getMessage());
+            forgetProtocol(flowFile);
+            session.remove(splits);
+            flowFile = session.putAttribute(flowFile, "error", ex.getMessage());
+            session.transfer(flowFile, FAILURE);
+            return;
+        }
+
+        final Map<String, String> fragmentAttributes = new HashMap<>();
+        fragmentAttributes.put(FragmentAttributes.FRAGMENT_ID.key(), fragmentId);
+        fragmentAttributes.put(FragmentAttributes.FRAGMENT_COUNT.key(), Integer.toString(splits.size()));
+        flowFile = session.putAllAttributes(flowFile, fragmentAttributes);
+
+        session.getProvenanceReporter().fork(flowFile, splits, "Split thrift RecordSet",
+                                             stopWatch.getElapsed(TimeUnit.MILLISECONDS));
+        session.transfer(splits, SPLITS);
+        session.transfer(flowFile, ORIGINAL);
+    }
+
+    /**
+     * Reads the RecordSet struct, each element of its flowFiles list becomes a split
+     *
+     * @param session the session
+     * @param original the RecordSet flowfile
+     * @param reader reading the RecordSet
+     * @param fragmentId the fragment.identifier of the splits
+     * @param splits receives the splits, in order, so far
+     * @param buffer the copy buffer
+     * @throws TException if the RecordSet cannot be read
+     * @throws IOException if a split cannot be written
+     */
+    private void split(final ProcessSession session, final FlowFile original, final ThriftStreamReader reader,
+                       final String fragmentId, final List<FlowFile> splits,
+                       final byte[] buffer) throws TException, IOException {
+        final TProtocol protocol = reader.getProtocol();
+        protocol.readStructBegin();
+        while (true) {
+            TField field = protocol.readFieldBegin();
+            if (field.type == TType.STOP) {
+                break;
+            }
+            if (field.id == RECORDSET_FLOWFILES && field.type == TType.LIST) {
+                TList list = protocol.readListBegin();
+                if (list.elemType != TType.STRUCT) {
+                    throw new TProtocolException(TProtocolException.INVALID_DATA,
+                                                 "RecordSet.flowFiles of type " + list.elemType);
+                }
+                for (int i = 0; i < list.size; i++) {
+                    splits.add(splitFlowFile(session, original, reader, fragmentId, i, list.size, buffer));
+                }
+                protocol.readListEnd();
+            } else {
+                reader.skip(field.type);
+            }
+            protocol.readFieldEnd();
+        }
+        protocol.readStructEnd();
+    }
+
+    /**
+     * Reads one ThriftFlowFile into a new split, the content is copied straight
+     * from the RecordSet stream to the split, base64 decoded on the way with JSON
+     *
+     * @return the split
+     */
+    private FlowFile splitFlowFile(final ProcessSession session, final FlowFile original,
+                                   final ThriftStreamReader reader, final String fragmentId,
+                                   final int index, final int count,
+                                   final byte[] buffer) throws TException, IOException {
+        final TProtocol protocol = reader.getProtocol();
+        FlowFile split = session.create(original);
+        try {
+            final Map<String, String> attributes = new HashMap<>();
+            protocol.readStructBegin();
+            while (true) {
+                TField field = protocol.readFieldBegin();
+                if (field.type == TType.STOP) {
+                    break;
+                }
+                if (field.id == FLOWFILE_ATTRIBUTES && field.type == TType.MAP) {
+                    TMap map = protocol.readMapBegin();
+                    for (int i = 0; i < map.size; i++) {
+                        String key = protocol.readString();
+                        attributes.put(prefixedKey(key), protocol.readString());
+                    }
+                    protocol.readMapEnd();
+                } else if (field.id == FLOWFILE_CONTENT && field.type == TType.STRING && reader.isRawBinary()) {
+                    final int length = reader.readBinaryLength();
+                    split = session.write(split, (out) -> {
+                            try {
+                                reader.readBytes(out, length, buffer);
+                            } catch (TException ex) {
+                                throw new IOException(ex);
+                            }
+                    });
+                } else if (field.id == FLOWFILE_CONTENT && field.type == TType.STRING) {
+                    // JSON content is base64, decoded a buffer at a time into the split
+                    split = session.write(split, (out) -> {
+                            try {
+                                reader.readBase64(out, buffer);
+                            } catch (TException ex) {
+                                throw new IOException(ex);
+                            }
+                    });
+                } else {
+                    reader.skip(field.type);
+                }
+                protocol.readFieldEnd();
+            }
+            protocol.readStructEnd();
+
+            attributes.put(FragmentAttributes.FRAGMENT_ID.key(), fragmentId);
+            attributes.put(FragmentAttributes.FRAGMENT_INDEX.key(), Integer.toString(index));
+            attributes.put(FragmentAttributes.FRAGMENT_COUNT.key(), Integer.toString(count));
+            attributes.put(FragmentAttributes.SEGMENT_ORIGINAL_FILENAME.key(),
+                           original.getAttribute(CoreAttributes.FILENAME.key()));
+            return session.putAllAttributes(split, attributes);
+        } catch (final Exception ex) {
+            session.remove(split);
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Immutable registry of serializers and deserializers, keyed by protocol name.
+ *
+ * TSerializer and TDeserializer carry mutable buffers and transports so they
+ * cannot be shared between concurrent tasks. Each protocol therefore has one
+ * instance per thread, created on first use and reused by every later request
+ * on that thread.
+ *
+ * The FlowFile structs can instead be serialised by a FlowFileCodec, libthrift's, or
+ * for BINARY and COMPACT the hand written FlowFileStructCodec.
+ */
+public final class ThriftCodecs {
+
+    private static final Map<String, ThreadLocal<TSerializer>> serializers;
+    private static final Map<String, ThreadLocal<TDeserializer>> deserializers;
+    // shared, each call goes through the calling thread's TSerializer or TDeserializer
+    private static final Map<String, FlowFileCodec> libthriftCodecs;
+
+    static {
+        Map<String, ThreadLocal<TSerializer>> serializerMap = new HashMap<>();
+        Map<String, ThreadLocal<TDeserializer>> deserializerMap = new HashMap<>();
+        Map<String, FlowFileCodec> codecMap = new HashMap<>();
+        for (String protocol : new String[] {AbstractThriftProcessor.ProtocolJSON,
+                                             AbstractThriftProcessor.ProtocolBinary,
+                                             AbstractThriftProcessor.ProtocolCompact}) {
+            final TProtocolFactory factory = AbstractThriftProcessor.getFactory(protocol);
+            serializerMap.put(protocol, ThreadLocal.withInitial(() -> {
+                try {
+                    return new TSerializer(factory);
+                } catch (TTransportException tte) {
+                    throw new RuntimeException("TSerializer " + protocol, tte);
+                }
+            }));
+            deserializerMap.put(protocol, ThreadLocal.withInitial(() -> {
+                try {
+                    return new TDeserializer(factory);
+                } catch (TTransportException tte) {
+                    throw new RuntimeException("TDeserializer " + protocol, tte);
+                }
+            }));
+            codecMap.put(protocol, new LibthriftCodec(serializerMap.get(protocol), deserializerMap.get(protocol)));
+        }
+        serializers = Collections.unmodifiableMap(serializerMap);
+        deserializers = Collections.unmodifiableMap(deserializerMap);
+        libthriftCodecs = Collections.unmodifiableMap(codecMap);
+    }
+
+    private ThriftCodecs() {
+    }
+
+    /**
+     * @param protocol the protocol
+     * @return true if the protocol is supported
+     */
+    public static boolean isSupported(String protocol) {
+        return protocol != null && serializers.containsKey(protocol);
+    }
+
+    /**
+     * @param protocol the protocol
+     * @return the calling thread's TSerializer for the protocol
+     * @throws IllegalArgumentException if an invalid protocol
+     */
+    public static TSerializer getSerializer(String protocol) throws IllegalArgumentException {
+        return lookup(serializers, protocol).get();
+    }
+
+    /**
+     * @param protocol the protocol
+     * @return the calling thread's TDeserializer for the protocol
+     * @throws IllegalArgumentException if an invalid protocol
+     */
+    public static TDeserializer getDeserializer(String protocol) throws IllegalArgumentException {
+        return lookup(deserializers, protocol).get();
+    }
+
+    /**
+     * @param protocol the protocol
+     * @param specialized true for FlowFileStructCodec, where the protocol has one
+     * @return the FlowFileCodec for the protocol, libthrift's if not specialized or JSON
+     * @throws IllegalArgumentException if an invalid protocol
+     */
+    public static FlowFileCodec getCodec(String protocol, boolean specialized) throws IllegalArgumentException {
+        lookup(serializers, protocol);
+        if (specialized) {
+            if (AbstractThriftProcessor.ProtocolBinary.equals(protocol)) {
+                return FlowFileStructCodec.BINARY;
+            }
+            if (AbstractThriftProcessor.ProtocolCompact.equals(protocol)) {
+                return FlowFileStructCodec.COMPACT;
+            }
+        }
+        return libthriftCodecs.get(protocol);
+    }
+
+    /**
+     * The FlowFileCodec of the generated read and write, through the calling thread's TSerializer and TDeserializer,
+     * so one instance per protocol serves every thread
+     */
+    private static final class LibthriftCodec implements FlowFileCodec {
+        private final ThreadLocal<TSerializer> serializer;
+        private final ThreadLocal<TDeserializer> deserializer;
+
+        LibthriftCodec(ThreadLocal<TSerializer> serializer, ThreadLocal<TDeserializer> deserializer) {
+            this.serializer = serializer;
+            this.deserializer = deserializer;
+        }
+
+        @Override
+        public byte[] serialize(FlowFileRequest request) throws TException {
+            return serializer.get().serialize(request);
+        }
+
+        @Override
+        public byte[] serialize(FlowFileReply reply) throws TException {
+            return serializer.get().serialize(reply);
+        }
+
+        @Override
+        public void deserialize(FlowFileRequest request, byte[] bytes, int offset, int length) throws TException {
+            deserializer.get().deserialize(request, bytes, offset, length);
+        }
+
+        @Override
+        public void deserialize(FlowFileReply reply, byte[] bytes, int offset, int length) throws TException {
+            deserializer.get().deserialize(reply, bytes, offset, length);
+        }
+    }
+
+    private static <T> ThreadLocal<T> lookup(Map<String, ThreadLocal<T>> codecs, String protocol) {
+        if (protocol == null) {
+            throw new IllegalArgumentException("null protocol");
+        }
+        ThreadLocal<T> codec = codecs.get(protocol);
+        if (codec == null) {
+            throw new IllegalArgumentException("Invalid protocol -" + protocol + "-");
+        }
+        return codec;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+import org.apache.nifi.serialization.MalformedRecordException;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordSchema;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TType;
+
+/**
+ * Reads ThriftFlowFiles one at a time off the stream as Records, a RecordSet
+ * is never deserialised as a whole, so heap use is one ThriftFlowFile whatever the size of the flowfile.
+ */
+public class ThriftFlowFileRecordReader implements RecordReader {
+
+    private static final short RECORDSET_FLOWFILES = RecordSet._Fields.FLOW_FILES.getThriftFieldId();
+
+    private final PushbackInputStream in;
+    private final ThriftStreamReader reader;
+    private final boolean recordSet;
+    private boolean listStarted;
+    private int remaining;
+
+    /**
+     * @param protocolName the protocol, AUTO detects it from the first byte
+     * @param in the serialised RecordSet or ThriftFlowFiles
+     * @param recordSet true if in is one RecordSet, false if ThriftFlowFile structs one after another
+     * @throws IOException if in cannot be read
+     */
+    public ThriftFlowFileRecordReader(String protocolName, InputStream in, boolean recordSet) throws IOException {
+        this.in = new PushbackInputStream(in, 1);
+        this.recordSet = recordSet;
+        if (AbstractThriftProcessor.ProtocolAuto.equals(protocolName)) {
+            protocolName = ProtocolDetector.detect(peek());
+        }
+        try {
+            this.reader = new ThriftStreamReader(protocolName, this.in);
+        } catch (TException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public Record nextRecord(boolean coerceTypes, boolean dropUnknownFields) throws IOException, MalformedRecordException {
+        try {
+            if (recordSet ? !nextInRecordSet() : peek() == -1) {
+                return null;
+            }
+            final ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+            thriftFlowFile.read(reader.getProtocol());
+            return ThriftRecords.toRecord(thriftFlowFile);
+        } catch (TException ex) {
+            throw new MalformedRecordException("Failed to read ThriftFlowFile, " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Positions the stream at the next element of RecordSet.flowFiles
+     *
+     * @return false once the list is exhausted, the rest of the RecordSet is then read
+     */
+    private boolean nextInRecordSet() throws TException {
+        final TProtocol protocol = reader.getProtocol();
+        if (!listStarted) {
+            listStarted = true;
+            protocol.readStructBegin();
+            while (true) {
+                TField field = protocol.readFieldBegin();
+                if (field.type == TType.STOP) {
+                    // no flowFiles
+                    remaining = -1;
+                    protocol.readStructEnd();
+                    return false;
+                }
+                if (field.id == RECORDSET_FLOWFILES && field.type == TType.LIST) {
+                    TList list = protocol.readListBegin();
+                    if (list.elemType != TType.STRUCT) {
+                        throw new TProtocolException(TProtocolException.INVALID_DATA,
+                                                     "RecordSet.flowFiles of type " + list.elemType);
+                    }
+                    remaining = list.size;
+                    break;
+                }
+                reader.skip(field.type);
+                protocol.readFieldEnd();
+            }
+        }
+        if (remaining > 0) {
+            remaining--;
+            return true;
+        }
+        if (remaining == 0) {
+            // past the list, the remaining fields are skipped
+            remaining = -1;
+            protocol.readListEnd();
+            protocol.readFieldEnd();
+            while (true) {
+                TField field = protocol.readFieldBegin();
+                if (field.type == TType.STOP) {
+                    break;
+                }
+                reader.skip(field.type);
+                protocol.readFieldEnd();
+            }
+            protocol.readStructEnd();
+        }
+        return false;
+    }
+
+    private int peek() throws IOException {
+        final int next = in.read();
+        if (next != -1) {
+            in.unread(next);
+        }
+        return next;
+    }
+
+    @Override
+    public RecordSchema getSchema() {
+        return ThriftRecords.SCHEMA;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
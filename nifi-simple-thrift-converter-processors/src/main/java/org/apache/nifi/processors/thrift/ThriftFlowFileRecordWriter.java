@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.nifi.serialization.AbstractRecordSetWriter;
+import org.apache.nifi.serialization.record.Record;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TType;
+
+/**
+ * Writes Records as ThriftFlowFiles.
+ *
+ * ThriftFlowFile structs one after another are written as each record comes. A RecordSet
+ * leads with the number of flowFiles, so its records are held, serialised, until the
+ * record set is finished (as objects for JSON, whose list elements cannot be serialised apart).
+ */
+public class ThriftFlowFileRecordWriter extends AbstractRecordSetWriter {
+
+    private final String protocolName;
+    private final boolean recordSet;
+    private final ThriftStreamWriter writer;
+    private final TSerializer serializer;
+    private final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    private final List<ThriftFlowFile> held = new ArrayList<>();
+    private int count;
+
+    /**
+     * @param protocolName the protocol, not AUTO
+     * @param out where the ThriftFlowFiles are written
+     * @param recordSet true to write one RecordSet, false for ThriftFlowFile structs one after another
+     * @throws IOException if the protocol cannot be created
+     */
+    public ThriftFlowFileRecordWriter(String protocolName, OutputStream out, boolean recordSet) throws IOException {
+        super(out);
+        this.protocolName = protocolName;
+        this.recordSet = recordSet;
+        try {
+            this.writer = new ThriftStreamWriter(protocolName, out);
+            this.serializer = recordSet && ThriftStreamReader.isRawBinary(protocolName)
+                    ? new TSerializer(AbstractThriftProcessor.getFactory(protocolName)) : null;
+        } catch (TException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    protected Map<String, String> writeRecord(Record record) throws IOException {
+        final ThriftFlowFile thriftFlowFile = ThriftRecords.toThriftFlowFile(record);
+        try {
+            if (!recordSet) {
+                thriftFlowFile.write(writer.getProtocol());
+            } else if (serializer != null) {
+                serialized.write(serializer.serialize(thriftFlowFile));
+            } else {
+                held.add(thriftFlowFile);
+            }
+        } catch (TException ex) {
+            throw new IOException(ex);
+        }
+        count++;
+        return Collections.emptyMap();
+    }
+
+    @Override
+    protected Map<String, String> onFinishRecordSet() throws IOException {
+        try {
+            if (recordSet) {
+                writeRecordSet();
+            }
+            writer.flush();
+        } catch (TException ex) {
+            throw new IOException(ex);
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Writes the RecordSet of the records held, BINARY and COMPACT list elements are
+     * self contained so their serialised bytes are copied in as they are
+     */
+    private void writeRecordSet() throws TException, IOException {
+        final TProtocol protocol = writer.getProtocol();
+        protocol.writeStructBegin(MergeThriftRecordSet.RECORDSET_STRUCT);
+        protocol.writeFieldBegin(MergeThriftRecordSet.RECORDSET_FLOWFILES);
+        protocol.writeListBegin(new TList(TType.STRUCT, count));
+        if (serializer != null) {
+            writer.writeBytes(new ByteArrayInputStream(serialized.getBuffer(), 0, serialized.size()),
+                              serialized.size(), new byte[AbstractThriftProcessor.CopyBufferSize]);
+            serialized.reset();
+        } else {
+            for (ThriftFlowFile thriftFlowFile : held) {
+                thriftFlowFile.write(protocol);
+            }
+            held.clear();
+        }
+        protocol.writeListEnd();
+        protocol.writeFieldEnd();
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+        count = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        try {
+            writer.flush();
+        } catch (TException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            // records written outside a record set
+            if (recordSet && count > 0) {
+                writeRecordSet();
+            }
+            writer.flush();
+        } catch (TException ex) {
+            throw new IOException(ex);
+        } finally {
+            super.close();
+        }
+    }
+
+    @Override
+    public String getMimeType() {
+        return ThriftRecords.getMimeType(protocolName);
+    }
+
+    /**
+     * A ByteArrayOutputStream whose buffer can be read without a copy
+     */
+    private static final class ByteArrayOutputStream extends java.io.ByteArrayOutputStream {
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
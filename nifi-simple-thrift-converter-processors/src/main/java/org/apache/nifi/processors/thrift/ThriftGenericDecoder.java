@@ -0,0 +1,559 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.record.DataType;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.apache.nifi.serialization.record.SchemaIdentifier;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TType;
+
+/**
+ * Decodes any struct of a parsed IDL, without generated classes, as a Record or as JSON.
+ *
+ * The IDL is compiled once, when the decoder is created, into a tree of nodes: each struct
+ * has a table of its fields indexed by field id, so decoding is a table lookup per field,
+ * as the switch of generated code is, with no type resolution or name lookup left to do.
+ * Fields of an unknown id, or of a type other than the IDL's, are skipped, as generated code does,
+ * as are container elements of a type other than the IDL's.
+ *
+ * Records follow the IDL: base types as their Record types, enums as their names, binary as an array of bytes,
+ * lists and sets as arrays, maps as maps keyed by string, and structs as records.
+ * JSON has the same shape, with binary as base64.
+ */
+public class ThriftGenericDecoder {
+
+    private final ThriftIDL idl;
+    private final StructNode root;
+    private final Map<String, StructNode> compiled = new HashMap<>();
+
+    /**
+     * @param idl the parsed IDL
+     * @param structName the struct, union or exception to decode
+     * @throws IllegalArgumentException if the IDL has no such struct, or references a type it does not define
+     */
+    ThriftGenericDecoder(ThriftIDL idl, String structName) {
+        this.idl = idl;
+        this.root = compileStruct(structName);
+        this.compiled.clear();
+    }
+
+    /**
+     * @return the name of the struct decoded
+     */
+    public String getStructName() {
+        return root.name;
+    }
+
+    /**
+     * @return the Record schema of the struct
+     */
+    public RecordSchema getSchema() {
+        return root.schema;
+    }
+
+    /**
+     * @param protocol positioned at the struct
+     * @return the struct as a Record
+     * @throws TException if the struct cannot be read
+     */
+    public Record readRecord(TProtocol protocol) throws TException {
+        return root.read(protocol);
+    }
+
+    /**
+     * @param protocol positioned at the struct
+     * @param out receives the struct as a JSON object
+     * @throws TException if the struct cannot be read
+     * @throws IOException if out cannot be written
+     */
+    public void readJson(TProtocol protocol, Writer out) throws TException, IOException {
+        root.json(protocol, out);
+    }
+
+    private StructNode compileStruct(String structName) {
+        StructNode node = compiled.get(structName);
+        if (node != null) {
+            return node;
+        }
+        final ThriftIDL.Struct struct = idl.getStruct(structName);
+        if (struct == null) {
+            throw new IllegalArgumentException("IDL " + idl.getName() + " has no struct " + structName);
+        }
+        // registered before its fields are compiled, so a struct may refer to itself
+        node = new StructNode(structName);
+        compiled.put(structName, node);
+
+        int minId = Integer.MAX_VALUE;
+        int maxId = Integer.MIN_VALUE;
+        for (ThriftIDL.Field field : struct.getFields()) {
+            minId = Math.min(minId, field.getId());
+            maxId = Math.max(maxId, field.getId());
+        }
+        final List<RecordField> recordFields = new ArrayList<>();
+        if (minId <= maxId) {
+            node.baseId = minId;
+            node.names = new String[maxId - minId + 1];
+            node.nodes = new Node[maxId - minId + 1];
+            for (ThriftIDL.Field field : struct.getFields()) {
+                final Node fieldNode = compile(field.getType());
+                node.names[field.getId() - minId] = field.getName();
+                node.nodes[field.getId() - minId] = fieldNode;
+                recordFields.add(new RecordField(field.getName(), fieldNode.dataType, true));
+            }
+        }
+        node.schema.setFields(recordFields);
+        return node;
+    }
+
+    private Node compile(ThriftIDL.Type type) {
+        final ThriftIDL.Type resolved = idl.resolve(type);
+        switch (resolved.getTType()) {
+        case TType.BOOL:
+            return new ScalarNode(TType.BOOL, RecordFieldType.BOOLEAN.getDataType());
+        case TType.BYTE:
+            return new ScalarNode(TType.BYTE, RecordFieldType.BYTE.getDataType());
+        case TType.I16:
+            return new ScalarNode(TType.I16, RecordFieldType.SHORT.getDataType());
+        case TType.I64:
+            return new ScalarNode(TType.I64, RecordFieldType.LONG.getDataType());
+        case TType.DOUBLE:
+            return new ScalarNode(TType.DOUBLE, RecordFieldType.DOUBLE.getDataType());
+        case TType.I32:
+            final Map<String, Integer> values = idl.getEnums().get(resolved.getName());
+            return values == null ? new ScalarNode(TType.I32, RecordFieldType.INT.getDataType()) : new EnumNode(values);
+        case TType.STRING:
+            return resolved.isBinary() ? new BinaryNode() : new ScalarNode(TType.STRING, RecordFieldType.STRING.getDataType());
+        case TType.LIST:
+        case TType.SET:
+            return new ListNode(resolved.getTType(), compile(resolved.getValueType()));
+        case TType.MAP:
+            return new MapNode(compile(resolved.getKeyType()), compile(resolved.getValueType()));
+        case TType.STRUCT:
+            return compileStruct(resolved.getName());
+        default:
+            throw new IllegalArgumentException("IDL " + idl.getName() + " type " + resolved + " cannot be decoded");
+        }
+    }
+
+    /**
+     * A compiled type, reading its value as a Record value or as JSON
+     */
+    private abstract static class Node {
+        final byte ttype;
+        final DataType dataType;
+
+        Node(byte ttype, DataType dataType) {
+            this.ttype = ttype;
+            this.dataType = dataType;
+        }
+
+        abstract Object read(TProtocol protocol) throws TException;
+
+        abstract void json(TProtocol protocol, Writer out) throws TException, IOException;
+
+        /**
+         * @return the value as a map key, maps being keyed by string
+         */
+        String readKey(TProtocol protocol) throws TException {
+            return String.valueOf(read(protocol));
+        }
+    }
+
+    private static final class ScalarNode extends Node {
+
+        ScalarNode(byte ttype, DataType dataType) {
+            super(ttype, dataType);
+        }
+
+        @Override
+        Object read(TProtocol protocol) throws TException {
+            switch (ttype) {
+            case TType.BOOL:
+                return protocol.readBool();
+            case TType.BYTE:
+                return protocol.readByte();
+            case TType.I16:
+                return protocol.readI16();
+            case TType.I32:
+                return protocol.readI32();
+            case TType.I64:
+                return protocol.readI64();
+            case TType.DOUBLE:
+                return protocol.readDouble();
+            default:
+                return protocol.readString();
+            }
+        }
+
+        @Override
+        void json(TProtocol protocol, Writer out) throws TException, IOException {
+            switch (ttype) {
+            case TType.BOOL:
+                out.write(protocol.readBool() ? "true" : "false");
+                break;
+            case TType.BYTE:
+                out.write(Byte.toString(protocol.readByte()));
+                break;
+            case TType.I16:
+                out.write(Short.toString(protocol.readI16()));
+                break;
+            case TType.I32:
+                out.write(Integer.toString(protocol.readI32()));
+                break;
+            case TType.I64:
+                out.write(Long.toString(protocol.readI64()));
+                break;
+            case TType.DOUBLE:
+                final double value = protocol.readDouble();
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    writeString(out, Double.toString(value));
+                } else {
+                    out.write(Double.toString(value));
+                }
+                break;
+            default:
+                writeString(out, protocol.readString());
+            }
+        }
+    }
+
+    private static final class EnumNode extends Node {
+        private final Map<Integer, String> names = new HashMap<>();
+
+        EnumNode(Map<String, Integer> values) {
+            super(TType.I32, RecordFieldType.STRING.getDataType());
+            for (Map.Entry<String, Integer> value : values.entrySet()) {
+                names.put(value.getValue(), value.getKey());
+            }
+        }
+
+        @Override
+        Object read(TProtocol protocol) throws TException {
+            final int value = protocol.readI32();
+            final String name = names.get(value);
+            // a value newer than the IDL keeps its number
+            return name == null ? Integer.toString(value) : name;
+        }
+
+        @Override
+        void json(TProtocol protocol, Writer out) throws TException, IOException {
+            writeString(out, (String) read(protocol));
+        }
+    }
+
+    private static final class BinaryNode extends Node {
+
+        BinaryNode() {
+            super(TType.STRING, RecordFieldType.ARRAY.getArrayDataType(RecordFieldType.BYTE.getDataType()));
+        }
+
+        @Override
+        Object read(TProtocol protocol) throws TException {
+            final ByteBuffer binary = protocol.readBinary();
+            final Object[] bytes = new Object[binary.remaining()];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = binary.get(binary.position() + i);
+            }
+            return bytes;
+        }
+
+        @Override
+        String readKey(TProtocol protocol) throws TException {
+            return base64(protocol.readBinary());
+        }
+
+        @Override
+        void json(TProtocol protocol, Writer out) throws TException, IOException {
+            out.write('"');
+            out.write(base64(protocol.readBinary()));
+            out.write('"');
+        }
+
+        private static String base64(ByteBuffer binary) {
+            return new String(Base64.getEncoder().encode(binary).array(), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static final class ListNode extends Node {
+        private final Node element;
+
+        ListNode(byte ttype, Node element) {
+            super(ttype, RecordFieldType.ARRAY.getArrayDataType(element.dataType));
+            this.element = element;
+        }
+
+        /**
+         * @return the number of elements, -1 once elements of a type other than the IDL's are skipped
+         */
+        private int begin(TProtocol protocol) throws TException {
+            final byte elemType;
+            final int size;
+            if (ttype == TType.SET) {
+                final TSet set = protocol.readSetBegin();
+                elemType = set.elemType;
+                size = set.size;
+            } else {
+                final TList list = protocol.readListBegin();
+                elemType = list.elemType;
+                size = list.size;
+            }
+            if (size > 0 && elemType != element.ttype) {
+                for (int i = 0; i < size; i++) {
+                    TProtocolUtil.skip(protocol, elemType);
+                }
+                end(protocol);
+                return -1;
+            }
+            return size;
+        }
+
+        private void end(TProtocol protocol) throws TException {
+            if (ttype == TType.SET) {
+                protocol.readSetEnd();
+            } else {
+                protocol.readListEnd();
+            }
+        }
+
+        @Override
+        Object read(TProtocol protocol) throws TException {
+            final int size = begin(protocol);
+            if (size < 0) {
+                return new Object[0];
+            }
+            final Object[] values = new Object[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = element.read(protocol);
+            }
+            end(protocol);
+            return values;
+        }
+
+        @Override
+        void json(TProtocol protocol, Writer out) throws TException, IOException {
+            final int size = begin(protocol);
+            out.write('[');
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                element.json(protocol, out);
+            }
+            out.write(']');
+            if (size >= 0) {
+                end(protocol);
+            }
+        }
+    }
+
+    private static final class MapNode extends Node {
+        private final Node key;
+        private final Node value;
+
+        MapNode(Node key, Node value) {
+            super(TType.MAP, RecordFieldType.MAP.getMapDataType(value.dataType));
+            this.key = key;
+            this.value = value;
+        }
+
+        /**
+         * @return the number of entries, -1 once entries of types other than the IDL's are skipped
+         */
+        private int begin(TProtocol protocol) throws TException {
+            final TMap map = protocol.readMapBegin();
+            if (map.size > 0 && (map.keyType != key.ttype || map.valueType != value.ttype)) {
+                for (int i = 0; i < map.size; i++) {
+                    TProtocolUtil.skip(protocol, map.keyType);
+                    TProtocolUtil.skip(protocol, map.valueType);
+                }
+                protocol.readMapEnd();
+                return -1;
+            }
+            return map.size;
+        }
+
+        @Override
+        Object read(TProtocol protocol) throws TException {
+            final int size = begin(protocol);
+            final Map<String, Object> values = new HashMap<>(Math.max(4, size * 4 / 3 + 1));
+            for (int i = 0; i < size; i++) {
+                final String k = key.readKey(protocol);
+                values.put(k, value.read(protocol));
+            }
+            if (size >= 0) {
+                protocol.readMapEnd();
+            }
+            return values;
+        }
+
+        @Override
+        void json(TProtocol protocol, Writer out) throws TException, IOException {
+            final int size = begin(protocol);
+            out.write('{');
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeString(out, key.readKey(protocol));
+                out.write(':');
+                value.json(protocol, out);
+            }
+            out.write('}');
+            if (size >= 0) {
+                protocol.readMapEnd();
+            }
+        }
+    }
+
+    private static final class StructNode extends Node {
+        final String name;
+        final SimpleRecordSchema schema;
+        int baseId;
+        String[] names = new String[0];
+        Node[] nodes = new Node[0];
+
+        StructNode(String name) {
+            this(name, new SimpleRecordSchema(SchemaIdentifier.builder().name(name).build()));
+        }
+
+        private StructNode(String name, SimpleRecordSchema schema) {
+            super(TType.STRUCT, RecordFieldType.RECORD.getRecordDataType(schema));
+            this.name = name;
+            this.schema = schema;
+        }
+
+        /**
+         * @return the index of the field in the tables, -1 if it is unknown or of another type
+         */
+        private int index(TField field) {
+            final int index = field.id - baseId;
+            if (index < 0 || index >= nodes.length || nodes[index] == null || nodes[index].ttype != field.type) {
+                return -1;
+            }
+            return index;
+        }
+
+        @Override
+        Record read(TProtocol protocol) throws TException {
+            final Map<String, Object> values = new HashMap<>(nodes.length * 4 / 3 + 1);
+            protocol.readStructBegin();
+            while (true) {
+                final TField field = protocol.readFieldBegin();
+                if (field.type == TType.STOP) {
+                    break;
+                }
+                final int index = index(field);
+                if (index < 0) {
+                    TProtocolUtil.skip(protocol, field.type);
+                } else {
+                    values.put(names[index], nodes[index].read(protocol));
+                }
+                protocol.readFieldEnd();
+            }
+            protocol.readStructEnd();
+            return new MapRecord(schema, values);
+        }
+
+        @Override
+        void json(TProtocol protocol, Writer out) throws TException, IOException {
+            out.write('{');
+            boolean first = true;
+            protocol.readStructBegin();
+            while (true) {
+                final TField field = protocol.readFieldBegin();
+                if (field.type == TType.STOP) {
+                    break;
+                }
+                final int index = index(field);
+                if (index < 0) {
+                    TProtocolUtil.skip(protocol, field.type);
+                } else {
+                    if (!first) {
+                        out.write(',');
+                    }
+                    first = false;
+                    writeString(out, names[index]);
+                    out.write(':');
+                    nodes[index].json(protocol, out);
+                }
+                protocol.readFieldEnd();
+            }
+            protocol.readStructEnd();
+            out.write('}');
+        }
+    }
+
+    /**
+     * Writes value as a JSON string, quoted and escaped
+     */
+    static void writeString(Writer out, String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.write(value, start, i - start);
+            start = i + 1;
+            switch (c) {
+            case '"':
+                out.write("\\\"");
+                break;
+            case '\\':
+                out.write("\\\\");
+                break;
+            case '\n':
+                out.write("\\n");
+                break;
+            case '\r':
+                out.write("\\r");
+                break;
+            case '\t':
+                out.write("\\t");
+                break;
+            default:
+                out.write(String.format("\\u%04x", (int) c));
+            }
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+}
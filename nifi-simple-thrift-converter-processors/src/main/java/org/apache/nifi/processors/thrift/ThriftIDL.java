@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.thrift.protocol.TType;
+
+/**
+ * The descriptor model of a parsed Thrift IDL: its namespaces, typedefs, enums,
+ * structs (structs, unions and exceptions) and services, with the IDL text itself.
+ *
+ * Immutable once parsed, so one instance is shared by every processor looking it up,
+ * as are the decoders compiled from it.
+ */
+public class ThriftIDL {
+
+    /**
+     * A field type. Base types and enums are named, containers hold their element types,
+     * structs and typedefs are referenced by name and resolved with {@link ThriftIDL#resolve(Type)}
+     */
+    public static final class Type {
+        private final byte ttype;
+        private final String name;
+        private final Type keyType;
+        private final Type valueType;
+
+        Type(byte ttype, String name, Type keyType, Type valueType) {
+            this.ttype = ttype;
+            this.name = name;
+            this.keyType = keyType;
+            this.valueType = valueType;
+        }
+
+        /**
+         * @return the TType on the wire, TType.STRUCT for a name not yet resolved
+         */
+        public byte getTType() {
+            return ttype;
+        }
+
+        /**
+         * @return the IDL name, eg 'i64', 'binary', 'list' or 'FlowFileRequest'
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the key type of a map, null otherwise
+         */
+        public Type getKeyType() {
+            return keyType;
+        }
+
+        /**
+         * @return the value type of a map, the element type of a list or set, null otherwise
+         */
+        public Type getValueType() {
+            return valueType;
+        }
+
+        /**
+         * @return true if 'binary', rather than 'string', both TType.STRING on the wire
+         */
+        public boolean isBinary() {
+            return "binary".equals(name);
+        }
+
+        @Override
+        public String toString() {
+            if (keyType != null) {
+                return name + "<" + keyType + "," + valueType + ">";
+            }
+            if (valueType != null) {
+                return name + "<" + valueType + ">";
+            }
+            return name;
+        }
+    }
+
+    /**
+     * A field of a struct, or an argument of a function
+     */
+    public static final class Field {
+        private final short id;
+        private final String name;
+        private final Type type;
+        private final String requiredness;
+
+        Field(short id, String name, Type type, String requiredness) {
+            this.id = id;
+            this.name = name;
+            this.type = type;
+            this.requiredness = requiredness;
+        }
+
+        public short getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return 'required', 'optional' or 'default'
+         */
+        public String getRequiredness() {
+            return requiredness;
+        }
+    }
+
+    /**
+     * A struct, union or exception
+     */
+    public static final class Struct {
+        private final String name;
+        private final String kind;
+        private final Map<Short, Field> fieldsById;
+        private final Map<String, Field> fieldsByName;
+
+        Struct(String name, String kind, List<Field> fields) {
+            this.name = name;
+            this.kind = kind;
+            final Map<Short, Field> byId = new LinkedHashMap<>();
+            final Map<String, Field> byName = new LinkedHashMap<>();
+            for (Field field : fields) {
+                byId.put(field.getId(), field);
+                byName.put(field.getName(), field);
+            }
+            this.fieldsById = Collections.unmodifiableMap(byId);
+            this.fieldsByName = Collections.unmodifiableMap(byName);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return 'struct', 'union' or 'exception'
+         */
+        public String getKind() {
+            return kind;
+        }
+
+        /**
+         * @param id the field id
+         * @return the field, null if the struct has none with that id
+         */
+        public Field getField(short id) {
+            return fieldsById.get(id);
+        }
+
+        /**
+         * @param name the field name
+         * @return the field, null if the struct has none of that name
+         */
+        public Field getField(String name) {
+            return fieldsByName.get(name);
+        }
+
+        /**
+         * @return the fields, in IDL order
+         */
+        public Iterable<Field> getFields() {
+            return fieldsById.values();
+        }
+    }
+
+    /**
+     * A service, its functions by name with their arguments
+     */
+    public static final class Service {
+        private final String name;
+        private final String extendsName;
+        private final Map<String, Struct> functions;
+
+        Service(String name, String extendsName, Map<String, Struct> functions) {
+            this.name = name;
+            this.extendsName = extendsName;
+            this.functions = Collections.unmodifiableMap(functions);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the service extended, null if none
+         */
+        public String getExtends() {
+            return extendsName;
+        }
+
+        /**
+         * @return each function's arguments, as a struct named after the function
+         */
+        public Map<String, Struct> getFunctions() {
+            return functions;
+        }
+    }
+
+    private final String name;
+    private final String version;
+    private final String text;
+    private final Map<String, String> namespaces;
+    private final List<String> includes;
+    private final Map<String, Type> typedefs;
+    private final Map<String, Map<String, Integer>> enums;
+    private final Map<String, Struct> structs;
+    private final Map<String, Service> services;
+    private final Map<String, ThriftGenericDecoder> decoders = new ConcurrentHashMap<>();
+
+    ThriftIDL(String name, String version, String text, Map<String, String> namespaces, List<String> includes,
+              Map<String, Type> typedefs, Map<String, Map<String, Integer>> enums,
+              Map<String, Struct> structs, Map<String, Service> services) {
+        this.name = name;
+        this.version = version;
+        this.text = text;
+        this.namespaces = Collections.unmodifiableMap(namespaces);
+        this.includes = Collections.unmodifiableList(includes);
+        this.typedefs = Collections.unmodifiableMap(typedefs);
+        this.enums = Collections.unmodifiableMap(enums);
+        this.structs = Collections.unmodifiableMap(structs);
+        this.services = Collections.unmodifiableMap(services);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the IDL as written
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the namespace of each language, eg 'java'
+     */
+    public Map<String, String> getNamespaces() {
+        return namespaces;
+    }
+
+    /**
+     * @return the files included, not resolved
+     */
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    public Map<String, Type> getTypedefs() {
+        return typedefs;
+    }
+
+    /**
+     * @return each enum's values by name
+     */
+    public Map<String, Map<String, Integer>> getEnums() {
+        return enums;
+    }
+
+    public Map<String, Struct> getStructs() {
+        return structs;
+    }
+
+    public Map<String, Service> getServices() {
+        return services;
+    }
+
+    /**
+     * @param structName the struct, union or exception
+     * @return it, null if the IDL has none of that name
+     */
+    public Struct getStruct(String structName) {
+        return structs.get(structName);
+    }
+
+    /**
+     * Resolves typedefs, and names which are enums, to the type on the wire
+     *
+     * @param type the type
+     * @return the type with its TType as serialised
+     */
+    public Type resolve(Type type) {
+        Type resolved = type;
+        for (int depth = 0; depth < 16 && resolved.getTType() == TType.STRUCT; depth++) {
+            final Type typedef = typedefs.get(resolved.getName());
+            if (typedef != null) {
+                resolved = typedef;
+            } else if (enums.containsKey(resolved.getName())) {
+                return new Type(TType.I32, resolved.getName(), null, null);
+            } else {
+                break;
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * The decoder of a struct is compiled once, when first asked for, and lives as long as the IDL
+     *
+     * @param structName the struct, union or exception
+     * @return its decoder
+     * @throws IllegalArgumentException if the IDL has no such struct, or it references a type the IDL does not define
+     */
+    public ThriftGenericDecoder getDecoder(String structName) {
+        return decoders.computeIfAbsent(structName, name -> new ThriftGenericDecoder(this, name));
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.thrift.protocol.TType;
+
+/**
+ * Parses Thrift IDL into a {@link ThriftIDL} descriptor model.
+ *
+ * The whole of the IDL grammar is accepted, but only what describes the wire is kept:
+ * constants, default values, annotations and cpp_type are parsed and dropped,
+ * includes are recorded, not followed.
+ */
+public class ThriftIDLParser {
+
+    private static final Map<String, Byte> BASE_TYPES = new HashMap<>();
+    static {
+        BASE_TYPES.put("bool", TType.BOOL);
+        BASE_TYPES.put("byte", TType.BYTE);
+        BASE_TYPES.put("i8", TType.BYTE);
+        BASE_TYPES.put("i16", TType.I16);
+        BASE_TYPES.put("i32", TType.I32);
+        BASE_TYPES.put("i64", TType.I64);
+        BASE_TYPES.put("double", TType.DOUBLE);
+        BASE_TYPES.put("string", TType.STRING);
+        BASE_TYPES.put("binary", TType.STRING);
+        BASE_TYPES.put("slist", TType.STRING);
+        BASE_TYPES.put("void", TType.VOID);
+    }
+
+    private static volatile ThriftIDL builtInIDL;
+
+    private final String text;
+    private int pos;
+    private String token;
+    private int tokenStart;
+
+    private final Map<String, String> namespaces = new LinkedHashMap<>();
+    private final List<String> includes = new ArrayList<>();
+    private final Map<String, ThriftIDL.Type> typedefs = new LinkedHashMap<>();
+    private final Map<String, Map<String, Integer>> enums = new LinkedHashMap<>();
+    private final Map<String, ThriftIDL.Struct> structs = new LinkedHashMap<>();
+    private final Map<String, ThriftIDL.Service> services = new LinkedHashMap<>();
+
+    private ThriftIDLParser(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @param name the IDL name
+     * @param version the IDL version
+     * @param text the IDL
+     * @return the descriptor model
+     * @throws ParseException if the IDL is invalid, the offset is where
+     */
+    public static ThriftIDL parse(String name, String version, String text) throws ParseException {
+        final ThriftIDLParser parser = new ThriftIDLParser(text);
+        parser.parseDocument();
+        return new ThriftIDL(name, version, text, parser.namespaces, parser.includes, parser.typedefs,
+                             parser.enums, parser.structs, parser.services);
+    }
+
+    /**
+     * @return flowfile_nifi.thrift, the IDL of the generated classes, parsed once
+     * @throws IOException if it cannot be read or parsed
+     */
+    public static ThriftIDL getBuiltInIDL() throws IOException {
+        ThriftIDL idl = builtInIDL;
+        if (idl == null) {
+            try (InputStream in = ThriftIDLParser.class.getClassLoader().getResourceAsStream(PutThriftIDL.THRIFT_FILENAME)) {
+                if (in == null) {
+                    throw new IOException("thrift file not found in resources");
+                }
+                final ByteArrayOutputStream text = new ByteArrayOutputStream();
+                ContentCompression.copy(in, text, new byte[AbstractThriftProcessor.CopyBufferSize]);
+                idl = parse("flowfile_nifi", ThriftSchemaRegistry.DefaultVersion,
+                            new String(text.toByteArray(), StandardCharsets.UTF_8));
+            } catch (ParseException ex) {
+                throw new IOException("Failed to parse " + PutThriftIDL.THRIFT_FILENAME + ", " + ex.getMessage(), ex);
+            }
+            builtInIDL = idl;
+        }
+        return idl;
+    }
+
+    private void parseDocument() throws ParseException {
+        next();
+        while (token != null) {
+            final String keyword = take();
+            switch (keyword) {
+            case "include":
+            case "cpp_include":
+                includes.add(literal());
+                break;
+            case "namespace":
+                final String scope = take();
+                namespaces.put(scope, take());
+                skipAnnotations();
+                break;
+            case "const":
+                fieldType();
+                take();
+                expect("=");
+                constValue();
+                break;
+            case "typedef":
+                final ThriftIDL.Type type = fieldType();
+                typedefs.put(take(), type);
+                skipAnnotations();
+                break;
+            case "enum":
+                parseEnum();
+                break;
+            case "senum":
+                take();
+                skipBlock();
+                break;
+            case "struct":
+            case "union":
+            case "exception":
+                final String structName = take();
+                if ("xsd_all".equals(token)) {
+                    next();
+                }
+                expect("{");
+                structs.put(structName, new ThriftIDL.Struct(structName, keyword, fields("}")));
+                skipAnnotations();
+                break;
+            case "service":
+                parseService();
+                break;
+            default:
+                throw error("unexpected '" + keyword + "'");
+            }
+            separator();
+        }
+    }
+
+    private void parseEnum() throws ParseException {
+        final String enumName = take();
+        final Map<String, Integer> values = new LinkedHashMap<>();
+        expect("{");
+        int nextValue = 0;
+        while (!"}".equals(token)) {
+            final String valueName = take();
+            if ("=".equals(token)) {
+                next();
+                nextValue = integer();
+            }
+            values.put(valueName, nextValue++);
+            skipAnnotations();
+            separator();
+        }
+        next();
+        skipAnnotations();
+        enums.put(enumName, values);
+    }
+
+    private void parseService() throws ParseException {
+        final String serviceName = take();
+        String extendsName = null;
+        if ("extends".equals(token)) {
+            next();
+            extendsName = take();
+        }
+        expect("{");
+        final Map<String, ThriftIDL.Struct> functions = new LinkedHashMap<>();
+        while (!"}".equals(token)) {
+            if ("oneway".equals(token)) {
+                next();
+            }
+            fieldType();
+            final String functionName = take();
+            expect("(");
+            functions.put(functionName, new ThriftIDL.Struct(functionName, "args", fields(")")));
+            if ("throws".equals(token)) {
+                next();
+                expect("(");
+                fields(")");
+            }
+            skipAnnotations();
+            separator();
+        }
+        next();
+        skipAnnotations();
+        services.put(serviceName, new ThriftIDL.Service(serviceName, extendsName, functions));
+    }
+
+    /**
+     * Reads fields up to and including the closing token
+     */
+    private List<ThriftIDL.Field> fields(String close) throws ParseException {
+        final List<ThriftIDL.Field> fields = new ArrayList<>();
+        short implicitId = -1;
+        while (!close.equals(token)) {
+            short id;
+            if (isNumber(token)) {
+                id = (short) integer();
+                expect(":");
+            } else {
+                id = implicitId--;
+            }
+            String requiredness = "default";
+            if ("required".equals(token) || "optional".equals(token)) {
+                requiredness = take();
+            }
+            final ThriftIDL.Type type = fieldType();
+            final String fieldName = take();
+            if ("=".equals(token)) {
+                next();
+                constValue();
+            }
+            skipAnnotations();
+            separator();
+            fields.add(new ThriftIDL.Field(id, fieldName, type, requiredness));
+        }
+        next();
+        return fields;
+    }
+
+    private ThriftIDL.Type fieldType() throws ParseException {
+        final String typeName = take();
+        final ThriftIDL.Type type;
+        switch (typeName) {
+        case "map":
+            skipCppType();
+            expect("<");
+            final ThriftIDL.Type keyType = fieldType();
+            expect(",");
+            final ThriftIDL.Type valueType = fieldType();
+            expect(">");
+            type = new ThriftIDL.Type(TType.MAP, typeName, keyType, valueType);
+            break;
+        case "set":
+            skipCppType();
+            expect("<");
+            type = new ThriftIDL.Type(TType.SET, typeName, null, fieldType());
+            expect(">");
+            break;
+        case "list":
+            expect("<");
+            type = new ThriftIDL.Type(TType.LIST, typeName, null, fieldType());
+            expect(">");
+            skipCppType();
+            break;
+        default:
+            final Byte base = BASE_TYPES.get(typeName);
+            type = new ThriftIDL.Type(base == null ? TType.STRUCT : base, typeName, null, null);
+        }
+        skipAnnotations();
+        return type;
+    }
+
+    private void constValue() throws ParseException {
+        if ("[".equals(token)) {
+            next();
+            while (!"]".equals(token)) {
+                constValue();
+                separator();
+            }
+            next();
+        } else if ("{".equals(token)) {
+            next();
+            while (!"}".equals(token)) {
+                constValue();
+                expect(":");
+                constValue();
+                separator();
+            }
+            next();
+        } else {
+            take();
+        }
+    }
+
+    private void skipCppType() throws ParseException {
+        if ("cpp_type".equals(token)) {
+            next();
+            literal();
+        }
+    }
+
+    private void skipAnnotations() throws ParseException {
+        if ("(".equals(token)) {
+            skipBalanced("(", ")");
+        }
+    }
+
+    private void skipBlock() throws ParseException {
+        skipBalanced("{", "}");
+    }
+
+    private void skipBalanced(String open, String close) throws ParseException {
+        int depth = 0;
+        do {
+            if (token == null) {
+                throw error("unbalanced '" + open + "'");
+            }
+            if (open.equals(token)) {
+                depth++;
+            } else if (close.equals(token)) {
+                depth--;
+            }
+            next();
+        } while (depth > 0);
+    }
+
+    private void separator() throws ParseException {
+        if (",".equals(token) || ";".equals(token)) {
+            next();
+        }
+    }
+
+    private String literal() throws ParseException {
+        if (token == null || !(token.startsWith("\"") || token.startsWith("'"))) {
+            throw error("expected a literal");
+        }
+        final String literal = token.substring(1, token.length() - 1);
+        next();
+        return literal;
+    }
+
+    private int integer() throws ParseException {
+        final String number = take();
+        try {
+            return number.startsWith("0x") || number.startsWith("0X")
+                    ? Integer.parseInt(number.substring(2), 16) : Integer.parseInt(number.replace("+", ""));
+        } catch (NumberFormatException ex) {
+            throw error("expected an integer, not '" + number + "'");
+        }
+    }
+
+    private static boolean isNumber(String token) {
+        return token != null && !token.isEmpty()
+            && (Character.isDigit(token.charAt(0)) || token.charAt(0) == '-' || token.charAt(0) == '+');
+    }
+
+    private void expect(String expected) throws ParseException {
+        if (!expected.equals(token)) {
+            throw error("expected '" + expected + "'");
+        }
+        next();
+    }
+
+    private String take() throws ParseException {
+        if (token == null) {
+            throw error("unexpected end");
+        }
+        final String taken = token;
+        next();
+        return taken;
+    }
+
+    private ParseException error(String message) {
+        return new ParseException(message + (token == null ? " at end" : " at '" + token + "'"), tokenStart);
+    }
+
+    /**
+     * Advances to the next token, skipping white space and comments, null at the end
+     */
+    private void next() throws ParseException {
+        while (pos < text.length()) {
+            final char c = text.charAt(pos);
+            if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '#' || text.startsWith("//", pos)) {
+                while (pos < text.length() && text.charAt(pos) != '\n') {
+                    pos++;
+                }
+            } else if (text.startsWith("/*", pos)) {
+                final int end = text.indexOf("*/", pos + 2);
+                if (end < 0) {
+                    tokenStart = pos;
+                    token = null;
+                    throw error("unterminated comment");
+                }
+                pos = end + 2;
+            } else {
+                break;
+            }
+        }
+        tokenStart = pos;
+        if (pos >= text.length()) {
+            token = null;
+            return;
+        }
+        final char c = text.charAt(pos);
+        if (c == '"' || c == '\'') {
+            final int end = text.indexOf(c, pos + 1);
+            if (end < 0) {
+                token = null;
+                throw error("unterminated literal");
+            }
+            pos = end + 1;
+        } else if (Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '+' || c == '.') {
+            pos++;
+            while (pos < text.length()) {
+                final char d = text.charAt(pos);
+                if (!(Character.isLetterOrDigit(d) || d == '_' || d == '.')) {
+                    break;
+                }
+                pos++;
+            }
+        } else {
+            pos++;
+        }
+        token = text.substring(tokenStart, pos);
+    }
+}
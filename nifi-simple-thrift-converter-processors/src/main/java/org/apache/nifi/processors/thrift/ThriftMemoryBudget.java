@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.util.StandardValidators;
+
+@Tags({ "thrift", "memory", "budget", "backpressure" })
+@CapabilityDescription("A budget of in-flight payload bytes shared by every Thrift processor using the service. " +
+                       "A processor takes from the budget before reading a whole message into memory, " +
+                       "and when the budget is spent streams the message through a fixed size buffer instead, " +
+                       "so heap use in a burst of large messages stays below MaxInFlightBytes")
+@SeeAlso({FromThriftProcessor.class,ToThriftProcessor.class})
+public class ThriftMemoryBudget extends AbstractControllerService implements ThriftMemoryBudgetService {
+
+    public static final PropertyDescriptor MAX_IN_FLIGHT_BYTES = new PropertyDescriptor.Builder()
+            .name("MaxInFlightBytes")
+            .description("The most bytes the processors sharing the budget hold in message buffers at once. " +
+                         "A message larger than this is always streamed")
+            .required(true)
+            .defaultValue("256 MB")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    private static final List<PropertyDescriptor> descriptors = Collections.unmodifiableList(
+            Arrays.asList(MAX_IN_FLIGHT_BYTES));
+
+    private final AtomicLong available = new AtomicLong();
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return descriptors;
+    }
+
+    /**
+     * The processors using the service are stopped, none holds any of the budget
+     */
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext context) {
+        available.set(context.getProperty(MAX_IN_FLIGHT_BYTES).asDataSize(DataUnit.B).longValue());
+    }
+
+    @Override
+    public boolean tryAcquire(long bytes) {
+        if (bytes <= 0) {
+            return true;
+        }
+        while (true) {
+            final long left = available.get();
+            if (left < bytes) {
+                return false;
+            }
+            if (available.compareAndSet(left, left - bytes)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void release(long bytes) {
+        if (bytes > 0) {
+            available.addAndGet(bytes);
+        }
+    }
+
+    @Override
+    public long getAvailable() {
+        return available.get();
+    }
+}
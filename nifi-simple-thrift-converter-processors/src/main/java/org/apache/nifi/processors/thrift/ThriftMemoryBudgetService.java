@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import org.apache.nifi.controller.ControllerService;
+
+/**
+ * Bounds the bytes the Thrift processors sharing it hold in whole message buffers at once
+ */
+public interface ThriftMemoryBudgetService extends ControllerService {
+
+    /**
+     * Takes bytes from the budget, never waiting
+     *
+     * @param bytes the bytes about to be buffered
+     * @return true if taken, to be given back with release, false if the budget has not that many left
+     */
+    boolean tryAcquire(long bytes);
+
+    /**
+     * @param bytes bytes taken by tryAcquire and no longer buffered
+     */
+    void release(long bytes);
+
+    /**
+     * @return the bytes left in the budget
+     */
+    long getAvailable();
+}
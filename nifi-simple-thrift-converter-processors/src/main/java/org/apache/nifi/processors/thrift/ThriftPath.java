@@ -0,0 +1,425 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TType;
+
+/**
+ * Paths into a serialised struct, eg {@code id} or {@code flowFile.attributes['tenant']},
+ * evaluated straight off the stream.
+ *
+ * The paths are compiled together, against the IDL, into a tree keyed by field id, map key and list index,
+ * so one walk of the stream evaluates them all. Everything off the tree is skipped, binary fields
+ * (eg ThriftFlowFile.content) without being allocated with BINARY and COMPACT, and the walk stops
+ * as soon as every path has its value, the rest of the stream is never read.
+ *
+ * A path ends at a base type, an enum (its name), or a struct (as JSON); binary is read as UTF-8.
+ */
+public class ThriftPath {
+
+    private final ThriftIDL idl;
+    private final Step root;
+    private final int count;
+
+    private ThriftPath(ThriftIDL idl, Step root, int count) {
+        this.idl = idl;
+        this.root = root;
+        this.count = count;
+    }
+
+    /**
+     * @param idl the IDL
+     * @param structName the struct the paths start from
+     * @param paths each path by the name its value is returned with
+     * @return the compiled paths
+     * @throws IllegalArgumentException if a path is invalid, or does not fit the IDL
+     */
+    public static ThriftPath compile(ThriftIDL idl, String structName, Map<String, String> paths) {
+        if (idl.getStruct(structName) == null) {
+            throw new IllegalArgumentException("IDL " + idl.getName() + " has no struct " + structName);
+        }
+        final Step root = new Step(new ThriftIDL.Type(TType.STRUCT, structName, null, null));
+        for (Map.Entry<String, String> path : paths.entrySet()) {
+            Step step = root;
+            for (Object segment : parse(path.getValue())) {
+                step = step.child(idl, segment, path.getValue());
+            }
+            if (step.name != null || step.hasChildren()) {
+                throw new IllegalArgumentException("path " + path.getValue() + " is, or is within, another path");
+            }
+            if (step.type.getTType() == TType.LIST || step.type.getTType() == TType.SET
+                || step.type.getTType() == TType.MAP) {
+                throw new IllegalArgumentException("path " + path.getValue() + " ends at a container, index it");
+            }
+            step.name = path.getKey();
+        }
+        return new ThriftPath(idl, root, paths.size());
+    }
+
+    /**
+     * @param path eg flowFile.attributes['tenant']
+     * @return its segments, field names as Strings, map keys as quoted Strings, list indexes as Integers
+     * @throws IllegalArgumentException if the path is invalid
+     */
+    static List<Object> parse(String path) {
+        final List<Object> segments = new ArrayList<>();
+        int pos = 0;
+        while (pos < path.length()) {
+            final char c = path.charAt(pos);
+            if (c == '[') {
+                final int end = path.indexOf(']', pos);
+                if (end < 0) {
+                    throw new IllegalArgumentException("path " + path + ", unclosed '['");
+                }
+                final String index = path.substring(pos + 1, end).trim();
+                if (index.length() >= 2 && (index.charAt(0) == '\'' || index.charAt(0) == '"')
+                    && index.charAt(index.length() - 1) == index.charAt(0)) {
+                    segments.add("'" + index.substring(1, index.length() - 1));
+                } else {
+                    try {
+                        segments.add(Integer.valueOf(index));
+                    } catch (NumberFormatException ex) {
+                        throw new IllegalArgumentException("path " + path + ", index " + index + " is not a number or 'key'");
+                    }
+                }
+                pos = end + 1;
+            } else if (c == '.' && pos > 0) {
+                pos++;
+            } else {
+                int end = pos;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                if (end == pos) {
+                    throw new IllegalArgumentException("path " + path + ", empty field name");
+                }
+                segments.add(path.substring(pos, end));
+                pos = end;
+            }
+        }
+        if (segments.isEmpty()) {
+            throw new IllegalArgumentException("empty path");
+        }
+        return segments;
+    }
+
+    /**
+     * @return the IDL the paths were compiled against
+     */
+    public ThriftIDL getIDL() {
+        return idl;
+    }
+
+    /**
+     * @param reader positioned at the struct
+     * @return the value of each path found, by its name
+     * @throws TException if the struct cannot be read
+     */
+    public Map<String, String> evaluate(ThriftStreamReader reader) throws TException {
+        final Walk walk = new Walk(reader);
+        walk.struct(root);
+        return walk.values;
+    }
+
+    /**
+     * A node of the path tree, for a value of the type
+     */
+    private static final class Step {
+        final ThriftIDL.Type type;
+        /**
+         * The name a path ending here is returned with
+         */
+        String name;
+        Map<Short, Step> fields;
+        Map<String, Step> keys;
+        /**
+         * Map keys as UTF-8, matched against the raw bytes
+         */
+        Map<Step, byte[]> keyBytes;
+        Set<Integer> keyLengths;
+        Map<Integer, Step> indexes;
+
+        Step(ThriftIDL.Type type) {
+            this.type = type;
+        }
+
+        boolean hasChildren() {
+            return fields != null || keys != null || indexes != null;
+        }
+
+        Step child(ThriftIDL idl, Object segment, String path) {
+            if (name != null) {
+                throw new IllegalArgumentException("path " + path + " is within another path");
+            }
+            switch (type.getTType()) {
+            case TType.STRUCT:
+                if (!(segment instanceof String) || ((String) segment).startsWith("'")) {
+                    throw new IllegalArgumentException("path " + path + ", struct " + type.getName() + " needs a field name");
+                }
+                final ThriftIDL.Struct struct = idl.getStruct(type.getName());
+                final ThriftIDL.Field field = struct.getField((String) segment);
+                if (field == null) {
+                    throw new IllegalArgumentException("path " + path + ", struct " + type.getName() + " has no field " + segment);
+                }
+                if (fields == null) {
+                    fields = new HashMap<>();
+                }
+                return fields.computeIfAbsent(field.getId(), id -> new Step(idl.resolve(field.getType())));
+            case TType.MAP:
+                if (!(segment instanceof String) || !((String) segment).startsWith("'")) {
+                    throw new IllegalArgumentException("path " + path + ", a map needs a ['key']");
+                }
+                if (keys == null) {
+                    keys = new HashMap<>();
+                    keyBytes = new HashMap<>();
+                    keyLengths = new HashSet<>();
+                }
+                final String key = ((String) segment).substring(1);
+                return keys.computeIfAbsent(key, k -> {
+                        final Step step = new Step(idl.resolve(type.getValueType()));
+                        final byte[] bytes = k.getBytes(StandardCharsets.UTF_8);
+                        keyBytes.put(step, bytes);
+                        keyLengths.add(bytes.length);
+                        return step;
+                    });
+            case TType.LIST:
+            case TType.SET:
+                if (!(segment instanceof Integer)) {
+                    throw new IllegalArgumentException("path " + path + ", a list needs an [index]");
+                }
+                if (indexes == null) {
+                    indexes = new HashMap<>();
+                }
+                return indexes.computeIfAbsent((Integer) segment, i -> new Step(idl.resolve(type.getValueType())));
+            default:
+                throw new IllegalArgumentException("path " + path + ", " + type + " has no fields");
+            }
+        }
+    }
+
+    /**
+     * One evaluation, walking the stream along the path tree
+     */
+    private final class Walk {
+        final ThriftStreamReader reader;
+        final TProtocol protocol;
+        final Map<String, String> values = new HashMap<>();
+        private byte[] keyBuffer = new byte[64];
+
+        Walk(ThriftStreamReader reader) {
+            this.reader = reader;
+            this.protocol = reader.getProtocol();
+        }
+
+        boolean done() {
+            return values.size() == count;
+        }
+
+        /**
+         * @return true once every path has its value, the stream is then left where it is
+         */
+        boolean struct(Step step) throws TException {
+            protocol.readStructBegin();
+            while (true) {
+                final TField field = protocol.readFieldBegin();
+                if (field.type == TType.STOP) {
+                    break;
+                }
+                // no paths leaves the root without children, every field is then skipped
+                final Step child = step.fields == null ? null : step.fields.get(field.id);
+                if (child == null || child.type.getTType() != field.type) {
+                    reader.skip(field.type);
+                } else if (value(child)) {
+                    return true;
+                }
+                protocol.readFieldEnd();
+            }
+            protocol.readStructEnd();
+            return false;
+        }
+
+        private boolean value(Step step) throws TException {
+            if (step.name != null) {
+                if (!values.containsKey(step.name)) {
+                    values.put(step.name, read(step.type));
+                } else {
+                    reader.skip(step.type.getTType());
+                }
+                return done();
+            }
+            switch (step.type.getTType()) {
+            case TType.STRUCT:
+                return struct(step);
+            case TType.MAP:
+                return map(step);
+            default:
+                return list(step);
+            }
+        }
+
+        private boolean map(Step step) throws TException {
+            final TMap map = protocol.readMapBegin();
+            final Step valueStep = step.keys.values().iterator().next();
+            final boolean typed = map.valueType == valueStep.type.getTType();
+            for (int i = 0; i < map.size; i++) {
+                final Step child = typed ? key(step, map.keyType) : skipKey(map.keyType);
+                if (child == null) {
+                    reader.skip(map.valueType);
+                } else if (value(child)) {
+                    return true;
+                }
+            }
+            protocol.readMapEnd();
+            return false;
+        }
+
+        private Step skipKey(byte keyType) throws TException {
+            reader.skip(keyType);
+            return null;
+        }
+
+        /**
+         * Reads a map key, string keys are matched as raw bytes with BINARY and COMPACT, not allocated
+         *
+         * @return the step of the key, null if no path is through it
+         */
+        private Step key(Step step, byte keyType) throws TException {
+            if (keyType == TType.STRING && reader.isRawBinary()) {
+                final int length = reader.readBinaryLength();
+                if (!step.keyLengths.contains(length)) {
+                    reader.skipBytes(length);
+                    return null;
+                }
+                if (keyBuffer.length < length) {
+                    keyBuffer = new byte[length];
+                }
+                reader.readBytes(keyBuffer, length);
+                for (Map.Entry<Step, byte[]> key : step.keyBytes.entrySet()) {
+                    final byte[] bytes = key.getValue();
+                    if (bytes.length == length && Arrays.equals(bytes, 0, length, keyBuffer, 0, length)) {
+                        return key.getKey();
+                    }
+                }
+                return null;
+            }
+            return step.keys.get(toString(keyType));
+        }
+
+        private boolean list(Step step) throws TException {
+            final byte elemType;
+            final int size;
+            if (step.type.getTType() == TType.SET) {
+                final TSet set = protocol.readSetBegin();
+                elemType = set.elemType;
+                size = set.size;
+            } else {
+                final TList list = protocol.readListBegin();
+                elemType = list.elemType;
+                size = list.size;
+            }
+            // the element type as resolved, any index has it
+            final boolean typed = elemType == step.indexes.values().iterator().next().type.getTType();
+            for (int i = 0; i < size; i++) {
+                final Step child = typed ? step.indexes.get(i) : null;
+                if (child == null) {
+                    reader.skip(elemType);
+                } else if (value(child)) {
+                    return true;
+                }
+            }
+            if (step.type.getTType() == TType.SET) {
+                protocol.readSetEnd();
+            } else {
+                protocol.readListEnd();
+            }
+            return false;
+        }
+
+        private String read(ThriftIDL.Type type) throws TException {
+            switch (type.getTType()) {
+            case TType.I32:
+                final int value = protocol.readI32();
+                final Map<String, Integer> enumValues = idl.getEnums().get(type.getName());
+                if (enumValues != null) {
+                    for (Map.Entry<String, Integer> enumValue : enumValues.entrySet()) {
+                        if (enumValue.getValue() == value) {
+                            return enumValue.getKey();
+                        }
+                    }
+                }
+                return Integer.toString(value);
+            case TType.STRING:
+                if (type.isBinary()) {
+                    final ByteBuffer binary = protocol.readBinary();
+                    return new String(binary.array(), binary.arrayOffset() + binary.position(), binary.remaining(),
+                                      StandardCharsets.UTF_8);
+                }
+                return protocol.readString();
+            case TType.STRUCT:
+                final StringWriter json = new StringWriter();
+                try {
+                    idl.getDecoder(type.getName()).readJson(protocol, json);
+                } catch (IOException ex) {
+                    throw new TException(ex);
+                }
+                return json.toString();
+            default:
+                return toString(type.getTType());
+            }
+        }
+
+        private String toString(byte ttype) throws TException {
+            switch (ttype) {
+            case TType.BOOL:
+                return Boolean.toString(protocol.readBool());
+            case TType.BYTE:
+                return Byte.toString(protocol.readByte());
+            case TType.I16:
+                return Short.toString(protocol.readI16());
+            case TType.I32:
+                return Integer.toString(protocol.readI32());
+            case TType.I64:
+                return Long.toString(protocol.readI64());
+            case TType.DOUBLE:
+                return Double.toString(protocol.readDouble());
+            case TType.STRING:
+                return protocol.readString();
+            default:
+                reader.skip(ttype);
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.RecordReaderFactory;
+
+@Tags({ "thrift", "record", "reader", "parse" })
+@CapabilityDescription("Reads ThriftFlowFiles, of a serialised RecordSet or one after another, as Records " +
+                       "of two fields, 'attributes', a map of strings, and 'content', an array of bytes. " +
+                       "ThriftFlowFiles are read one at a time, the flowfile is never deserialised as a whole")
+@SeeAlso({ThriftRecordSetWriter.class, SplitThriftRecordSet.class})
+public class ThriftRecordReader extends AbstractControllerService implements RecordReaderFactory {
+
+    private static final List<PropertyDescriptor> descriptors = Collections.unmodifiableList(
+            Arrays.asList(ThriftRecords.THRIFT_PROTOCOL, ThriftRecords.THRIFT_MESSAGE));
+
+    private volatile String protocol;
+    private volatile boolean recordSet;
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return descriptors;
+    }
+
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext context) {
+        protocol = context.getProperty(ThriftRecords.THRIFT_PROTOCOL).getValue();
+        recordSet = ThriftRecords.MessageRecordSet.equals(context.getProperty(ThriftRecords.THRIFT_MESSAGE).getValue());
+    }
+
+    @Override
+    public RecordReader createRecordReader(final Map<String, String> variables, final InputStream in,
+                                           final long inputLength, final ComponentLog logger) throws IOException {
+        return new ThriftFlowFileRecordReader(protocol, in, recordSet);
+    }
+}
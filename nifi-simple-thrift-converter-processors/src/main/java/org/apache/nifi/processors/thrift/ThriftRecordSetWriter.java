@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.record.RecordSchema;
+
+@Tags({ "thrift", "record", "writer", "serialize" })
+@CapabilityDescription("Writes Records as ThriftFlowFiles, in a serialised RecordSet or one after another. " +
+                       "The 'attributes' map and 'content' bytes of a record become the ThriftFlowFile's, " +
+                       "any other field becomes an attribute of its string value")
+@SeeAlso({ThriftRecordReader.class, MergeThriftRecordSet.class})
+public class ThriftRecordSetWriter extends AbstractControllerService implements RecordSetWriterFactory {
+
+    private static final List<PropertyDescriptor> descriptors = Collections.unmodifiableList(
+            Arrays.asList(ThriftRecords.THRIFT_PROTOCOL, ThriftRecords.THRIFT_MESSAGE));
+
+    private volatile String protocol;
+    private volatile boolean recordSet;
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return descriptors;
+    }
+
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext context) {
+        protocol = context.getProperty(ThriftRecords.THRIFT_PROTOCOL).getValue();
+        recordSet = ThriftRecords.MessageRecordSet.equals(context.getProperty(ThriftRecords.THRIFT_MESSAGE).getValue());
+    }
+
+    @Override
+    public RecordSchema getSchema(final Map<String, String> variables, final RecordSchema readSchema) {
+        return ThriftRecords.SCHEMA;
+    }
+
+    /**
+     * With ThriftProtocol AUTO the flowfile's 'thrift.protocol' attribute is used, BINARY if it has none
+     */
+    @Override
+    public RecordSetWriter createWriter(final ComponentLog logger, final RecordSchema schema,
+                                        final OutputStream out, final Map<String, String> variables) throws IOException {
+        String protocol = this.protocol;
+        if (AbstractThriftProcessor.ProtocolAuto.equals(protocol)) {
+            final String attribute = variables == null ? null : variables.get(AbstractThriftProcessor.ProtocolAttr);
+            protocol = attribute == null ? AbstractThriftProcessor.ProtocolBinary : attribute;
+        }
+        return new ThriftFlowFileRecordWriter(protocol, out, recordSet);
+    }
+}
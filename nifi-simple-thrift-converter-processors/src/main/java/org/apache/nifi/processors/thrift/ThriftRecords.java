@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+
+/**
+ * The Record view of a ThriftFlowFile, shared by ThriftRecordReader and ThriftRecordSetWriter.
+ *
+ * A ThriftFlowFile is a record of two fields, 'attributes', a map of strings,
+ * and 'content', an array of bytes.
+ */
+public final class ThriftRecords {
+
+    public static final String AttributesField = "attributes";
+    public static final String ContentField = "content";
+
+    /**
+     * The whole flowfile is one serialised RecordSet
+     */
+    public static final String MessageRecordSet = "RecordSet";
+    /**
+     * The flowfile is serialised ThriftFlowFile structs, one after another
+     */
+    public static final String MessageThriftFlowFiles = "ThriftFlowFiles";
+
+    public static final RecordSchema SCHEMA = new SimpleRecordSchema(Arrays.asList(
+            new RecordField(AttributesField, RecordFieldType.MAP.getMapDataType(RecordFieldType.STRING.getDataType()), true),
+            new RecordField(ContentField, RecordFieldType.ARRAY.getArrayDataType(RecordFieldType.BYTE.getDataType()), true)));
+
+    public static final PropertyDescriptor THRIFT_PROTOCOL = new PropertyDescriptor.Builder()
+            .name("ThriftProtocol")
+            .description("What Thrift protocol is used. AUTO detects the protocol when reading, " +
+                         "and writes with the 'thrift.protocol' attribute, BINARY if there is none")
+            .required(true)
+            .allowableValues(new AllowableValue(AbstractThriftProcessor.ProtocolJSON),
+                             new AllowableValue(AbstractThriftProcessor.ProtocolBinary),
+                             new AllowableValue(AbstractThriftProcessor.ProtocolCompact),
+                             new AllowableValue(AbstractThriftProcessor.ProtocolAuto))
+            .defaultValue(AbstractThriftProcessor.ProtocolBinary)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor THRIFT_MESSAGE = new PropertyDescriptor.Builder()
+            .name("ThriftMessage")
+            .description("How the ThriftFlowFiles are framed. RecordSet, the flowfile is one RecordSet, " +
+                         "as SplitThriftRecordSet reads and MergeThriftRecordSet writes. " +
+                         "ThriftFlowFiles, the flowfile is ThriftFlowFile structs one after another")
+            .required(true)
+            .allowableValues(new AllowableValue(MessageRecordSet), new AllowableValue(MessageThriftFlowFiles))
+            .defaultValue(MessageRecordSet)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    private ThriftRecords() {
+    }
+
+    /**
+     * @param protocolName the protocol
+     * @return the MIME type of Thrift serialised with it
+     */
+    public static String getMimeType(String protocolName) {
+        switch (protocolName) {
+        case AbstractThriftProcessor.ProtocolJSON:
+            return "application/vnd.apache.thrift.json";
+        case AbstractThriftProcessor.ProtocolCompact:
+            return "application/vnd.apache.thrift.compact";
+        default:
+            return "application/vnd.apache.thrift.binary";
+        }
+    }
+
+    /**
+     * @param thriftFlowFile the ThriftFlowFile
+     * @return its Record
+     */
+    public static Record toRecord(ThriftFlowFile thriftFlowFile) {
+        final Map<String, Object> values = new HashMap<>(4);
+        if (thriftFlowFile.attributes != null) {
+            values.put(AttributesField, new HashMap<String, Object>(thriftFlowFile.attributes));
+        }
+        if (thriftFlowFile.content != null) {
+            final ByteBuffer content = thriftFlowFile.content;
+            final Object[] bytes = new Object[content.remaining()];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = content.get(content.position() + i);
+            }
+            values.put(ContentField, bytes);
+        }
+        return new MapRecord(SCHEMA, values);
+    }
+
+    /**
+     * Any field other than 'attributes' and 'content', eg of a record QueryRecord produced,
+     * becomes an attribute, as its string value
+     *
+     * @param record the Record
+     * @return its ThriftFlowFile
+     */
+    public static ThriftFlowFile toThriftFlowFile(Record record) {
+        final ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+        final Map<String, String> attributes = new HashMap<>();
+        for (String fieldName : record.getRawFieldNames()) {
+            final Object value = record.getValue(fieldName);
+            if (value == null) {
+                continue;
+            }
+            if (AttributesField.equals(fieldName) && value instanceof Map) {
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    if (entry.getValue() != null) {
+                        attributes.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+                    }
+                }
+            } else if (ContentField.equals(fieldName)) {
+                thriftFlowFile.content = toByteBuffer(value);
+            } else {
+                attributes.put(fieldName, record.getAsString(fieldName));
+            }
+        }
+        thriftFlowFile.setAttributes(attributes);
+        return thriftFlowFile;
+    }
+
+    private static ByteBuffer toByteBuffer(Object value) {
+        if (value instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) value);
+        }
+        if (value instanceof ByteBuffer) {
+            return ((ByteBuffer) value).duplicate();
+        }
+        if (value instanceof Object[]) {
+            final Object[] values = (Object[]) value;
+            final byte[] bytes = new byte[values.length];
+            for (int i = 0; i < values.length; i++) {
+                bytes[i] = ((Number) values[i]).byteValue();
+            }
+            return ByteBuffer.wrap(bytes);
+        }
+        return ByteBuffer.wrap(value.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
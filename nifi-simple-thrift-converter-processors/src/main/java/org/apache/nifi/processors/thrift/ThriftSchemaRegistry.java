@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.processor.util.StandardValidators;
+
+@Tags({ "thrift", "schema", "registry", "idl" })
+@CapabilityDescription("Holds the Thrift IDL files of a directory, several versions of each, " +
+                       "named <name>-<version>.thrift. Each is parsed once, when first asked for, " +
+                       "into a descriptor model that is cached by name and version, least recently used evicted, " +
+                       "and shared by every processor using the service")
+@SeeAlso({PutThriftIDL.class})
+public class ThriftSchemaRegistry extends AbstractControllerService implements ThriftSchemaRegistryService {
+
+    public static final String IDLExtension = ".thrift";
+    /**
+     * The version of an IDL file whose name has none
+     */
+    public static final String DefaultVersion = "0";
+
+    public static final PropertyDescriptor IDL_DIRECTORY = new PropertyDescriptor.Builder()
+            .name("IDLDirectory")
+            .description("The directory of the Thrift IDL files, named <name>-<version>.thrift, " +
+                         "eg flowfile_nifi-1.2.thrift. A file without a version is version " + DefaultVersion)
+            .required(true)
+            .addValidator(StandardValidators.createDirectoryExistsValidator(false, false))
+            .build();
+
+    public static final PropertyDescriptor CACHE_SIZE = new PropertyDescriptor.Builder()
+            .name("CacheSize")
+            .description("The most parsed IDL held, the least recently used is evicted, and parsed again if asked for")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    private static final List<PropertyDescriptor> descriptors = Collections.unmodifiableList(
+            Arrays.asList(IDL_DIRECTORY, CACHE_SIZE));
+
+    /**
+     * IDL files by name then version, the last version the latest
+     */
+    private volatile Map<String, TreeMap<String, File>> files = Collections.emptyMap();
+    private volatile Map<String, ThriftIDL> cache = Collections.emptyMap();
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return descriptors;
+    }
+
+    /**
+     * Indexes the IDL files, parsing waits until each is asked for
+     */
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext context) throws IOException {
+        final File directory = new File(context.getProperty(IDL_DIRECTORY).getValue());
+        final File[] listed = directory.listFiles((dir, fileName) -> fileName.endsWith(IDLExtension));
+        if (listed == null) {
+            throw new IOException("Failed to list " + directory);
+        }
+        final Map<String, TreeMap<String, File>> files = new HashMap<>();
+        for (File file : listed) {
+            final String[] nameVersion = splitFileName(file.getName());
+            files.computeIfAbsent(nameVersion[0], name -> new TreeMap<>(ThriftSchemaRegistry::compareVersions))
+                 .put(nameVersion[1], file);
+        }
+        final int cacheSize = context.getProperty(CACHE_SIZE).asInteger();
+        this.files = files;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, ThriftIDL>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ThriftIDL> eldest) {
+                return size() > cacheSize;
+            }
+        });
+        getLogger().info("Indexed {} Thrift IDL in {}", files.size(), directory);
+    }
+
+    @OnDisabled
+    public void onDisabled() {
+        files = Collections.emptyMap();
+        cache = Collections.emptyMap();
+    }
+
+    @Override
+    public ThriftIDL getIDL(String name, String version) throws IOException {
+        final TreeMap<String, File> versions = files.get(name);
+        if (versions == null) {
+            return null;
+        }
+        if (version == null || version.isEmpty()) {
+            version = versions.lastKey();
+        }
+        final File file = versions.get(version);
+        if (file == null) {
+            return null;
+        }
+        final String key = name + '-' + version;
+        final Map<String, ThriftIDL> cache = this.cache;
+        ThriftIDL idl = cache.get(key);
+        if (idl == null) {
+            // parsed outside the lock, should two threads race the second result is cached
+            try {
+                idl = ThriftIDLParser.parse(name, version, new String(Files.readAllBytes(file.toPath()),
+                                                                      StandardCharsets.UTF_8));
+            } catch (ParseException ex) {
+                throw new IOException("Failed to parse " + file + ", " + ex.getMessage()
+                                      + " at offset " + ex.getErrorOffset(), ex);
+            }
+            cache.put(key, idl);
+        }
+        return idl;
+    }
+
+    @Override
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(files.keySet());
+    }
+
+    /**
+     * @param fileName eg flowfile_nifi-1.2.thrift
+     * @return the name and version, eg flowfile_nifi and 1.2
+     */
+    static String[] splitFileName(String fileName) {
+        final String base = fileName.substring(0, fileName.length() - IDLExtension.length());
+        final int dash = base.lastIndexOf('-');
+        if (dash <= 0 || dash == base.length() - 1) {
+            return new String[] {base, DefaultVersion};
+        }
+        return new String[] {base.substring(0, dash), base.substring(dash + 1)};
+    }
+
+    /**
+     * Compares versions a segment at a time, numerically where both segments are numbers
+     */
+    static int compareVersions(String a, String b) {
+        final String[] as = a.split("\\.");
+        final String[] bs = b.split("\\.");
+        for (int i = 0; i < Math.max(as.length, bs.length); i++) {
+            final String sa = i < as.length ? as[i] : "0";
+            final String sb = i < bs.length ? bs[i] : "0";
+            int compared;
+            try {
+                compared = Long.compare(Long.parseLong(sa), Long.parseLong(sb));
+            } catch (NumberFormatException ex) {
+                compared = sa.compareTo(sb);
+            }
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return a.compareTo(b);
+    }
+}
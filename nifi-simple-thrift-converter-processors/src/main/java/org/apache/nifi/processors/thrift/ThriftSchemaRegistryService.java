@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.apache.nifi.controller.ControllerService;
+
+/**
+ * Serves parsed Thrift IDL, by name and version, to the Thrift processors
+ */
+public interface ThriftSchemaRegistryService extends ControllerService {
+
+    /**
+     * @param name the IDL name
+     * @param version the IDL version, null or empty for the latest
+     * @return the parsed IDL, null if there is no such IDL
+     * @throws IOException if the IDL cannot be read or parsed
+     */
+    ThriftIDL getIDL(String name, String version) throws IOException;
+
+    /**
+     * @return the names of the IDL held
+     */
+    Set<String> getNames();
+}
@@ -0,0 +1,321 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Reads a serialised Thrift struct field by field straight off a stream.
+ *
+ * For the BINARY and COMPACT protocols a binary field is a length followed by
+ * a raw run of bytes, so the reader can report where that run starts and skip
+ * it without allocating it. JSON has no such run, a binary field is a base64 string,
+ * which readBase64 decodes a buffer at a time rather than as one array.
+ */
+public class ThriftStreamReader {
+
+    private final String protocolName;
+    private final ThriftStreamTransport transport;
+    private final TProtocol protocol;
+    private final byte[] varint = new byte[1];
+    private final byte[] syntax = new byte[2];
+
+    /**
+     * The most a JSON string is read ahead, a base64 string is read a buffer at a time
+     * and what follows its closing quote pushed back
+     */
+    static final int JSON_READ_AHEAD = AbstractThriftProcessor.CopyBufferSize;
+    private static final byte[] BASE64_VALUES = new byte[128];
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        for (int i = 0; i < ThriftStreamWriter.BASE64_CHARS.length; i++) {
+            BASE64_VALUES[ThriftStreamWriter.BASE64_CHARS[i]] = (byte) i;
+        }
+    }
+
+    /**
+     * @param protocolName the protocol, eg AbstractThriftProcessor.ProtocolBinary
+     * @param in the serialised Thrift
+     * @throws TTransportException if the transport cannot be created
+     * @throws IllegalArgumentException if an invalid protocol
+     */
+    public ThriftStreamReader(String protocolName, InputStream in) throws TTransportException {
+        this.protocolName = protocolName;
+        this.transport = new ThriftStreamTransport(isRawBinary(protocolName) ? in : new PushbackInputStream(in, JSON_READ_AHEAD));
+        this.protocol = AbstractThriftProcessor.getFactory(protocolName).getProtocol(transport);
+    }
+
+    /**
+     * @param protocolName the protocol
+     * @return true if binary fields are raw byte runs on the wire
+     */
+    public static boolean isRawBinary(String protocolName) {
+        return AbstractThriftProcessor.ProtocolBinary.equals(protocolName)
+            || AbstractThriftProcessor.ProtocolCompact.equals(protocolName);
+    }
+
+    /**
+     * @param in the stream of structs one after another
+     * @return true if another struct follows, false at the end of the stream
+     * @throws IOException on a read failure
+     */
+    public static boolean hasMore(PushbackInputStream in) throws IOException {
+        final int next = in.read();
+        if (next == -1) {
+            return false;
+        }
+        in.unread(next);
+        return true;
+    }
+
+    /**
+     * @return true if binary fields are raw byte runs on the wire
+     */
+    public boolean isRawBinary() {
+        return isRawBinary(protocolName);
+    }
+
+    /**
+     * @return the protocol reading the stream
+     */
+    public TProtocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * @return the offset of the next unread byte
+     */
+    public long getPosition() {
+        return transport.getPosition();
+    }
+
+    /**
+     * Reads the length prefix of a binary field, leaving the stream at its first byte
+     *
+     * @return the length of the binary field
+     * @throws TException on a read failure
+     * @throws IllegalStateException if the protocol is not BINARY or COMPACT
+     */
+    public int readBinaryLength() throws TException {
+        int length;
+        switch (protocolName) {
+        case AbstractThriftProcessor.ProtocolBinary:
+            length = protocol.readI32();
+            break;
+        case AbstractThriftProcessor.ProtocolCompact:
+            // unsigned varint, unlike the zigzag encoded readI32
+            length = 0;
+            int shift = 0;
+            while (true) {
+                transport.readAll(varint, 0, 1);
+                length |= (varint[0] & 0x7f) << shift;
+                if ((varint[0] & 0x80) == 0) {
+                    break;
+                }
+                shift += 7;
+                if (shift > 28) {
+                    throw new TProtocolException(TProtocolException.INVALID_DATA, "Variable length binary size");
+                }
+            }
+            break;
+        default:
+            throw new IllegalStateException("readBinaryLength not supported by " + protocolName);
+        }
+        if (length < 0) {
+            throw new TProtocolException(TProtocolException.NEGATIVE_SIZE, "Negative length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * @param count the number of raw bytes to skip
+     * @throws TTransportException if the stream ends first
+     */
+    public void skipBytes(long count) throws TTransportException {
+        transport.skip(count);
+    }
+
+    /**
+     * Reads the raw bytes of a binary field, eg following readBinaryLength, into buffer
+     *
+     * @param buffer receives the bytes
+     * @param count the number of bytes to read
+     * @throws TTransportException if the stream ends first
+     */
+    public void readBytes(byte[] buffer, int count) throws TTransportException {
+        transport.readAll(buffer, 0, count);
+    }
+
+    /**
+     * Copies the raw bytes of a binary field, eg following readBinaryLength
+     *
+     * @param out where the bytes are copied to
+     * @param count the number of bytes to copy
+     * @param buffer the copy buffer
+     * @throws TTransportException if the stream ends first
+     * @throws IOException if out fails
+     */
+    public void readBytes(OutputStream out, long count, byte[] buffer) throws TTransportException, IOException {
+        transport.copyTo(count, out, buffer);
+    }
+
+    /**
+     * Decodes the base64 string of a JSON binary field, following readFieldBegin,
+     * a buffer at a time, so memory is the buffer whatever the size of the field.
+     * Padding is optional, as TJSONProtocol writes none
+     *
+     * @param out where the decoded bytes are written
+     * @param buffer the copy buffer
+     * @return the number of bytes decoded
+     * @throws TException if not a base64 string, or the stream ends first
+     * @throws IOException if out fails
+     * @throws IllegalStateException if the protocol is not JSON
+     */
+    public long readBase64(OutputStream out, byte[] buffer) throws TException, IOException {
+        if (isRawBinary()) {
+            throw new IllegalStateException("readBase64 not supported by " + protocolName);
+        }
+        // the pair separator and opening quote, TJSONProtocol has nothing read ahead after readFieldBegin
+        transport.readAll(syntax, 0, 2);
+        if (syntax[0] != ':' || syntax[1] != '"') {
+            throw new TProtocolException(TProtocolException.INVALID_DATA, "binary field is not a JSON string");
+        }
+        final int chunk = Math.min(buffer.length, JSON_READ_AHEAD);
+        long decoded = 0;
+        int bits = 0;
+        int bitCount = 0;
+        // a backslash read, the escaped char may only arrive with the next buffer
+        boolean escaped = false;
+        while (true) {
+            final int read = transport.read(buffer, 0, chunk);
+            // decoded in place, each char is at most one byte
+            int length = 0;
+            int i = 0;
+            for (; i < read; i++) {
+                final int c = buffer[i];
+                if (escaped) {
+                    // only the escaped solidus some JSON writers produce is a base64 char
+                    if (c != '/') {
+                        throw new TProtocolException(TProtocolException.INVALID_DATA,
+                                                     "unexpected escape \\" + (char) c + " in a base64 string");
+                    }
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                    continue;
+                } else if (c == '"') {
+                    break;
+                }
+                final int value = c < 0 ? -1 : BASE64_VALUES[c];
+                if (value < 0) {
+                    // padding carries no bits
+                    if (c == '=') {
+                        continue;
+                    }
+                    throw new TProtocolException(TProtocolException.INVALID_DATA, "invalid base64 char " + c);
+                }
+                bits = (bits << 6) | value;
+                bitCount += 6;
+                if (bitCount >= 8) {
+                    bitCount -= 8;
+                    buffer[length++] = (byte) (bits >> bitCount);
+                    bits &= (1 << bitCount) - 1;
+                }
+            }
+            out.write(buffer, 0, length);
+            decoded += length;
+            if (i < read) {
+                transport.unread(buffer, i + 1, read - i - 1);
+                break;
+            }
+        }
+        if (bitCount >= 6) {
+            throw new TProtocolException(TProtocolException.INVALID_DATA, "base64 string of a dangling char");
+        }
+        return decoded;
+    }
+
+    /**
+     * Skips a value of the given type, binary fields are skipped without
+     * being allocated when the protocol allows it
+     *
+     * @param type the TType of the value
+     * @throws TException on a read failure
+     */
+    public void skip(byte type) throws TException {
+        if (!isRawBinary()) {
+            TProtocolUtil.skip(protocol, type);
+            return;
+        }
+        switch (type) {
+        case TType.STRING:
+            skipBytes(readBinaryLength());
+            break;
+        case TType.STRUCT:
+            protocol.readStructBegin();
+            while (true) {
+                TField field = protocol.readFieldBegin();
+                if (field.type == TType.STOP) {
+                    break;
+                }
+                skip(field.type);
+                protocol.readFieldEnd();
+            }
+            protocol.readStructEnd();
+            break;
+        case TType.MAP:
+            TMap map = protocol.readMapBegin();
+            for (int i = 0; i < map.size; i++) {
+                skip(map.keyType);
+                skip(map.valueType);
+            }
+            protocol.readMapEnd();
+            break;
+        case TType.SET:
+            TSet set = protocol.readSetBegin();
+            for (int i = 0; i < set.size; i++) {
+                skip(set.elemType);
+            }
+            protocol.readSetEnd();
+            break;
+        case TType.LIST:
+            TList list = protocol.readListBegin();
+            for (int i = 0; i < list.size; i++) {
+                skip(list.elemType);
+            }
+            protocol.readListEnd();
+            break;
+        default:
+            TProtocolUtil.skip(protocol, type);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+
+import org.apache.thrift.TConfiguration;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * TIOStreamTransport over a FlowFile content stream which tracks its position,
+ * so a protocol can report where in the stream a field starts, and which can
+ * skip or copy a run of raw bytes without handing them to the protocol.
+ *
+ * The message size limit is lifted, FlowFile content is bounded by the
+ * content repository not by the heap.
+ *
+ * Over a PushbackInputStream, bytes read past the end of a run, eg a JSON string read
+ * a buffer at a time, can be unread for the protocol.
+ */
+public class ThriftStreamTransport extends TIOStreamTransport {
+
+    private static final TConfiguration STREAM_CONFIGURATION =
+            new TConfiguration(Integer.MAX_VALUE,
+                               TConfiguration.DEFAULT_MAX_FRAME_SIZE,
+                               TConfiguration.DEFAULT_RECURSION_DEPTH);
+
+    private long position;
+
+    /**
+     * @param in the stream to read from
+     * @throws TTransportException if the transport cannot be created
+     */
+    public ThriftStreamTransport(InputStream in) throws TTransportException {
+        super(STREAM_CONFIGURATION, in);
+    }
+
+    /**
+     * @param out the stream to write to
+     * @throws TTransportException if the transport cannot be created
+     */
+    public ThriftStreamTransport(OutputStream out) throws TTransportException {
+        super(STREAM_CONFIGURATION, out);
+    }
+
+    /**
+     * @return bytes read, skipped or written so far
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws TTransportException {
+        int bytesRead = super.read(buf, off, len);
+        position += bytesRead;
+        return bytesRead;
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws TTransportException {
+        super.write(buf, off, len);
+        position += len;
+    }
+
+    /**
+     * @param count the number of bytes to skip
+     * @throws TTransportException if the stream ends first
+     */
+    public void skip(long count) throws TTransportException {
+        long remaining = count;
+        try {
+            while (remaining > 0) {
+                long skipped = inputStream_.skip(remaining);
+                if (skipped <= 0) {
+                    // skip() may legitimately return 0, read() tells us about end of stream
+                    if (inputStream_.read() < 0) {
+                        throw new TTransportException(TTransportException.END_OF_FILE,
+                                                      "skip: " + remaining + " bytes short");
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+                position += skipped;
+            }
+        } catch (IOException iox) {
+            throw new TTransportException(TTransportException.UNKNOWN, iox);
+        }
+    }
+
+    /**
+     * @param count the number of bytes to copy
+     * @param in where they are copied from
+     * @param buffer the copy buffer
+     * @throws TTransportException if the transport fails
+     * @throws IOException if in ends first
+     */
+    public void copyFrom(long count, InputStream in, byte[] buffer) throws TTransportException, IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            int bytesRead = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (bytesRead < 0) {
+                throw new IOException("copyFrom: " + remaining + " bytes short");
+            }
+            write(buffer, 0, bytesRead);
+            remaining -= bytesRead;
+        }
+    }
+
+    /**
+     * @param count the number of bytes to copy
+     * @param out where they are copied to
+     * @param buffer the copy buffer
+     * @throws TTransportException if the stream ends first
+     * @throws IOException if out fails
+     */
+    public void copyTo(long count, OutputStream out, byte[] buffer) throws TTransportException, IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            int bytesRead = read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            out.write(buffer, 0, bytesRead);
+            remaining -= bytesRead;
+        }
+    }
+
+    /**
+     * @param buf the bytes read past the end of a run
+     * @param off their offset in buf
+     * @param len their number, no more than the PushbackInputStream can hold
+     * @throws TTransportException if they cannot be pushed back
+     * @throws IllegalStateException if not reading a PushbackInputStream
+     */
+    public void unread(byte[] buf, int off, int len) throws TTransportException {
+        if (!(inputStream_ instanceof PushbackInputStream)) {
+            throw new IllegalStateException("unread needs a PushbackInputStream");
+        }
+        try {
+            ((PushbackInputStream) inputStream_).unread(buf, off, len);
+        } catch (IOException iox) {
+            throw new TTransportException(TTransportException.UNKNOWN, iox);
+        }
+        position -= len;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Writes a Thrift struct field by field straight to a stream.
+ *
+ * For the BINARY and COMPACT protocols a binary field is a length followed by
+ * a raw run of bytes, so once the length is known the bytes can be streamed
+ * from their source through a fixed size buffer rather than held in memory.
+ * JSON's binary field is a base64 string, which writeBase64 encodes as the bytes stream.
+ */
+public class ThriftStreamWriter {
+
+    private final String protocolName;
+    private final ThriftStreamTransport transport;
+    private final TProtocol protocol;
+    private final byte[] varint = new byte[5];
+    private byte[] base64;
+    private ByteBuffer utf8;
+
+    static final byte[] BASE64_CHARS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_STRING_START = {':', '"'};
+    private static final byte[] JSON_STRING_END = {'"'};
+
+    /**
+     * @param protocolName the protocol, eg AbstractThriftProcessor.ProtocolBinary
+     * @param out where the serialised Thrift is written
+     * @throws TTransportException if the transport cannot be created
+     * @throws IllegalArgumentException if an invalid protocol
+     */
+    public ThriftStreamWriter(String protocolName, OutputStream out) throws TTransportException {
+        this.protocolName = protocolName;
+        this.transport = new ThriftStreamTransport(new BufferedOutputStream(out));
+        this.protocol = AbstractThriftProcessor.getFactory(protocolName).getProtocol(transport);
+    }
+
+    /**
+     * @return true if binary fields are raw byte runs on the wire
+     */
+    public boolean isRawBinary() {
+        return ThriftStreamReader.isRawBinary(protocolName);
+    }
+
+    /**
+     * @return the protocol writing the stream
+     */
+    public TProtocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    public long getPosition() {
+        return transport.getPosition();
+    }
+
+    /**
+     * Writes the length prefix of a binary field, the bytes must follow
+     *
+     * @param length the length of the binary field
+     * @throws TException on a write failure
+     * @throws IllegalStateException if the protocol is not BINARY or COMPACT
+     */
+    public void writeBinaryLength(int length) throws TException {
+        switch (protocolName) {
+        case AbstractThriftProcessor.ProtocolBinary:
+            protocol.writeI32(length);
+            break;
+        case AbstractThriftProcessor.ProtocolCompact:
+            // unsigned varint, unlike the zigzag encoded writeI32
+            int size = 0;
+            int remaining = length;
+            while ((remaining & ~0x7f) != 0) {
+                varint[size++] = (byte) ((remaining & 0x7f) | 0x80);
+                remaining >>>= 7;
+            }
+            varint[size++] = (byte) remaining;
+            transport.write(varint, 0, size);
+            break;
+        default:
+            throw new IllegalStateException("writeBinaryLength not supported by " + protocolName);
+        }
+    }
+
+    /**
+     * Writes a string as TProtocol.writeString does. With BINARY and COMPACT it is UTF-8 encoded
+     * into a reused buffer, not a new byte array per string as libthrift's String.getBytes
+     *
+     * @param value the string
+     * @throws TException on a write failure
+     */
+    public void writeString(String value) throws TException {
+        if (!isRawBinary()) {
+            protocol.writeString(value);
+            return;
+        }
+        final int length = FlowFileStructCodec.utf8Length(value);
+        if (utf8 == null || utf8.capacity() < length) {
+            utf8 = ByteBuffer.allocate(Math.max(length, 256));
+        }
+        utf8.clear();
+        FlowFileStructCodec.putUtf8(value, utf8);
+        writeBinaryLength(length);
+        transport.write(utf8.array(), 0, length);
+    }
+
+    /**
+     * @param in the source of the bytes
+     * @param count the number of bytes to copy
+     * @param buffer the copy buffer
+     * @throws TException on a write failure
+     * @throws IOException if in ends first
+     */
+    public void writeBytes(InputStream in, long count, byte[] buffer) throws TException, IOException {
+        transport.copyFrom(count, in, buffer);
+    }
+
+    /**
+     * Writes the base64 string of a JSON binary field, following writeFieldBegin,
+     * encoding in a buffer at a time, as TJSONProtocol does, without padding
+     *
+     * @param in the source of the bytes
+     * @param count the number of bytes to encode
+     * @param buffer the copy buffer
+     * @throws TException on a write failure
+     * @throws IOException if in ends first
+     * @throws IllegalStateException if the protocol is not JSON
+     */
+    public void writeBase64(InputStream in, long count, byte[] buffer) throws TException, IOException {
+        if (isRawBinary()) {
+            throw new IllegalStateException("writeBase64 not supported by " + protocolName);
+        }
+        if (base64 == null || base64.length < (buffer.length / 3 + 1) * 4) {
+            base64 = new byte[(buffer.length / 3 + 1) * 4];
+        }
+        // the pair separator TJSONProtocol would write before the value
+        transport.write(JSON_STRING_START, 0, JSON_STRING_START.length);
+        long remaining = count;
+        int held = 0;
+        while (remaining > 0) {
+            final int read = in.read(buffer, held, (int) Math.min(buffer.length - held, remaining));
+            if (read < 0) {
+                throw new IOException("writeBase64: " + remaining + " bytes short");
+            }
+            remaining -= read;
+            held += read;
+            // whole groups of three, the last group once in ends
+            final int encoding = remaining > 0 ? held - held % 3 : held;
+            int length = 0;
+            for (int i = 0; i < encoding; i += 3) {
+                final int group = encoding - i;
+                final int bits = (buffer[i] & 0xff) << 16
+                               | (group > 1 ? (buffer[i + 1] & 0xff) << 8 : 0)
+                               | (group > 2 ? buffer[i + 2] & 0xff : 0);
+                base64[length++] = BASE64_CHARS[bits >> 18];
+                base64[length++] = BASE64_CHARS[(bits >> 12) & 0x3f];
+                if (group > 1) {
+                    base64[length++] = BASE64_CHARS[(bits >> 6) & 0x3f];
+                }
+                if (group > 2) {
+                    base64[length++] = BASE64_CHARS[bits & 0x3f];
+                }
+            }
+            transport.write(base64, 0, length);
+            System.arraycopy(buffer, encoding, buffer, 0, held - encoding);
+            held -= encoding;
+        }
+        transport.write(JSON_STRING_END, 0, JSON_STRING_END.length);
+    }
+
+    /**
+     * Copies the raw bytes of a binary field straight from reader, eg following
+     * readBinaryLength and writeBinaryLength
+     *
+     * @param reader the source of the bytes
+     * @param count the number of bytes to copy
+     * @param buffer the copy buffer
+     * @throws TTransportException if reader ends first, or on a write failure
+     */
+    public void copyBytes(ThriftStreamReader reader, long count, byte[] buffer) throws TTransportException {
+        while (count > 0) {
+            final int chunk = (int) Math.min(count, buffer.length);
+            reader.readBytes(buffer, chunk);
+            transport.write(buffer, 0, chunk);
+            count -= chunk;
+        }
+    }
+
+    /**
+     * @throws TTransportException on a write failure
+     */
+    public void flush() throws TTransportException {
+        transport.flush();
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+
+/**
+ * Transcodes a serialised struct from one protocol to another, value by value,
+ * nothing but the value being copied is held.
+ *
+ * Between BINARY and COMPACT, strings and binary fields are raw byte runs on both sides,
+ * so they are streamed through the copy buffer whatever their size. The JSON protocol writes
+ * binary as base64 and strings as they are, so with JSON on either side the IDL tells them apart,
+ * a field the IDL does not know is taken to be a string.
+ */
+public class ThriftTranscoder {
+
+    private static final TStruct ANONYMOUS = new TStruct();
+
+    private final ThriftStreamReader reader;
+    private final ThriftStreamWriter writer;
+    private final TProtocol in;
+    private final TProtocol out;
+    private final ThriftIDL idl;
+    private final boolean rawBinary;
+    private final byte[] buffer;
+
+    /**
+     * @param reader reading the source protocol
+     * @param writer writing the destination protocol
+     * @param idl the IDL of the structs
+     * @param buffer the copy buffer
+     */
+    public ThriftTranscoder(ThriftStreamReader reader, ThriftStreamWriter writer, ThriftIDL idl, byte[] buffer) {
+        this.reader = reader;
+        this.writer = writer;
+        this.in = reader.getProtocol();
+        this.out = writer.getProtocol();
+        this.idl = idl;
+        this.rawBinary = reader.isRawBinary() && writer.isRawBinary();
+        this.buffer = buffer;
+    }
+
+    /**
+     * @param structName the struct read, null if the IDL does not describe it
+     * @throws TException on a read or write failure
+     */
+    public void transcodeStruct(String structName) throws TException {
+        struct(structName == null ? null : idl.getStruct(structName));
+    }
+
+    private void struct(ThriftIDL.Struct struct) throws TException {
+        in.readStructBegin();
+        out.writeStructBegin(ANONYMOUS);
+        while (true) {
+            final TField field = in.readFieldBegin();
+            if (field.type == TType.STOP) {
+                break;
+            }
+            out.writeFieldBegin(field);
+            final ThriftIDL.Field described = struct == null ? null : struct.getField(field.id);
+            value(field.type, described == null ? null : described.getType());
+            in.readFieldEnd();
+            out.writeFieldEnd();
+        }
+        out.writeFieldStop();
+        in.readStructEnd();
+        out.writeStructEnd();
+    }
+
+    /**
+     * @param ttype the type on the wire
+     * @param type the type in the IDL, null if unknown
+     */
+    private void value(byte ttype, ThriftIDL.Type type) throws TException {
+        final ThriftIDL.Type resolved = type == null ? null : idl.resolve(type);
+        switch (ttype) {
+        case TType.BOOL:
+            out.writeBool(in.readBool());
+            break;
+        case TType.BYTE:
+            out.writeByte(in.readByte());
+            break;
+        case TType.I16:
+            out.writeI16(in.readI16());
+            break;
+        case TType.I32:
+            out.writeI32(in.readI32());
+            break;
+        case TType.I64:
+            out.writeI64(in.readI64());
+            break;
+        case TType.DOUBLE:
+            out.writeDouble(in.readDouble());
+            break;
+        case TType.STRING:
+            if (rawBinary) {
+                final int length = reader.readBinaryLength();
+                writer.writeBinaryLength(length);
+                writer.copyBytes(reader, length, buffer);
+            } else if (resolved != null && resolved.isBinary()) {
+                out.writeBinary(in.readBinary());
+            } else {
+                out.writeString(in.readString());
+            }
+            break;
+        case TType.STRUCT:
+            struct(resolved == null || resolved.getTType() != TType.STRUCT ? null : idl.getStruct(resolved.getName()));
+            break;
+        case TType.MAP:
+            final TMap map = in.readMapBegin();
+            out.writeMapBegin(map);
+            final boolean mapDescribed = resolved != null && resolved.getTType() == TType.MAP;
+            for (int i = 0; i < map.size; i++) {
+                value(map.keyType, mapDescribed ? resolved.getKeyType() : null);
+                value(map.valueType, mapDescribed ? resolved.getValueType() : null);
+            }
+            in.readMapEnd();
+            out.writeMapEnd();
+            break;
+        case TType.SET:
+            final TSet set = in.readSetBegin();
+            out.writeSetBegin(set);
+            final ThriftIDL.Type setElement = element(resolved, TType.SET);
+            for (int i = 0; i < set.size; i++) {
+                value(set.elemType, setElement);
+            }
+            in.readSetEnd();
+            out.writeSetEnd();
+            break;
+        case TType.LIST:
+            final TList list = in.readListBegin();
+            out.writeListBegin(list);
+            final ThriftIDL.Type listElement = element(resolved, TType.LIST);
+            for (int i = 0; i < list.size; i++) {
+                value(list.elemType, listElement);
+            }
+            in.readListEnd();
+            out.writeListEnd();
+            break;
+        default:
+            throw new TProtocolException(TProtocolException.INVALID_DATA, "Unknown type " + ttype);
+        }
+    }
+
+    private static ThriftIDL.Type element(ThriftIDL.Type container, byte ttype) {
+        return container != null && container.getTType() == ttype ? container.getValueType() : null;
+    }
+}
@@ -17,8 +17,14 @@
 package org.apache.nifi.processors.thrift;
 
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Set;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -32,34 +38,84 @@ import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.SeeAlso;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.util.StopWatch;
 
+import org.apache.thrift.TException;
+
 @Tags({ "thrift", "converter" })
 @CapabilityDescription("Creates a thrift ThriftFlowFile object, wrapped in a FlowFileReply Object, from the flowfile. " +
                        "flowfile attributes , eg thrift.attr.xxx, are copied to ThriftFlowFile.attributes('xxx')." +
                        "flowfile content is copied to ThriftFlowFile.content" +
-                       "FlowFileReply.id will contain the maintained thrift.id attr ")
-@SeeAlso({PutThriftIDL.class,FromThriftProcessor.class})
+                       "FlowFileReply.id will contain the maintained thrift.id attr. " +
+                       "With ReplyCompression Negotiated the content is compressed with the first encoding " +
+                       "of the client's 'accept.encoding' attribute that is supported")
+@SeeAlso({PutThriftIDL.class,FromThriftProcessor.class,ReassembleThriftChunks.class})
 @ReadsAttributes({
     @ReadsAttribute(attribute   = "thrift.id",
                     description = "The Thrift id of the Thrift object"),
     @ReadsAttribute(attribute   = "thrift.attr.*",
                     description = "Each attribute 'thrift.attr.xxx' is copied to the Thrift object's 'xxx' attribute"),
     @ReadsAttribute(attribute   = "thrift.protocol",
-                    description = "the thrift protocol to be used for serialisation (ignored unless DynamicProtocol)")
+                    description = "the thrift protocol to be used for serialisation (ignored unless DynamicProtocol or AUTO)"),
+    @ReadsAttribute(attribute   = "thrift.response.code",
+                    description = "FlowFileReply.responseCode, SUCCESS if not set"),
+    @ReadsAttribute(attribute   = "thrift.attr.accept.encoding",
+                    description = "The encodings the client accepts, eg 'zstd, lz4' (ReplyCompression Negotiated only)")
                 })
 @WritesAttributes({
         @WritesAttribute(attribute   = "thrift.http_status_attr",
-                         description = "HTTP Status code to be passed back by, eg, HandleHttpResponse")
+                         description = "HTTP Status code to be passed back by, eg, HandleHttpResponse, " +
+                                       "200 for SUCCESS, 503 for RETRY, 500 for ERROR"),
+        @WritesAttribute(attribute   = "thrift.chunk.sequence",
+                         description = "FlowFileChunk.sequence, when the reply is split by ChunkSize"),
+        @WritesAttribute(attribute   = "thrift.chunk.total",
+                         description = "FlowFileChunk.total, when the reply is split by ChunkSize")
                   })
 
 public class ToThriftProcessor extends AbstractThriftProcessor {
 
+    private static final String ReplyCompressionNone       = "None";
+    private static final String ReplyCompressionNegotiated = "Negotiated";
+
+    public static final PropertyDescriptor REPLY_COMPRESSION = new PropertyDescriptor.Builder()
+            .name("ReplyCompression")
+            .description("Whether the reply content is compressed. Negotiated compresses it with the first encoding, " +
+                         "lz4, zstd or zstd-dict, listed in the client's 'accept.encoding' attribute, " +
+                         "and sets the reply's 'content.encoding'. Clients listing none get it uncompressed")
+            .required(true)
+            .allowableValues(new AllowableValue(ReplyCompressionNone),
+                             new AllowableValue(ReplyCompressionNegotiated))
+            .defaultValue(ReplyCompressionNone)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor COMPRESSION_MIN_SIZE = new PropertyDescriptor.Builder()
+            .name("CompressionMinSize")
+            .description("Content smaller than this is never compressed, the frame overhead would outweigh the saving")
+            .required(true)
+            .defaultValue("256 B")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor CHUNK_SIZE = new PropertyDescriptor.Builder()
+            .name("ChunkSize")
+            .description("If set a reply whose content is larger is sent as FlowFileChunks, one flowfile per chunk " +
+                         "of at most this much content, rather than as one FlowFileReply. " +
+                         "The first chunk carries the attributes and responseCode")
+            .required(false)
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
     public static final Relationship SUCCESS = new Relationship.Builder()
             .name("Success")
             .description("Serialized Thrift object in flowfile")
@@ -70,7 +126,10 @@ public class ToThriftProcessor extends AbstractThriftProcessor {
             .description("Failed to create serialized Thrift object in flowfile")
             .build();
 
-    private static final String HttpStatusAttr = "thrift.http_status_attr";
+    private volatile ContentCompression contentCompression;
+    private volatile boolean negotiatingCompression;
+    private volatile long compressionMinSize;
+    private volatile long chunkSize;
 
     public ToThriftProcessor() {
         super();
@@ -79,6 +138,14 @@ public class ToThriftProcessor extends AbstractThriftProcessor {
     @Override
     protected void init(final ProcessorInitializationContext context) {
         super.init(context);
+        addPropertyDescriptor(BATCH_SIZE);
+        addPropertyDescriptor(REPLY_COMPRESSION);
+        addPropertyDescriptor(COMPRESSION_MIN_SIZE);
+        addPropertyDescriptor(ZSTD_DICTIONARY);
+        addPropertyDescriptor(CODEC);
+        addPropertyDescriptor(CHUNK_SIZE);
+        addPropertyDescriptor(MEMORY_BUDGET);
+        addPropertyDescriptor(MESSAGE_BUFFERS);
 
         final Set<Relationship> relationships = new HashSet<Relationship>();
         relationships.add(SUCCESS);
@@ -86,88 +153,126 @@ public class ToThriftProcessor extends AbstractThriftProcessor {
         this.relationships = Collections.unmodifiableSet(relationships);
     }
 
+    @OnScheduled
+    public void setupContentCompression(final ProcessContext context) throws IOException {
+        contentCompression = ContentCompression.fromContext(context);
+        negotiatingCompression = ReplyCompressionNegotiated.equals(context.getProperty(REPLY_COMPRESSION).getValue());
+        compressionMinSize = context.getProperty(COMPRESSION_MIN_SIZE).asDataSize(DataUnit.B).longValue();
+        chunkSize = context.getProperty(CHUNK_SIZE).isSet()
+                    ? context.getProperty(CHUNK_SIZE).asDataSize(DataUnit.B).longValue() : 0;
+    }
+
     @Override
     public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-        FlowFile flowFile = session.get();
-        if (flowFile == null) {
+        final List<FlowFile> flowFiles = session.get(context.getProperty(BATCH_SIZE).asInteger());
+        if (flowFiles.isEmpty()) {
             return;
         }
-        // nifi/nifi-nar-bundles/nifi-jolt-record-bundle/nifi-jolt-record-processors/src/main/java/org/apache/nifi/processors/jolt/record/JoltTransformRecord.java
-        final StopWatch stopWatch = new StopWatch(true);
-        if (perRequestProtcol) {
-            try{
-                String thrift_protocol = flowFile.getAttribute("thrift.protocol");
-                if (null != thrift_protocol) {
-                    setProtocol(thrift_protocol);
-                }else{
-                    getLogger().error("perRequestProtocol but no attr, 'thrift.protocol', set");
-                    throw new ProcessException("perRequestProtocol but no attr, 'thrift.protocol', set");
-                }
-            }catch (Exception ex) {
-                // ex.printStackTrace();
-                getLogger().error("Failed to process perrequest protocol " + ex.getMessage());
-                session.transfer(flowFile, FAILURE);
-                return;
+        final ConversionBuffers buffers = newBuffers(context);
+        try {
+            for (FlowFile flowFile : flowFiles) {
+                convert(session, flowFile, buffers);
             }
+        } finally {
+            buffers.releaseAll();
         }
+    }
 
+    /**
+     * Converts one flowfile, routing it to FAILURE on error
+     *
+     * @param session the session
+     * @param flowFile the flowfile to convert
+     * @param buffers the buffers shared by the batch
+     */
+    private void convert(final ProcessSession session, final FlowFile flowFile, final ConversionBuffers buffers) {
+        // nifi/nifi-nar-bundles/nifi-jolt-record-bundle/nifi-jolt-record-processors/src/main/java/org/apache/nifi/processors/jolt/record/JoltTransformRecord.java
+        final StopWatch stopWatch = new StopWatch(true);
+        final String protocol;
+        try {
+            protocol = getProtocol(flowFile);
+        } catch (ProcessException ex) {
+            getLogger().error("Failed to process perrequest protocol " + ex.getMessage());
+            session.transfer(flowFile, FAILURE);
+            return;
+        }
 
-        ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
-        FlowFileReply flowFileReply = new FlowFileReply();
         FlowFile newflowFile = session.create(flowFile);
+        FlowFile compressed = null;
+        final List<FlowFile> chunks = new ArrayList<>();
         try {
-            flowFileReply.setFlowFile(thriftFlowFile);
-            session.read(flowFile, (in) -> {
-                    try {
-                        byte[] bytes = new byte[in.available()];
-                        in.read(bytes);
-                        thriftFlowFile.setContent(bytes);
-                    } catch (Exception ex) {
-                        getLogger().error("Failed to read flowFileRequest");
-                        throw new ProcessException("Failed to read flowFileRequest, ",ex);
-                    }
-            });
-
+            Map<String, String> attributes = getThriftAttributes(flowFile);
             if (getLogger().isDebugEnabled()) {
-                String flowFileReplyContent = new String(thriftFlowFile.getContent());
-                getLogger().debug("flowFileReplyContent " + flowFileReplyContent);
-            }
-            int prefixlength = AttrPrefix.length();
-            for (Map.Entry<String, String> entry : flowFile.getAttributes().entrySet()) {
-                if (entry.getKey().startsWith(AttrPrefix)) {
-                    thriftFlowFile.putToAttributes(entry.getKey().substring(prefixlength), entry.getValue());
+                for (Map.Entry<String, String> entry : flowFile.getAttributes().entrySet()) {
+                    getLogger().debug("ToThriftProcessor: attribute " + entry.getKey() + " : " + entry.getValue());
                 }
-                getLogger().debug("ToThriftProcessor: attribute " + entry.getKey() + " : " + entry.getValue());
             }
             /**
              * If we have the attribute "thrift.id" (set in FromThriftProcessor then use it
              * to populate the id member
              */
+            long id = 0;
             String thrift_id = flowFile.getAttribute("thrift.id");
             if (null != thrift_id) {
-                flowFileReply.setId(Long.parseLong(thrift_id));
+                id = Long.parseLong(thrift_id);
             }
 
+            final ResponseCode responseCode = getResponseCode(flowFile);
+
             // this attribute can be interpreted by HTTPResponse
-            session.putAttribute(newflowFile, HttpStatusAttr,
-                                String.valueOf(HttpURLConnection.HTTP_OK));
-            flowFileReply.setResponseCode(ResponseCode.SUCCESS);
+            newflowFile = session.putAttribute(newflowFile, HttpStatusAttr,
+                                String.valueOf(getHttpStatus(responseCode)));
 
-            byte[] serializedFlowFileReply = serializer.serialize(flowFileReply);
-            // https://www.nifi.rocks/developing-a-custom-apache-nifi-processor-json/
-            // To write the results back out to flow file
-            newflowFile = session.write(newflowFile, (out) -> {
-                    out.write(serializedFlowFileReply);
-            });
+            // the request's content.encoding does not hold for the reply
+            if (attributes != null) {
+                attributes.remove(ContentCompression.ContentEncodingAttr);
+            }
+            FlowFile content = flowFile;
+            final String contentEncoding = negotiateEncoding(flowFile);
+            if (contentEncoding != null) {
+                compressed = compress(session, flowFile, contentEncoding, buffers.copy);
+                content = compressed;
+                if (attributes == null) {
+                    attributes = new HashMap<>();
+                }
+                attributes.put(ContentCompression.ContentEncodingAttr, contentEncoding);
+            }
+
+            if (chunkSize > 0 && content.getSize() > chunkSize) {
+                writeChunks(session, content, protocol, responseCode, id, attributes, chunks, buffers.copy);
+                session.remove(newflowFile);
+                newflowFile = null;
+            } else {
+                FlowFile serialized = null;
+                if ((specializedCodec || directBuffers) && ThriftStreamReader.isRawBinary(protocol)) {
+                    serialized = directBuffers
+                            ? writeDirect(session, content, newflowFile, protocol, responseCode, id, attributes, buffers)
+                            : writeSerialized(session, content, newflowFile, protocol, responseCode, id, attributes, buffers);
+                }
+                newflowFile = serialized != null ? serialized
+                        : writeStreamed(session, content, newflowFile, protocol, responseCode, id, attributes, buffers.copy);
+            }
+            if (compressed != null) {
+                session.remove(compressed);
+            }
         } catch (Exception ex) {
             // ex.printStackTrace();
             getLogger().error("Failed to write flowFileReply, " + ex.getMessage());
             if (newflowFile != null) {
                 session.remove(newflowFile);
             }
+            if (compressed != null) {
+                session.remove(compressed);
+            }
+            session.remove(chunks);
             session.transfer(flowFile, FAILURE);
             return;
         }
+        if (newflowFile == null) {
+            session.remove(flowFile);
+            session.transfer(chunks, SUCCESS);
+            return;
+        }
         // check for no change?
         session.getProvenanceReporter().modifyAttributes(newflowFile, "Modified With serialised thrift attributes");
         session.getProvenanceReporter().modifyContent(newflowFile, "Modified With serialised thrift content", stopWatch.getElapsed(TimeUnit.MILLISECONDS));
@@ -175,4 +280,265 @@ public class ToThriftProcessor extends AbstractThriftProcessor {
         session.transfer(newflowFile, SUCCESS);
     }
 
+    /**
+     * @param flowFile the flowfile
+     * @return the encoding the reply content is compressed with, null if it is not
+     */
+    private String negotiateEncoding(final FlowFile flowFile) {
+        if (!negotiatingCompression || flowFile.getSize() < compressionMinSize) {
+            return null;
+        }
+        return contentCompression.negotiate(flowFile.getAttribute(prefixedKey(ContentCompression.AcceptEncodingAttr)));
+    }
+
+    /**
+     * Streams the flowfile content through the compressor into a new flowfile, to be removed once serialised
+     *
+     * @param session the session
+     * @param flowFile the source of the content
+     * @param contentEncoding the encoding
+     * @param buffer the copy buffer
+     * @return the flowfile holding the compressed content
+     */
+    private FlowFile compress(final ProcessSession session, final FlowFile flowFile,
+                              final String contentEncoding, final byte[] buffer) {
+        final FlowFile compressed = session.create(flowFile);
+        return session.write(compressed, (out) -> {
+                session.read(flowFile, (in) -> {
+                        try (OutputStream compressor = contentCompression.compress(contentEncoding, out)) {
+                            ContentCompression.copy(in, compressor, buffer);
+                        }
+                });
+        });
+    }
+
+    /**
+     * @param flowFile the flowfile
+     * @return its 'thrift.response.code' attribute, SUCCESS if not set
+     * @throws IllegalArgumentException if not a ResponseCode
+     */
+    private static ResponseCode getResponseCode(final FlowFile flowFile) {
+        final String responseCode = flowFile.getAttribute(ResponseCodeAttr);
+        return responseCode == null ? ResponseCode.SUCCESS : ResponseCode.valueOf(responseCode);
+    }
+
+    /**
+     * @param responseCode the ResponseCode
+     * @return the matching HTTP status, eg RETRY is 503 Service Unavailable
+     */
+    private static int getHttpStatus(final ResponseCode responseCode) {
+        switch (responseCode) {
+        case RETRY:
+            return HttpURLConnection.HTTP_UNAVAILABLE;
+        case ERROR:
+            return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        default:
+            return HttpURLConnection.HTTP_OK;
+        }
+    }
+
+    /**
+     * Streams the FlowFileReply: the header and attributes are serialised, then the
+     * flowfile content is copied straight into the reply's content field, for JSON
+     * base64 encoded, so memory per message is one copy buffer whatever the content size
+     *
+     * @param session the session
+     * @param flowFile the source of the content
+     * @param newflowFile the flowfile to hold the serialised reply
+     * @param protocol the protocol
+     * @param responseCode FlowFileReply.responseCode
+     * @param id FlowFileReply.id
+     * @param attributes ThriftFlowFile.attributes, may be null
+     * @param buffer the copy buffer
+     * @return the updated newflowFile
+     */
+    private FlowFile writeStreamed(final ProcessSession session, final FlowFile flowFile, final FlowFile newflowFile,
+                                   final String protocol, final ResponseCode responseCode, final long id,
+                                   final Map<String, String> attributes, final byte[] buffer) {
+        final long contentLength = flowFile.getSize();
+        if (getLogger().isDebugEnabled()) {
+            getLogger().debug("flowFileReplyContent streaming " + contentLength + " bytes");
+        }
+        return session.write(newflowFile, (out) -> {
+                final ThriftStreamWriter writer;
+                try {
+                    writer = new ThriftStreamWriter(protocol, out);
+                } catch (TException ex) {
+                    throw new IOException(ex);
+                }
+                session.read(flowFile, (in) -> {
+                        try {
+                            FlowFileReplyEncoder.writeReply(writer, responseCode, id, attributes,
+                                                            in, contentLength, buffer);
+                            writer.flush();
+                        } catch (TException ex) {
+                            throw new IOException(ex);
+                        }
+                });
+        });
+    }
+
+    /**
+     * Splits the reply into FlowFileChunks, each chunk flowfile a clone of its run of the
+     * content, streamed through the copy buffer, so memory is one buffer whatever the content size
+     *
+     * @param session the session
+     * @param flowFile the source of the content
+     * @param protocol the protocol
+     * @param responseCode FlowFileChunk.responseCode of the first chunk
+     * @param id FlowFileChunk.id
+     * @param attributes FlowFileChunk.attributes of the first chunk, may be null
+     * @param chunks receives the chunks, in order, so far
+     * @param buffer the copy buffer
+     */
+    private void writeChunks(final ProcessSession session, final FlowFile flowFile,
+                             final String protocol, final ResponseCode responseCode, final long id,
+                             final Map<String, String> attributes, final List<FlowFile> chunks,
+                             final byte[] buffer) {
+        final long contentLength = flowFile.getSize();
+        final long count = (contentLength + chunkSize - 1) / chunkSize;
+        if (count > Integer.MAX_VALUE) {
+            throw new ProcessException("content of " + contentLength + " bytes needs too many chunks");
+        }
+        final int total = (int) count;
+        final Map<String, String> chunkAttributes = new HashMap<>();
+        chunkAttributes.put(HttpStatusAttr, String.valueOf(getHttpStatus(responseCode)));
+        chunkAttributes.put(FlowFileChunks.TotalAttr, Integer.toString(total));
+        for (int i = 0; i < total; i++) {
+            final int sequence = i;
+            final long offset = sequence * chunkSize;
+            final long length = Math.min(chunkSize, contentLength - offset);
+            FlowFile chunk = session.clone(flowFile, offset, length);
+            chunks.add(chunk);
+            chunk = session.write(chunk, (in, out) -> {
+                    try {
+                        final ThriftStreamWriter writer = new ThriftStreamWriter(protocol, out);
+                        FlowFileChunks.writeChunk(writer, id, sequence, total, attributes, responseCode,
+                                                  in, length, buffer);
+                        writer.flush();
+                    } catch (TException ex) {
+                        throw new IOException(ex);
+                    }
+            });
+            chunkAttributes.put(FlowFileChunks.SequenceAttr, Integer.toString(sequence));
+            chunk = session.putAllAttributes(chunk, chunkAttributes);
+            chunks.set(sequence, chunk);
+        }
+    }
+
+    /**
+     * Builds the FlowFileReply and serialises it whole with the specialized FlowFileCodec,
+     * if the MemoryBudget grants the content and the serialised reply
+     *
+     * @param session the session
+     * @param flowFile the source of the content
+     * @param newflowFile the flowfile to hold the serialised reply
+     * @param protocol the protocol
+     * @param responseCode FlowFileReply.responseCode
+     * @param id FlowFileReply.id
+     * @param attributes ThriftFlowFile.attributes, may be null
+     * @param buffers the buffers shared by the batch
+     * @return the updated newflowFile, null if the MemoryBudget is spent and the reply is to be streamed
+     * @throws TException if the reply cannot be serialised
+     */
+    private FlowFile writeSerialized(final ProcessSession session, final FlowFile flowFile, final FlowFile newflowFile,
+                                     final String protocol, final ResponseCode responseCode, final long id,
+                                     final Map<String, String> attributes,
+                                     final ConversionBuffers buffers) throws TException {
+        if (flowFile.getSize() > Integer.MAX_VALUE) {
+            throw new ProcessException("content of " + flowFile.getSize() + " bytes exceeds a thrift binary");
+        }
+        final int size = (int) flowFile.getSize();
+        final byte[] bytes = buffers.message(size);
+        // the serialised reply is a second copy of the content
+        if (bytes == null || !buffers.reserve(size)) {
+            return null;
+        }
+        try {
+            session.read(flowFile, (in) -> {
+                    readFully(in, bytes, size);
+            });
+            ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+            thriftFlowFile.setAttributes(attributes);
+            // the generated setters copy, the buffer is ours to hand over
+            thriftFlowFile.content = ByteBuffer.wrap(bytes, 0, size);
+            if (getLogger().isDebugEnabled()) {
+                getLogger().debug("flowFileReplyContent " + new String(bytes, 0, size));
+            }
+            FlowFileReply flowFileReply = new FlowFileReply();
+            flowFileReply.setFlowFile(thriftFlowFile);
+            flowFileReply.setId(id);
+            flowFileReply.setResponseCode(responseCode);
+
+            final byte[] serializedFlowFileReply = getCodec(protocol).serialize(flowFileReply);
+            // https://www.nifi.rocks/developing-a-custom-apache-nifi-processor-json/
+            // To write the results back out to flow file
+            return session.write(newflowFile, (out) -> {
+                    out.write(serializedFlowFileReply);
+            });
+        } finally {
+            buffers.release(size);
+        }
+    }
+
+    /**
+     * Builds the FlowFileReply in a direct buffer and serialises it whole with the specialized
+     * FlowFileStructCodec into a second, so neither the content nor the reply is copied onto the heap
+     *
+     * @param session the session
+     * @param flowFile the source of the content
+     * @param newflowFile the flowfile to hold the serialised reply
+     * @param protocol the protocol
+     * @param responseCode FlowFileReply.responseCode
+     * @param id FlowFileReply.id
+     * @param attributes ThriftFlowFile.attributes, may be null
+     * @param buffers the buffers shared by the batch
+     * @return the updated newflowFile, null if the MemoryBudget is spent and the reply is to be streamed
+     */
+    private FlowFile writeDirect(final ProcessSession session, final FlowFile flowFile, final FlowFile newflowFile,
+                                 final String protocol, final ResponseCode responseCode, final long id,
+                                 final Map<String, String> attributes,
+                                 final ConversionBuffers buffers) {
+        if (flowFile.getSize() > Integer.MAX_VALUE) {
+            throw new ProcessException("content of " + flowFile.getSize() + " bytes exceeds a thrift binary");
+        }
+        final int size = (int) flowFile.getSize();
+        final ByteBuffer content = buffers.direct(size);
+        if (content == null) {
+            return null;
+        }
+        try {
+            session.read(flowFile, (in) -> {
+                    DirectBufferPool.read(in, content, buffers.copy);
+            });
+            content.flip();
+            ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+            thriftFlowFile.setAttributes(attributes);
+            // the generated setters copy, the buffer is ours to hand over
+            thriftFlowFile.content = content;
+            FlowFileReply flowFileReply = new FlowFileReply();
+            flowFileReply.setFlowFile(thriftFlowFile);
+            flowFileReply.setId(id);
+            flowFileReply.setResponseCode(responseCode);
+
+            final FlowFileStructCodec codec = FlowFileStructCodec.forProtocol(protocol);
+            final int replySize = codec.sizeOf(flowFileReply);
+            final ByteBuffer reply = buffers.direct(replySize);
+            if (reply == null) {
+                return null;
+            }
+            try {
+                codec.serialize(flowFileReply, reply);
+                reply.flip();
+                return session.write(newflowFile, (out) -> {
+                        DirectBufferPool.write(reply, out, buffers.copy);
+                });
+            } finally {
+                buffers.recycle(reply, replySize);
+            }
+        } finally {
+            buffers.recycle(content, size);
+        }
+    }
+
 }
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.ReadsAttribute;
+import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.SideEffectFree;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import org.apache.thrift.TException;
+
+@SideEffectFree
+@Tags({ "thrift", "converter", "transcode", "protocol" })
+@CapabilityDescription("Transcodes serialised Thrift structs from one protocol to another, eg JSON to COMPACT, " +
+                       "reading with one protocol and writing with the other value by value, in one pass, " +
+                       "so memory use does not grow with the flowfile. Between BINARY and COMPACT binary fields " +
+                       "are streamed straight through. The flowfile holds one or more structs one after another")
+@SeeAlso({FromThriftProcessor.class, ToThriftProcessor.class, ThriftSchemaRegistry.class})
+@InputRequirement(Requirement.INPUT_REQUIRED)
+@ReadsAttributes({
+    @ReadsAttribute(attribute   = "thrift.protocol",
+                    description = "the thrift protocol to be used for deserialisation (ignored unless DynamicProtocol or AUTO)")
+                })
+@WritesAttributes({
+    @WritesAttribute(attribute   = "thrift.protocol",
+                     description = "The OutputProtocol"),
+    @WritesAttribute(attribute   = "mime.type",
+                     description = "application/vnd.apache.thrift.json, .binary or .compact")
+                  })
+public class TranscodeThrift extends AbstractThriftProcessor {
+
+    public static final PropertyDescriptor OUTPUT_PROTOCOL = new PropertyDescriptor.Builder()
+            .name("OutputProtocol")
+            .description("The Thrift protocol written")
+            .required(true)
+            .allowableValues(new AllowableValue(ProtocolJSON), new AllowableValue(ProtocolBinary),
+                             new AllowableValue(ProtocolCompact))
+            .defaultValue(ProtocolCompact)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor STRUCT_NAME = new PropertyDescriptor.Builder()
+            .fromPropertyDescriptor(EvaluateThriftPath.STRUCT_NAME)
+            .description("The struct serialised in the flowfile, the IDL tells strings from binary fields with JSON")
+            .build();
+
+    public static final PropertyDescriptor SCHEMA_REGISTRY = new PropertyDescriptor.Builder()
+            .fromPropertyDescriptor(PutThriftIDL.SCHEMA_REGISTRY)
+            .description("The ThriftSchemaRegistry holding the IDL, none uses " + PutThriftIDL.THRIFT_FILENAME)
+            .build();
+
+    public static final Relationship SUCCESS = new Relationship.Builder()
+            .name("Success")
+            .description("The transcoded structs")
+            .build();
+
+    public static final Relationship FAILURE = new Relationship.Builder()
+            .name("Failure")
+            .description("Failed to transcode, the flowfile is unchanged")
+            .build();
+
+    public TranscodeThrift() {
+        super();
+    }
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        super.init(context);
+        addPropertyDescriptor(PROTOCOL_CACHE_ATTRIBUTE);
+        addPropertyDescriptor(OUTPUT_PROTOCOL);
+        addPropertyDescriptor(STRUCT_NAME);
+        addPropertyDescriptor(SCHEMA_REGISTRY);
+        addPropertyDescriptor(PutThriftIDL.IDL_NAME);
+        addPropertyDescriptor(PutThriftIDL.IDL_VERSION);
+
+        final Set<Relationship> relationships = new HashSet<Relationship>();
+        relationships.add(SUCCESS);
+        relationships.add(FAILURE);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        FlowFile flowFile = session.get();
+        if (flowFile == null) {
+            return;
+        }
+        final String outputProtocol = context.getProperty(OUTPUT_PROTOCOL).getValue();
+        try {
+            final ThriftIDL idl = lookupIDL(context, flowFile, SCHEMA_REGISTRY);
+            final String structName = context.getProperty(STRUCT_NAME).evaluateAttributeExpressions(flowFile).getValue();
+            if (idl.getStruct(structName) == null) {
+                throw new IllegalArgumentException("IDL " + idl.getName() + " has no struct " + structName);
+            }
+            final String protocol = detectProtocol(session, flowFile);
+            if (!protocol.equals(outputProtocol)) {
+                final byte[] buffer = new byte[CopyBufferSize];
+                flowFile = session.write(flowFile, (in, out) -> {
+                        final PushbackInputStream pushback = new PushbackInputStream(in, 1);
+                        try {
+                            final ThriftStreamWriter writer = new ThriftStreamWriter(outputProtocol, out);
+                            final ThriftTranscoder transcoder =
+                                new ThriftTranscoder(new ThriftStreamReader(protocol, pushback), writer, idl, buffer);
+                            while (ThriftStreamReader.hasMore(pushback)) {
+                                transcoder.transcodeStruct(structName);
+                            }
+                            writer.flush();
+                        } catch (TException ex) {
+                            throw new IOException(ex);
+                        }
+                });
+            }
+        } catch (Exception ex) {
+            getLogger().error("Failed to transcode thrift, " + ex.getMessage());
+            forgetProtocol(flowFile);
+            flowFile = session.putAttribute(flowFile, "error", String.valueOf(ex.getMessage()));
+            session.transfer(flowFile, FAILURE);
+            return;
+        }
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put(ProtocolAttr, outputProtocol);
+        attributes.put(CoreAttributes.MIME_TYPE.key(), ThriftRecords.getMimeType(outputProtocol));
+        flowFile = session.putAllAttributes(flowFile, attributes);
+        session.getProvenanceReporter().modifyContent(flowFile, "Transcoded thrift to " + outputProtocol);
+        session.transfer(flowFile, SUCCESS);
+    }
+}
@@ -52,6 +52,31 @@ struct FlowFileReply{
    3: ThriftFlowFile flowFile,
 }
 
+/*
+A request or reply too large for one message is sent as FlowFileChunks,
+sequence 0 to total - 1, each holding the next run of the content. The first
+chunk carries the attributes, and in a reply the responseCode. A chunk may be
+sent again, eg on resuming a transfer, the duplicate is dropped.
+ReassembleThriftChunks joins the chunks of a request, ToThriftProcessor splits
+a reply with a ChunkSize
+*/
+struct FlowFileChunk{
+   1: i64 id,
+   2: i32 sequence,
+   3: i32 total,
+   4: binary chunk,
+   5: map<string,string> attributes,
+   6: ResponseCode responseCode,
+}
+
 struct RecordSet{
    1: list<ThriftFlowFile> flowFiles,
 }
+
+/*
+ListenThrift serves this service, over framed transport, and holds each
+call until the reply flowfile comes back to it
+*/
+service FlowFileService {
+   FlowFileReply send(1: FlowFileRequest request),
+}
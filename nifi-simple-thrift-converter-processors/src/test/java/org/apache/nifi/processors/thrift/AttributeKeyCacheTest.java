@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.util.UUID;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AttributeKeyCacheTest {
+
+    /**
+     * Tests AttributeKeyCache caches a key once it recurs,
+     * keeps recurring keys through a flood of keys seen once,
+     * and evicts keys no longer used, never holding more than its bound
+     */
+    @Test
+    public void testPolicy() {
+        final AttributeKeyCache cache = new AttributeKeyCache(64, (key) -> "p." + key);
+        final String first = cache.get("recurring");
+        assertEquals("p.recurring", first);
+        assertEquals(0, cache.size());
+        assertSame(first, cache.get(new String("recurring")));
+        assertEquals(1, cache.size());
+
+        for (int i = 0; i < 10000; i++) {
+            cache.get(UUID.randomUUID().toString());
+        }
+        assertEquals(1, cache.size());
+        assertSame(first, cache.get("recurring"));
+
+        for (int i = 0; i < 10000; i++) {
+            final String key = "key" + i;
+            assertSame(cache.get(key), cache.get(key));
+            assertTrue(cache.size() <= 64);
+        }
+        assertNotSame(first, cache.get("recurring"));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+import com.jayway.jsonpath.JsonPath;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class DecodeThriftTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestRunner testRunner;
+    private ThriftSchemaRegistry registry;
+
+    @Before
+    public void init() throws Exception {
+        ThriftSchemaRegistryTest.writeIDL(folder.getRoot());
+        Files.write(new File(folder.getRoot(), "partial.thrift").toPath(),
+                    ("struct FlowFileReply { 2: i64 id, 3: string flowFile }\n"
+                     + "struct Tree { 1: i32 value, 2: list<Tree> children, 3: map<i32, Tree> byId }\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        testRunner = TestRunners.newTestRunner(DecodeThrift.class);
+        registry = new ThriftSchemaRegistry();
+        testRunner.addControllerService("registry", registry);
+        testRunner.setProperty(registry, ThriftSchemaRegistry.IDL_DIRECTORY, folder.getRoot().getAbsolutePath());
+        testRunner.enableControllerService(registry);
+        testRunner.setProperty(DecodeThrift.SCHEMA_REGISTRY, "registry");
+        testRunner.setProperty(PutThriftIDL.IDL_VERSION, "1.2");
+        testRunner.setProperty(DecodeThrift.STRUCT_NAME, "${struct}");
+    }
+
+    private static FlowFileReply newReply(long id) {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("tenant", "acme");
+        attributes.put("quote", "say \"hi\"\n");
+        final ThriftFlowFile flowFile = new ThriftFlowFile(attributes, ByteBuffer.wrap(new byte[] {0, 1, (byte) 0xff}));
+        return new FlowFileReply(ResponseCode.RETRY, id, flowFile);
+    }
+
+    /**
+     * Tests the DecodeThrift processor
+     * using all the supported Thrift protocols, and AUTO
+     * Two FlowFileReply structs, one after another, are decoded with the IDL, no generated classes
+     * We check a line of JSON for each, with the enum by name and the binary content as base64
+     */
+    @Test
+    public void testDecodeJson() throws Exception {
+        for (String protocol : new String[] { AbstractThriftProcessor.ProtocolJSON,
+                                              AbstractThriftProcessor.ProtocolBinary,
+                                              AbstractThriftProcessor.ProtocolCompact }) {
+            final TSerializer serializer = new TSerializer(AbstractThriftProcessor.getFactory(protocol));
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            content.write(serializer.serialize(newReply(1)));
+            content.write(serializer.serialize(newReply(2)));
+            for (String configured : new String[] { protocol, AbstractThriftProcessor.ProtocolAuto }) {
+                testRunner.clearTransferState();
+                testRunner.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, configured);
+                testRunner.enqueue(content.toByteArray(), Collections.singletonMap("struct", "FlowFileReply"));
+                testRunner.run();
+                testRunner.assertAllFlowFilesTransferred(DecodeThrift.SUCCESS, 1);
+                final MockFlowFile result = testRunner.getFlowFilesForRelationship(DecodeThrift.SUCCESS).get(0);
+                result.assertAttributeEquals(DecodeThrift.RecordCountAttr, "2");
+                result.assertAttributeEquals(DecodeThrift.StructAttr, "FlowFileReply");
+                result.assertAttributeEquals(PutThriftIDL.VERSION_ATTR, "1.2");
+                final String[] lines = new String(result.toByteArray(), StandardCharsets.UTF_8).split("\n");
+                assertEquals(configured, 2, lines.length);
+                for (int i = 0; i < lines.length; i++) {
+                    assertEquals(Integer.valueOf(i + 1), JsonPath.read(lines[i], "$.id"));
+                    assertEquals("RETRY", JsonPath.read(lines[i], "$.responseCode"));
+                    assertEquals("acme", JsonPath.read(lines[i], "$.flowFile.attributes.tenant"));
+                    assertEquals("say \"hi\"\n", JsonPath.read(lines[i], "$.flowFile.attributes.quote"));
+                    assertEquals(Base64.getEncoder().encodeToString(new byte[] {0, 1, (byte) 0xff}),
+                                 JsonPath.read(lines[i], "$.flowFile.content"));
+                }
+            }
+        }
+    }
+
+    /**
+     * The decoder reads a Record of the schema derived from the IDL
+     * A field the IDL does not know, or knows as another type, is skipped
+     */
+    @Test
+    public void testDecodeRecord() throws Exception {
+        final ThriftIDL idl = registry.getIDL("flowfile_nifi", "1.2");
+        final ThriftGenericDecoder decoder = idl.getDecoder("FlowFileReply");
+        assertSame(decoder, idl.getDecoder("FlowFileReply"));
+        assertEquals(RecordFieldType.RECORD, decoder.getSchema().getDataType("flowFile").get().getFieldType());
+        for (String protocol : new String[] { AbstractThriftProcessor.ProtocolJSON,
+                                              AbstractThriftProcessor.ProtocolBinary,
+                                              AbstractThriftProcessor.ProtocolCompact }) {
+            final byte[] serialized = new TSerializer(AbstractThriftProcessor.getFactory(protocol)).serialize(newReply(7));
+
+            final Record record = decoder.readRecord(newProtocol(protocol, serialized));
+            assertEquals(7L, record.getValue("id"));
+            assertEquals("RETRY", record.getValue("responseCode"));
+            final Record flowFile = (Record) record.getValue("flowFile");
+            assertEquals("acme", ((Map<?, ?>) flowFile.getValue("attributes")).get("tenant"));
+            assertArrayEquals(new Object[] {(byte) 0, (byte) 1, (byte) 0xff}, (Object[]) flowFile.getValue("content"));
+
+            final Record partial = registry.getIDL("partial", null).getDecoder("FlowFileReply")
+                .readRecord(newProtocol(protocol, serialized));
+            assertEquals(7L, partial.getValue("id"));
+            assertNull(partial.getValue("flowFile"));
+            assertNull(partial.getValue("responseCode"));
+        }
+        // a struct may contain itself
+        final List<String> treeFields = registry.getIDL("partial", null).getDecoder("Tree").getSchema().getFieldNames();
+        assertEquals(3, treeFields.size());
+    }
+
+    /**
+     * An unknown struct, or content which is not the struct, go to Failure
+     */
+    @Test
+    public void testFailure() {
+        testRunner.enqueue(new byte[] {1, 2, 3}, Collections.singletonMap("struct", "NoSuchStruct"));
+        testRunner.enqueue(new byte[] {12, 0, 2, 0}, Collections.singletonMap("struct", "FlowFileReply"));
+        testRunner.run(2);
+        testRunner.assertAllFlowFilesTransferred(DecodeThrift.FAILURE, 2);
+        testRunner.getFlowFilesForRelationship(DecodeThrift.FAILURE).get(0).assertAttributeExists("error");
+    }
+
+    private static TProtocol newProtocol(String protocol, byte[] serialized) throws Exception {
+        return AbstractThriftProcessor.getFactory(protocol).getProtocol(new TMemoryInputTransport(serialized));
+    }
+}
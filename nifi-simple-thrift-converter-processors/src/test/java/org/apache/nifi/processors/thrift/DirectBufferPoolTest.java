@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DirectBufferPoolTest {
+
+    /**
+     * Tests the pool: a buffer is rounded up to its size class and reused once given back,
+     * and no more than maxPooledBytes are kept idle
+     */
+    @Test
+    public void testPool() throws Exception {
+        final DirectBufferPool pool = new DirectBufferPool(16 << 10);
+        final ByteBuffer small = pool.acquire(10);
+        assertTrue(small.isDirect());
+        assertEquals(0, small.position());
+        assertEquals(10, small.limit());
+        assertEquals(4096, small.capacity());
+        final ByteBuffer large = pool.acquire(5000);
+        assertEquals(8192, large.capacity());
+
+        pool.release(small);
+        assertEquals(4096, pool.getPooledBytes());
+        assertSame(small, pool.acquire(4096));
+        assertEquals(0, pool.getPooledBytes());
+        pool.release(small);
+        pool.release(large);
+        pool.release(pool.acquire(8192));
+        assertEquals(12 << 10, pool.getPooledBytes());
+        // beyond maxPooledBytes
+        pool.release(ByteBuffer.allocateDirect(8192));
+        assertEquals(12 << 10, pool.getPooledBytes());
+        // not from the pool
+        pool.release(ByteBuffer.allocate(4096));
+        pool.release(ByteBuffer.allocateDirect(5000));
+        assertEquals(12 << 10, pool.getPooledBytes());
+    }
+
+    /**
+     * Tests read and write through the heap copy buffer
+     */
+    @Test
+    public void testReadWrite() throws Exception {
+        final byte[] content = FromThriftProcessorTest.content(10000);
+        final ByteBuffer buffer = DirectBufferPool.SHARED.acquire(content.length);
+        DirectBufferPool.read(new ByteArrayInputStream(content), buffer, new byte[100]);
+        buffer.flip();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DirectBufferPool.write(buffer, out, new byte[100]);
+        assertArrayEquals(content, out.toByteArray());
+        assertEquals(0, buffer.position());
+
+        buffer.clear().limit(content.length + 1);
+        try {
+            DirectBufferPool.read(new ByteArrayInputStream(content), buffer, new byte[100]);
+            fail("read past the end of the stream");
+        } catch (EOFException ex) {
+            // expected
+        }
+        DirectBufferPool.SHARED.release(buffer);
+    }
+}
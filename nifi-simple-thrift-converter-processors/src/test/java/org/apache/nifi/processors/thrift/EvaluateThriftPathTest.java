@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TIOStreamTransport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EvaluateThriftPathTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestRunner testRunner;
+
+    @Before
+    public void init() {
+        testRunner = TestRunners.newTestRunner(EvaluateThriftPath.class);
+    }
+
+    private static FlowFileRequest newRequest(int contentSize) {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("tenant", "acme");
+        attributes.put("tenants", "not acme");
+        attributes.put("region", "eu");
+        final byte[] content = new byte[contentSize];
+        Arrays.fill(content, (byte) 'x');
+        return new FlowFileRequest(42L, new ThriftFlowFile(attributes, ByteBuffer.wrap(content)));
+    }
+
+    /**
+     * Tests the EvaluateThriftPath processor
+     * using all the supported Thrift protocols, and AUTO, with the built in IDL
+     * We check the id and an attribute of a FlowFileRequest with a large content are written as attributes,
+     * and that a missing map key routes to unmatched with the values found still written
+     */
+    @Test
+    public void testEvaluate() throws Exception {
+        for (String protocol : new String[] { AbstractThriftProcessor.ProtocolJSON,
+                                              AbstractThriftProcessor.ProtocolBinary,
+                                              AbstractThriftProcessor.ProtocolCompact }) {
+            final byte[] request = new TSerializer(AbstractThriftProcessor.getFactory(protocol)).serialize(newRequest(1 << 20));
+            for (String configured : new String[] { protocol, AbstractThriftProcessor.ProtocolAuto }) {
+                testRunner.clearTransferState();
+                testRunner.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, configured);
+                testRunner.setProperty("request.id", "id");
+                testRunner.setProperty("tenant", "flowFile.attributes['tenant']");
+                testRunner.removeProperty("missing");
+                testRunner.enqueue(request);
+                testRunner.run();
+                testRunner.assertAllFlowFilesTransferred(EvaluateThriftPath.MATCHED, 1);
+                MockFlowFile result = testRunner.getFlowFilesForRelationship(EvaluateThriftPath.MATCHED).get(0);
+                result.assertAttributeEquals("request.id", "42");
+                result.assertAttributeEquals("tenant", "acme");
+                assertEquals(request.length, result.getSize());
+
+                testRunner.clearTransferState();
+                testRunner.setProperty("missing", "flowFile.attributes[\"owner\"]");
+                testRunner.enqueue(request);
+                testRunner.run();
+                testRunner.assertAllFlowFilesTransferred(EvaluateThriftPath.UNMATCHED, 1);
+                result = testRunner.getFlowFilesForRelationship(EvaluateThriftPath.UNMATCHED).get(0);
+                result.assertAttributeEquals("tenant", "acme");
+                result.assertAttributeNotExists("missing");
+            }
+        }
+    }
+
+    /**
+     * The walk stops once every path has its value, so a struct cut short after its id still matches 'id'
+     * The content, and a struct, are read as UTF-8 and JSON
+     */
+    @Test
+    public void testEvaluateStopsEarly() throws Exception {
+        final byte[] request = new TSerializer(AbstractThriftProcessor.getFactory(AbstractThriftProcessor.ProtocolBinary))
+            .serialize(newRequest(16));
+        testRunner.setProperty("request.id", "id");
+        testRunner.enqueue(Arrays.copyOf(request, 1 + 2 + 8));
+        testRunner.run();
+        testRunner.assertAllFlowFilesTransferred(EvaluateThriftPath.MATCHED, 1);
+        testRunner.getFlowFilesForRelationship(EvaluateThriftPath.MATCHED).get(0).assertAttributeEquals("request.id", "42");
+
+        testRunner.clearTransferState();
+        testRunner.setProperty("content", "flowFile.content");
+        testRunner.enqueue(request);
+        testRunner.run();
+        testRunner.assertAllFlowFilesTransferred(EvaluateThriftPath.MATCHED, 1);
+        testRunner.getFlowFilesForRelationship(EvaluateThriftPath.MATCHED).get(0)
+            .assertAttributeEquals("content", "xxxxxxxxxxxxxxxx");
+    }
+
+    /**
+     * List elements by index, through a ThriftSchemaRegistry IDL, and a struct ending a path, as JSON
+     */
+    @Test
+    public void testSchemaRegistry() throws Exception {
+        Files.write(new File(folder.getRoot(), "tree-1.thrift").toPath(),
+                    "struct Tree { 1: i32 value, 2: list<Tree> children }\n".getBytes(StandardCharsets.UTF_8));
+        final ThriftSchemaRegistry registry = new ThriftSchemaRegistry();
+        testRunner.addControllerService("registry", registry);
+        testRunner.setProperty(registry, ThriftSchemaRegistry.IDL_DIRECTORY, folder.getRoot().getAbsolutePath());
+        testRunner.enableControllerService(registry);
+        testRunner.setProperty(EvaluateThriftPath.SCHEMA_REGISTRY, "registry");
+        testRunner.setProperty(PutThriftIDL.IDL_NAME, "tree");
+        testRunner.setProperty(EvaluateThriftPath.STRUCT_NAME, "Tree");
+        testRunner.setProperty("second", "children[1].value");
+        testRunner.setProperty("first", "children[0]");
+
+        final ByteArrayOutputStream tree = new ByteArrayOutputStream();
+        final TProtocol protocol = AbstractThriftProcessor.getFactory(AbstractThriftProcessor.ProtocolBinary)
+            .getProtocol(new TIOStreamTransport(tree));
+        protocol.writeStructBegin(new TStruct("Tree"));
+        protocol.writeFieldBegin(new TField("value", TType.I32, (short) 1));
+        protocol.writeI32(1);
+        protocol.writeFieldBegin(new TField("children", TType.LIST, (short) 2));
+        protocol.writeListBegin(new TList(TType.STRUCT, 2));
+        for (int value : new int[] {2, 3}) {
+            protocol.writeStructBegin(new TStruct("Tree"));
+            protocol.writeFieldBegin(new TField("value", TType.I32, (short) 1));
+            protocol.writeI32(value);
+            protocol.writeFieldStop();
+        }
+        protocol.writeFieldStop();
+        testRunner.enqueue(tree.toByteArray());
+        testRunner.run();
+        testRunner.assertAllFlowFilesTransferred(EvaluateThriftPath.MATCHED, 1);
+        final MockFlowFile result = testRunner.getFlowFilesForRelationship(EvaluateThriftPath.MATCHED).get(0);
+        result.assertAttributeEquals("second", "3");
+        result.assertAttributeEquals("first", "{\"value\":2}");
+    }
+
+    /**
+     * A path that does not parse is invalid, one that does not fit the IDL routes to failure
+     */
+    @Test
+    public void testInvalidPath() {
+        testRunner.setProperty("bad", "flowFile.attributes['tenant'");
+        testRunner.assertNotValid();
+        testRunner.setProperty("bad", "flowFile.nosuchfield");
+        testRunner.assertValid();
+        testRunner.enqueue(new byte[] {0});
+        testRunner.run();
+        testRunner.assertAllFlowFilesTransferred(EvaluateThriftPath.FAILURE, 1);
+    }
+
+    /**
+     * Tests EvaluateThriftPath without a path is invalid,
+     * and a ThriftPath compiled without one reads the struct to an empty result
+     */
+    @Test
+    public void testNoPaths() throws Exception {
+        testRunner.assertNotValid();
+        testRunner.setProperty("request.id", "id");
+        testRunner.assertValid();
+
+        final byte[] request = new TSerializer(AbstractThriftProcessor.getFactory(AbstractThriftProcessor.ProtocolBinary))
+            .serialize(newRequest(16));
+        final ThriftPath path = ThriftPath.compile(ThriftIDLParser.getBuiltInIDL(), "FlowFileRequest",
+                                                   Collections.<String, String>emptyMap());
+        final ThriftStreamReader reader = new ThriftStreamReader(AbstractThriftProcessor.ProtocolBinary,
+                                                                 new ByteArrayInputStream(request));
+        assertTrue(path.evaluate(reader).isEmpty());
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryBuffer;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class FlowFileStructCodecTest {
+
+    private static final String[] PROTOCOLS = {AbstractThriftProcessor.ProtocolBinary, AbstractThriftProcessor.ProtocolCompact};
+
+    private static List<FlowFileRequest> requests() {
+        final List<FlowFileRequest> requests = new ArrayList<>();
+        requests.add(new FlowFileRequest());
+        requests.add(new FlowFileRequest(-1L, new ThriftFlowFile()));
+        final ThriftFlowFile empty = new ThriftFlowFile();
+        empty.setAttributes(new LinkedHashMap<>());
+        empty.setContent(new byte[0]);
+        requests.add(new FlowFileRequest(Long.MIN_VALUE, empty));
+        final ThriftFlowFile full = new ThriftFlowFile();
+        final Map<String, String> attributes = new LinkedHashMap<>();
+        attributes.put("filename", "a.txt");
+        attributes.put("unicode", "é中😀");
+        attributes.put("unpaired", "a\ud800b\udc00");
+        attributes.put("", "");
+        for (int i = 0; i < 200; i++) {
+            attributes.put("key" + i, "value" + i);
+        }
+        full.setAttributes(attributes);
+        final byte[] content = new byte[70000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        // a slice, not the whole of its array
+        full.setContent(ByteBuffer.wrap(content, 3, content.length - 5));
+        requests.add(new FlowFileRequest(System.currentTimeMillis(), full));
+        return requests;
+    }
+
+    /**
+     * Tests FlowFileStructCodec
+     * FlowFileRequests, without fields, empty and large, are serialised by libthrift and the codec
+     * We check the bytes are the same, and that the codec reads them as libthrift does
+     */
+    @Test
+    public void testRequests() throws TException {
+        for (String protocol : PROTOCOLS) {
+            final FlowFileCodec codec = ThriftCodecs.getCodec(protocol, true);
+            final TSerializer serializer = new TSerializer(AbstractThriftProcessor.getFactory(protocol));
+            for (FlowFileRequest request : requests()) {
+                final byte[] expected = serializer.serialize(request);
+                assertArrayEquals(protocol + " " + request, expected, codec.serialize(request));
+                final FlowFileRequest read = new FlowFileRequest(99L, new ThriftFlowFile());
+                final byte[] padded = new byte[expected.length + 2];
+                System.arraycopy(expected, 0, padded, 1, expected.length);
+                codec.deserialize(read, padded, 1, expected.length);
+                final FlowFileRequest libthrift = new FlowFileRequest();
+                new TDeserializer(AbstractThriftProcessor.getFactory(protocol)).deserialize(libthrift, expected);
+                assertEquals(protocol, libthrift, read);
+            }
+        }
+    }
+
+    /**
+     * Tests FlowFileStructCodec
+     * FlowFileReplys, with and without a ResponseCode, are serialised by libthrift and the codec
+     * We check the bytes are the same, and that the codec reads them as libthrift does
+     */
+    @Test
+    public void testReplies() throws TException {
+        for (String protocol : PROTOCOLS) {
+            final FlowFileCodec codec = ThriftCodecs.getCodec(protocol, true);
+            final TSerializer serializer = new TSerializer(AbstractThriftProcessor.getFactory(protocol));
+            for (FlowFileRequest request : requests()) {
+                for (ResponseCode code : Arrays.asList(null, ResponseCode.SUCCESS, ResponseCode.RETRY)) {
+                    final FlowFileReply reply = new FlowFileReply();
+                    reply.setResponseCode(code);
+                    reply.setId(request.id);
+                    reply.setFlowFile(request.flowFile);
+                    final byte[] expected = serializer.serialize(reply);
+                    assertArrayEquals(protocol + " " + reply, expected, codec.serialize(reply));
+                    final FlowFileReply read = new FlowFileReply();
+                    codec.deserialize(read, expected, 0, expected.length);
+                    final FlowFileReply libthrift = new FlowFileReply();
+                    new TDeserializer(AbstractThriftProcessor.getFactory(protocol)).deserialize(libthrift, expected);
+                    assertEquals(protocol, libthrift, read);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests FlowFileStructCodec reading what a later IDL might write,
+     * fields unknown to flowfile_nifi.thrift of every type, before and after those known
+     * We check the known fields are read and the unknown skipped
+     */
+    @Test
+    public void testUnknownFields() throws TException {
+        for (String protocol : PROTOCOLS) {
+            final TMemoryBuffer buffer = new TMemoryBuffer(256);
+            final TProtocol out = AbstractThriftProcessor.getFactory(protocol).getProtocol(buffer);
+            out.writeStructBegin(new TStruct("FlowFileRequest"));
+            out.writeFieldBegin(new TField("b", TType.BOOL, (short) 40));
+            out.writeBool(true);
+            out.writeFieldEnd();
+            out.writeFieldBegin(new TField("id", TType.I64, (short) 1));
+            out.writeI64(42L);
+            out.writeFieldEnd();
+            out.writeFieldBegin(new TField("l", TType.LIST, (short) 2));
+            out.writeListBegin(new TList(TType.DOUBLE, 20));
+            for (int i = 0; i < 20; i++) {
+                out.writeDouble(i);
+            }
+            out.writeListEnd();
+            out.writeFieldEnd();
+            out.writeFieldBegin(new TField("flowFile", TType.STRUCT, (short) 3));
+            out.writeStructBegin(new TStruct("ThriftFlowFile"));
+            out.writeFieldBegin(new TField("s", TType.STRUCT, (short) 300));
+            out.writeStructBegin(new TStruct("S"));
+            out.writeFieldBegin(new TField("f", TType.BOOL, (short) 1));
+            out.writeBool(false);
+            out.writeFieldEnd();
+            out.writeFieldBegin(new TField("i", TType.I16, (short) 2));
+            out.writeI16((short) -3);
+            out.writeFieldEnd();
+            out.writeFieldStop();
+            out.writeStructEnd();
+            out.writeFieldEnd();
+            out.writeFieldBegin(new TField("content", TType.STRING, (short) 15));
+            out.writeBinary(ByteBuffer.wrap("content".getBytes(StandardCharsets.UTF_8)));
+            out.writeFieldEnd();
+            out.writeFieldStop();
+            out.writeStructEnd();
+            out.writeFieldEnd();
+            out.writeFieldBegin(new TField("x", TType.BYTE, (short) 4));
+            out.writeByte((byte) 7);
+            out.writeFieldEnd();
+            out.writeFieldStop();
+            out.writeStructEnd();
+            final byte[] bytes = Arrays.copyOf(buffer.getArray(), buffer.length());
+
+            final FlowFileRequest read = new FlowFileRequest();
+            ThriftCodecs.getCodec(protocol, true).deserialize(read, bytes, 0, bytes.length);
+            assertEquals(protocol, 42L, read.getId());
+            assertNull(protocol, read.getFlowFile().getAttributes());
+            assertEquals(protocol, "content", new String(read.getFlowFile().getContent(), StandardCharsets.UTF_8));
+
+            try {
+                ThriftCodecs.getCodec(protocol, true).deserialize(read, bytes, 0, bytes.length - 12);
+                fail(protocol + " truncated");
+            } catch (TProtocolException ex) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Tests FlowFileStructCodec with hostile headers
+     * FlowFileRequests declaring far more attributes, or list elements, than their bytes hold
+     * We check each is rejected with a TProtocolException before anything is sized by it
+     */
+    @Test
+    public void testHostileHeaders() throws TException {
+        for (String protocol : PROTOCOLS) {
+            for (int size : new int[] {100000000, Integer.MAX_VALUE / 2, Integer.MAX_VALUE}) {
+                for (boolean list : new boolean[] {false, true}) {
+                    final TMemoryBuffer buffer = new TMemoryBuffer(64);
+                    final TProtocol out = AbstractThriftProcessor.getFactory(protocol).getProtocol(buffer);
+                    out.writeStructBegin(new TStruct("FlowFileRequest"));
+                    out.writeFieldBegin(new TField("flowFile", TType.STRUCT, (short) 3));
+                    out.writeStructBegin(new TStruct("ThriftFlowFile"));
+                    if (list) {
+                        out.writeFieldBegin(new TField("l", TType.LIST, (short) 2));
+                        out.writeListBegin(new TList(TType.BOOL, size));
+                    } else {
+                        out.writeFieldBegin(new TField("attributes", TType.MAP, (short) 1));
+                        out.writeMapBegin(new TMap(TType.STRING, TType.STRING, size));
+                    }
+                    out.writeFieldStop();
+                    final byte[] bytes = Arrays.copyOf(buffer.getArray(), buffer.length());
+                    try {
+                        ThriftCodecs.getCodec(protocol, true).deserialize(new FlowFileRequest(), bytes, 0, bytes.length);
+                        fail(protocol + " " + size + " entries declared");
+                    } catch (TProtocolException ex) {
+                        assertEquals(protocol, TProtocolException.SIZE_LIMIT, ex.getType());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests ThriftCodecs.getCodec
+     * We check JSON, and a codec not specialized, are libthrift's
+     */
+    @Test
+    public void testGetCodec() throws TException {
+        assertSame(FlowFileStructCodec.BINARY, ThriftCodecs.getCodec(AbstractThriftProcessor.ProtocolBinary, true));
+        assertSame(FlowFileStructCodec.COMPACT, ThriftCodecs.getCodec(AbstractThriftProcessor.ProtocolCompact, true));
+        // libthrift's is one instance per protocol, not one per call
+        assertSame(ThriftCodecs.getCodec(AbstractThriftProcessor.ProtocolBinary, false),
+                   ThriftCodecs.getCodec(AbstractThriftProcessor.ProtocolBinary, false));
+        assertSame(ThriftCodecs.getCodec(AbstractThriftProcessor.ProtocolJSON, false),
+                   ThriftCodecs.getCodec(AbstractThriftProcessor.ProtocolJSON, true));
+        for (boolean specialized : new boolean[] {false, true}) {
+            final FlowFileRequest request = requests().get(3);
+            final FlowFileCodec codec = ThriftCodecs.getCodec(AbstractThriftProcessor.ProtocolJSON, specialized);
+            final byte[] bytes = codec.serialize(request);
+            assertArrayEquals(ThriftCodecs.getSerializer(AbstractThriftProcessor.ProtocolJSON).serialize(request), bytes);
+            final FlowFileRequest read = new FlowFileRequest();
+            codec.deserialize(read, bytes, 0, bytes.length);
+            final FlowFileRequest libthrift = new FlowFileRequest();
+            ThriftCodecs.getDeserializer(AbstractThriftProcessor.ProtocolJSON).deserialize(libthrift, bytes);
+            assertEquals(libthrift, read);
+        }
+        assertSame(ThriftCodecs.getCodec(AbstractThriftProcessor.ProtocolCompact, false).getClass(),
+                   ThriftCodecs.getCodec(AbstractThriftProcessor.ProtocolJSON, true).getClass());
+    }
+}
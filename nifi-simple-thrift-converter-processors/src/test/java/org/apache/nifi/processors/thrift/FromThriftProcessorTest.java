@@ -20,9 +20,18 @@
  */
 package org.apache.nifi.processors.thrift;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.InputStream;
 import java.io.IOException;
-//import java.io.OutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -34,16 +43,27 @@ import org.apache.nifi.util.TestRunners;
 import org.apache.nifi.util.MockFlowFile;
 
 //import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TException;
 import org.apache.thrift.TSerializer;
 //import org.apache.thrift.protocol.TBinaryProtocol;
 //import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
 //import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
 import org.apache.thrift.transport.TTransportException;
 
+import com.github.luben.zstd.ZstdDictTrainer;
+
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
@@ -53,6 +73,9 @@ public class FromThriftProcessorTest {
 
     private TestRunner testRunnerFrom;
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Before
     public void init() {
         testRunnerFrom = TestRunners.newTestRunner(FromThriftProcessor.class);
@@ -170,4 +193,557 @@ public class FromThriftProcessorTest {
         assertTrue(error, error.contains("Unexpected character:"));
     }
 
+    /**
+     * Tests the FromThriftProcessor with ContentExtraction 'Clone'
+     * using all the supported Thrift protocols, JSON falls back to copying
+     * We check the FlowFile result from the SUCCESS relationship:
+     *  - the content matches the Thrift object's content member
+     *  - the attributes and 'thrift.id' match the Thrift object
+     */
+    @Test
+    public void testCloneContent() {
+        List<String> factories = Stream
+                .of(AbstractThriftProcessor.ProtocolJSON,
+                    AbstractThriftProcessor.ProtocolBinary,
+                    AbstractThriftProcessor.ProtocolCompact)
+                .collect(Collectors.toList());
+        testRunnerFrom.setProperty(FromThriftProcessor.CONTENT_EXTRACTION, "Clone");
+        for (String factoryName : factories) {
+            TProtocolFactory factory = FromThriftProcessor.getFactory(factoryName);
+            long thrift_id = new Date().getTime();
+            FlowFileRequest ffr = new FlowFileRequest(thrift_id, new ThriftFlowFile());
+            StringBuilder contentBuilder = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                contentBuilder.append("I am some cloned content ").append(i);
+            }
+            String contentString = contentBuilder.toString();
+            ffr.getFlowFile().putToAttributes("wibble_key", "wibble_value");
+            ffr.getFlowFile().setContent(contentString.getBytes());
+
+            testRunnerFrom.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, factoryName);
+            try {
+                TSerializer serializer = new TSerializer(factory);
+                testRunnerFrom.enqueue(serializer.serialize(ffr));
+            } catch (TException e) {
+                fail(e.getMessage());
+            }
+            testRunnerFrom.run(1);
+            testRunnerFrom.assertQueueEmpty();
+
+            List<MockFlowFile> results = testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.SUCCESS);
+            assertTrue("1 match", results.size() >= 1);
+            MockFlowFile result = results.get(results.size()-1);
+            result.assertContentEquals(contentString);
+            result.assertAttributeEquals(AbstractThriftProcessor.AttrPrefix + "wibble_key", "wibble_value");
+            result.assertAttributeEquals("thrift.id", Long.toString(thrift_id));
+        }
+    }
+
+    /**
+     * Tests the FromThriftProcessor partial conversion scopes
+     * using all the supported Thrift protocols
+     * We check the FlowFile result from the SUCCESS relationship:
+     *  - Attr has the attributes and no content
+     *  - Content has the content and no attributes
+     *  - IdOnly has neither
+     *  - all have the 'thrift.id' attribute
+     */
+    @Test
+    public void testConversionScopes() {
+        List<String> factories = Stream
+                .of(AbstractThriftProcessor.ProtocolJSON,
+                    AbstractThriftProcessor.ProtocolBinary,
+                    AbstractThriftProcessor.ProtocolCompact)
+                .collect(Collectors.toList());
+        String contentString = "I am some content";
+        for (String factoryName : factories) {
+            for (String scope : new String[] {"Attr", "Content", "IdOnly"}) {
+                testRunnerFrom.clearTransferState();
+                long thrift_id = new Date().getTime();
+                FlowFileRequest ffr = new FlowFileRequest(thrift_id, new ThriftFlowFile());
+                ffr.getFlowFile().putToAttributes("wibble_key", "wibble_value");
+                ffr.getFlowFile().setContent(contentString.getBytes());
+
+                testRunnerFrom.setProperty(FromThriftProcessor.CONVERSION_SCOPE, scope);
+                testRunnerFrom.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, factoryName);
+                try {
+                    testRunnerFrom.enqueue(new TSerializer(FromThriftProcessor.getFactory(factoryName)).serialize(ffr));
+                } catch (TException e) {
+                    fail(e.getMessage());
+                }
+                testRunnerFrom.run(1);
+
+                testRunnerFrom.assertAllFlowFilesTransferred(FromThriftProcessor.SUCCESS, 1);
+                MockFlowFile result = testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.SUCCESS).get(0);
+                result.assertAttributeEquals("thrift.id", Long.toString(thrift_id));
+                if (scope.equals("Attr")) {
+                    result.assertAttributeEquals(AbstractThriftProcessor.AttrPrefix + "wibble_key", "wibble_value");
+                } else {
+                    result.assertAttributeNotExists(AbstractThriftProcessor.AttrPrefix + "wibble_key");
+                }
+                if (scope.equals("Content")) {
+                    result.assertContentEquals(contentString);
+                } else {
+                    assertEquals(scope + " " + factoryName, 0, result.getSize());
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests ConversionScope Attr with attribute map headers declaring far more entries than the request holds
+     * using BINARY and COMPACT
+     * We check each such request alone goes to FAILURE, the valid request of the batch to SUCCESS
+     */
+    @Test
+    public void testHostileAttributeCount() throws TException {
+        for (String protocol : new String[] {AbstractThriftProcessor.ProtocolBinary,
+                                             AbstractThriftProcessor.ProtocolCompact}) {
+            testRunnerFrom.clearTransferState();
+            testRunnerFrom.setProperty(FromThriftProcessor.CONVERSION_SCOPE, "Attr");
+            testRunnerFrom.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, protocol);
+            testRunnerFrom.setProperty(AbstractThriftProcessor.BATCH_SIZE, "10");
+            for (int size : new int[] {Integer.MAX_VALUE / 4, Integer.MAX_VALUE / 2, Integer.MAX_VALUE}) {
+                final TMemoryBuffer buffer = new TMemoryBuffer(64);
+                final TProtocol out = AbstractThriftProcessor.getFactory(protocol).getProtocol(buffer);
+                out.writeStructBegin(new TStruct("FlowFileRequest"));
+                out.writeFieldBegin(new TField("flowFile", TType.STRUCT,
+                                               FlowFileRequest._Fields.FLOW_FILE.getThriftFieldId()));
+                out.writeStructBegin(new TStruct("ThriftFlowFile"));
+                out.writeFieldBegin(new TField("attributes", TType.MAP,
+                                               ThriftFlowFile._Fields.ATTRIBUTES.getThriftFieldId()));
+                out.writeMapBegin(new TMap(TType.STRING, TType.STRING, size));
+                out.writeString("key");
+                out.writeString("value");
+                testRunnerFrom.enqueue(Arrays.copyOf(buffer.getArray(), buffer.length()));
+            }
+            FlowFileRequest ffr = new FlowFileRequest(7, new ThriftFlowFile());
+            ffr.getFlowFile().putToAttributes("key", "value");
+            testRunnerFrom.enqueue(new TSerializer(AbstractThriftProcessor.getFactory(protocol)).serialize(ffr));
+            testRunnerFrom.run(1);
+
+            testRunnerFrom.assertTransferCount(FromThriftProcessor.FAILURE, 3);
+            testRunnerFrom.assertTransferCount(FromThriftProcessor.SUCCESS, 1);
+            MockFlowFile result = testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.SUCCESS).get(0);
+            result.assertAttributeEquals("thrift.id", "7");
+            result.assertAttributeEquals(AbstractThriftProcessor.AttrPrefix + "key", "value");
+        }
+    }
+
+    /**
+     * Tests the FromThriftProcessor with a BatchSize
+     * using all the supported Thrift protocols
+     * Requests of decreasing size, and one invalid request, share a batch
+     * We check:
+     *  - each request is converted, in order, with its own content
+     *  - the invalid request alone goes to FAILURE
+     */
+    @Test
+    public void testBatch() {
+        List<String> factories = Stream
+                .of(AbstractThriftProcessor.ProtocolJSON,
+                    AbstractThriftProcessor.ProtocolBinary,
+                    AbstractThriftProcessor.ProtocolCompact)
+                .collect(Collectors.toList());
+        testRunnerFrom.setProperty(AbstractThriftProcessor.BATCH_SIZE, "10");
+        for (String factoryName : factories) {
+            testRunnerFrom.clearTransferState();
+            testRunnerFrom.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, factoryName);
+            try {
+                TSerializer serializer = new TSerializer(FromThriftProcessor.getFactory(factoryName));
+                for (int i = 0; i < 25; i++) {
+                    if (i == 12) {
+                        testRunnerFrom.enqueue("I am probably not valid thrift");
+                        continue;
+                    }
+                    FlowFileRequest ffr = new FlowFileRequest(i, new ThriftFlowFile());
+                    ffr.getFlowFile().putToAttributes("index", Integer.toString(i));
+                    ffr.getFlowFile().setContent(batchContent(i).getBytes());
+                    testRunnerFrom.enqueue(serializer.serialize(ffr));
+                }
+            } catch (TException e) {
+                fail(e.getMessage());
+            }
+            testRunnerFrom.run(3);
+            testRunnerFrom.assertQueueEmpty();
+
+            testRunnerFrom.assertTransferCount(FromThriftProcessor.FAILURE, 1);
+            List<MockFlowFile> results = testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.SUCCESS);
+            assertEquals(factoryName, 24, results.size());
+            int i = 0;
+            for (MockFlowFile result : results) {
+                if (i == 12) {
+                    i++;
+                }
+                result.assertAttributeEquals("thrift.id", Integer.toString(i));
+                result.assertAttributeEquals(AbstractThriftProcessor.AttrPrefix + "index", Integer.toString(i));
+                result.assertContentEquals(batchContent(i));
+                i++;
+            }
+        }
+    }
+
+    private static String batchContent(int index) {
+        StringBuilder contentBuilder = new StringBuilder();
+        for (int i = 25; i > index; i--) {
+            contentBuilder.append("content ").append(index);
+        }
+        return contentBuilder.toString();
+    }
+
+    /**
+     * Tests the FromThriftProcessor with ThriftProtocol AUTO
+     * Requests in all the supported Thrift protocols are interleaved
+     * We check each is converted and 'thrift.protocol' is the protocol it was sent with
+     */
+    @Test
+    public void testAutoProtocol() {
+        String[] protocols = {AbstractThriftProcessor.ProtocolJSON,
+                              AbstractThriftProcessor.ProtocolBinary,
+                              AbstractThriftProcessor.ProtocolCompact};
+        testRunnerFrom.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, AbstractThriftProcessor.ProtocolAuto);
+        for (int i = 0; i < 9; i++) {
+            enqueueRequest(protocols[i % protocols.length], i, null);
+        }
+        testRunnerFrom.run(9);
+
+        testRunnerFrom.assertAllFlowFilesTransferred(FromThriftProcessor.SUCCESS, 9);
+        for (MockFlowFile result : testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.SUCCESS)) {
+            int i = Integer.parseInt(result.getAttribute("thrift.id"));
+            result.assertAttributeEquals(AbstractThriftProcessor.ProtocolAttr, protocols[i % protocols.length]);
+            result.assertContentEquals("content " + i);
+        }
+    }
+
+    /**
+     * Tests the FromThriftProcessor with Codec Specialized
+     * Requests serialised by libthrift in all the supported Thrift protocols are interleaved
+     * We check each is converted as with the libthrift codec
+     */
+    @Test
+    public void testSpecializedCodec() {
+        String[] protocols = {AbstractThriftProcessor.ProtocolJSON,
+                              AbstractThriftProcessor.ProtocolBinary,
+                              AbstractThriftProcessor.ProtocolCompact};
+        testRunnerFrom.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, AbstractThriftProcessor.ProtocolAuto);
+        testRunnerFrom.setProperty(AbstractThriftProcessor.CODEC, AbstractThriftProcessor.CodecSpecialized);
+        for (int i = 0; i < 6; i++) {
+            enqueueRequest(protocols[i % protocols.length], i, null);
+        }
+        testRunnerFrom.run(6);
+
+        testRunnerFrom.assertAllFlowFilesTransferred(FromThriftProcessor.SUCCESS, 6);
+        for (MockFlowFile result : testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.SUCCESS)) {
+            int i = Integer.parseInt(result.getAttribute("thrift.id"));
+            result.assertAttributeEquals(AbstractThriftProcessor.ProtocolAttr, protocols[i % protocols.length]);
+            result.assertContentEquals("content " + i);
+        }
+    }
+
+    /**
+     * Tests the FromThriftProcessor with ThriftProtocol AUTO and a ProtocolCacheAttribute
+     * We check a client's cached protocol is used for its later requests,
+     * and forgotten once a request fails, so the client can change protocol
+     */
+    @Test
+    public void testAutoProtocolCache() {
+        testRunnerFrom.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, AbstractThriftProcessor.ProtocolAuto);
+        testRunnerFrom.setProperty(AbstractThriftProcessor.PROTOCOL_CACHE_ATTRIBUTE, "client");
+        enqueueRequest(AbstractThriftProcessor.ProtocolCompact, 0, "a");
+        enqueueRequest(AbstractThriftProcessor.ProtocolJSON, 1, "a");
+        enqueueRequest(AbstractThriftProcessor.ProtocolJSON, 2, "a");
+        enqueueRequest(AbstractThriftProcessor.ProtocolJSON, 3, "b");
+        testRunnerFrom.run(4);
+
+        testRunnerFrom.assertTransferCount(FromThriftProcessor.FAILURE, 1);
+        testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.FAILURE).get(0).assertAttributeEquals("client", "a");
+        List<MockFlowFile> results = testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.SUCCESS);
+        assertEquals(3, results.size());
+        results.get(0).assertAttributeEquals("thrift.id", "0");
+        results.get(1).assertAttributeEquals("thrift.id", "2");
+        results.get(1).assertAttributeEquals(AbstractThriftProcessor.ProtocolAttr, AbstractThriftProcessor.ProtocolJSON);
+        results.get(2).assertAttributeEquals("thrift.id", "3");
+    }
+
+    /**
+     * Tests the FromThriftProcessor admission control, AdmissionMaxQueueDepth 2
+     * 5 requests are enqueued and converted one at a time
+     * We check:
+     *  - while 2 or more are queued behind they go to Retry, a FlowFileReply RETRY with retry.after.ms
+     *    and the 'thrift.http_status_attr' 503, 'thrift.retry.after' attributes
+     *  - the last two are converted
+     */
+    @Test
+    public void testAdmissionControl() throws TException {
+        testRunnerFrom.setProperty(AbstractThriftProcessor.ADMISSION_MAX_QUEUE_DEPTH, "2");
+        testRunnerFrom.setProperty(AbstractThriftProcessor.RETRY_AFTER, "1500 millis");
+        for (int i = 0; i < 5; i++) {
+            enqueueRequest(AbstractThriftProcessor.ProtocolBinary, i, null);
+        }
+        testRunnerFrom.run(5);
+        // shed while 2 or more requests wait behind
+        testRunnerFrom.assertTransferCount(FromThriftProcessor.RETRY, 3);
+        testRunnerFrom.assertTransferCount(FromThriftProcessor.SUCCESS, 2);
+        testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.SUCCESS).get(0).assertAttributeEquals("thrift.id", "3");
+        MockFlowFile retry = testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.RETRY).get(1);
+        retry.assertAttributeEquals("thrift.id", "1");
+        retry.assertAttributeEquals(AbstractThriftProcessor.HttpStatusAttr, "503");
+        retry.assertAttributeEquals(AbstractThriftProcessor.RetryAfterAttr, "2");
+        FlowFileReply reply = new FlowFileReply();
+        new TDeserializer(AbstractThriftProcessor.getFactory(AbstractThriftProcessor.ProtocolBinary))
+                .deserialize(reply, testRunnerFrom.getContentAsByteArray(retry));
+        assertEquals(ResponseCode.RETRY, reply.getResponseCode());
+        assertEquals(1L, reply.getId());
+        assertEquals("1500", reply.getFlowFile().getAttributes().get(AdmissionControl.RetryAfterReplyAttr));
+    }
+
+    /**
+     * Tests admission control with a batch as large as AdmissionMaxQueueDepth
+     * We check the batch just taken does not count as queued, nothing is shed
+     */
+    @Test
+    public void testAdmissionControlBatch() {
+        testRunnerFrom.setProperty(AbstractThriftProcessor.ADMISSION_MAX_QUEUE_DEPTH, "3");
+        testRunnerFrom.setProperty(AbstractThriftProcessor.BATCH_SIZE, "3");
+        for (int i = 0; i < 3; i++) {
+            enqueueRequest(AbstractThriftProcessor.ProtocolBinary, i, null);
+        }
+        testRunnerFrom.run(1);
+        testRunnerFrom.assertAllFlowFilesTransferred(FromThriftProcessor.SUCCESS, 3);
+
+        testRunnerFrom.clearTransferState();
+        testRunnerFrom.setProperty(AbstractThriftProcessor.ADMISSION_MAX_QUEUE_DEPTH, "1");
+        testRunnerFrom.setProperty(AbstractThriftProcessor.BATCH_SIZE, "1");
+        enqueueRequest(AbstractThriftProcessor.ProtocolBinary, 3, null);
+        testRunnerFrom.run(1);
+        testRunnerFrom.assertAllFlowFilesTransferred(FromThriftProcessor.SUCCESS, 1);
+    }
+
+    /**
+     * While Success is backpressured requests wait, unless there is admission control,
+     * then they go to Retry
+     */
+    @Test
+    public void testBackpressure() {
+        testRunnerFrom.setRelationshipUnavailable(FromThriftProcessor.SUCCESS);
+        enqueueRequest(AbstractThriftProcessor.ProtocolBinary, 7, null);
+        testRunnerFrom.run(1);
+        testRunnerFrom.assertQueueNotEmpty();
+        testRunnerFrom.setProperty(AbstractThriftProcessor.ADMISSION_MAX_LATENCY, "1 min");
+        testRunnerFrom.run(1);
+        testRunnerFrom.assertAllFlowFilesTransferred(FromThriftProcessor.RETRY, 1);
+    }
+
+    /**
+     * Tests the FromThriftProcessor with compressed content, 'content.encoding' lz4, zstd and zstd-dict
+     * for the deserialising, scanning and cloning conversions, and JSON's streaming
+     * We check the content is decompressed, and 'thrift.attr.content.encoding' is not set
+     * and an unsupported encoding goes to FAILURE
+     */
+    @Test
+    public void testCompressedContent() throws Exception {
+        final File dictionary = temporaryFolder.newFile("dictionary");
+        Files.write(dictionary.toPath(), trainDictionary());
+        final ContentCompression compression = new ContentCompression(Files.readAllBytes(dictionary.toPath()));
+        testRunnerFrom.setProperty(AbstractThriftProcessor.ZSTD_DICTIONARY, dictionary.getPath());
+        final String[][] conversions = { {"All", "Copy"}, {"Content", "Copy"}, {"All", "Clone"} };
+        final String contentString = sampleJson(42);
+        for (String protocol : new String[] { AbstractThriftProcessor.ProtocolCompact, AbstractThriftProcessor.ProtocolJSON }) {
+            testRunnerFrom.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, protocol);
+            for (String[] conversion : conversions) {
+                testRunnerFrom.setProperty(FromThriftProcessor.CONVERSION_SCOPE, conversion[0]);
+                testRunnerFrom.setProperty(FromThriftProcessor.CONTENT_EXTRACTION, conversion[1]);
+                for (String encoding : new String[] { ContentCompression.EncodingLz4,
+                                                      ContentCompression.EncodingZstd,
+                                                      ContentCompression.EncodingZstdDict }) {
+                    testRunnerFrom.clearTransferState();
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    try (OutputStream out = compression.compress(encoding, compressed)) {
+                        out.write(contentString.getBytes());
+                    }
+                    ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+                    thriftFlowFile.setAttributes(new HashMap<>());
+                    thriftFlowFile.getAttributes().put(ContentCompression.ContentEncodingAttr, encoding);
+                    thriftFlowFile.getAttributes().put("wibble_key", "wibble_value");
+                    thriftFlowFile.setContent(compressed.toByteArray());
+                    testRunnerFrom.enqueue(new TSerializer(AbstractThriftProcessor.getFactory(protocol))
+                                           .serialize(new FlowFileRequest(3L, thriftFlowFile)));
+                    testRunnerFrom.run(1);
+                    testRunnerFrom.assertAllFlowFilesTransferred(FromThriftProcessor.SUCCESS, 1);
+                    MockFlowFile result = testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.SUCCESS).get(0);
+                    assertEquals(protocol + " " + encoding + " " + conversion[0] + " " + conversion[1],
+                                 contentString, new String(testRunnerFrom.getContentAsByteArray(result)));
+                    result.assertAttributeNotExists(AbstractThriftProcessor.AttrPrefix + ContentCompression.ContentEncodingAttr);
+                }
+            }
+        }
+
+        testRunnerFrom.clearTransferState();
+        ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+        thriftFlowFile.setAttributes(Collections.singletonMap(ContentCompression.ContentEncodingAttr, "br"));
+        thriftFlowFile.setContent(contentString.getBytes());
+        testRunnerFrom.enqueue(new TSerializer(AbstractThriftProcessor.getFactory(AbstractThriftProcessor.ProtocolCompact))
+                               .serialize(new FlowFileRequest(4L, thriftFlowFile)));
+        testRunnerFrom.run(1);
+        testRunnerFrom.assertAllFlowFilesTransferred(FromThriftProcessor.FAILURE, 1);
+        testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.FAILURE).get(0).assertAttributeExists("error");
+    }
+
+    /**
+     * Tests the FromThriftProcessor with the JSON protocol, content base64 decoded a buffer at a time,
+     * with content sizes either side of the copy buffer and of a whole base64 group
+     * We check the content and attributes, that an escaped solidus is decoded, even split across buffers,
+     * and that a request whose base64 is invalid, or holds any other escape, goes to FAILURE
+     */
+    @Test
+    public void testStreamedJsonContent() throws Exception {
+        testRunnerFrom.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, AbstractThriftProcessor.ProtocolJSON);
+        final TSerializer serializer = new TSerializer(AbstractThriftProcessor.getFactory(AbstractThriftProcessor.ProtocolJSON));
+        for (int size : new int[] {0, 1, 2, 3, 4, 8191, 8192, 8193, 8194, 100000}) {
+            testRunnerFrom.clearTransferState();
+            byte[] content = new byte[size];
+            for (int i = 0; i < size; i++) {
+                content[i] = (byte) (i * 31);
+            }
+            FlowFileRequest ffr = new FlowFileRequest(size, new ThriftFlowFile());
+            ffr.getFlowFile().setContent(content);
+            ffr.getFlowFile().putToAttributes("wibble_key", "wibble_value");
+            testRunnerFrom.enqueue(serializer.serialize(ffr));
+            testRunnerFrom.run(1);
+
+            testRunnerFrom.assertAllFlowFilesTransferred(FromThriftProcessor.SUCCESS, 1);
+            MockFlowFile result = testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.SUCCESS).get(0);
+            result.assertContentEquals(content);
+            result.assertAttributeEquals("thrift.id", Integer.toString(size));
+            result.assertAttributeEquals(AbstractThriftProcessor.AttrPrefix + "wibble_key", "wibble_value");
+        }
+
+        // the escaped solidus, alone and split across two reads of the copy buffer
+        final StringBuilder split = new StringBuilder();
+        for (int i = 0; i < AbstractThriftProcessor.CopyBufferSize - 1; i++) {
+            split.append('A');
+        }
+        split.append("\\/AAA");
+        for (String base64 : new String[] {"YW\\/j", split.toString()}) {
+            testRunnerFrom.clearTransferState();
+            testRunnerFrom.enqueue(("{\"1\":{\"i64\":5},\"3\":{\"rec\":{\"15\":{\"str\":\"" + base64 + "\"}}}}").getBytes());
+            testRunnerFrom.run(1);
+            testRunnerFrom.assertAllFlowFilesTransferred(FromThriftProcessor.SUCCESS, 1);
+            testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.SUCCESS).get(0)
+                .assertContentEquals(Base64.getDecoder().decode(base64.replace("\\/", "/")));
+        }
+
+        // invalid base64, and escapes other than the solidus, are not decoded as base64 chars
+        for (String base64 : new String[] {"YW*j", "YW\\u002fj", "YW\\\"j"}) {
+            testRunnerFrom.clearTransferState();
+            testRunnerFrom.enqueue(("{\"1\":{\"i64\":5},\"3\":{\"rec\":{\"15\":{\"str\":\"" + base64 + "\"}}}}").getBytes());
+            testRunnerFrom.run(1);
+            testRunnerFrom.assertAllFlowFilesTransferred(FromThriftProcessor.FAILURE, 1);
+            testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.FAILURE).get(0).assertAttributeExists("error");
+        }
+    }
+
+    /**
+     * Tests readFully, used to read a message into the reused message buffer
+     * We check a stream returning a byte at a time fills it, and one ending early throws EOFException
+     * rather than leaving the previous message's bytes in the buffer
+     */
+    @Test
+    public void testReadFully() throws Exception {
+        final byte[] bytes = "previous message".getBytes();
+        AbstractThriftProcessor.readFully(new ByteArrayInputStream("next".getBytes()) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    return super.read(b, off, Math.min(len, 1));
+                }
+            }, bytes, 4);
+        assertEquals("nextious message", new String(bytes));
+        try {
+            AbstractThriftProcessor.readFully(new ByteArrayInputStream("short".getBytes()), bytes, 8);
+            fail("read past the end of the content");
+        } catch (EOFException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests MessageBuffers Direct, using BINARY and COMPACT, with empty, small and large content
+     * and a request which is not thrift
+     */
+    @Test
+    public void testDirectMessageBuffers() throws Exception {
+        for (String protocol : new String[] {AbstractThriftProcessor.ProtocolBinary,
+                                             AbstractThriftProcessor.ProtocolCompact}) {
+            final TestRunner testRunnerFrom = TestRunners.newTestRunner(FromThriftProcessor.class);
+            testRunnerFrom.setProperty(AbstractThriftProcessor.MESSAGE_BUFFERS, AbstractThriftProcessor.MessageBuffersDirect);
+            testRunnerFrom.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, protocol);
+            testRunnerFrom.setProperty(AbstractThriftProcessor.BATCH_SIZE, "10");
+            for (int size : new int[] {0, 10, 100000}) {
+                FlowFileRequest flowFileRequest = new FlowFileRequest();
+                flowFileRequest.setId(size);
+                ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+                thriftFlowFile.setAttributes(Collections.singletonMap("key", "value"));
+                thriftFlowFile.setContent(ByteBuffer.wrap(content(size)));
+                flowFileRequest.setFlowFile(thriftFlowFile);
+                testRunnerFrom.enqueue(new TSerializer(AbstractThriftProcessor.getFactory(protocol))
+                                       .serialize(flowFileRequest));
+            }
+            testRunnerFrom.enqueue(new byte[] {1, 2, 3});
+            testRunnerFrom.run(1);
+            testRunnerFrom.assertTransferCount(FromThriftProcessor.SUCCESS, 3);
+            testRunnerFrom.assertTransferCount(FromThriftProcessor.FAILURE, 1);
+            for (MockFlowFile result : testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.SUCCESS)) {
+                result.assertContentEquals(content(Integer.parseInt(result.getAttribute("thrift.id"))));
+                result.assertAttributeEquals(AbstractThriftProcessor.AttrPrefix + "key", "value");
+            }
+        }
+    }
+
+    /**
+     * @param i a seed
+     * @return a small JSON document, of the kind a dictionary pays off for
+     */
+    static String sampleJson(int i) {
+        return "{\"id\":" + i + ",\"type\":\"order\",\"customer\":{\"name\":\"customer " + (i % 17)
+               + "\",\"region\":\"region " + (i % 5) + "\"},\"items\":[{\"sku\":\"sku-" + (i % 11)
+               + "\",\"quantity\":" + (i % 3) + "}],\"status\":\"pending\"}";
+    }
+
+    /**
+     * @param size the content size
+     * @return size bytes of repeated lowercase letters
+     */
+    static byte[] content(int size) {
+        final byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) ('a' + i % 26);
+        }
+        return content;
+    }
+
+    /**
+     * @return a Zstandard dictionary trained on sampleJson documents
+     */
+    static byte[] trainDictionary() {
+        ZstdDictTrainer trainer = new ZstdDictTrainer(1024 * 1024, 4096);
+        for (int i = 0; i < 2000; i++) {
+            trainer.addSample(sampleJson(i).getBytes());
+        }
+        return trainer.trainSamples();
+    }
+
+    private void enqueueRequest(String factoryName, long id, String client) {
+        FlowFileRequest ffr = new FlowFileRequest(id, new ThriftFlowFile());
+        ffr.getFlowFile().setContent(("content " + id).getBytes());
+        try {
+            byte[] serialised = new TSerializer(AbstractThriftProcessor.getFactory(factoryName)).serialize(ffr);
+            if (client == null) {
+                testRunnerFrom.enqueue(serialised);
+            } else {
+                testRunnerFrom.enqueue(serialised, Collections.singletonMap("client", client));
+            }
+        } catch (TException e) {
+            fail(e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.apache.nifi.provenance.ProvenanceEventRecord;
+import org.apache.nifi.provenance.ProvenanceEventType;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TTransportException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InvokeThriftTest {
+
+    private TestRunner testRunnerInvoke;
+    private TServer server;
+    private int port;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    /**
+     * Stand-in FlowFileService, echoes the request upper cased, slowly
+     */
+    private final FlowFileService.Iface echo = (request) -> {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        inFlight.decrementAndGet();
+        ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+        thriftFlowFile.putToAttributes("echo", request.getFlowFile().getAttributes().get("key"));
+        thriftFlowFile.setContent(new String(request.getFlowFile().getContent()).toUpperCase().getBytes());
+        return new FlowFileReply(ResponseCode.SUCCESS, request.getId(), thriftFlowFile);
+    };
+
+    @Before
+    public void init() throws IOException {
+        testRunnerInvoke = TestRunners.newTestRunner(InvokeThrift.class);
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        testRunnerInvoke.setProperty(InvokeThrift.HOSTNAME, "localhost");
+        testRunnerInvoke.setProperty(InvokeThrift.PORT, Integer.toString(port));
+    }
+
+    @After
+    public void stop() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private void startServer(String protocol) throws TTransportException {
+        TThreadedSelectorServer.Args args = new TThreadedSelectorServer.Args(new TNonblockingServerSocket(port))
+                .workerThreads(16);
+        args.protocolFactory(AbstractThriftProcessor.getFactory(protocol))
+            .processor(new FlowFileService.Processor<>(echo));
+        server = new TThreadedSelectorServer(args);
+        Thread thread = new Thread(server::serve);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Tests InvokeThrift, with BINARY,
+     * 40 flowfiles, 8 connections, the server takes 20 ms per call
+     * We check:
+     *  - each reply is mapped onto its own flowfile: thrift.id, attributes, content
+     *  - calls overlapped, never beyond ConnectionsPerEndpoint
+     */
+    @Test
+    public void testInvoke() throws Exception {
+        startServer(AbstractThriftProcessor.ProtocolBinary);
+        testRunnerInvoke.setProperty(InvokeThrift.CONNECTIONS_PER_ENDPOINT, "8");
+        int count = 40;
+        for (int i = 0; i < count; i++) {
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("thrift.id", Integer.toString(i));
+            attributes.put("thrift.attr.key", "value" + i);
+            testRunnerInvoke.enqueue("content" + i, attributes);
+        }
+        testRunnerInvoke.run(1);
+        testRunnerInvoke.assertTransferCount(InvokeThrift.SUCCESS, count);
+        testRunnerInvoke.assertTransferCount(InvokeThrift.ORIGINAL, count);
+        List<MockFlowFile> replies = testRunnerInvoke.getFlowFilesForRelationship(InvokeThrift.SUCCESS);
+        for (MockFlowFile reply : replies) {
+            String id = reply.getAttribute("thrift.id");
+            reply.assertContentEquals("CONTENT" + id);
+            reply.assertAttributeEquals("thrift.attr.echo", "value" + id);
+            reply.assertAttributeEquals(AbstractThriftProcessor.ResponseCodeAttr, "SUCCESS");
+        }
+        assertTrue("calls did not overlap", maxInFlight.get() > 1);
+        assertTrue("more calls than connections", maxInFlight.get() <= 8);
+        final Map<ProvenanceEventType, Long> events = testRunnerInvoke.getProvenanceEvents().stream()
+                .collect(Collectors.groupingBy(ProvenanceEventRecord::getEventType, Collectors.counting()));
+        assertEquals(Long.valueOf(count), events.get(ProvenanceEventType.SEND));
+        assertEquals(Long.valueOf(count), events.get(ProvenanceEventType.RECEIVE));
+        assertNull(events.get(ProvenanceEventType.FETCH));
+    }
+
+    /**
+     * Tests InvokeThrift with a MemoryBudget of 20 B, 4 flowfiles of 8 B content
+     * We check the flowfiles the budget cannot grant wait on the queue for a later onTrigger,
+     * and the budget is given back once the calls complete
+     */
+    @Test
+    public void testMemoryBudget() throws Exception {
+        startServer(AbstractThriftProcessor.ProtocolBinary);
+        final ThriftMemoryBudget budget = ThriftMemoryBudgetTest.addBudget(testRunnerInvoke, "20 B");
+        testRunnerInvoke.setProperty(AbstractThriftProcessor.MEMORY_BUDGET, "budget");
+        for (int i = 0; i < 4; i++) {
+            testRunnerInvoke.enqueue("content" + i, Collections.singletonMap("thrift.attr.key", "value" + i));
+        }
+        testRunnerInvoke.run(1);
+        testRunnerInvoke.assertTransferCount(InvokeThrift.SUCCESS, 2);
+        assertEquals(2, testRunnerInvoke.getQueueSize().getObjectCount());
+        assertEquals(20, budget.getAvailable());
+
+        testRunnerInvoke.run(1);
+        testRunnerInvoke.assertQueueEmpty();
+        testRunnerInvoke.assertTransferCount(InvokeThrift.SUCCESS, 4);
+        testRunnerInvoke.assertTransferCount(InvokeThrift.ORIGINAL, 4);
+        assertEquals(20, budget.getAvailable());
+    }
+
+    /**
+     * Nothing listening: the flowfiles go to Failure with an 'error' attribute
+     */
+    @Test
+    public void testConnectionRefused() {
+        testRunnerInvoke.setProperty(InvokeThrift.CALL_TIMEOUT, "2 sec");
+        testRunnerInvoke.enqueue("content");
+        testRunnerInvoke.run(1);
+        testRunnerInvoke.assertAllFlowFilesTransferred(InvokeThrift.FAILURE, 1);
+        List<MockFlowFile> failures = testRunnerInvoke.getFlowFilesForRelationship(InvokeThrift.FAILURE);
+        assertEquals(1, failures.size());
+        failures.get(0).assertAttributeExists("error");
+    }
+}
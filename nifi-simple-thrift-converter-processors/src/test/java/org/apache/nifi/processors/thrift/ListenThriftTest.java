@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.layered.TFramedTransport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+public class ListenThriftTest {
+
+    private TestRunner testRunnerListen;
+    private int port;
+
+    @Before
+    public void init() throws IOException {
+        testRunnerListen = TestRunners.newTestRunner(ListenThrift.class);
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        testRunnerListen.setProperty(ListenThrift.PORT, Integer.toString(port));
+    }
+
+    @After
+    public void stop() {
+        // triggers once more, then the OnStopped methods
+        testRunnerListen.run(1, true, false);
+    }
+
+    /**
+     * ListenThrift serves the one protocol it is scheduled with, AUTO and DynamicProtocol are invalid
+     */
+    @Test
+    public void testProtocolValidation() {
+        testRunnerListen.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, AbstractThriftProcessor.ProtocolAuto);
+        testRunnerListen.assertNotValid();
+        testRunnerListen.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, AbstractThriftProcessor.ProtocolCompact);
+        testRunnerListen.setProperty(AbstractThriftProcessor.DYNAMIC_PROTOCOL, "true");
+        testRunnerListen.assertNotValid();
+        testRunnerListen.setProperty(AbstractThriftProcessor.DYNAMIC_PROTOCOL, "false");
+        testRunnerListen.assertValid();
+    }
+
+    /**
+     * Tests ListenThrift, with every protocol,
+     * a client sends a FlowFileRequest:
+     *  - it becomes a flowfile on Success with its content and attributes
+     * the flowfile, updated, comes back to ListenThrift:
+     *  - it is the client's FlowFileReply and goes to Replied
+     */
+    @Test
+    public void testRequestReply() throws Exception {
+        for (String protocol : new String[] { AbstractThriftProcessor.ProtocolJSON,
+                                              AbstractThriftProcessor.ProtocolBinary,
+                                              AbstractThriftProcessor.ProtocolCompact }) {
+            testRunnerListen.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, protocol);
+            testRunnerListen.run(1, false, true);
+
+            CompletableFuture<FlowFileReply> reply = send(protocol, 41L, "request content");
+            MockFlowFile request = awaitRequest();
+            request.assertContentEquals("request content");
+            request.assertAttributeEquals("thrift.id", "41");
+            request.assertAttributeEquals("thrift.attr.key", "value");
+            request.assertAttributeEquals("thrift.protocol", protocol);
+            assertNotNull(request.getAttribute(ListenThrift.ListenIdAttr));
+
+            Map<String, String> attributes = new HashMap<>(request.getAttributes());
+            attributes.put("thrift.attr.key", "reply value");
+            testRunnerListen.enqueue("reply content", attributes);
+            testRunnerListen.run(1, false, false);
+            testRunnerListen.assertTransferCount(ListenThrift.REPLIED, 1);
+
+            FlowFileReply flowFileReply = reply.get(10, TimeUnit.SECONDS);
+            assertEquals(ResponseCode.SUCCESS, flowFileReply.getResponseCode());
+            assertEquals(41L, flowFileReply.getId());
+            assertEquals("reply content", new String(flowFileReply.getFlowFile().getContent()));
+            assertEquals("reply value", flowFileReply.getFlowFile().getAttributes().get("key"));
+
+            testRunnerListen.run(1, true, false);
+            testRunnerListen.clearTransferState();
+        }
+        testRunnerListen.run(1, false, true);
+    }
+
+    /**
+     * A call whose flowfile does not come back within ReplyTimeout is answered with ERROR,
+     * the late flowfile goes to Failure
+     */
+    @Test
+    public void testReplyTimeout() throws Exception {
+        testRunnerListen.setProperty(ListenThrift.REPLY_TIMEOUT, "100 millis");
+        testRunnerListen.run(1, false, true);
+
+        CompletableFuture<FlowFileReply> reply = send(AbstractThriftProcessor.ProtocolBinary, 42L, "late");
+        MockFlowFile request = awaitRequest();
+        // expiry is checked at most once a second
+        Thread.sleep(1100);
+        testRunnerListen.run(1, false, false);
+        assertEquals(ResponseCode.ERROR, reply.get(10, TimeUnit.SECONDS).getResponseCode());
+
+        testRunnerListen.enqueue("late reply", request.getAttributes());
+        testRunnerListen.run(1, false, false);
+        testRunnerListen.assertTransferCount(ListenThrift.FAILURE, 1);
+    }
+
+    /**
+     * With AdmissionMaxQueueDepth 1, a request arriving while one is queued
+     * is answered at once with RETRY and retry.after.ms
+     */
+    @Test
+    public void testAdmissionControl() throws Exception {
+        testRunnerListen.setProperty(AbstractThriftProcessor.ADMISSION_MAX_QUEUE_DEPTH, "1");
+        testRunnerListen.setProperty(AbstractThriftProcessor.RETRY_AFTER, "250 millis");
+        testRunnerListen.run(1, false, true);
+
+        CompletableFuture<FlowFileReply> queued = send(AbstractThriftProcessor.ProtocolBinary, 1L, "queued");
+        // not triggered, so the first request stays queued
+        Thread.sleep(500);
+        FlowFileReply shed = send(AbstractThriftProcessor.ProtocolBinary, 2L, "shed").get(10, TimeUnit.SECONDS);
+        assertEquals(ResponseCode.RETRY, shed.getResponseCode());
+        assertEquals(2L, shed.getId());
+        assertEquals("250", shed.getFlowFile().getAttributes().get(AdmissionControl.RetryAfterReplyAttr));
+
+        awaitRequest().assertAttributeEquals("thrift.id", "1");
+        assertEquals(false, queued.isDone());
+    }
+
+    private CompletableFuture<FlowFileReply> send(String protocol, long id, String content) {
+        return CompletableFuture.supplyAsync(() -> {
+                try (TTransport transport = new TFramedTransport(new TSocket("localhost", port, 10000))) {
+                    transport.open();
+                    FlowFileService.Client client =
+                            new FlowFileService.Client(AbstractThriftProcessor.getFactory(protocol).getProtocol(transport));
+                    ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+                    thriftFlowFile.putToAttributes("key", "value");
+                    thriftFlowFile.setContent(content.getBytes());
+                    return client.send(new FlowFileRequest(id, thriftFlowFile));
+                } catch (TException ex) {
+                    throw new IllegalStateException(ex);
+                }
+        });
+    }
+
+    private MockFlowFile awaitRequest() throws InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            testRunnerListen.run(1, false, false);
+            List<MockFlowFile> requests = testRunnerListen.getFlowFilesForRelationship(ListenThrift.SUCCESS);
+            if (!requests.isEmpty()) {
+                assertEquals(1, requests.size());
+                return requests.get(0);
+            }
+            Thread.sleep(50);
+        }
+        fail("no request received");
+        return null;
+    }
+}
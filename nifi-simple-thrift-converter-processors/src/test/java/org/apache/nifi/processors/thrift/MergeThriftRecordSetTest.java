@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.apache.nifi.util.MockFlowFile;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MergeThriftRecordSetTest {
+
+    private TestRunner testRunnerMerge;
+
+    @Before
+    public void init() {
+        testRunnerMerge = TestRunners.newTestRunner(MergeThriftRecordSet.class);
+        testRunnerMerge.setProperty(MergeThriftRecordSet.MAX_BIN_AGE, "1 hour");
+    }
+
+    /**
+     * Tests the MergeThriftRecordSet binning by count
+     * using all the supported Thrift protocols
+     * 12 flowfiles with MaxEntries 5 make two full bins, the last 2 wait
+     * until MaxBinAge has passed
+     * We check each RecordSet deserialises to the flowfiles in order,
+     * content and stripped 'thrift.attr.xxx' attributes
+     */
+    @Test
+    public void testMergeByCount() {
+        List<String> factories = Stream
+                .of(AbstractThriftProcessor.ProtocolJSON,
+                    AbstractThriftProcessor.ProtocolBinary,
+                    AbstractThriftProcessor.ProtocolCompact)
+                .collect(Collectors.toList());
+        testRunnerMerge.setProperty(MergeThriftRecordSet.MAX_ENTRIES, "5");
+        for (String factoryName : factories) {
+            testRunnerMerge.clearTransferState();
+            testRunnerMerge.setProperty(MergeThriftRecordSet.MAX_BIN_AGE, "1 hour");
+            testRunnerMerge.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, factoryName);
+            for (int i = 0; i < 12; i++) {
+                Map<String, String> attrs = new HashMap<>();
+                attrs.put(AbstractThriftProcessor.AttrPrefix + "index", Integer.toString(i));
+                attrs.put("not_thrift", "ignored");
+                testRunnerMerge.enqueue(("content " + i).getBytes(), attrs);
+            }
+            testRunnerMerge.run(3);
+            testRunnerMerge.assertTransferCount(MergeThriftRecordSet.MERGED, 2);
+            testRunnerMerge.assertTransferCount(MergeThriftRecordSet.ORIGINAL, 10);
+            assertEquals(2, testRunnerMerge.getQueueSize().getObjectCount());
+
+            testRunnerMerge.setProperty(MergeThriftRecordSet.MAX_BIN_AGE, "0 sec");
+            testRunnerMerge.run(1);
+            testRunnerMerge.assertQueueEmpty();
+            testRunnerMerge.assertTransferCount(MergeThriftRecordSet.MERGED, 3);
+            testRunnerMerge.assertTransferCount(MergeThriftRecordSet.ORIGINAL, 12);
+
+            int index = 0;
+            for (MockFlowFile result : testRunnerMerge.getFlowFilesForRelationship(MergeThriftRecordSet.MERGED)) {
+                result.assertAttributeEquals(AbstractThriftProcessor.ProtocolAttr, factoryName);
+                RecordSet recordSet = deserialize(factoryName, result);
+                assertEquals(result.getAttribute("record.count"), Integer.toString(recordSet.getFlowFiles().size()));
+                // content is streamed, JSON too, as the generated code writes it
+                try {
+                    assertArrayEquals(factoryName, new TSerializer(AbstractThriftProcessor.getFactory(factoryName))
+                                      .serialize(recordSet), testRunnerMerge.getContentAsByteArray(result));
+                } catch (TException e) {
+                    fail(e.getMessage());
+                }
+                for (ThriftFlowFile thriftFlowFile : recordSet.getFlowFiles()) {
+                    assertEquals("content " + index, new String(thriftFlowFile.getContent()));
+                    assertEquals(1, thriftFlowFile.getAttributes().size());
+                    assertEquals(Integer.toString(index), thriftFlowFile.getAttributes().get("index"));
+                    index++;
+                }
+            }
+            assertEquals(12, index);
+        }
+    }
+
+    /**
+     * Tests the MergeThriftRecordSet binning by CorrelationAttribute and by MaxBinSize
+     * Interleaved flowfiles of three thrift.id values, 50 bytes each, with MaxBinSize 100 B
+     * We check every RecordSet holds 2 flowfiles sharing one thrift.id
+     */
+    @Test
+    public void testMergeByCorrelationAndSize() {
+        testRunnerMerge.setProperty(MergeThriftRecordSet.CORRELATION_ATTRIBUTE, "thrift.id");
+        testRunnerMerge.setProperty(MergeThriftRecordSet.MAX_BIN_SIZE, "100 B");
+        for (int i = 0; i < 12; i++) {
+            Map<String, String> attrs = new HashMap<>();
+            attrs.put("thrift.id", Integer.toString(i % 3));
+            attrs.put(AbstractThriftProcessor.AttrPrefix + "id", Integer.toString(i % 3));
+            testRunnerMerge.enqueue(String.format("%-50d", i).getBytes(), attrs);
+        }
+        testRunnerMerge.run(2);
+        testRunnerMerge.assertQueueEmpty();
+
+        List<MockFlowFile> results = testRunnerMerge.getFlowFilesForRelationship(MergeThriftRecordSet.MERGED);
+        assertEquals(6, results.size());
+        for (MockFlowFile result : results) {
+            RecordSet recordSet = deserialize(AbstractThriftProcessor.ProtocolBinary, result);
+            assertEquals(2, recordSet.getFlowFiles().size());
+            for (ThriftFlowFile thriftFlowFile : recordSet.getFlowFiles()) {
+                assertEquals(result.getAttribute("thrift.id"), thriftFlowFile.getAttributes().get("id"));
+            }
+        }
+    }
+
+    /**
+     * Tests MergeThriftRecordSet leaves a queue of young bins alone
+     * 2 flowfiles with MaxEntries 5 are pulled once and put back, the next trigger does not pull them again
+     * until 3 more flowfiles could fill their bin
+     */
+    @Test
+    public void testWaitingBinsNotPulled() {
+        final AtomicInteger reads = new AtomicInteger();
+        testRunnerMerge.setProperty(MergeThriftRecordSet.MAX_ENTRIES, "5");
+        testRunnerMerge.setProperty(MergeThriftRecordSet.CORRELATION_ATTRIBUTE, "thrift.id");
+        for (int i = 0; i < 2; i++) {
+            MockFlowFile flowFile = new MockFlowFile(1000 + i) {
+                @Override
+                public String getAttribute(String attrName) {
+                    reads.incrementAndGet();
+                    return super.getAttribute(attrName);
+                }
+            };
+            flowFile.putAttributes(Collections.singletonMap("thrift.id", "1"));
+            testRunnerMerge.enqueue(flowFile);
+        }
+        testRunnerMerge.run(1);
+        testRunnerMerge.assertTransferCount(MergeThriftRecordSet.MERGED, 0);
+        assertEquals(2, reads.get());
+
+        testRunnerMerge.run(1, true, false);
+        assertEquals(2, reads.get());
+        assertEquals(2, testRunnerMerge.getQueueSize().getObjectCount());
+
+        for (int i = 2; i < 5; i++) {
+            testRunnerMerge.enqueue(("content " + i).getBytes(), Collections.singletonMap("thrift.id", "1"));
+        }
+        testRunnerMerge.run(1, true, false);
+        testRunnerMerge.assertQueueEmpty();
+        testRunnerMerge.assertTransferCount(MergeThriftRecordSet.MERGED, 1);
+        testRunnerMerge.assertTransferCount(MergeThriftRecordSet.ORIGINAL, 5);
+    }
+
+    private RecordSet deserialize(String factoryName, MockFlowFile result) {
+        RecordSet recordSet = new RecordSet();
+        try {
+            TDeserializer deserializer = new TDeserializer(AbstractThriftProcessor.getFactory(factoryName));
+            deserializer.deserialize(recordSet, testRunnerMerge.getContentAsByteArray(result));
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+        return recordSet;
+    }
+}
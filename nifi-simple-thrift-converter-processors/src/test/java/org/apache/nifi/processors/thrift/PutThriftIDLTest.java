@@ -25,12 +25,17 @@ import org.apache.nifi.util.TestRunners;
 import org.apache.nifi.util.MockFlowFile;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 
 public class PutThriftIDLTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private TestRunner testRunner;
 
     @Before
@@ -79,4 +84,36 @@ public class PutThriftIDLTest {
 
     }
 
+    /**
+     * Tests the PutThriftIDL processor with a ThriftSchemaRegistry
+     * The IDL version comes from an attribute, none is the latest
+     * We check the content is the IDL of that version, and that an unknown version fails
+     */
+    @Test
+    public void testSchemaRegistry() throws Exception {
+        ThriftSchemaRegistryTest.writeIDL(folder.getRoot());
+        ThriftSchemaRegistry registry = new ThriftSchemaRegistry();
+        testRunner.addControllerService("registry", registry);
+        testRunner.setProperty(registry, ThriftSchemaRegistry.IDL_DIRECTORY, folder.getRoot().getAbsolutePath());
+        testRunner.enableControllerService(registry);
+        testRunner.setProperty(PutThriftIDL.SCHEMA_REGISTRY, "registry");
+        testRunner.setProperty(PutThriftIDL.IDL_VERSION, "${idl.version}");
+
+        Map<String, String> attrs = new HashMap<>();
+        attrs.put("idl.version", "1.2");
+        testRunner.enqueue(new byte[0], attrs);
+        testRunner.enqueue(new byte[0]);
+        attrs.put("idl.version", "9");
+        testRunner.enqueue(new byte[0], attrs);
+        testRunner.run(3);
+
+        List<MockFlowFile> results = testRunner.getFlowFilesForRelationship(PutThriftIDL.SUCCESS);
+        assertEquals(2, results.size());
+        results.get(0).assertAttributeEquals(PutThriftIDL.THRIFT_ATTR, "flowfile_nifi.thrift");
+        results.get(0).assertAttributeEquals(PutThriftIDL.VERSION_ATTR, "1.2");
+        assertTrue(!new String(results.get(0).toByteArray()).contains("16: optional"));
+        results.get(1).assertAttributeEquals(PutThriftIDL.VERSION_ATTR, "1.10");
+        assertTrue(new String(results.get(1).toByteArray()).contains("16: optional"));
+        testRunner.assertTransferCount(PutThriftIDL.FAILURE, 1);
+    }
 }
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.apache.nifi.util.MockFlowFile;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TSerializer;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ReassembleThriftChunksTest {
+
+    private TestRunner testRunnerReassemble;
+    private TestRunner testRunnerToThrift;
+
+    @Before
+    public void init() {
+        testRunnerReassemble = TestRunners.newTestRunner(ReassembleThriftChunks.class);
+        testRunnerToThrift = TestRunners.newTestRunner(ToThriftProcessor.class);
+    }
+
+    /**
+     * Tests ToThriftProcessor ChunkSize splitting a reply into FlowFileChunks
+     * and ReassembleThriftChunks joining them again,
+     * using all the supported Thrift protocols
+     * 4500 bytes with ChunkSize 1000 B make 5 chunks, enqueued in reverse order
+     * with chunk 1 sent twice
+     * We check the chunks deserialise with the generated code, only the first
+     * carrying the attributes, and the reassembled content, attributes and id
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<String> factories = Stream
+                .of(AbstractThriftProcessor.ProtocolJSON,
+                    AbstractThriftProcessor.ProtocolBinary,
+                    AbstractThriftProcessor.ProtocolCompact)
+                .collect(Collectors.toList());
+        byte[] content = new byte[4500];
+        new Random(22).nextBytes(content);
+        testRunnerToThrift.setProperty(ToThriftProcessor.CHUNK_SIZE, "1000 B");
+        for (String factoryName : factories) {
+            testRunnerToThrift.clearTransferState();
+            testRunnerReassemble.clearTransferState();
+            testRunnerToThrift.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, factoryName);
+            testRunnerReassemble.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, factoryName);
+            Map<String, String> attrs = new HashMap<>();
+            attrs.put(AbstractThriftProcessor.AttrPrefix + "key", "value");
+            attrs.put("thrift.id", "42");
+            attrs.put(AbstractThriftProcessor.ResponseCodeAttr, ResponseCode.RETRY.name());
+            testRunnerToThrift.enqueue(content, attrs);
+            testRunnerToThrift.run(1);
+            testRunnerToThrift.assertQueueEmpty();
+            List<MockFlowFile> chunks = testRunnerToThrift.getFlowFilesForRelationship(ToThriftProcessor.SUCCESS);
+            assertEquals(5, chunks.size());
+
+            for (int i = 0; i < chunks.size(); i++) {
+                MockFlowFile chunk = chunks.get(i);
+                chunk.assertAttributeEquals(FlowFileChunks.SequenceAttr, Integer.toString(i));
+                chunk.assertAttributeEquals(FlowFileChunks.TotalAttr, "5");
+                chunk.assertAttributeEquals(AbstractThriftProcessor.HttpStatusAttr, "503");
+                FlowFileChunk flowFileChunk = deserialize(factoryName, testRunnerToThrift.getContentAsByteArray(chunk));
+                assertEquals(42, flowFileChunk.getId());
+                assertEquals(i, flowFileChunk.getSequence());
+                assertEquals(5, flowFileChunk.getTotal());
+                assertArrayEquals(Arrays.copyOfRange(content, i * 1000, Math.min((i + 1) * 1000, content.length)), flowFileChunk.getChunk());
+                if (i == 0) {
+                    assertEquals(Collections.singletonMap("key", "value"), flowFileChunk.getAttributes());
+                    assertEquals(ResponseCode.RETRY, flowFileChunk.getResponseCode());
+                } else {
+                    assertNull(flowFileChunk.getAttributes());
+                    assertNull(flowFileChunk.getResponseCode());
+                }
+            }
+
+            // a fresh flow, the chunks arrive without the attributes ToThriftProcessor set
+            for (int i = chunks.size() - 1; i >= 0; i--) {
+                testRunnerReassemble.enqueue(testRunnerToThrift.getContentAsByteArray(chunks.get(i)));
+                if (i == 1) {
+                    testRunnerReassemble.enqueue(testRunnerToThrift.getContentAsByteArray(chunks.get(i)));
+                }
+            }
+            testRunnerReassemble.run(1);
+            testRunnerReassemble.assertQueueEmpty();
+            testRunnerReassemble.assertTransferCount(ReassembleThriftChunks.SUCCESS, 1);
+            testRunnerReassemble.assertTransferCount(ReassembleThriftChunks.ORIGINAL, 5);
+            MockFlowFile result = testRunnerReassemble.getFlowFilesForRelationship(ReassembleThriftChunks.SUCCESS).get(0);
+            result.assertContentEquals(content);
+            result.assertAttributeEquals("thrift.id", "42");
+            result.assertAttributeEquals(AbstractThriftProcessor.AttrPrefix + "key", "value");
+            result.assertAttributeEquals(AbstractThriftProcessor.ResponseCodeAttr, ResponseCode.RETRY.name());
+            result.assertAttributeEquals(AbstractThriftProcessor.ProtocolAttr, factoryName);
+            result.assertAttributeNotExists(FlowFileChunks.TotalAttr);
+        }
+    }
+
+    /**
+     * Tests an incomplete set of chunks waits on the queue, is completed by the
+     * missing chunk arriving later, and a set that stays incomplete
+     * is routed to Failure once MaxChunkAge has passed
+     */
+    @Test
+    public void testIncomplete() {
+        testRunnerReassemble.enqueue(serialize(7, 0, 3, "abc"));
+        testRunnerReassemble.enqueue(serialize(7, 2, 3, "ghi"));
+        testRunnerReassemble.enqueue(serialize(8, 0, 2, "xyz"));
+        testRunnerReassemble.run(2);
+        testRunnerReassemble.assertTransferCount(ReassembleThriftChunks.SUCCESS, 0);
+        assertEquals(3, testRunnerReassemble.getQueueSize().getObjectCount());
+
+        testRunnerReassemble.enqueue(serialize(7, 1, 3, "def"));
+        testRunnerReassemble.run(1);
+        testRunnerReassemble.assertTransferCount(ReassembleThriftChunks.SUCCESS, 1);
+        testRunnerReassemble.assertTransferCount(ReassembleThriftChunks.ORIGINAL, 3);
+        testRunnerReassemble.getFlowFilesForRelationship(ReassembleThriftChunks.SUCCESS).get(0)
+                .assertContentEquals("abcdefghi");
+        assertEquals(1, testRunnerReassemble.getQueueSize().getObjectCount());
+
+        testRunnerReassemble.setProperty(ReassembleThriftChunks.MAX_CHUNK_AGE, "0 sec");
+        testRunnerReassemble.run(1);
+        testRunnerReassemble.assertQueueEmpty();
+        testRunnerReassemble.assertTransferCount(ReassembleThriftChunks.FAILURE, 1);
+        testRunnerReassemble.getFlowFilesForRelationship(ReassembleThriftChunks.FAILURE).get(0)
+                .assertAttributeEquals("error", "incomplete, 1 of 2 chunks");
+    }
+
+    /**
+     * Tests a chunk which is not a FlowFileChunk, or whose sequence is not within its total,
+     * is routed to Failure
+     */
+    @Test
+    public void testInvalidChunk() {
+        testRunnerReassemble.enqueue("not thrift".getBytes());
+        testRunnerReassemble.enqueue(serialize(9, 3, 3, "abc"));
+        testRunnerReassemble.run(1);
+        testRunnerReassemble.assertQueueEmpty();
+        testRunnerReassemble.assertTransferCount(ReassembleThriftChunks.FAILURE, 2);
+        for (MockFlowFile result : testRunnerReassemble.getFlowFilesForRelationship(ReassembleThriftChunks.FAILURE)) {
+            result.assertAttributeExists("error");
+        }
+    }
+
+    /**
+     * Tests a chunk declaring a total beyond MaxChunks, read or already tagged, is routed to Failure
+     * rather than sizing anything by it
+     */
+    @Test
+    public void testTotalExceedsMaxChunks() {
+        testRunnerReassemble.enqueue(serialize(10, 0, Integer.MAX_VALUE - 8, "abc"));
+        Map<String, String> tagged = new HashMap<>();
+        tagged.put("thrift.id", "11");
+        tagged.put(FlowFileChunks.SequenceAttr, "0");
+        tagged.put(FlowFileChunks.TotalAttr, Integer.toString(Integer.MAX_VALUE - 8));
+        testRunnerReassemble.enqueue(serialize(11, 0, Integer.MAX_VALUE - 8, "abc"), tagged);
+        testRunnerReassemble.run(1);
+        testRunnerReassemble.assertQueueEmpty();
+        testRunnerReassemble.assertAllFlowFilesTransferred(ReassembleThriftChunks.FAILURE, 2);
+
+        testRunnerReassemble.clearTransferState();
+        testRunnerReassemble.setProperty(ReassembleThriftChunks.MAX_CHUNKS, "2");
+        testRunnerReassemble.enqueue(serialize(12, 0, 3, "abc"));
+        testRunnerReassemble.enqueue(serialize(13, 0, 2, "abc"));
+        testRunnerReassemble.enqueue(serialize(13, 1, 2, "def"));
+        testRunnerReassemble.run(1);
+        testRunnerReassemble.assertQueueEmpty();
+        testRunnerReassemble.assertTransferCount(ReassembleThriftChunks.FAILURE, 1);
+        testRunnerReassemble.assertTransferCount(ReassembleThriftChunks.SUCCESS, 1);
+        testRunnerReassemble.getFlowFilesForRelationship(ReassembleThriftChunks.FAILURE).get(0)
+                .assertAttributeEquals("error", "FlowFileChunk total 3 exceeds MaxChunks 2");
+    }
+
+    private static byte[] serialize(long id, int sequence, int total, String chunk) {
+        FlowFileChunk flowFileChunk = new FlowFileChunk();
+        flowFileChunk.setId(id);
+        flowFileChunk.setSequence(sequence);
+        flowFileChunk.setTotal(total);
+        flowFileChunk.setChunk(ByteBuffer.wrap(chunk.getBytes()));
+        try {
+            return new TSerializer(AbstractThriftProcessor.getFactory(AbstractThriftProcessor.ProtocolBinary))
+                    .serialize(flowFileChunk);
+        } catch (Exception e) {
+            fail(e.getMessage());
+            return null;
+        }
+    }
+
+    private static FlowFileChunk deserialize(String factoryName, byte[] bytes) {
+        FlowFileChunk flowFileChunk = new FlowFileChunk();
+        try {
+            TDeserializer deserializer = new TDeserializer(AbstractThriftProcessor.getFactory(factoryName));
+            deserializer.deserialize(flowFileChunk, bytes);
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+        return flowFileChunk;
+    }
+}
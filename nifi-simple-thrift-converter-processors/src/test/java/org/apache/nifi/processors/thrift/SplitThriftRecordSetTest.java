@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.apache.nifi.util.MockFlowFile;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SplitThriftRecordSetTest {
+
+    private TestRunner testRunnerSplit;
+
+    @Before
+    public void init() {
+        testRunnerSplit = TestRunners.newTestRunner(SplitThriftRecordSet.class);
+    }
+
+    /**
+     * Tests the SplitThriftRecordSet
+     * using all the supported Thrift protocols
+     * A RecordSet of ThriftFlowFiles, one with content larger than the copy buffer
+     * and one with neither attributes nor content, is serialised and enqueued
+     * We check:
+     *  - a split per ThriftFlowFile, in order, with its content and 'thrift.attr.xxx' attributes
+     *  - the fragment attributes of the splits and of the original
+     */
+    @Test
+    public void testSplit() {
+        List<String> factories = Stream
+                .of(AbstractThriftProcessor.ProtocolJSON,
+                    AbstractThriftProcessor.ProtocolBinary,
+                    AbstractThriftProcessor.ProtocolCompact)
+                .collect(Collectors.toList());
+        int count = 5;
+        for (String factoryName : factories) {
+            testRunnerSplit.clearTransferState();
+            testRunnerSplit.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, factoryName);
+            RecordSet recordSet = new RecordSet();
+            for (int i = 0; i < count; i++) {
+                ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+                if (i != 3) {
+                    thriftFlowFile.putToAttributes("index", Integer.toString(i));
+                    thriftFlowFile.setContent(splitContent(i).getBytes());
+                }
+                recordSet.addToFlowFiles(thriftFlowFile);
+            }
+            try {
+                TSerializer serializer = new TSerializer(AbstractThriftProcessor.getFactory(factoryName));
+                testRunnerSplit.enqueue(serializer.serialize(recordSet));
+            } catch (TException e) {
+                fail(e.getMessage());
+            }
+            testRunnerSplit.run(1);
+            testRunnerSplit.assertQueueEmpty();
+
+            testRunnerSplit.assertTransferCount(SplitThriftRecordSet.FAILURE, 0);
+            testRunnerSplit.assertTransferCount(SplitThriftRecordSet.ORIGINAL, 1);
+            MockFlowFile original = testRunnerSplit.getFlowFilesForRelationship(SplitThriftRecordSet.ORIGINAL).get(0);
+            original.assertAttributeEquals("fragment.count", Integer.toString(count));
+
+            List<MockFlowFile> splits = testRunnerSplit.getFlowFilesForRelationship(SplitThriftRecordSet.SPLITS);
+            assertEquals(factoryName, count, splits.size());
+            for (int i = 0; i < count; i++) {
+                MockFlowFile split = splits.get(i);
+                split.assertAttributeEquals("fragment.identifier", original.getAttribute("fragment.identifier"));
+                split.assertAttributeEquals("fragment.index", Integer.toString(i));
+                split.assertAttributeEquals("fragment.count", Integer.toString(count));
+                if (i == 3) {
+                    split.assertAttributeNotExists(AbstractThriftProcessor.AttrPrefix + "index");
+                    assertEquals(0, split.getSize());
+                } else {
+                    split.assertAttributeEquals(AbstractThriftProcessor.AttrPrefix + "index", Integer.toString(i));
+                    split.assertContentEquals(splitContent(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests the SplitThriftRecordSet with a truncated RecordSet
+     * We check the original goes to FAILURE with an 'error' attribute and no splits are emitted
+     */
+    @Test
+    public void testTruncatedRecordSet() {
+        testRunnerSplit.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, AbstractThriftProcessor.ProtocolBinary);
+        RecordSet recordSet = new RecordSet();
+        for (int i = 0; i < 3; i++) {
+            ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+            thriftFlowFile.setContent(splitContent(i).getBytes());
+            recordSet.addToFlowFiles(thriftFlowFile);
+        }
+        try {
+            byte[] serialised = new TSerializer(AbstractThriftProcessor.getFactory(AbstractThriftProcessor.ProtocolBinary))
+                    .serialize(recordSet);
+            byte[] truncated = new byte[serialised.length - 100];
+            System.arraycopy(serialised, 0, truncated, 0, truncated.length);
+            testRunnerSplit.enqueue(truncated);
+        } catch (TException e) {
+            fail(e.getMessage());
+        }
+        testRunnerSplit.run(1);
+
+        testRunnerSplit.assertAllFlowFilesTransferred(SplitThriftRecordSet.FAILURE, 1);
+        testRunnerSplit.getFlowFilesForRelationship(SplitThriftRecordSet.FAILURE).get(0).assertAttributeExists("error");
+    }
+
+    private static String splitContent(int index) {
+        StringBuilder contentBuilder = new StringBuilder();
+        for (int i = 0; i < 1000 * (index + 1); i++) {
+            contentBuilder.append("split ").append(index);
+        }
+        return contentBuilder.toString();
+    }
+}
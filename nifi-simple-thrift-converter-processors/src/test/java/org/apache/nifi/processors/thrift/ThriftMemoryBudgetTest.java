@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.NoOpProcessor;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TSerializer;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ThriftMemoryBudgetTest {
+
+    static ThriftMemoryBudget addBudget(TestRunner testRunner, String maxInFlightBytes) throws Exception {
+        final ThriftMemoryBudget budget = new ThriftMemoryBudget();
+        testRunner.addControllerService("budget", budget);
+        testRunner.setProperty(budget, ThriftMemoryBudget.MAX_IN_FLIGHT_BYTES, maxInFlightBytes);
+        testRunner.enableControllerService(budget);
+        return budget;
+    }
+
+    /**
+     * Tests the budget, and the ConversionBuffers taking from it:
+     * the message buffer takes only its growth, a reservation the budget cannot grant is refused,
+     * and the batch gives everything back
+     */
+    @Test
+    public void testBudget() throws Exception {
+        final ThriftMemoryBudget budget = addBudget(TestRunners.newTestRunner(NoOpProcessor.class), "100 B");
+        assertEquals(100, budget.getAvailable());
+        assertTrue(budget.tryAcquire(0));
+        assertFalse(budget.tryAcquire(101));
+
+        final AbstractThriftProcessor.ConversionBuffers buffers = new AbstractThriftProcessor.ConversionBuffers(budget);
+        assertNotNull(buffers.message(60));
+        assertEquals(40, budget.getAvailable());
+        assertNotNull(buffers.message(80));
+        assertEquals(20, budget.getAvailable());
+        assertNotNull(buffers.message(10));
+        assertEquals(20, budget.getAvailable());
+        assertFalse(buffers.reserve(30));
+        assertNull(buffers.message(200));
+        assertTrue(buffers.reserve(20));
+        assertEquals(0, budget.getAvailable());
+        buffers.release(20);
+        assertEquals(20, budget.getAvailable());
+        buffers.releaseAll();
+        assertEquals(100, budget.getAvailable());
+    }
+
+    /**
+     * Tests FromThriftProcessor and ToThriftProcessor with a budget too small for the larger messages,
+     * using BINARY and COMPACT, whose messages are otherwise read whole
+     * We check those are streamed instead, to the same result, and the budget is all given back
+     */
+    @Test
+    public void testStreamedWhenSpent() throws Exception {
+        for (String protocol : new String[] {AbstractThriftProcessor.ProtocolBinary,
+                                             AbstractThriftProcessor.ProtocolCompact}) {
+            final TestRunner testRunnerFrom = TestRunners.newTestRunner(FromThriftProcessor.class);
+            final ThriftMemoryBudget fromBudget = addBudget(testRunnerFrom, "100 B");
+            testRunnerFrom.setProperty(AbstractThriftProcessor.MEMORY_BUDGET, "budget");
+            testRunnerFrom.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, protocol);
+            testRunnerFrom.setProperty(AbstractThriftProcessor.BATCH_SIZE, "10");
+            for (String scope : new String[] {"All", "Content"}) {
+                testRunnerFrom.clearTransferState();
+                testRunnerFrom.setProperty(FromThriftProcessor.CONVERSION_SCOPE, scope);
+                for (int size : new int[] {10, 1000, 20}) {
+                    FlowFileRequest flowFileRequest = new FlowFileRequest();
+                    flowFileRequest.setId(size);
+                    ThriftFlowFile thriftFlowFile = new ThriftFlowFile();
+                    thriftFlowFile.setAttributes(Collections.singletonMap("key", "value"));
+                    thriftFlowFile.setContent(ByteBuffer.wrap(FromThriftProcessorTest.content(size)));
+                    flowFileRequest.setFlowFile(thriftFlowFile);
+                    testRunnerFrom.enqueue(new TSerializer(AbstractThriftProcessor.getFactory(protocol))
+                                           .serialize(flowFileRequest));
+                }
+                testRunnerFrom.run(1);
+                testRunnerFrom.assertAllFlowFilesTransferred(FromThriftProcessor.SUCCESS, 3);
+                for (MockFlowFile result : testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.SUCCESS)) {
+                    result.assertContentEquals(
+                            FromThriftProcessorTest.content(Integer.parseInt(result.getAttribute("thrift.id"))));
+                }
+                assertEquals(100, fromBudget.getAvailable());
+            }
+
+            final TestRunner testRunnerTo = TestRunners.newTestRunner(ToThriftProcessor.class);
+            final ThriftMemoryBudget toBudget = addBudget(testRunnerTo, "100 B");
+            testRunnerTo.setProperty(AbstractThriftProcessor.MEMORY_BUDGET, "budget");
+            testRunnerTo.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, protocol);
+            testRunnerTo.setProperty(AbstractThriftProcessor.CODEC, AbstractThriftProcessor.CodecSpecialized);
+            testRunnerTo.setProperty(AbstractThriftProcessor.BATCH_SIZE, "10");
+            for (int size : new int[] {10, 1000, 40}) {
+                Map<String, String> attrs = new HashMap<>();
+                attrs.put(AbstractThriftProcessor.AttrPrefix + "key", "value");
+                attrs.put("thrift.id", Integer.toString(size));
+                testRunnerTo.enqueue(FromThriftProcessorTest.content(size), attrs);
+            }
+            testRunnerTo.run(1);
+            testRunnerTo.assertAllFlowFilesTransferred(ToThriftProcessor.SUCCESS, 3);
+            List<MockFlowFile> results = testRunnerTo.getFlowFilesForRelationship(ToThriftProcessor.SUCCESS);
+            for (MockFlowFile result : results) {
+                byte[] reply = testRunnerTo.getContentAsByteArray(result);
+                FlowFileReply flowFileReply = new FlowFileReply();
+                new TDeserializer(AbstractThriftProcessor.getFactory(protocol)).deserialize(flowFileReply, reply);
+                assertArrayEquals(FromThriftProcessorTest.content((int) flowFileReply.getId()),
+                                  flowFileReply.getFlowFile().getContent());
+                assertArrayEquals(protocol, new TSerializer(AbstractThriftProcessor.getFactory(protocol))
+                                            .serialize(flowFileReply), reply);
+            }
+            assertEquals(100, toBudget.getAvailable());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.util.NoOpProcessor;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+
+import org.apache.thrift.TSerializer;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ThriftRecordReaderTest {
+
+    private TestRunner testRunner;
+    private ThriftRecordReader recordReader;
+
+    @Before
+    public void init() throws Exception {
+        testRunner = TestRunners.newTestRunner(NoOpProcessor.class);
+        recordReader = new ThriftRecordReader();
+        testRunner.addControllerService("reader", recordReader);
+    }
+
+    /**
+     * Tests the ThriftRecordReader
+     * using all the supported Thrift protocols, and AUTO, for both ThriftMessage framings
+     * A RecordSet, and the same ThriftFlowFiles one after another, are serialised
+     * We check a record per ThriftFlowFile, in order, with its 'attributes' and 'content'
+     */
+    @Test
+    public void testRead() throws Exception {
+        final List<ThriftFlowFile> flowFiles = newFlowFiles(3);
+        for (String protocol : new String[] { AbstractThriftProcessor.ProtocolJSON,
+                                              AbstractThriftProcessor.ProtocolBinary,
+                                              AbstractThriftProcessor.ProtocolCompact }) {
+            final TSerializer serializer = new TSerializer(AbstractThriftProcessor.getFactory(protocol));
+            final ByteArrayOutputStream thriftFlowFiles = new ByteArrayOutputStream();
+            for (ThriftFlowFile flowFile : flowFiles) {
+                thriftFlowFiles.write(serializer.serialize(flowFile));
+            }
+            final byte[] recordSet = serializer.serialize(new RecordSet(flowFiles));
+            for (String configured : new String[] { protocol, AbstractThriftProcessor.ProtocolAuto }) {
+                assertRecords(configured, ThriftRecords.MessageRecordSet, recordSet, flowFiles);
+                assertRecords(configured, ThriftRecords.MessageThriftFlowFiles, thriftFlowFiles.toByteArray(), flowFiles);
+            }
+        }
+    }
+
+    /**
+     * An empty RecordSet, and no ThriftFlowFiles at all, have no records
+     */
+    @Test
+    public void testEmpty() throws Exception {
+        final byte[] recordSet = new TSerializer(AbstractThriftProcessor.getFactory(AbstractThriftProcessor.ProtocolCompact))
+                .serialize(new RecordSet(Collections.emptyList()));
+        assertRecords(AbstractThriftProcessor.ProtocolCompact, ThriftRecords.MessageRecordSet, recordSet,
+                      Collections.emptyList());
+        assertRecords(AbstractThriftProcessor.ProtocolCompact, ThriftRecords.MessageThriftFlowFiles, new byte[0],
+                      Collections.emptyList());
+    }
+
+    private void assertRecords(String protocol, String message, byte[] serialised,
+                               List<ThriftFlowFile> expected) throws Exception {
+        if (testRunner.isControllerServiceEnabled(recordReader)) {
+            testRunner.disableControllerService(recordReader);
+        }
+        testRunner.setProperty(recordReader, ThriftRecords.THRIFT_PROTOCOL, protocol);
+        testRunner.setProperty(recordReader, ThriftRecords.THRIFT_MESSAGE, message);
+        testRunner.enableControllerService(recordReader);
+        try (RecordReader reader = recordReader.createRecordReader(Collections.emptyMap(),
+                new ByteArrayInputStream(serialised), serialised.length, testRunner.getLogger())) {
+            for (ThriftFlowFile flowFile : expected) {
+                Record record = reader.nextRecord();
+                assertEquals(protocol + " " + message, flowFile.getAttributes(),
+                             record.getValue(ThriftRecords.AttributesField));
+                Object[] content = record.getAsArray(ThriftRecords.ContentField);
+                byte[] bytes = new byte[content.length];
+                for (int i = 0; i < content.length; i++) {
+                    bytes[i] = (Byte) content[i];
+                }
+                assertArrayEquals(flowFile.getContent(), bytes);
+            }
+            assertNull(reader.nextRecord());
+        }
+    }
+
+    /**
+     * @param count the number of ThriftFlowFiles
+     * @return ThriftFlowFiles with 'index' attributes and content
+     */
+    static List<ThriftFlowFile> newFlowFiles(int count) {
+        final List<ThriftFlowFile> flowFiles = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ThriftFlowFile flowFile = new ThriftFlowFile();
+            flowFile.setAttributes(Collections.singletonMap("index", Integer.toString(i)));
+            flowFile.setContent(("content " + i).getBytes());
+            flowFiles.add(flowFile);
+        }
+        return flowFiles;
+    }
+}
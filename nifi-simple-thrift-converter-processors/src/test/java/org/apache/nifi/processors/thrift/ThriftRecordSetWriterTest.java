@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.WriteResult;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.apache.nifi.util.NoOpProcessor;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+
+import org.apache.thrift.TDeserializer;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ThriftRecordSetWriterTest {
+
+    private TestRunner testRunner;
+    private ThriftRecordSetWriter recordSetWriter;
+
+    @Before
+    public void init() throws Exception {
+        testRunner = TestRunners.newTestRunner(NoOpProcessor.class);
+        recordSetWriter = new ThriftRecordSetWriter();
+        testRunner.addControllerService("writer", recordSetWriter);
+    }
+
+    /**
+     * Tests the ThriftRecordSetWriter
+     * using all the supported Thrift protocols
+     * Records read from ThriftFlowFiles are written as a RecordSet
+     * We check the RecordSet deserialises to the same ThriftFlowFiles, in order
+     */
+    @Test
+    public void testWriteRecordSet() throws Exception {
+        final List<ThriftFlowFile> flowFiles = ThriftRecordReaderTest.newFlowFiles(3);
+        for (String protocol : new String[] { AbstractThriftProcessor.ProtocolJSON,
+                                              AbstractThriftProcessor.ProtocolBinary,
+                                              AbstractThriftProcessor.ProtocolCompact }) {
+            configure(protocol, ThriftRecords.MessageRecordSet);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (RecordSetWriter writer = recordSetWriter.createWriter(testRunner.getLogger(), ThriftRecords.SCHEMA,
+                                                                       out, Collections.emptyMap())) {
+                writer.beginRecordSet();
+                for (ThriftFlowFile flowFile : flowFiles) {
+                    writer.write(ThriftRecords.toRecord(flowFile));
+                }
+                WriteResult result = writer.finishRecordSet();
+                assertEquals(3, result.getRecordCount());
+            }
+            RecordSet recordSet = new RecordSet();
+            new TDeserializer(AbstractThriftProcessor.getFactory(protocol)).deserialize(recordSet, out.toByteArray());
+            assertEquals(protocol, flowFiles, recordSet.getFlowFiles());
+        }
+    }
+
+    /**
+     * A record of another schema, eg from QueryRecord, written as ThriftFlowFiles one after another
+     * We check its fields other than 'content' become attributes
+     */
+    @Test
+    public void testWriteOtherSchema() throws Exception {
+        configure(AbstractThriftProcessor.ProtocolAuto, ThriftRecords.MessageThriftFlowFiles);
+        final RecordSchema schema = new SimpleRecordSchema(Arrays.asList(
+                new RecordField("name", RecordFieldType.STRING.getDataType()),
+                new RecordField("count", RecordFieldType.INT.getDataType()),
+                new RecordField(ThriftRecords.ContentField, RecordFieldType.STRING.getDataType())));
+        final Map<String, Object> values = new HashMap<>();
+        values.put("name", "wibble");
+        values.put("count", 42);
+        values.put(ThriftRecords.ContentField, "text");
+        final Record record = new MapRecord(schema, values);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (RecordSetWriter writer = recordSetWriter.createWriter(testRunner.getLogger(), schema, out,
+                Collections.singletonMap(AbstractThriftProcessor.ProtocolAttr, AbstractThriftProcessor.ProtocolCompact))) {
+            writer.write(record);
+            writer.write(record);
+        }
+        final TDeserializer deserializer = new TDeserializer(AbstractThriftProcessor.getFactory(AbstractThriftProcessor.ProtocolCompact));
+        final byte[] serialised = out.toByteArray();
+        final ThriftFlowFile flowFile = new ThriftFlowFile();
+        deserializer.deserialize(flowFile, Arrays.copyOf(serialised, serialised.length / 2));
+        assertEquals("wibble", flowFile.getAttributes().get("name"));
+        assertEquals("42", flowFile.getAttributes().get("count"));
+        assertArrayEquals("text".getBytes(), flowFile.getContent());
+    }
+
+    private void configure(String protocol, String message) {
+        if (testRunner.isControllerServiceEnabled(recordSetWriter)) {
+            testRunner.disableControllerService(recordSetWriter);
+        }
+        testRunner.setProperty(recordSetWriter, ThriftRecords.THRIFT_PROTOCOL, protocol);
+        testRunner.setProperty(recordSetWriter, ThriftRecords.THRIFT_MESSAGE, message);
+        testRunner.enableControllerService(recordSetWriter);
+    }
+}
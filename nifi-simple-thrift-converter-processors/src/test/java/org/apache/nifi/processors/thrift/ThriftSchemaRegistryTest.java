@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.nifi.util.NoOpProcessor;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+
+import org.apache.thrift.protocol.TType;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ThriftSchemaRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestRunner testRunner;
+    private ThriftSchemaRegistry registry;
+
+    @Before
+    public void init() throws Exception {
+        writeIDL(folder.getRoot());
+        testRunner = TestRunners.newTestRunner(NoOpProcessor.class);
+        registry = new ThriftSchemaRegistry();
+        testRunner.addControllerService("registry", registry);
+        testRunner.setProperty(registry, ThriftSchemaRegistry.IDL_DIRECTORY, folder.getRoot().getAbsolutePath());
+    }
+
+    /**
+     * Writes flowfile_nifi.thrift as versions 1.2 and 1.10, and as sample.thrift, version 0
+     */
+    static void writeIDL(File directory) throws Exception {
+        final byte[] idl;
+        try (InputStream in = ThriftSchemaRegistryTest.class.getClassLoader().getResourceAsStream(PutThriftIDL.THRIFT_FILENAME)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ContentCompression.copy(in, out, new byte[4096]);
+            idl = out.toByteArray();
+        }
+        Files.write(new File(directory, "flowfile_nifi-1.2.thrift").toPath(), idl);
+        final String v110 = new String(idl, StandardCharsets.UTF_8)
+            .replace("   15: binary content,", "   15: binary content,\n   16: optional list<i32> sizes = [1, 2] (note = \"1.10\"),");
+        Files.write(new File(directory, "flowfile_nifi-1.10.thrift").toPath(), v110.getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(directory, "sample.thrift").toPath(),
+                    ("include \"flowfile_nifi.thrift\"\n"
+                     + "typedef i64 Timestamp // millis\n"
+                     + "const map<string, i32> LIMITS = {\"a\": 1, \"b\": 2}\n"
+                     + "enum Level { LOW, HIGH = 0x10 }\n"
+                     + "union Sample { 1: required Timestamp at; 2: Level level; 3: set<string> tags }\n"
+                     + "service Sampler extends flowfile_nifi.FlowFileService {\n"
+                     + "  oneway void push(1: Sample sample) throws (1: flowfile_nifi.InvalidOperationException ex)\n"
+                     + "}\n").getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(directory, "ignored.txt").toPath(), "not IDL".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Tests the ThriftSchemaRegistry
+     * The IDL files of the directory are indexed by name and version, a blank version is the latest
+     * We check the descriptor model of flowfile_nifi matches the generated classes,
+     * and that a second lookup is served from the cache
+     */
+    @Test
+    public void testRegistry() throws Exception {
+        testRunner.enableControllerService(registry);
+        assertEquals(2, registry.getNames().size());
+        assertTrue(registry.getNames().contains("flowfile_nifi"));
+
+        final ThriftIDL latest = registry.getIDL("flowfile_nifi", null);
+        assertEquals("1.10", latest.getVersion());
+        assertSame(latest, registry.getIDL("flowfile_nifi", "1.10"));
+        assertSame(latest, registry.getIDL("flowfile_nifi", ""));
+        assertEquals(TType.LIST, latest.getStruct("ThriftFlowFile").getField((short) 16).getType().getTType());
+
+        final ThriftIDL idl = registry.getIDL("flowfile_nifi", "1.2");
+        assertEquals("org.apache.nifi.processors.thrift", idl.getNamespaces().get("java"));
+        assertNull(idl.getStruct("ThriftFlowFile").getField((short) 16));
+        final ThriftIDL.Struct request = idl.getStruct("FlowFileRequest");
+        assertEquals(FlowFileRequest._Fields.ID.getThriftFieldId(), request.getField("id").getId());
+        assertEquals(TType.I64, request.getField("id").getType().getTType());
+        final ThriftIDL.Field flowFile = request.getField(FlowFileRequest._Fields.FLOW_FILE.getThriftFieldId());
+        assertEquals("ThriftFlowFile", flowFile.getType().getName());
+        final ThriftIDL.Struct thriftFlowFile = idl.getStruct(flowFile.getType().getName());
+        assertEquals(TType.MAP, thriftFlowFile.getField("attributes").getType().getTType());
+        assertTrue(thriftFlowFile.getField("content").getType().isBinary());
+        assertEquals(TType.I32, idl.resolve(idl.getStruct("FlowFileReply").getField("responseCode").getType()).getTType());
+        assertEquals(Integer.valueOf(2), idl.getEnums().get("ResponseCode").get("RETRY"));
+        assertEquals("exception", idl.getStruct("InvalidOperationException").getKind());
+        assertTrue(idl.getServices().get("FlowFileService").getFunctions().containsKey("send"));
+
+        final ThriftIDL sample = registry.getIDL("sample", null);
+        assertEquals(ThriftSchemaRegistry.DefaultVersion, sample.getVersion());
+        assertEquals(Integer.valueOf(0x10), sample.getEnums().get("Level").get("HIGH"));
+        final ThriftIDL.Field at = sample.getStruct("Sample").getField((short) 1);
+        assertEquals("required", at.getRequiredness());
+        assertEquals(TType.I64, sample.resolve(at.getType()).getTType());
+        assertEquals("flowfile_nifi.FlowFileService", sample.getServices().get("Sampler").getExtends());
+
+        assertNull(registry.getIDL("flowfile_nifi", "9"));
+        assertNull(registry.getIDL("ignored", null));
+    }
+
+    /**
+     * With a CacheSize of 1, asking for another IDL evicts the first,
+     * which is parsed again when next asked for
+     */
+    @Test
+    public void testEviction() throws Exception {
+        testRunner.setProperty(registry, ThriftSchemaRegistry.CACHE_SIZE, "1");
+        testRunner.enableControllerService(registry);
+        final ThriftIDL first = registry.getIDL("flowfile_nifi", "1.2");
+        assertSame(first, registry.getIDL("flowfile_nifi", "1.2"));
+        registry.getIDL("sample", null);
+        final ThriftIDL again = registry.getIDL("flowfile_nifi", "1.2");
+        assertNotSame(first, again);
+        assertEquals(first.getText(), again.getText());
+    }
+
+    /**
+     * Versions compare a segment at a time, numerically
+     */
+    @Test
+    public void testVersions() {
+        assertTrue(ThriftSchemaRegistry.compareVersions("1.10", "1.2") > 0);
+        assertTrue(ThriftSchemaRegistry.compareVersions("2", "1.99") > 0);
+        assertTrue(ThriftSchemaRegistry.compareVersions("1.0-rc", "1.0") != 0);
+        assertEquals("my-idl", ThriftSchemaRegistry.splitFileName("my-idl-3.thrift")[0]);
+        assertEquals("3", ThriftSchemaRegistry.splitFileName("my-idl-3.thrift")[1]);
+        assertEquals(ThriftSchemaRegistry.DefaultVersion, ThriftSchemaRegistry.splitFileName("plain.thrift")[1]);
+    }
+}
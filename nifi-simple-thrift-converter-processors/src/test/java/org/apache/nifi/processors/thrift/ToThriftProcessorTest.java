@@ -21,7 +21,12 @@
  */
 package org.apache.nifi.processors.thrift;
 
-
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -34,13 +39,17 @@ import org.apache.nifi.util.TestRunners;
 import org.apache.nifi.util.MockFlowFile;
 
 import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TSerializer;
 import org.apache.thrift.protocol.TProtocolFactory;
 import org.apache.thrift.transport.TTransportException;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 
@@ -106,4 +115,387 @@ public class ToThriftProcessorTest {
             }
         }
     }
+
+    /**
+     * Tests the ToThriftProcessor with Codec Specialized
+     * using all the supported Thrift protocols
+     * We check the reply is byte for byte that libthrift serialises,
+     * and that BINARY and COMPACT replies were serialised by the specialized codec
+     */
+    @Test
+    public void testSpecializedCodec() throws Exception {
+        final List<FlowFileCodec> codecs = new ArrayList<>();
+        testRunnerTo = TestRunners.newTestRunner(new ToThriftProcessor() {
+                @Override
+                protected FlowFileCodec getCodec(String protocol) {
+                    final FlowFileCodec codec = super.getCodec(protocol);
+                    codecs.add(codec);
+                    return codec;
+                }
+            });
+        testRunnerTo.setProperty(AbstractThriftProcessor.CODEC, AbstractThriftProcessor.CodecSpecialized);
+        for (String protocol : new String[] {AbstractThriftProcessor.ProtocolJSON,
+                                             AbstractThriftProcessor.ProtocolBinary,
+                                             AbstractThriftProcessor.ProtocolCompact}) {
+            codecs.clear();
+            Map<String, String> attrs = new HashMap<>();
+            attrs.put("wibble_key", "wibble_value \u00e9");
+            attrs.put("thrift.id", "1234");
+            testRunnerTo.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, protocol);
+            testRunnerTo.enqueue("I am some content".getBytes(), attrs);
+            testRunnerTo.run(1);
+
+            List<MockFlowFile> results = testRunnerTo.getFlowFilesForRelationship(ToThriftProcessor.SUCCESS);
+            byte[] reply = testRunnerTo.getContentAsByteArray(results.get(results.size() - 1));
+            FlowFileReply flowFileReply = new FlowFileReply();
+            new TDeserializer(AbstractThriftProcessor.getFactory(protocol)).deserialize(flowFileReply, reply);
+            assertEquals(1234L, flowFileReply.getId());
+            assertArrayEquals(protocol, new TSerializer(AbstractThriftProcessor.getFactory(protocol)).serialize(flowFileReply), reply);
+            // BINARY and COMPACT replies went through the specialized codec, JSON is always streamed by libthrift
+            if (AbstractThriftProcessor.ProtocolJSON.equals(protocol)) {
+                assertTrue(protocol, codecs.isEmpty());
+            } else {
+                assertEquals(protocol, 1, codecs.size());
+                assertSame(protocol, FlowFileStructCodec.forProtocol(protocol), codecs.get(0));
+            }
+        }
+    }
+
+    /**
+     * Tests the ToThriftProcessor with DynamicProtocol and several concurrent tasks
+     * FlowFiles are enqueued with 'thrift.protocol' cycling through all the supported protocols
+     * Each FlowFile result from the SUCCESS relationship must deserialise with
+     * the protocol it asked for, and carry its own id and content
+     */
+    @Test
+    public void testConcurrentDynamicProtocols() {
+        String[] protocols = {AbstractThriftProcessor.ProtocolJSON,
+                              AbstractThriftProcessor.ProtocolBinary,
+                              AbstractThriftProcessor.ProtocolCompact};
+        int flowFileCount = 300;
+        testRunnerTo.setProperty(AbstractThriftProcessor.DYNAMIC_PROTOCOL, "true");
+        testRunnerTo.setThreadCount(4);
+        for (int i = 0; i < flowFileCount; i++) {
+            Map<String, String> attrs = new HashMap<>();
+            attrs.put("thrift.id", Integer.toString(i));
+            attrs.put("thrift.protocol", protocols[i % protocols.length]);
+            testRunnerTo.enqueue(("content " + i).getBytes(), attrs);
+        }
+        testRunnerTo.run(flowFileCount);
+
+        testRunnerTo.assertQueueEmpty();
+        testRunnerTo.assertAllFlowFilesTransferred(ToThriftProcessor.SUCCESS, flowFileCount);
+        for (MockFlowFile result : testRunnerTo.getFlowFilesForRelationship(ToThriftProcessor.SUCCESS)) {
+            FlowFileReply flowFileReply = new FlowFileReply();
+            try {
+                TDeserializer deserializer = new TDeserializer(
+                        AbstractThriftProcessor.getFactory(result.getAttribute("thrift.protocol")));
+                deserializer.deserialize(flowFileReply, testRunnerTo.getContentAsByteArray(result));
+            } catch (Exception e) {
+                fail(e.getMessage());
+            }
+            assertEquals(result.getAttribute("thrift.id"), Long.toString(flowFileReply.getId()));
+            assertEquals("content " + flowFileReply.getId(), new String(flowFileReply.getFlowFile().getContent()));
+        }
+    }
+
+    /**
+     * Tests the streamed encoding, base64 for JSON, with content larger than the copy buffer
+     * The FlowFile result from the SUCCESS relationship must deserialise with libthrift
+     * to a FlowFileReply holding all the content and the stripped attributes
+     */
+    @Test
+    public void testStreamedLargeContent() {
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        for (String factoryName : new String[] {AbstractThriftProcessor.ProtocolBinary,
+                                                AbstractThriftProcessor.ProtocolCompact,
+                                                AbstractThriftProcessor.ProtocolJSON}) {
+            testRunnerTo.clearTransferState();
+            Map<String, String> attrs = new HashMap<>();
+            attrs.put("thrift.id", "42");
+            attrs.put(AbstractThriftProcessor.AttrPrefix + "wibble_key", "wibble_value");
+            testRunnerTo.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, factoryName);
+            testRunnerTo.enqueue(content, attrs);
+            testRunnerTo.run(1);
+
+            testRunnerTo.assertAllFlowFilesTransferred(ToThriftProcessor.SUCCESS, 1);
+            MockFlowFile result = testRunnerTo.getFlowFilesForRelationship(ToThriftProcessor.SUCCESS).get(0);
+            FlowFileReply flowFileReply = new FlowFileReply();
+            try {
+                TDeserializer deserializer = new TDeserializer(AbstractThriftProcessor.getFactory(factoryName));
+                deserializer.deserialize(flowFileReply, testRunnerTo.getContentAsByteArray(result));
+            } catch (Exception e) {
+                fail(e.getMessage());
+            }
+            assertEquals(42L, flowFileReply.getId());
+            assertEquals(ResponseCode.SUCCESS, flowFileReply.getResponseCode());
+            assertEquals("wibble_value", flowFileReply.getFlowFile().getAttributes().get("wibble_key"));
+            assertTrue(Arrays.equals(content, flowFileReply.getFlowFile().getContent()));
+        }
+    }
+
+    /**
+     * Tests the streamed JSON encoding, content base64 encoded a buffer at a time,
+     * with content sizes either side of the copy buffer and of a whole base64 group
+     * We check the reply is byte for byte that libthrift serialises,
+     * and that BINARY and COMPACT replies were serialised by the specialized codec
+     */
+    @Test
+    public void testStreamedJsonContent() throws Exception {
+        testRunnerTo.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, AbstractThriftProcessor.ProtocolJSON);
+        for (int size : new int[] {0, 1, 2, 3, 4, 8191, 8192, 8193, 8194, 100000}) {
+            testRunnerTo.clearTransferState();
+            byte[] content = new byte[size];
+            for (int i = 0; i < size; i++) {
+                content[i] = (byte) (i * 31);
+            }
+            testRunnerTo.enqueue(content, Collections.singletonMap("thrift.id", Integer.toString(size)));
+            testRunnerTo.run(1);
+
+            testRunnerTo.assertAllFlowFilesTransferred(ToThriftProcessor.SUCCESS, 1);
+            byte[] reply = testRunnerTo.getContentAsByteArray(testRunnerTo.getFlowFilesForRelationship(ToThriftProcessor.SUCCESS).get(0));
+            FlowFileReply expected = new FlowFileReply(ResponseCode.SUCCESS, size, new ThriftFlowFile());
+            expected.getFlowFile().setContent(content);
+            assertArrayEquals("size " + size, new TSerializer(AbstractThriftProcessor.getFactory(AbstractThriftProcessor.ProtocolJSON))
+                              .serialize(expected), reply);
+        }
+    }
+
+    /**
+     * Tests the ToThriftProcessor with a BatchSize and DynamicProtocol
+     * FlowFiles of decreasing size cycle through all the supported protocols,
+     * one has no 'thrift.protocol' and must go to FAILURE on its own
+     * Every other FlowFile result from the SUCCESS relationship carries its own id and content
+     */
+    @Test
+    public void testBatch() {
+        String[] protocols = {AbstractThriftProcessor.ProtocolJSON,
+                              AbstractThriftProcessor.ProtocolBinary,
+                              AbstractThriftProcessor.ProtocolCompact};
+        testRunnerTo.setProperty(AbstractThriftProcessor.DYNAMIC_PROTOCOL, "true");
+        testRunnerTo.setProperty(AbstractThriftProcessor.BATCH_SIZE, "10");
+        for (int i = 0; i < 25; i++) {
+            Map<String, String> attrs = new HashMap<>();
+            attrs.put("thrift.id", Integer.toString(i));
+            if (i != 12) {
+                attrs.put("thrift.protocol", protocols[i % protocols.length]);
+            }
+            testRunnerTo.enqueue(batchContent(i).getBytes(), attrs);
+        }
+        testRunnerTo.run(3);
+
+        testRunnerTo.assertQueueEmpty();
+        testRunnerTo.assertTransferCount(ToThriftProcessor.FAILURE, 1);
+        testRunnerTo.assertTransferCount(ToThriftProcessor.SUCCESS, 24);
+        for (MockFlowFile result : testRunnerTo.getFlowFilesForRelationship(ToThriftProcessor.SUCCESS)) {
+            FlowFileReply flowFileReply = new FlowFileReply();
+            try {
+                TDeserializer deserializer = new TDeserializer(
+                        AbstractThriftProcessor.getFactory(result.getAttribute("thrift.protocol")));
+                deserializer.deserialize(flowFileReply, testRunnerTo.getContentAsByteArray(result));
+            } catch (Exception e) {
+                fail(e.getMessage());
+            }
+            assertEquals(result.getAttribute("thrift.id"), Long.toString(flowFileReply.getId()));
+            assertEquals(batchContent((int) flowFileReply.getId()), new String(flowFileReply.getFlowFile().getContent()));
+        }
+    }
+
+    private static String batchContent(int index) {
+        StringBuilder contentBuilder = new StringBuilder();
+        for (int i = 25; i > index; i--) {
+            contentBuilder.append("content ").append(index);
+        }
+        return contentBuilder.toString();
+    }
+
+    /**
+     * Tests the ToThriftProcessor with ThriftProtocol AUTO
+     * We check a FlowFile with 'thrift.protocol' is serialised with it,
+     * and one without is serialised with BINARY
+     */
+    @Test
+    public void testAutoProtocol() {
+        testRunnerTo.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, AbstractThriftProcessor.ProtocolAuto);
+        Map<String, String> attrs = new HashMap<>();
+        attrs.put("thrift.id", "1");
+        attrs.put("thrift.protocol", AbstractThriftProcessor.ProtocolJSON);
+        testRunnerTo.enqueue("content 1".getBytes(), attrs);
+        testRunnerTo.enqueue("content 2".getBytes(), Collections.singletonMap("thrift.id", "2"));
+        testRunnerTo.run(2);
+
+        testRunnerTo.assertAllFlowFilesTransferred(ToThriftProcessor.SUCCESS, 2);
+        String[] protocols = {AbstractThriftProcessor.ProtocolJSON, AbstractThriftProcessor.ProtocolBinary};
+        for (MockFlowFile result : testRunnerTo.getFlowFilesForRelationship(ToThriftProcessor.SUCCESS)) {
+            int id = Integer.parseInt(result.getAttribute("thrift.id"));
+            FlowFileReply flowFileReply = new FlowFileReply();
+            try {
+                new TDeserializer(AbstractThriftProcessor.getFactory(protocols[id - 1]))
+                        .deserialize(flowFileReply, testRunnerTo.getContentAsByteArray(result));
+            } catch (Exception e) {
+                fail(e.getMessage());
+            }
+            assertEquals("content " + id, new String(flowFileReply.getFlowFile().getContent()));
+        }
+    }
+
+    /**
+     * Tests the ToThriftProcessor with a 'thrift.response.code' attribute, eg a request shed downstream
+     * We check the FlowFileReply has that ResponseCode, and 'thrift.http_status_attr' the matching status
+     */
+    @Test
+    public void testResponseCode() throws Exception {
+        for (String protocol : new String[] { AbstractThriftProcessor.ProtocolJSON, AbstractThriftProcessor.ProtocolBinary }) {
+            testRunnerTo.clearTransferState();
+            testRunnerTo.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, protocol);
+            testRunnerTo.enqueue("busy".getBytes(), Collections.singletonMap(AbstractThriftProcessor.ResponseCodeAttr, "RETRY"));
+            testRunnerTo.run(1);
+            testRunnerTo.assertAllFlowFilesTransferred(ToThriftProcessor.SUCCESS, 1);
+            MockFlowFile result = testRunnerTo.getFlowFilesForRelationship(ToThriftProcessor.SUCCESS).get(0);
+            result.assertAttributeEquals(AbstractThriftProcessor.HttpStatusAttr, "503");
+            FlowFileReply flowFileReply = new FlowFileReply();
+            new TDeserializer(AbstractThriftProcessor.getFactory(protocol))
+                    .deserialize(flowFileReply, testRunnerTo.getContentAsByteArray(result));
+            assertEquals(ResponseCode.RETRY, flowFileReply.getResponseCode());
+        }
+    }
+
+    /**
+     * Tests the ToThriftProcessor with ReplyCompression Negotiated
+     * We check:
+     *  - a client accepting 'br, zstd' gets the content zstd compressed, and 'content.encoding' zstd
+     *  - a client accepting nothing, or with content under CompressionMinSize, gets it as it is
+     */
+    @Test
+    public void testNegotiatedCompression() throws Exception {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            content.append(FromThriftProcessorTest.sampleJson(i));
+        }
+        final ContentCompression compression = new ContentCompression(null);
+        testRunnerTo.setProperty(ToThriftProcessor.REPLY_COMPRESSION, "Negotiated");
+        for (String protocol : new String[] { AbstractThriftProcessor.ProtocolJSON, AbstractThriftProcessor.ProtocolCompact }) {
+            testRunnerTo.clearTransferState();
+            testRunnerTo.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, protocol);
+            Map<String, String> accepting = new HashMap<>();
+            accepting.put(AbstractThriftProcessor.AttrPrefix + ContentCompression.AcceptEncodingAttr, "br, zstd");
+            testRunnerTo.enqueue(content.toString().getBytes(), accepting);
+            testRunnerTo.enqueue(content.toString().getBytes());
+            testRunnerTo.enqueue("small".getBytes(), accepting);
+            testRunnerTo.run(3);
+            testRunnerTo.assertAllFlowFilesTransferred(ToThriftProcessor.SUCCESS, 3);
+            List<MockFlowFile> results = testRunnerTo.getFlowFilesForRelationship(ToThriftProcessor.SUCCESS);
+
+            FlowFileReply compressed = deserializeReply(protocol, results.get(0));
+            assertEquals(ContentCompression.EncodingZstd,
+                         compressed.getFlowFile().getAttributes().get(ContentCompression.ContentEncodingAttr));
+            assertTrue(compressed.getFlowFile().getContent().length < content.length());
+            ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+            try (InputStream in = compression.decompress(ContentCompression.EncodingZstd,
+                                                         new ByteArrayInputStream(compressed.getFlowFile().getContent()))) {
+                ContentCompression.copy(in, decompressed, new byte[1024]);
+            }
+            assertEquals(content.toString(), decompressed.toString());
+
+            for (int i = 1; i < 3; i++) {
+                FlowFileReply uncompressed = deserializeReply(protocol, results.get(i));
+                assertTrue(uncompressed.getFlowFile().getAttributes() == null
+                           || !uncompressed.getFlowFile().getAttributes().containsKey(ContentCompression.ContentEncodingAttr));
+            }
+            assertEquals("small", new String(deserializeReply(protocol, results.get(2)).getFlowFile().getContent()));
+        }
+    }
+
+    /**
+     * Tests the attribute key translation: the cached keys are returned again, not rebuilt,
+     * and attributes survive ToThriftProcessor and FromThriftProcessor with many keys
+     */
+    @Test
+    public void testAttributeKeys() throws Exception {
+        final String prefixed = AbstractThriftProcessor.prefixedKey("key");
+        assertEquals(AbstractThriftProcessor.AttrPrefix + "key", prefixed);
+        assertSame(prefixed, AbstractThriftProcessor.prefixedKey(new String("key")));
+        final String key = AbstractThriftProcessor.thriftKey(AbstractThriftProcessor.AttrPrefix + "key");
+        assertEquals("key", key);
+        assertSame(key, AbstractThriftProcessor.thriftKey(AbstractThriftProcessor.AttrPrefix + "key"));
+        assertNull(AbstractThriftProcessor.thriftKey("key"));
+
+        final Map<String, String> attrs = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            attrs.put(AbstractThriftProcessor.AttrPrefix + "key" + i, "value" + i);
+        }
+        attrs.put(AbstractThriftProcessor.AttrPrefix + "unicode", "\u00e9\u4e2d\ud83d\ude00");
+        attrs.put(AbstractThriftProcessor.AttrPrefix + "unpaired", "a\ud800b\udc00");
+        attrs.put("other", "value");
+        testRunnerTo.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, AbstractThriftProcessor.ProtocolCompact);
+        testRunnerTo.enqueue("content".getBytes(), attrs);
+        testRunnerTo.run();
+        testRunnerTo.assertAllFlowFilesTransferred(ToThriftProcessor.SUCCESS, 1);
+        final MockFlowFile reply = testRunnerTo.getFlowFilesForRelationship(ToThriftProcessor.SUCCESS).get(0);
+        final Map<String, String> thriftAttrs = deserializeReply(AbstractThriftProcessor.ProtocolCompact, reply)
+                .getFlowFile().getAttributes();
+        assertEquals(102, thriftAttrs.size());
+        assertEquals("value7", thriftAttrs.get("key7"));
+        // strings are encoded as libthrift encodes them
+        assertArrayEquals(new TSerializer(AbstractThriftProcessor.getFactory(AbstractThriftProcessor.ProtocolCompact))
+                          .serialize(deserializeReply(AbstractThriftProcessor.ProtocolCompact, reply)),
+                          testRunnerTo.getContentAsByteArray(reply));
+
+        final TestRunner testRunnerFrom = TestRunners.newTestRunner(FromThriftProcessor.class);
+        testRunnerFrom.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, AbstractThriftProcessor.ProtocolCompact);
+        testRunnerFrom.enqueue(testRunnerTo.getContentAsByteArray(reply));
+        testRunnerFrom.run();
+        testRunnerFrom.assertAllFlowFilesTransferred(FromThriftProcessor.SUCCESS, 1);
+        final MockFlowFile result = testRunnerFrom.getFlowFilesForRelationship(FromThriftProcessor.SUCCESS).get(0);
+        for (int i = 0; i < 100; i++) {
+            result.assertAttributeEquals(AbstractThriftProcessor.AttrPrefix + "key" + i, "value" + i);
+        }
+        result.assertAttributeNotExists("other");
+        result.assertContentEquals("content");
+    }
+
+    /**
+     * Tests MessageBuffers Direct, using BINARY and COMPACT, with empty, small and large content
+     * We check the replies are those with MessageBuffers Heap
+     */
+    @Test
+    public void testDirectMessageBuffers() throws Exception {
+        for (String protocol : new String[] {AbstractThriftProcessor.ProtocolBinary,
+                                             AbstractThriftProcessor.ProtocolCompact}) {
+            final Map<Integer, byte[]> expected = new HashMap<>();
+            for (String messageBuffers : new String[] {AbstractThriftProcessor.MessageBuffersHeap,
+                                                       AbstractThriftProcessor.MessageBuffersDirect}) {
+                final TestRunner testRunnerTo = TestRunners.newTestRunner(ToThriftProcessor.class);
+                testRunnerTo.setProperty(AbstractThriftProcessor.MESSAGE_BUFFERS, messageBuffers);
+                testRunnerTo.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, protocol);
+                testRunnerTo.setProperty(AbstractThriftProcessor.BATCH_SIZE, "10");
+                for (int size : new int[] {0, 10, 100000}) {
+                    Map<String, String> attrs = new HashMap<>();
+                    attrs.put(AbstractThriftProcessor.AttrPrefix + "key", "value");
+                    attrs.put("thrift.id", Integer.toString(size));
+                    testRunnerTo.enqueue(FromThriftProcessorTest.content(size), attrs);
+                }
+                testRunnerTo.run(1);
+                testRunnerTo.assertAllFlowFilesTransferred(ToThriftProcessor.SUCCESS, 3);
+                List<MockFlowFile> results = testRunnerTo.getFlowFilesForRelationship(ToThriftProcessor.SUCCESS);
+                for (int i = 0; i < results.size(); i++) {
+                    byte[] reply = testRunnerTo.getContentAsByteArray(results.get(i));
+                    byte[] previous = expected.putIfAbsent(i, reply);
+                    if (previous != null) {
+                        assertArrayEquals(protocol, previous, reply);
+                    }
+                }
+            }
+        }
+    }
+
+    private FlowFileReply deserializeReply(String protocol, MockFlowFile result) throws Exception {
+        FlowFileReply flowFileReply = new FlowFileReply();
+        new TDeserializer(AbstractThriftProcessor.getFactory(protocol))
+                .deserialize(flowFileReply, testRunnerTo.getContentAsByteArray(result));
+        return flowFileReply;
+    }
 }
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.processors.thrift;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public class TranscodeThriftTest {
+
+    private static final String[] PROTOCOLS = { AbstractThriftProcessor.ProtocolJSON,
+                                                AbstractThriftProcessor.ProtocolBinary,
+                                                AbstractThriftProcessor.ProtocolCompact };
+
+    private TestRunner testRunner;
+
+    @Before
+    public void init() {
+        testRunner = TestRunners.newTestRunner(TranscodeThrift.class);
+    }
+
+    private static FlowFileRequest newRequest(long id, int contentSize) {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("tenant", "acme");
+        attributes.put("unicode", "é中");
+        final byte[] content = new byte[contentSize];
+        new Random(id).nextBytes(content);
+        return new FlowFileRequest(id, new ThriftFlowFile(attributes, ByteBuffer.wrap(content)));
+    }
+
+    /**
+     * Tests the TranscodeThrift processor
+     * Two FlowFileRequests, one after another, are transcoded between every pair of protocols,
+     * with the input protocol configured and AUTO
+     * We check the output deserialises, with the generated classes, to the same FlowFileRequests
+     */
+    @Test
+    public void testTranscode() throws Exception {
+        final FlowFileRequest[] requests = { newRequest(1, 300), newRequest(2, 70000) };
+        for (String from : PROTOCOLS) {
+            final TSerializer serializer = new TSerializer(AbstractThriftProcessor.getFactory(from));
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            for (FlowFileRequest request : requests) {
+                content.write(serializer.serialize(request));
+            }
+            for (String to : PROTOCOLS) {
+                for (String configured : new String[] { from, AbstractThriftProcessor.ProtocolAuto }) {
+                    testRunner.clearTransferState();
+                    testRunner.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, configured);
+                    testRunner.setProperty(TranscodeThrift.OUTPUT_PROTOCOL, to);
+                    testRunner.enqueue(content.toByteArray());
+                    testRunner.run();
+                    testRunner.assertAllFlowFilesTransferred(TranscodeThrift.SUCCESS, 1);
+                    final MockFlowFile result = testRunner.getFlowFilesForRelationship(TranscodeThrift.SUCCESS).get(0);
+                    result.assertAttributeEquals(AbstractThriftProcessor.ProtocolAttr, to);
+                    result.assertAttributeEquals("mime.type", ThriftRecords.getMimeType(to));
+
+                    final TProtocol protocol = AbstractThriftProcessor.getFactory(to)
+                        .getProtocol(new TMemoryInputTransport(result.toByteArray()));
+                    for (FlowFileRequest request : requests) {
+                        final FlowFileRequest transcoded = new FlowFileRequest();
+                        transcoded.read(protocol);
+                        assertEquals(from + " to " + to, request, transcoded);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Content which is not the struct, here a string cut short, goes to Failure, unchanged
+     */
+    @Test
+    public void testFailure() throws Exception {
+        final byte[] truncated = {11, 0, 1, 0, 0, 0, 9, 'a'};
+        testRunner.setProperty(AbstractThriftProcessor.THRIFT_PROTOCOL, AbstractThriftProcessor.ProtocolBinary);
+        testRunner.enqueue(truncated);
+        testRunner.run();
+        testRunner.assertAllFlowFilesTransferred(TranscodeThrift.FAILURE, 1);
+        testRunner.getFlowFilesForRelationship(TranscodeThrift.FAILURE).get(0).assertContentEquals(truncated);
+    }
+}